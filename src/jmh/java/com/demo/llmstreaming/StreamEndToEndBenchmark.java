@@ -0,0 +1,117 @@
+package com.demo.llmstreaming;
+
+import com.demo.llmstreaming.service.sse.SseSamples;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端：进程内的罐装SSE上游 + 完整Spring应用，每次操作发起一次 /api/stream/llm 并读完整个响应
+ * 上游立即返回全部内容，测得的是本服务解析、编码、写出的开销；charLevel=false 以免节奏控制主导耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamEndToEndBenchmark {
+
+    @Param({"openai"})
+    private String format;
+
+    @Param({"200"})
+    private int chunks;
+
+    private HttpServer upstream;
+
+    private ConfigurableApplicationContext context;
+
+    private OkHttpClient client;
+
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] body = SseSamples.stream(format, chunks);
+        // JDK HttpServer默认未开启TCP_NODELAY，与延迟确认叠加会给每次调用带来约40ms的停顿
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstream.createContext("/v2/chat/completions", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                    // 读完请求体
+                }
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+
+        context = SpringApplication.run(LlmStreamingApplication.class,
+                "--server.port=0",
+                "--llm.api.url=http://127.0.0.1:" + upstream.getAddress().getPort() + "/v2/chat/completions",
+                "--llm.api.key=bench",
+                "--llm.upstream.prewarm-connections=0",
+                "--llm.single-flight.enabled=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.demo.llmstreaming=WARN",
+                "--logging.level.org.springframework.web=WARN",
+                "--logging.level.okhttp3=WARN");
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        url = "http://127.0.0.1:" + port + "/api/stream/llm?charLevel=false&prompt=bench";
+        client = new OkHttpClient.Builder().readTimeout(30, TimeUnit.SECONDS).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        context.close();
+        upstream.stop(0);
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        Request request = new Request.Builder().url(url).build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            BufferedSource source = response.body().source();
+            long bytes = 0;
+            while (!source.exhausted()) {
+                bytes += source.getBuffer().size();
+                source.getBuffer().clear();
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.demo.llmstreaming.load;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.demo.llmstreaming.service.transcript.TranscriptReader;
+import com.demo.llmstreaming.service.transcript.TranscriptRecord;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发流压测工具
+ * 同时保持N条 /api/stream/llm 流，统计首token延迟分位数、单流与总体token速率，
+ * 并定时从actuator采集服务端线程数、Tomcat忙线程、堆内存和活跃流数的峰值。
+ * 被拒绝的请求按Retry-After退避后再发起下一个。配合mock profile的模拟上游可在单机离线运行：
+ * mvn -Pjmh test-compile exec:exec@load -Dload.args="--concurrency=200 --requests=2000"
+ * 指定--transcript（段文件或目录）时回放转录日志：依次使用记录中的提示词和maxTokens，提示词不加序号，
+ * 缓存和请求合并按真实流量的重复程度生效
+ */
+public class LoadDriver {
+
+    private final String baseUrl;
+
+    private final int concurrency;
+
+    private final int requests;
+
+    private final String prompt;
+
+    private final boolean charLevel;
+
+    private final int maxTokens;
+
+    private final List<TranscriptRecord> transcript;
+
+    private final int clients;
+
+    private final long sampleMs;
+
+    private final OkHttpClient client;
+
+    private final AtomicInteger issued = new AtomicInteger();
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, Double> peaks = new HashMap<>();
+
+    public LoadDriver(Map<String, String> options) throws IOException {
+        this.baseUrl = options.getOrDefault("url", "http://127.0.0.1:8080");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "50"));
+        this.transcript = loadTranscript(options.get("transcript"));
+        int defaultRequests = transcript.isEmpty() ? concurrency * 10 : transcript.size();
+        this.requests = Integer.parseInt(options.getOrDefault("requests", String.valueOf(defaultRequests)));
+        this.prompt = options.getOrDefault("prompt", "压测");
+        this.charLevel = Boolean.parseBoolean(options.getOrDefault("char-level", "false"));
+        this.maxTokens = Integer.parseInt(options.getOrDefault("max-tokens", "200"));
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "0"));
+        this.sampleMs = Long.parseLong(options.getOrDefault("sample-ms", "1000"));
+        this.client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(concurrency + 4, 5, TimeUnit.MINUTES))
+                .readTimeout(Long.parseLong(options.getOrDefault("read-timeout-ms", "120000")), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("用法: --url=http://127.0.0.1:8080 --concurrency=50 --requests=500 --prompt=压测"
+                        + " --char-level=false --max-tokens=200 --clients=0 --sample-ms=1000 --read-timeout-ms=120000"
+                        + " --transcript=logs/transcripts");
+                System.exit(1);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        new LoadDriver(options).run();
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("压测开始：%s，并发%d，共%d个请求，字符级输出%s，客户端数%s%n",
+                baseUrl, concurrency, requests, charLevel, clients > 0 ? clients : "每条流独立");
+        if (!transcript.isEmpty()) {
+            System.out.printf("回放转录日志：%d条记录%n", transcript.size());
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(this::sample, 0, sampleMs, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            String clientKey = "load-" + (clients > 0 ? i % clients : i);
+            Thread worker = new Thread(() -> {
+                try {
+                    int n;
+                    while ((n = issued.getAndIncrement()) < requests) {
+                        Result result = stream(n, clientKey);
+                        results.add(result);
+                        completed.incrementAndGet();
+                        if (result.retryAfterSeconds > 0) {
+                            // 被拒绝时按Retry-After退避，避免空转重试挤占服务端
+                            Thread.sleep(result.retryAfterSeconds * 1000);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        sampler.shutdown();
+        sampler.awaitTermination(5, TimeUnit.SECONDS);
+        sample();
+        report(elapsedSeconds);
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    /**
+     * 读取转录日志中有提示词的记录，未指定时返回空列表
+     */
+    private static List<TranscriptRecord> loadTranscript(String path) throws IOException {
+        List<TranscriptRecord> records = new ArrayList<>();
+        if (path == null) {
+            return records;
+        }
+        for (TranscriptRecord record : TranscriptReader.readAll(Paths.get(path))) {
+            if (record.getPrompt() != null && !record.getPrompt().isEmpty()) {
+                records.add(record);
+            }
+        }
+        if (records.isEmpty()) {
+            throw new IOException("转录日志中没有记录: " + path);
+        }
+        return records;
+    }
+
+    /**
+     * 发起一条流并读完，提示词带上序号避免被缓存和请求合并；回放转录日志时按原样使用记录的提示词
+     */
+    private Result stream(int n, String clientKey) {
+        Result result = new Result();
+        String requestPrompt = prompt + " #" + n;
+        int requestMaxTokens = maxTokens;
+        if (!transcript.isEmpty()) {
+            TranscriptRecord record = transcript.get(n % transcript.size());
+            requestPrompt = record.getPrompt();
+            requestMaxTokens = record.getMaxTokens() > 0 ? record.getMaxTokens() : maxTokens;
+        }
+        HttpUrl url = HttpUrl.get(baseUrl + "/api/stream/llm").newBuilder()
+                .addQueryParameter("prompt", requestPrompt)
+                .addQueryParameter("charLevel", String.valueOf(charLevel))
+                .addQueryParameter("maxTokens", String.valueOf(requestMaxTokens))
+                .build();
+        Request request = new Request.Builder().url(url).header("X-API-Key", clientKey).build();
+        long start = System.nanoTime();
+        try (Response response = client.newCall(request).execute()) {
+            result.status = response.code();
+            String retryAfter = response.header("Retry-After");
+            if (retryAfter != null) {
+                result.retryAfterSeconds = Math.min(Long.parseLong(retryAfter.trim()), 60);
+            }
+            BufferedSource source = response.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JSONObject frame = JSONObject.parseObject(line);
+                String dataType = frame.getString("dataType");
+                if ("ERROR".equals(dataType) || frame.getBooleanValue("finished") && !"END".equals(dataType)) {
+                    // 上游失败以finished=true的内容帧（应答失败/请求超时/链路超时）下发
+                    result.error = true;
+                } else if ("END".equals(dataType)) {
+                    result.ended = true;
+                } else {
+                    if (result.frames == 0) {
+                        result.ttftNanos = System.nanoTime() - start;
+                    }
+                    result.frames++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            result.failed = true;
+        }
+        result.durationNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * 采集服务端指标，记录峰值并打印进度
+     */
+    private void sample() {
+        double threads = metric("jvm.threads.live", null);
+        double busy = metric("tomcat.threads.busy", null);
+        double heap = metric("jvm.memory.used", "area:heap");
+        double active = metric("llm.streams.active", null);
+        heap /= 1048576;
+        synchronized (peaks) {
+            peak("threads", threads);
+            peak("tomcatBusy", busy);
+            peak("heap", heap);
+            peak("active", active);
+        }
+        System.out.printf("已完成 %d/%d，活跃流 %s，线程 %s，Tomcat忙线程 %s，堆 %s MB%n",
+                completed.get(), requests, format(active), format(threads), format(busy), format(heap));
+    }
+
+    private void peak(String name, double value) {
+        if (!Double.isNaN(value)) {
+            peaks.merge(name, value, Math::max);
+        }
+    }
+
+    private double metric(String name, String tag) {
+        HttpUrl.Builder url = HttpUrl.get(baseUrl + "/actuator/metrics/" + name).newBuilder();
+        if (tag != null) {
+            url.addQueryParameter("tag", tag);
+        }
+        try (Response response = client.newCall(new Request.Builder().url(url.build()).build()).execute()) {
+            if (!response.isSuccessful()) {
+                return Double.NaN;
+            }
+            JSONArray measurements = JSONObject.parseObject(response.body().string()).getJSONArray("measurements");
+            return measurements.getJSONObject(0).getDoubleValue("value");
+        } catch (IOException | RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private void report(double elapsedSeconds) {
+        List<Double> ttfts = new ArrayList<>();
+        List<Double> rates = new ArrayList<>();
+        int ok = 0;
+        int errors = 0;
+        int rejected = 0;
+        int failed = 0;
+        long frames = 0;
+        for (Result result : results) {
+            frames += result.frames;
+            if (result.status == 429 || result.status == 503) {
+                rejected++;
+            } else if (result.failed) {
+                failed++;
+            } else if (result.error) {
+                errors++;
+            } else if (result.ended) {
+                ok++;
+            } else {
+                failed++;
+            }
+            if (result.frames > 0) {
+                ttfts.add(result.ttftNanos / 1e6);
+                double streamingSeconds = (result.durationNanos - result.ttftNanos) / 1e9;
+                if (result.frames > 1 && streamingSeconds > 0) {
+                    rates.add((result.frames - 1) / streamingSeconds);
+                }
+            }
+        }
+        Collections.sort(ttfts);
+        Collections.sort(rates);
+        String unit = charLevel ? "字符" : "token";
+
+        System.out.println();
+        System.out.println("========== 压测结果 ==========");
+        System.out.printf("耗时 %.1f s，请求 %d：成功 %d，上游错误 %d，被拒绝(429/503) %d，失败 %d%n",
+                elapsedSeconds, results.size(), ok, errors, rejected, failed);
+        System.out.printf("首token延迟(ms)  p50 %s  p90 %s  p99 %s  max %s%n",
+                format(percentile(ttfts, 50)), format(percentile(ttfts, 90)),
+                format(percentile(ttfts, 99)), format(percentile(ttfts, 100)));
+        System.out.printf("单流速率(%s/s)  p50 %s  p10 %s  p1 %s%n", unit,
+                format(percentile(rates, 50)), format(percentile(rates, 10)), format(percentile(rates, 1)));
+        System.out.printf("总吞吐 %s %s/s%n", format(frames / elapsedSeconds), unit);
+        synchronized (peaks) {
+            System.out.printf("服务端峰值：活跃流 %s，线程 %s，Tomcat忙线程 %s，堆 %s MB%n",
+                    format(peaks.get("active")), format(peaks.get("threads")),
+                    format(peaks.get("tomcatBusy")), format(peaks.get("heap")));
+        }
+    }
+
+    private static double percentile(List<Double> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static String format(Double value) {
+        return value == null || value.isNaN() ? "-" : String.format("%.1f", value);
+    }
+
+    private static class Result {
+        int status;
+        long retryAfterSeconds;
+        long ttftNanos;
+        long durationNanos;
+        int frames;
+        boolean error;
+        boolean ended;
+        boolean failed;
+    }
+}
@@ -0,0 +1,54 @@
+package com.demo.llmstreaming.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游请求体构建（fastjson2）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+
+    @Param({"32", "2048"})
+    private int promptLength;
+
+    private StreamService streamService;
+
+    private String prompt;
+
+    @Setup
+    public void setup() {
+        streamService = new StreamService();
+        ReflectionTestUtils.setField(streamService, "temperature", 0.95);
+        ReflectionTestUtils.setField(streamService, "topP", 0.7);
+        ReflectionTestUtils.setField(streamService, "penaltyScore", 1.0);
+
+        StringBuilder sb = new StringBuilder(promptLength);
+        while (sb.length() < promptLength) {
+            sb.append("请用\"三句话\"介绍一下流式输出。\n");
+        }
+        prompt = sb.substring(0, promptLength);
+    }
+
+    @Benchmark
+    public String buildRequestBody() {
+        return streamService.buildRequestBody("ernie-speed-pro-128k", prompt, 1024);
+    }
+}
@@ -0,0 +1,102 @@
+package com.demo.llmstreaming.service.pacing;
+
+import com.demo.llmstreaming.service.writer.FrameBuffer;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 切分策略：把一段中英文混排、含emoji序列和国旗的应答切分并编码为NDJSON帧
+ * char为旧版逐UTF-16字符拆分（会拆开代理对）；启动时打印各策略的帧数、字节数和帧开销对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentationBenchmark {
+
+    private static final String DATA_ID = "6f1c2a9e-3b7d-4e0a-9c51-2d8f4b6a7e13";
+
+    static final String SAMPLE = "大模型流式输出可以显著降低首字延迟。Streaming reduces perceived latency, "
+            + "e.g. 3.5x faster first paint! 👍🏽 家庭表情👨‍👩‍👧‍👦不应被拆开，国旗🇨🇳🇺🇸也一样；"
+            + "组合字符 é 与变体 ❤️ 同理。\n下一段：吾輩は猫である，한국어도 지원합니다. 最后一句？";
+
+    @Param({"char", "codepoint", "grapheme", "word", "sentence"})
+    private String policy;
+
+    private String text;
+
+    private Segmenter segmenter;
+
+    private FrameEncoder encoder;
+
+    private FrameBuffer out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(SAMPLE);
+        }
+        text = sb.toString();
+        segmenter = segmenter(policy);
+        encoder = new FrameEncoder(DATA_ID);
+        out = new FrameBuffer(64 * 1024);
+        report();
+    }
+
+    @Benchmark
+    public int segmentAndEncode() {
+        out.clear();
+        int sequence = 0;
+        int start = 0;
+        int end = text.length();
+        while (start < end) {
+            int next = segmenter.next(text, start, end, true);
+            encoder.encodeData(out, text.substring(start, next), false, sequence++);
+            start = next;
+        }
+        return out.size();
+    }
+
+    private void report() {
+        int frames = 0;
+        int broken = 0;
+        int start = 0;
+        int end = text.length();
+        FrameBuffer buffer = new FrameBuffer(64 * 1024);
+        while (start < end) {
+            int next = segmenter.next(text, start, end, true);
+            if (Character.isHighSurrogate(text.charAt(next - 1)) || Character.isLowSurrogate(text.charAt(start))) {
+                broken++;
+            }
+            encoder.encodeData(buffer, text.substring(start, next), false, frames++);
+            start = next;
+        }
+        int contentBytes = text.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("%n[%s] 帧数=%d 帧字节=%d 内容字节=%d 开销倍数=%.1f 拆开代理对的帧=%d%n",
+                policy, frames, buffer.size(), contentBytes, (double) buffer.size() / contentBytes, broken);
+    }
+
+    private static Segmenter segmenter(String policy) {
+        if ("char".equals(policy)) {
+            return (text, start, end, finished) -> start + 1;
+        }
+        return Segmentation.parse(policy).segmenter();
+    }
+}
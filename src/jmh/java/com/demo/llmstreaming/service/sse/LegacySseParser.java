@@ -0,0 +1,76 @@
+package com.demo.llmstreaming.service.sse;
+
+import com.alibaba.fastjson2.JSONObject;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 旧版StreamService.streamJsonMsgValidate的副本（去掉日志），作为解析基准的对照组
+ * 每行String化后整行fastjson解析，并构建一个JSONObject作为返回值
+ */
+final class LegacySseParser {
+
+    private LegacySseParser() {
+    }
+
+    static JSONObject streamJsonMsgValidate(String line) {
+        JSONObject result = new JSONObject();
+        result.put("result", true);
+        result.put("code", 0);
+        result.put("message", "");
+
+        try {
+            if (line.startsWith("data: ")) {
+                String jsonStr = line.substring(6);
+                if ("[DONE]".equals(jsonStr)) {
+                    result.put("code", -1);
+                    return result;
+                }
+
+                JSONObject jsonObject = JSONObject.parseObject(jsonStr);
+
+                if (jsonObject.containsKey("error")) {
+                    JSONObject error = jsonObject.getJSONObject("error");
+                    String errorMessage = error.getString("message");
+                    result.put("result", false);
+                    result.put("code", -2);
+                    result.put("message", "API错误: " + errorMessage);
+                    return result;
+                }
+
+                String content = "";
+                if (jsonObject.containsKey("result")) {
+                    content = jsonObject.getString("result");
+                } else if (jsonObject.containsKey("choices") && jsonObject.getJSONArray("choices").size() > 0) {
+                    JSONObject choice = jsonObject.getJSONArray("choices").getJSONObject(0);
+                    if (choice.containsKey("delta") && choice.getJSONObject("delta").containsKey("content")) {
+                        content = choice.getJSONObject("delta").getString("content");
+                    }
+                }
+
+                if (StringUtils.isNotBlank(content)) {
+                    result.put("message", content);
+                }
+            } else {
+                result.put("code", 1);
+                result.put("message", line);
+                try {
+                    JSONObject jsonObject = JSONObject.parseObject(line);
+                    if (jsonObject.containsKey("error")) {
+                        JSONObject error = jsonObject.getJSONObject("error");
+                        String errorMessage = error.getString("message");
+                        result.put("result", false);
+                        result.put("code", -2);
+                        result.put("message", "API错误: " + errorMessage);
+                    }
+                } catch (Exception e) {
+                    // 不是JSON格式，忽略
+                }
+            }
+        } catch (Exception e) {
+            result.put("result", false);
+            result.put("message", "解析失败: " + e.getMessage());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package com.demo.llmstreaming.service.sse;
+
+import com.alibaba.fastjson2.JSONObject;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游SSE解析：旧版 readLine + streamJsonMsgValidate 与 SseEventParser 对比
+ * 每次操作解析一整条流（chunks个内容分片）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseParserBenchmark {
+
+    @Param({"qianfan", "openai"})
+    private String format;
+
+    @Param({"200"})
+    private int chunks;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() {
+        stream = SseSamples.stream(format, chunks);
+    }
+
+    @Benchmark
+    public void legacyStreamJsonMsgValidate(Blackhole blackhole) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(stream), StandardCharsets.UTF_8));
+        StringBuffer lines = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            JSONObject jsonObject = LegacySseParser.streamJsonMsgValidate(line);
+            int code = jsonObject.getInteger("code");
+            if (code == 0 || code == 1) {
+                String message = jsonObject.getString("message");
+                lines.append(message);
+                blackhole.consume(message);
+            }
+        }
+        blackhole.consume(lines);
+    }
+
+    @Benchmark
+    public void sseEventParser(Blackhole blackhole) throws IOException {
+        Buffer source = new Buffer().write(stream);
+        SseEventParser parser = new SseEventParser(source);
+        StringBuffer lines = new StringBuffer();
+        LlmStreamEvent event;
+        while ((event = parser.next()) != null) {
+            if (event.getType() == LlmStreamEvent.Type.CONTENT || event.getType() == LlmStreamEvent.Type.RAW) {
+                lines.append(event.getContent());
+                blackhole.consume(event.getContent());
+            }
+        }
+        blackhole.consume(lines);
+    }
+}
@@ -0,0 +1,52 @@
+package com.demo.llmstreaming.service.sse;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基准测试用的上游SSE样本：千帆（result字段）与OpenAI（choices[0].delta.content）格式
+ */
+public final class SseSamples {
+
+    private static final String[] TOKENS = {
+            "大模型", "流式", "输出", "可以", "显著", "降低", "首字", "延迟", "，", "用户",
+            "在", "生成", "过程中", "即可", "看到", "内容", "。", "Streaming", " reduces", " latency"
+    };
+
+    private SseSamples() {
+    }
+
+    /**
+     * 生成一段完整的上游流
+     * @param format qianfan 或 openai
+     * @param chunks 内容分片数
+     */
+    public static byte[] stream(String format, int chunks) {
+        StringBuilder sb = new StringBuilder(chunks * 256);
+        for (int i = 0; i < chunks; i++) {
+            sb.append(line(format, i, TOKENS[i % TOKENS.length])).append("\n\n");
+        }
+        if ("openai".equals(format)) {
+            sb.append("data: {\"id\":\"chatcmpl-9x\",\"object\":\"chat.completion.chunk\",\"created\":1718000000,")
+                    .append("\"model\":\"gpt-4o-mini\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],")
+                    .append("\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":").append(chunks)
+                    .append(",\"total_tokens\":").append(chunks + 12).append("}}\n\n");
+        }
+        sb.append("data: [DONE]\n\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 单行SSE数据（不含换行）
+     */
+    public static String line(String format, int index, String content) {
+        if ("openai".equals(format)) {
+            return "data: {\"id\":\"chatcmpl-9x\",\"object\":\"chat.completion.chunk\",\"created\":1718000000,"
+                    + "\"model\":\"gpt-4o-mini\",\"system_fingerprint\":\"fp_0ba0d124f1\",\"choices\":[{\"index\":0,"
+                    + "\"delta\":{\"content\":\"" + content + "\"},\"logprobs\":null,\"finish_reason\":null}]}";
+        }
+        return "data: {\"id\":\"as-bcmt5ct4iy\",\"object\":\"chat.completion\",\"created\":1718000000,\"sentence_id\":"
+                + index + ",\"is_end\":false,\"is_truncated\":false,\"result\":\"" + content
+                + "\",\"need_clear_history\":false,\"finish_reason\":\"normal\","
+                + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":0,\"total_tokens\":12}}";
+    }
+}
@@ -0,0 +1,100 @@
+package com.demo.llmstreaming.service.structured;
+
+import com.alibaba.fastjson2.JSON;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 结构化输出：一份生成的JSON按4字符左右的分片到达，每次操作处理整条流
+ * incremental为IncrementalJsonParser逐片输入；reparsePrefix为每来一片把已收到的全部文本重新解析一遍；
+ * parseAtEnd为等完整后用fastjson2解析一次（没有增量字段，作为下限参考）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalJsonParserBenchmark {
+
+    @Param({"10", "100"})
+    private int items;
+
+    private List<String> chunks;
+
+    private String document;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder("```json\n{\"summary\": \"流式结构化输出示例\", \"items\": [\n");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                sb.append(",\n");
+            }
+            sb.append("  {\"id\": ").append(i)
+                    .append(", \"title\": \"第").append(i).append("条：Streaming JSON \\\"fields\\\"\"")
+                    .append(", \"score\": ").append(i % 7).append(".5, \"tags\": [\"a\", \"b\"], \"done\": ")
+                    .append(i % 2 == 0).append('}');
+        }
+        sb.append("\n], \"total\": ").append(items).append("}\n```");
+        document = sb.toString();
+        chunks = new ArrayList<>();
+        for (int i = 0; i < document.length(); i += 4) {
+            chunks.add(document.substring(i, Math.min(document.length(), i + 4)));
+        }
+    }
+
+    @Benchmark
+    public int incremental(Blackhole blackhole) {
+        IncrementalJsonParser parser = new IncrementalJsonParser((pointer, value) -> blackhole.consume(value));
+        for (String chunk : chunks) {
+            parser.feed(chunk);
+        }
+        return parser.getFieldCount();
+    }
+
+    @Benchmark
+    public int reparsePrefix(Blackhole blackhole) {
+        StringBuilder received = new StringBuilder(document.length());
+        int emitted = 0;
+        for (String chunk : chunks) {
+            received.append(chunk);
+            // 只有新结束的字段需要下发，解析本身仍要扫过全部已收到的文本
+            int[] seen = {0};
+            int skip = emitted;
+            IncrementalJsonParser parser = new IncrementalJsonParser((pointer, value) -> {
+                if (seen[0]++ >= skip) {
+                    blackhole.consume(value);
+                }
+            });
+            parser.feed(received);
+            emitted = parser.getFieldCount();
+        }
+        return emitted;
+    }
+
+    @Benchmark
+    public Object parseAtEnd() {
+        StringBuilder received = new StringBuilder(document.length());
+        for (String chunk : chunks) {
+            received.append(chunk);
+        }
+        int start = received.indexOf("{");
+        int end = received.lastIndexOf("}");
+        return JSON.parseObject(received.substring(start, end + 1));
+    }
+}
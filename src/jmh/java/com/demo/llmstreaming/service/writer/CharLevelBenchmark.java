@@ -0,0 +1,111 @@
+package com.demo.llmstreaming.service.writer;
+
+import com.demo.llmstreaming.vo.StreamResponseVO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * charLevel拆分：旧版逐字符构建VO、序列化、write+flush 与 FrameSink合并写出对比
+ * 每次操作把一段上游内容拆成单字符帧写完并以END结束，下游输出丢弃
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CharLevelBenchmark {
+
+    private static final String DATA_ID = "6f1c2a9e-3b7d-4e0a-9c51-2d8f4b6a7e13";
+
+    @Param({"64"})
+    private int length;
+
+    private String message;
+
+    private ObjectMapper objectMapper;
+
+    private Writer writer;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private FrameSink sink;
+
+    private FrameEncoder encoder;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length);
+        String seed = "大模型流式输出可以显著降低首字延迟，Streaming reduces latency。";
+        while (sb.length() < length) {
+            sb.append(seed);
+        }
+        message = sb.substring(0, length);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = new OutputStreamWriter(new DiscardOutputStream(), StandardCharsets.UTF_8);
+
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setDaemon(true);
+        scheduler.initialize();
+        sink = new FrameSink(bytes -> { }, scheduler, Runnable::run, new FrameWriterStats(), 20, 8192);
+        encoder = new FrameEncoder(DATA_ID);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public void legacyPerCharFlush() throws IOException {
+        for (char ch : message.toCharArray()) {
+            String charStr = String.valueOf(ch);
+            StreamResponseVO data = StreamResponseVO.createData(DATA_ID, "LLM_RESPONSE", charStr, null);
+            data.setFinished(false);
+            String json = objectMapper.writeValueAsString(data);
+            writer.write(json + "\n");
+            writer.flush();
+        }
+        writer.write(objectMapper.writeValueAsString(StreamResponseVO.createEnd(DATA_ID)) + "\n");
+        writer.flush();
+    }
+
+    @Benchmark
+    public void frameSinkCoalesced() throws IOException {
+        for (int i = 0; i < message.length(); i++) {
+            sink.writeData(encoder, String.valueOf(message.charAt(i)), false, null);
+        }
+        sink.writeEnd(encoder, null);
+    }
+
+    private static final class DiscardOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
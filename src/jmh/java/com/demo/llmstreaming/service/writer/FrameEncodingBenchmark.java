@@ -0,0 +1,60 @@
+package com.demo.llmstreaming.service.writer;
+
+import com.demo.llmstreaming.vo.StreamResponseVO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单帧序列化：StreamResponseVO + ObjectMapper 与预编码的 FrameEncoder 对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameEncodingBenchmark {
+
+    private static final String DATA_ID = "6f1c2a9e-3b7d-4e0a-9c51-2d8f4b6a7e13";
+
+    private static final String CONTENT = "流式输出可以显著降低首字延迟";
+
+    private ObjectMapper objectMapper;
+
+    private FrameEncoder encoder;
+
+    private FrameBuffer buffer;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        encoder = new FrameEncoder(DATA_ID);
+        buffer = new FrameBuffer(1024);
+    }
+
+    @Benchmark
+    public byte[] objectMapper() throws Exception {
+        StreamResponseVO data = StreamResponseVO.createData(DATA_ID, "LLM_RESPONSE", CONTENT, null);
+        data.setFinished(false);
+        return (objectMapper.writeValueAsString(data) + "\n").getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int frameEncoder() {
+        buffer.clear();
+        encoder.encodeData(buffer, CONTENT, false, null);
+        return buffer.size();
+    }
+}
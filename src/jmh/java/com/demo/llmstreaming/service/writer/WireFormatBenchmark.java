@@ -0,0 +1,234 @@
+package com.demo.llmstreaming.service.writer;
+
+import com.demo.llmstreaming.service.pacing.Segmentation;
+import com.demo.llmstreaming.service.pacing.Segmenter;
+import com.demo.llmstreaming.vo.StreamResponseVO;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧格式对比：一条64个字位簇帧的流，每帧的服务端编码耗时（不压缩 / gzip每帧SYNC_FLUSH）与客户端解码耗时
+ * 启动时打印各格式在不压缩、gzip每帧flush、gzip每8帧flush（约等于flush合并窗口）下每帧的平均字节数
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final String DATA_ID = "6f1c2a9e-3b7d-4e0a-9c51-2d8f4b6a7e13";
+
+    private static final String TEXT = "大模型流式输出可以显著降低首字延迟。Streaming reduces perceived latency 👍🏽，"
+            + "每帧只有一个字符时，帧头开销远大于内容本身。";
+
+    private static final int FRAMES = 64;
+
+    @Param({"ndjson", "delta", "cbor"})
+    private String format;
+
+    private WireFormat wireFormat;
+
+    private List<String> segments;
+
+    private FrameEncoder encoder;
+
+    private FrameBuffer buffer;
+
+    private FrameWriterStats stats;
+
+    private ObjectMapper objectMapper;
+
+    /** 整条流的编码结果，流头在前 */
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        wireFormat = WireFormat.parse(format);
+        segments = new ArrayList<>(FRAMES);
+        Segmenter segmenter = Segmentation.GRAPHEME.segmenter();
+        int start = 0;
+        while (segments.size() < FRAMES) {
+            if (start == TEXT.length()) {
+                start = 0;
+            }
+            int next = segmenter.next(TEXT, start, TEXT.length(), true);
+            segments.add(TEXT.substring(start, next));
+            start = next;
+        }
+        encoder = FrameEncoder.create(DATA_ID, wireFormat);
+        buffer = new FrameBuffer(16 * 1024);
+        stats = new FrameWriterStats();
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        encodeAll(buffer);
+        encoded = buffer.toByteArray();
+        report();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int encode() {
+        buffer.clear();
+        encodeAll(buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int encodeGzip() throws IOException {
+        return compressedSize(ContentCoding.GZIP, 1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decode(Blackhole blackhole) throws IOException {
+        switch (wireFormat) {
+            case NDJSON:
+                for (int start = 0, end; start < encoded.length; start = end + 1) {
+                    end = lineEnd(start);
+                    blackhole.consume(objectMapper.readValue(encoded, start, end - start, StreamResponseVO.class));
+                }
+                break;
+            case DELTA:
+                for (int start = 0, end; start < encoded.length; start = end + 1) {
+                    end = lineEnd(start);
+                    JsonNode node = objectMapper.readTree(new String(encoded, start, end - start, StandardCharsets.UTF_8));
+                    blackhole.consume(node.path("c").asText());
+                    blackhole.consume(node.path("s").asInt());
+                }
+                break;
+            default:
+                CborReader reader = new CborReader(encoded);
+                while (reader.hasNext()) {
+                    blackhole.consume(reader.readMap());
+                }
+                break;
+        }
+    }
+
+    private void encodeAll(FrameBuffer out) {
+        encoder.encodeHeader(out);
+        for (int i = 0; i < segments.size(); i++) {
+            encoder.encodeData(out, segments.get(i), false, i);
+        }
+    }
+
+    /**
+     * 按flushEvery帧一次写出并压缩后的总字节数（含流头和压缩流结尾）
+     */
+    private int compressedSize(ContentCoding coding, int flushEvery) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        CompressedOutput output = new CompressedOutput(sink::write, coding, 6, stats);
+        FrameBuffer frames = new FrameBuffer(1024);
+        encoder.encodeHeader(frames);
+        for (int i = 0; i < segments.size(); i++) {
+            encoder.encodeData(frames, segments.get(i), false, i);
+            if ((i + 1) % flushEvery == 0 || i == segments.size() - 1) {
+                output.write(frames.toByteArray());
+                frames.clear();
+            }
+        }
+        output.close();
+        return sink.size();
+    }
+
+    private void report() throws IOException {
+        System.out.printf("%n[%s] 每帧字节：不压缩=%.1f gzip每帧flush=%.1f gzip每8帧flush=%.1f%n", format,
+                (double) encoded.length / FRAMES,
+                (double) compressedSize(ContentCoding.GZIP, 1) / FRAMES,
+                (double) compressedSize(ContentCoding.GZIP, 8) / FRAMES);
+    }
+
+    private int lineEnd(int start) {
+        int end = start;
+        while (encoded[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * 只支持本服务输出用到的CBOR类型：无符号整数、文本、map、true
+     */
+    private static final class CborReader {
+
+        private final byte[] data;
+
+        private int position;
+
+        CborReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasNext() {
+            return position < data.length;
+        }
+
+        Object[] readMap() {
+            int head = data[position] & 0xFF;
+            int size = (int) readLength();
+            if (head >> 5 != 5) {
+                throw new IllegalStateException("expected map");
+            }
+            Object[] entries = new Object[size * 2];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = readValue();
+            }
+            return entries;
+        }
+
+        private Object readValue() {
+            int head = data[position] & 0xFF;
+            switch (head >> 5) {
+                case 0:
+                    return readLength();
+                case 3:
+                    int length = (int) readLength();
+                    String text = new String(data, position, length, StandardCharsets.UTF_8);
+                    position += length;
+                    return text;
+                case 7:
+                    position++;
+                    return head == 0xF5;
+                default:
+                    throw new IllegalStateException("unsupported major type " + (head >> 5));
+            }
+        }
+
+        private long readLength() {
+            int info = data[position++] & 0x1F;
+            if (info < 24) {
+                return info;
+            }
+            int bytes = 1 << (info - 24);
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+    }
+}
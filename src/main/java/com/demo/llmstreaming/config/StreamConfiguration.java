@@ -1,10 +1,13 @@
 package com.demo.llmstreaming.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,14 +16,25 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
  */
 @Configuration
 @EnableAsync
+@EnableConfigurationProperties(UpstreamProperties.class)
 public class StreamConfiguration implements WebMvcConfigurer {
 
+    @Value("${llm.stream.async-timeout:300000}")
+    private long asyncTimeout;
+
+    @Value("${llm.stream.scheduler-pool-size:2}")
+    private int schedulerPoolSize;
+
+    @Value("${llm.stream.write-pool-size:256}")
+    private int writePoolSize;
+
     /**
      * 配置异步支持
+     * 流式接口返回ResponseBodyEmitter，整个生成过程都在异步请求内完成，超时需覆盖最长生成时间
      */
     @Override
     public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
-        configurer.setDefaultTimeout(60000L); // 60秒超时
+        configurer.setDefaultTimeout(asyncTimeout);
         configurer.setTaskExecutor(streamDataTaskExecutor());
     }
 
@@ -40,5 +54,36 @@ public class StreamConfiguration implements WebMvcConfigurer {
         executor.initialize();
         return executor;
     }
-}
 
+    /**
+     * 下游写出执行器
+     * 调度线程（节奏下发、定时flush）只决定写什么，阻塞的写出在这里执行，一个慢客户端只占住自己的线程；
+     * 不排队，线程用满时提交被拒绝，由调用方留到下一周期重试
+     */
+    @Bean("streamWriteExecutor")
+    public ThreadPoolTaskExecutor streamWriteExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.min(8, writePoolSize));
+        executor.setMaxPoolSize(writePoolSize);
+        executor.setQueueCapacity(0);
+        executor.setKeepAliveSeconds(60);
+        executor.setThreadNamePrefix("StreamWrite-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 流式定时调度器
+     * 字符级节奏下发等周期任务共用，少量线程驱动所有流；任务内不做阻塞的下游写出
+     */
+    @Bean("streamScheduler")
+    public ThreadPoolTaskScheduler streamScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulerPoolSize);
+        scheduler.setThreadNamePrefix("StreamScheduler-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(false);
+        scheduler.initialize();
+        return scheduler;
+    }
+}
@@ -0,0 +1,185 @@
+package com.demo.llmstreaming.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上游连接配置
+ */
+@Data
+@ConfigurationProperties(prefix = "llm.upstream")
+public class UpstreamProperties {
+
+    /** 连接超时（毫秒） */
+    private long connectTimeoutMs = 30000;
+
+    /** 读超时（毫秒），即两次数据到达的最大间隔；不配置时使用llm.api.timeout */
+    private Long readTimeoutMs;
+
+    /** 写超时（毫秒） */
+    private long writeTimeoutMs = 30000;
+
+    /** 整个调用的超时（毫秒），0表示不限制，流式生成一般不设置 */
+    private long callTimeoutMs = 0;
+
+    /** 连接池最大空闲连接数 */
+    private int maxIdleConnections = 32;
+
+    /** 空闲连接保活时间（毫秒） */
+    private long keepAliveMs = 300000;
+
+    /** 异步调用最大并发请求数 */
+    private int maxRequests = 1024;
+
+    /** 每个host的最大并发请求数 */
+    private int maxRequestsPerHost = 1024;
+
+    /** 协议偏好：http2（TLS下ALPN协商HTTP/2，失败回落HTTP/1.1）、http1.1、h2c（明文HTTP/2） */
+    private String protocol = "http2";
+
+    /** 启动时预热的连接数，0表示不预热；HTTP/2下一个连接即可多路复用 */
+    private int prewarmConnections = 2;
+
+    /** 预热请求超时（毫秒） */
+    private long prewarmTimeoutMs = 5000;
+
+    /** 上游SSE单行（多行data拼接后为单个事件）的字节上限，超出时按应答失败结束该流 */
+    private int maxLineBytes = 1024 * 1024;
+
+    /** 上游端点列表，为空时使用llm.api.url/key/model作为唯一端点 */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /** 路由配置 */
+    private Routing routing = new Routing();
+
+    /** 对冲请求配置 */
+    private Hedging hedging = new Hedging();
+
+    /** 上游配额调度配置 */
+    private Quota quota = new Quota();
+
+    /**
+     * 上游端点，连接池相关配置为空时继承上面的全局配置
+     */
+    @Data
+    public static class Endpoint {
+
+        /** 端点名称，用于日志和统计 */
+        private String name;
+
+        private String url;
+
+        private String key;
+
+        private String model;
+
+        private Integer maxIdleConnections;
+
+        private Integer maxRequestsPerHost;
+
+        private String protocol;
+
+        /** 该端点密钥的每分钟请求数配额，为空时使用llm.upstream.quota的配置 */
+        private Integer requestsPerMinute;
+
+        /** 该端点密钥的每分钟token数配额，为空时使用llm.upstream.quota的配置 */
+        private Integer tokensPerMinute;
+    }
+
+    /**
+     * 延迟感知路由配置
+     */
+    @Data
+    public static class Routing {
+
+        /** EWMA平滑系数，越大越偏向最近的样本 */
+        private double ewmaAlpha = 0.3;
+
+        /** 无样本时假定的首token延迟（毫秒） */
+        private double initialTtftMs = 1000;
+
+        /** 连续失败多少次后摘除 */
+        private int failureThreshold = 3;
+
+        /** 错误率EWMA超过该值后摘除 */
+        private double errorRateThreshold = 0.6;
+
+        /** 首次摘除时长（毫秒），之后每次翻倍 */
+        private long ejectMs = 30000;
+
+        /** 最长摘除时长（毫秒） */
+        private long maxEjectMs = 300000;
+    }
+
+    /**
+     * 对冲请求配置：首个内容分片迟迟未到时向另一端点发出重复请求，先出内容者胜出
+     */
+    @Data
+    public static class Hedging {
+
+        private boolean enabled = false;
+
+        /** 固定对冲延迟（毫秒），自适应模式下样本不足时也使用该值 */
+        private long delayMs = 1000;
+
+        /** 是否按观测到的首token延迟p95决定对冲延迟 */
+        private boolean adaptive = true;
+
+        /** 自适应延迟下限（毫秒） */
+        private long minDelayMs = 50;
+
+        /** 自适应延迟上限（毫秒） */
+        private long maxDelayMs = 5000;
+
+        /** 参与p95统计的最近样本数 */
+        private int sampleWindow = 1024;
+
+        /** 样本数达到该值后才使用p95 */
+        private int minSamples = 20;
+
+        /** 对冲预算：额外请求数不超过主请求数的百分比 */
+        private int budgetPercent = 10;
+
+        /** 预算最多累积的对冲次数，限制突发 */
+        private int maxBurst = 10;
+    }
+
+    /**
+     * 上游配额调度：按API Key用令牌桶跟踪每分钟请求数和token数，请求前预扣，超出时按优先级排队
+     */
+    @Data
+    public static class Quota {
+
+        private boolean enabled = true;
+
+        /** 每分钟请求数配额，0表示不限制 */
+        private int requestsPerMinute = 0;
+
+        /** 每分钟token数配额（提示词+输出），0表示不限制 */
+        private int tokensPerMinute = 0;
+
+        /** 只使用配额的该比例，留出估算误差和其他客户端的余量 */
+        private double safetyRatio = 0.9;
+
+        /** 令牌桶容量，按多少秒的配额计；与safetyRatio一起保证任意一分钟内不超过配额 */
+        private int burstSeconds = 5;
+
+        /** 批量请求只使用超出该比例之后的余量，其余留给交互请求 */
+        private double batchReserveRatio = 0.3;
+
+        /** 交互请求等待配额的最长时间（毫秒），超时后失败 */
+        private long interactiveMaxWaitMs = 10000;
+
+        /** 批量请求等待配额的最长时间（毫秒） */
+        private long batchMaxWaitMs = 300000;
+
+        /** 每个API Key的排队上限，超出后直接失败 */
+        private int maxQueued = 1024;
+
+        /** 上游返回429且没有Retry-After时暂停发送的时间（毫秒） */
+        private long throttleBackoffMs = 5000;
+    }
+}
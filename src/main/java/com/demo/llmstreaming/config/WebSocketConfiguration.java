@@ -0,0 +1,51 @@
+package com.demo.llmstreaming.config;
+
+import com.demo.llmstreaming.controller.StreamWebSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+/**
+ * WebSocket配置
+ */
+@Configuration
+@EnableWebSocket
+public class WebSocketConfiguration implements WebSocketConfigurer {
+
+    @Autowired
+    private StreamWebSocketHandler streamWebSocketHandler;
+
+    @Value("${llm.ws.path:/api/stream/ws}")
+    private String path;
+
+    @Value("${llm.ws.allowed-origins:}")
+    private String[] allowedOrigins;
+
+    @Value("${llm.ws.max-text-message-bytes:65536}")
+    private int maxTextMessageBytes;
+
+    @Value("${llm.ws.idle-timeout-ms:600000}")
+    private long idleTimeoutMs;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // 未配置时只允许同源
+        registry.addHandler(streamWebSocketHandler, path).setAllowedOrigins(allowedOrigins);
+    }
+
+    /**
+     * 容器参数：单条指令的大小上限和空闲超时
+     */
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxTextMessageBytes);
+        container.setMaxSessionIdleTimeout(idleTimeoutMs);
+        return container;
+    }
+}
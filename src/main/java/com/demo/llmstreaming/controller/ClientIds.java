@@ -0,0 +1,47 @@
+package com.demo.llmstreaming.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 客户端标识：用于并发公平份额和日志
+ * 携带API Key时取其SHA-256指纹，凭据本身不进入日志和统计；否则使用客户端地址
+ */
+final class ClientIds {
+
+    /** 指纹长度（十六进制字符），64位足以区分客户端 */
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ClientIds() {
+    }
+
+    /**
+     * @param apiKey X-API-Key或Authorization请求头，可为null
+     * @param remoteAddress 客户端地址
+     */
+    static String resolve(String apiKey, String remoteAddress) {
+        if (apiKey == null) {
+            return remoteAddress != null ? remoteAddress : "";
+        }
+        return "key:" + fingerprint(apiKey);
+    }
+
+    private static String fingerprint(String apiKey) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // 每个JRE都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[FINGERPRINT_LENGTH];
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+            int b = digest[i >> 1] & 0xff;
+            hex[i] = HEX[(i & 1) == 0 ? b >>> 4 : b & 0x0f];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,66 @@
+package com.demo.llmstreaming.controller;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.demo.llmstreaming.service.mock.MockUpstream;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 模拟大模型API，仅在mock profile下启用
+ */
+@RestController
+@RequestMapping("/mock")
+@Profile("mock")
+@Api(tags = "模拟上游")
+public class MockLlmController {
+
+    @Autowired
+    private MockUpstream mockUpstream;
+
+    /**
+     * 与千帆/OpenAI兼容的流式对话接口
+     */
+    @PostMapping("/v2/chat/completions")
+    @ApiOperation(value = "模拟流式对话", notes = "按llm.mock配置的速率、首token延迟、配额和故障注入输出SSE")
+    public ResponseBodyEmitter chatCompletions(@RequestBody(required = false) String body,
+                                               HttpServletResponse response) throws IOException {
+        JSONObject request = body == null ? new JSONObject() : JSONObject.parseObject(body);
+        int retryAfter = mockUpstream.checkQuota(request);
+        if (retryAfter > 0) {
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().write(mockUpstream.quotaErrorBody().getBytes(StandardCharsets.UTF_8));
+            return null;
+        }
+        if (mockUpstream.injectHttpError()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().write(mockUpstream.httpErrorBody().getBytes(StandardCharsets.UTF_8));
+            return null;
+        }
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        return mockUpstream.stream(request);
+    }
+
+    /**
+     * 模拟上游统计
+     */
+    @GetMapping("/stats")
+    @ApiOperation(value = "模拟上游统计", notes = "活跃流、已输出token数、配额窗口及注入的故障次数")
+    public Map<String, Object> stats() {
+        return mockUpstream.snapshot();
+    }
+}
@@ -1,15 +1,38 @@
 package com.demo.llmstreaming.controller;
 
+import com.demo.llmstreaming.service.BatchStreamService;
 import com.demo.llmstreaming.service.StreamService;
+import com.demo.llmstreaming.service.WebSocketStreamService;
+import com.demo.llmstreaming.service.cache.ResponseCache;
+import com.demo.llmstreaming.service.flight.SingleFlightRegistry;
+import com.demo.llmstreaming.service.hedge.HedgingPolicy;
+import com.demo.llmstreaming.service.limit.ConcurrencyLimiter;
+import com.demo.llmstreaming.service.pacing.CharPacer;
+import com.demo.llmstreaming.service.quota.QuotaScheduler;
+import com.demo.llmstreaming.service.resume.ResumeRegistry;
+import com.demo.llmstreaming.service.session.ChatSession;
+import com.demo.llmstreaming.service.session.SessionStore;
+import com.demo.llmstreaming.service.transcript.TranscriptLog;
+import com.demo.llmstreaming.service.upstream.CancellationStats;
+import com.demo.llmstreaming.service.upstream.UpstreamClientManager;
+import com.demo.llmstreaming.service.writer.FrameWriterStats;
+import com.demo.llmstreaming.vo.BatchStreamRequestVO;
+import com.demo.llmstreaming.vo.StreamRequestVO;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * 流式响应控制器
@@ -23,19 +46,152 @@ public class StreamController {
     @Autowired
     private StreamService streamService;
 
+    @Autowired
+    private BatchStreamService batchStreamService;
+
+    @Autowired
+    private WebSocketStreamService webSocketStreamService;
+
+    @Autowired
+    private FrameWriterStats frameWriterStats;
+
+    @Autowired
+    private ResponseCache responseCache;
+
+    @Autowired
+    private SingleFlightRegistry singleFlightRegistry;
+
+    @Autowired
+    private UpstreamClientManager upstreamClientManager;
+
+    @Autowired
+    private HedgingPolicy hedgingPolicy;
+
+    @Autowired
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private QuotaScheduler quotaScheduler;
+
+    @Autowired
+    private CancellationStats cancellationStats;
+
+    @Autowired
+    private ResumeRegistry resumeRegistry;
+
+    @Autowired
+    private TranscriptLog transcriptLog;
+
+    @Autowired
+    private SessionStore sessionStore;
+
+    @Autowired
+    private CharPacer charPacer;
+
     /**
      * 大模型流式响应接口
      */
-    @GetMapping(value = "/llm", produces = "application/json")
-    @ApiOperation(value = "大模型流式响应", notes = "使用OkHttp调用大模型API进行流式响应，支持字符级输出")
-    public void streamLLMResponse(
+    @GetMapping(value = "/llm", produces = {"application/json", "application/vnd.llm-stream.delta+json", "application/cbor-seq"})
+    @ApiOperation(value = "大模型流式响应", notes = "使用OkHttp异步调用大模型API进行流式响应，支持字符级输出；帧格式按format参数或Accept协商，按Accept-Encoding压缩")
+    public ResponseBodyEmitter streamLLMResponse(
             @ApiParam(value = "提示词", required = true) @RequestParam String prompt,
             @ApiParam(value = "是否字符级输出", required = false) @RequestParam(defaultValue = "true") boolean charLevel,
-            @ApiParam(value = "最大token数", required = false) @RequestParam(defaultValue = "500") int maxTokens,
-            HttpServletResponse response) throws IOException {
+            @ApiParam(value = "切分策略：none / codepoint / grapheme / word / sentence / adaptive，指定时覆盖charLevel", required = false) @RequestParam(required = false) String segmentation,
+            @ApiParam(value = "最大token数，1到llm.api.max-output-tokens", required = false) @RequestParam(defaultValue = "500") int maxTokens,
+            @ApiParam(value = "缓存控制：no-cache / no-store", required = false) @RequestParam(required = false) String cacheControl,
+            @ApiParam(value = "会话ID，传入时携带服务端保存的多轮历史，只在同一客户端（API Key或地址）内有效", required = false) @RequestParam(required = false) String sessionId,
+            @ApiParam(value = "帧格式：ndjson / delta / cbor，不传时按Accept协商", required = false) @RequestParam(required = false) String format,
+            @ApiParam(value = "结构化输出：每个JSON字段或数组元素结束时追加JSON_FIELD帧", required = false) @RequestParam(defaultValue = "false") boolean structured,
+            HttpServletRequest httpRequest,
+            HttpServletResponse response) {
         
         log.info("开始大模型流式响应，提示词：{}，字符级输出：{}，最大token数：{}", prompt, charLevel, maxTokens);
-        streamService.streamLLMResponse(prompt, maxTokens, response, charLevel);
+        StreamRequestVO request = new StreamRequestVO(prompt, maxTokens, charLevel);
+        request.setSegmentation(segmentation);
+        request.setCacheControl(cacheControl);
+        request.setSessionId(sessionId);
+        request.setFormat(format);
+        request.setStructured(structured);
+        request.setClientId(resolveClientId(httpRequest));
+        request.setAccept(httpRequest.getHeader(HttpHeaders.ACCEPT));
+        request.setAcceptEncoding(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        return streamService.streamLLMResponse(request, response);
+    }
+
+    /**
+     * 批量流式响应接口
+     */
+    @PostMapping(value = "/batch", produces = "application/json")
+    @ApiOperation(value = "批量流式响应", notes = "多个提示词并行请求上游，帧按dataId和sequence交错写入同一条NDJSON流，每项以END结束，最后发送SUMMARY汇总")
+    public ResponseBodyEmitter streamBatch(@RequestBody BatchStreamRequestVO request,
+                                           HttpServletRequest httpRequest,
+                                           HttpServletResponse response) {
+        request.setClientId(resolveClientId(httpRequest));
+        return batchStreamService.streamBatch(request, response);
+    }
+
+    /**
+     * 续传接口
+     */
+    @GetMapping(value = "/resume", produces = {"application/json", "application/vnd.llm-stream.delta+json", "application/cbor-seq"})
+    @ApiOperation(value = "续传流式响应", notes = "连接中断后凭dataId和最后收到的sequence重新连接，先补发缺失的帧，流仍在生成时接上实时输出；也可用Last-Event-ID请求头传sequence")
+    public ResponseBodyEmitter resume(
+            @ApiParam(value = "流标识（首个响应的X-Data-Id或帧中的dataId）", required = true) @RequestParam String dataId,
+            @ApiParam(value = "最后收到的sequence，不传则从头补发", required = false) @RequestParam(required = false) Integer lastSequence,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            HttpServletRequest httpRequest,
+            HttpServletResponse response) {
+        int last = -1;
+        if (lastSequence != null) {
+            last = lastSequence;
+        } else if (StringUtils.isNumeric(lastEventId)) {
+            last = Integer.parseInt(lastEventId);
+        }
+        return streamService.resume(dataId, last, httpRequest.getHeader(HttpHeaders.ACCEPT),
+                httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), response);
+    }
+
+    /**
+     * 会话信息接口
+     */
+    @GetMapping("/session/{sessionId}")
+    @ApiOperation(value = "会话信息", notes = "轮数、窗口内消息数、历史与摘要的估算token数；只能查询本客户端（同一API Key或地址）的会话")
+    public ResponseEntity<Map<String, Object>> session(@PathVariable String sessionId, HttpServletRequest httpRequest) {
+        ChatSession session = sessionStore.get(resolveClientId(httpRequest), sessionId);
+        return session != null ? ResponseEntity.ok(session.snapshot()) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 删除会话接口
+     */
+    @DeleteMapping("/session/{sessionId}")
+    @ApiOperation(value = "删除会话", notes = "清除服务端保存的多轮历史；只能删除本客户端的会话")
+    public ResponseEntity<Void> deleteSession(@PathVariable String sessionId, HttpServletRequest httpRequest) {
+        sessionStore.remove(resolveClientId(httpRequest), sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * 流式统计接口
+     */
+    @GetMapping("/stats")
+    @ApiOperation(value = "流式统计", notes = "帧写出、flush次数及字节速率等运行统计")
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("writer", frameWriterStats.snapshot());
+        stats.put("cache", responseCache.snapshot());
+        stats.put("singleFlight", singleFlightRegistry.snapshot());
+        stats.put("upstream", upstreamClientManager.snapshot());
+        stats.put("hedging", hedgingPolicy.snapshot());
+        stats.put("limiter", concurrencyLimiter.snapshot());
+        stats.put("quota", quotaScheduler.snapshot());
+        stats.put("cancellation", cancellationStats.snapshot());
+        stats.put("resume", resumeRegistry.snapshot());
+        stats.put("transcript", transcriptLog.snapshot());
+        stats.put("session", sessionStore.snapshot());
+        stats.put("pacing", charPacer.snapshot());
+        stats.put("websocket", webSocketStreamService.snapshot());
+        return stats;
     }
 
     /**
@@ -46,5 +202,15 @@ public class StreamController {
     public String health() {
         return "OK";
     }
-}
 
+    /**
+     * 客户端标识，用于并发公平份额和会话归属：优先X-API-Key，其次Authorization（均取指纹），最后客户端地址
+     */
+    private String resolveClientId(HttpServletRequest httpRequest) {
+        String apiKey = httpRequest.getHeader("X-API-Key");
+        if (apiKey == null) {
+            apiKey = httpRequest.getHeader("Authorization");
+        }
+        return ClientIds.resolve(apiKey, httpRequest.getRemoteAddr());
+    }
+}
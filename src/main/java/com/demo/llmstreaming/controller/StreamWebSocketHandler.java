@@ -0,0 +1,97 @@
+package com.demo.llmstreaming.controller;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONObject;
+import com.demo.llmstreaming.service.WebSocketStreamService;
+import com.demo.llmstreaming.vo.StreamRequestVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+/**
+ * WebSocket多路流式接口
+ * 客户端指令为JSON文本消息：
+ * <pre>
+ * {"type":"start","id":"a1","prompt":"...","maxTokens":500,"segmentation":"grapheme","sessionId":"...","cacheControl":"no-cache","structured":true}
+ * {"type":"cancel","id":"a1"}
+ * </pre>
+ * 服务端每条消息包含一个或多个NDJSON帧，帧的dataId为指令中的id；charLevel不传时默认为true
+ */
+@Slf4j
+@Component
+public class StreamWebSocketHandler extends TextWebSocketHandler {
+
+    @Autowired
+    private WebSocketStreamService webSocketStreamService;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        webSocketStreamService.open(session, resolveClientId(session));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        JSONObject command;
+        try {
+            command = JSON.parseObject(message.getPayload());
+        } catch (JSONException e) {
+            webSocketStreamService.rejectCommand(session, null, "指令不是合法的JSON");
+            return;
+        }
+        if (command == null) {
+            webSocketStreamService.rejectCommand(session, null, "指令不能为空");
+            return;
+        }
+        String id = command.getString("id");
+        String type = command.getString("type");
+        if ("start".equals(type)) {
+            StreamRequestVO request = new StreamRequestVO();
+            request.setPrompt(command.getString("prompt"));
+            if (command.containsKey("maxTokens")) {
+                // 超出int范围的值按非法处理，不截断成看似合法的数
+                long maxTokens = command.getLongValue("maxTokens");
+                request.setMaxTokens(maxTokens == (int) maxTokens ? (int) maxTokens : -1);
+            }
+            request.setCharLevel(!command.containsKey("charLevel") || command.getBooleanValue("charLevel"));
+            request.setSegmentation(command.getString("segmentation"));
+            request.setCacheControl(command.getString("cacheControl"));
+            request.setSessionId(command.getString("sessionId"));
+            request.setStructured(command.getBooleanValue("structured"));
+            webSocketStreamService.start(session, id, request);
+        } else if ("cancel".equals(type)) {
+            webSocketStreamService.cancel(session, id);
+        } else {
+            webSocketStreamService.rejectCommand(session, id, "不支持的指令类型：" + type);
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.info("WebSocket传输错误：{}，{}", session.getId(), exception.getMessage());
+        webSocketStreamService.close(session, CloseStatus.SERVER_ERROR);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        webSocketStreamService.close(session, status);
+    }
+
+    /**
+     * 与HTTP接口相同：优先使用API Key的指纹，否则按客户端地址
+     */
+    private String resolveClientId(WebSocketSession session) {
+        HttpHeaders headers = session.getHandshakeHeaders();
+        String apiKey = headers.getFirst("X-API-Key");
+        if (apiKey == null) {
+            apiKey = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        }
+        return ClientIds.resolve(apiKey,
+            session.getRemoteAddress() != null ? session.getRemoteAddress().getAddress().getHostAddress() : "");
+    }
+}
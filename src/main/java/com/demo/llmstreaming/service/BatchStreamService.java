@@ -0,0 +1,510 @@
+package com.demo.llmstreaming.service;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.demo.llmstreaming.service.flight.Flight;
+import com.demo.llmstreaming.service.limit.AdmissionRejectedException;
+import com.demo.llmstreaming.service.limit.ConcurrencyLimiter;
+import com.demo.llmstreaming.service.metrics.StreamMetrics;
+import com.demo.llmstreaming.service.quota.Priority;
+import com.demo.llmstreaming.service.session.ChatMessage;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameMeters;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.demo.llmstreaming.service.writer.FrameWriterFactory;
+import com.demo.llmstreaming.vo.BatchItemVO;
+import com.demo.llmstreaming.vo.BatchStreamRequestVO;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.servlet.http.HttpServletResponse;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 批量流式服务
+ * 多个提示词共用一个下游连接：各项并行请求上游（不超过扇出上限），帧按到达顺序交错写入同一条NDJSON流，
+ * 以各项的dataId和sequence区分；每项结束时发送END帧，全部结束后发送一个SUMMARY帧。
+ * 每项单独申请并发额度，额度不足时等其他项结束再启动，慢的项不会阻塞其他项的输出
+ */
+@Slf4j
+@Service
+public class BatchStreamService {
+
+    private static final String SUMMARY = "SUMMARY";
+
+    @Autowired
+    private StreamService streamService;
+
+    @Autowired
+    private FrameWriterFactory frameWriterFactory;
+
+    @Autowired
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private StreamMetrics streamMetrics;
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    @Value("${llm.batch.max-items:500}")
+    private int maxItems;
+
+    @Value("${llm.batch.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${llm.batch.retry-delay-ms:100}")
+    private long retryDelayMs;
+
+    @Value("${llm.batch.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    /**
+     * 批量流式响应
+     */
+    public ResponseBodyEmitter streamBatch(BatchStreamRequestVO request, HttpServletResponse response) {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Connection", "keep-alive");
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeoutMs);
+        String batchId = UUID.randomUUID().toString();
+        FrameEncoder summaryEncoder = new FrameEncoder(batchId, SUMMARY);
+        FrameSink sink = frameWriterFactory.createSink(emitter);
+        // 批内各条生成可能来自不同端点，帧计数不区分端点
+        sink.setEndpoint(FrameMeters.MULTIPLEXED);
+
+        String invalid = validate(request);
+        if (invalid != null) {
+            log.warn("批量请求参数错误：{}", invalid);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writeErrorAndComplete(emitter, sink, summaryEncoder, invalid);
+            return emitter;
+        }
+
+        // 首项的额度按单条流的方式申请，服务繁忙时整个批量请求直接被拒绝
+        ConcurrencyLimiter.Permit permit;
+        try {
+            permit = concurrencyLimiter.acquire(request.getClientId());
+        } catch (AdmissionRejectedException e) {
+            log.warn("批量请求被拒绝：{}，客户端：{}", e.getMessage(), request.getClientId());
+            streamMetrics.rejected();
+            response.setStatus(e.getStatus());
+            response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            writeErrorAndComplete(emitter, sink, summaryEncoder, e.getMessage());
+            return emitter;
+        }
+
+        int concurrency = request.getConcurrency() == null ? maxConcurrency
+            : Math.max(1, Math.min(request.getConcurrency(), maxConcurrency));
+        log.info("开始批量流式响应，共{}项，并发{}", request.getItems().size(), concurrency);
+        Batch batch = new Batch(request, concurrency, permit, sink, summaryEncoder, emitter);
+
+        emitter.onCompletion(batch::close);
+        emitter.onTimeout(() -> {
+            streamMetrics.asyncTimeout();
+            batch.interrupt();
+        });
+        emitter.onError(e -> {
+            streamMetrics.clientDisconnect();
+            batch.interrupt();
+        });
+        sink.setFailureListener(() -> {
+            streamMetrics.clientDisconnect();
+            batch.interrupt();
+        });
+
+        streamMetrics.streamOpened();
+        batch.launchNext();
+        return emitter;
+    }
+
+    private String validate(BatchStreamRequestVO request) {
+        if (request.getItems() == null || request.getItems().isEmpty()) {
+            return "items不能为空";
+        }
+        if (request.getItems().size() > maxItems) {
+            return "items数量超过上限" + maxItems;
+        }
+        // id作为各项帧的dataId，重复时客户端无法区分各项的帧
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < request.getItems().size(); i++) {
+            BatchItemVO item = request.getItems().get(i);
+            if (item == null || StringUtils.isBlank(item.getPrompt())) {
+                return "第" + (i + 1) + "项提示词为空";
+            }
+            if (item.getId() != null) {
+                if (StringUtils.isBlank(item.getId())) {
+                    return "第" + (i + 1) + "项id为空";
+                }
+                if (!ids.add(item.getId())) {
+                    return "第" + (i + 1) + "项id重复：" + item.getId();
+                }
+            }
+            String invalidMaxTokens = streamService.validateMaxTokens(item.getMaxTokens());
+            if (invalidMaxTokens != null) {
+                return "第" + (i + 1) + "项" + invalidMaxTokens;
+            }
+        }
+        return null;
+    }
+
+    private void writeErrorAndComplete(ResponseBodyEmitter emitter, FrameSink sink, FrameEncoder encoder, String message) {
+        try {
+            sink.writeError(encoder, message, null);
+            emitter.complete();
+        } catch (Exception e) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 一次批量请求的调度状态
+     */
+    private class Batch {
+
+        private final String clientId;
+
+        private final String cacheControl;
+
+        private final int concurrency;
+
+        private final int total;
+
+        private final FrameSink sink;
+
+        private final FrameEncoder summaryEncoder;
+
+        private final ResponseBodyEmitter emitter;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private final List<Item> items = new ArrayList<>();
+
+        /** 以下字段由本对象的锁保护 */
+        private final Queue<Item> pending = new ArrayDeque<>();
+
+        private final List<Item> running = new ArrayList<>();
+
+        private ConcurrencyLimiter.Permit firstPermit;
+
+        private boolean launching;
+
+        private int finished;
+
+        private boolean firstSent;
+
+        Batch(BatchStreamRequestVO request, int concurrency, ConcurrencyLimiter.Permit firstPermit,
+              FrameSink sink, FrameEncoder summaryEncoder, ResponseBodyEmitter emitter) {
+            this.clientId = request.getClientId();
+            this.cacheControl = request.getCacheControl();
+            this.concurrency = concurrency;
+            this.total = request.getItems().size();
+            this.firstPermit = firstPermit;
+            this.sink = sink;
+            this.summaryEncoder = summaryEncoder;
+            this.emitter = emitter;
+            for (BatchItemVO itemVO : request.getItems()) {
+                Item item = new Item(this, itemVO);
+                items.add(item);
+                pending.add(item);
+            }
+        }
+
+        /**
+         * 在扇出上限和并发额度内启动尚未开始的项
+         * 不持有本对象的锁发起生成：命中缓存时回放在当前线程同步完成，会重入本方法
+         */
+        void launchNext() {
+            synchronized (this) {
+                if (launching) {
+                    // 正在启动的线程会在循环中重新检查
+                    return;
+                }
+                launching = true;
+            }
+            while (true) {
+                Item item;
+                ConcurrencyLimiter.Permit permit;
+                synchronized (this) {
+                    if (interrupted.get() || pending.isEmpty() || running.size() >= concurrency) {
+                        launching = false;
+                        return;
+                    }
+                    permit = firstPermit != null ? firstPermit : concurrencyLimiter.tryAcquire(clientId);
+                    firstPermit = null;
+                    if (permit == null) {
+                        launching = false;
+                        if (running.isEmpty()) {
+                            // 没有进行中的项来触发下一次启动，稍后重试
+                            streamScheduler.schedule(this::launchNext, Instant.now().plusMillis(retryDelayMs));
+                        }
+                        return;
+                    }
+                    item = pending.poll();
+                    running.add(item);
+                }
+                item.start(permit);
+            }
+        }
+
+        synchronized boolean markFirstSent() {
+            if (firstSent) {
+                return false;
+            }
+            firstSent = true;
+            return true;
+        }
+
+        void itemFinished(Item item) {
+            boolean all;
+            synchronized (this) {
+                if (!running.remove(item)) {
+                    return;
+                }
+                finished++;
+                all = finished == total;
+            }
+            if (all) {
+                sendSummary();
+            } else {
+                launchNext();
+            }
+        }
+
+        private void sendSummary() {
+            close();
+            if (interrupted.get() || sink.isFailed()) {
+                emitter.complete();
+                return;
+            }
+            JSONObject summary = new JSONObject();
+            summary.put("total", total);
+            int succeeded = 0;
+            JSONArray results = new JSONArray();
+            for (Item item : items) {
+                if (item.status == Status.SUCCESS) {
+                    succeeded++;
+                }
+                JSONObject result = new JSONObject();
+                result.put("dataId", item.encoder.getDataId());
+                result.put("status", item.status);
+                result.put("chunks", item.chunks.get());
+                results.add(result);
+            }
+            summary.put("succeeded", succeeded);
+            summary.put("failed", total - succeeded);
+            summary.put("elapsedMs", (System.nanoTime() - startNanos) / 1_000_000);
+            summary.put("items", results);
+            try {
+                sink.writeData(summaryEncoder, summary.toJSONString(), true, null);
+                emitter.complete();
+                log.info("批量流式响应完成，成功{}/{}项", succeeded, total);
+            } catch (Exception e) {
+                log.error("发送批量汇总失败", e);
+                emitter.completeWithError(e);
+            }
+        }
+
+        /**
+         * 客户端断开或超时：不再启动新项，进行中的项退出各自的生成并释放额度
+         */
+        void interrupt() {
+            if (!interrupted.compareAndSet(false, true)) {
+                return;
+            }
+            List<Item> active;
+            synchronized (this) {
+                active = new ArrayList<>(running);
+                running.clear();
+                pending.clear();
+                if (firstPermit != null) {
+                    firstPermit.release();
+                    firstPermit = null;
+                }
+            }
+            log.info("客户端已断开，取消批量中进行中的{}项", active.size());
+            for (Item item : active) {
+                item.cancel();
+            }
+            close();
+            emitter.complete();
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                streamMetrics.streamClosed();
+            }
+        }
+    }
+
+    private interface FrameWrite {
+        void write() throws Exception;
+    }
+
+    private enum Status {
+        PENDING, SUCCESS, FAILED, CANCELLED
+    }
+
+    /**
+     * 批量中的一项，sequence在该项内从0递增
+     */
+    private class Item implements MsgCallback {
+
+        private final Batch batch;
+
+        private final String prompt;
+
+        private final int maxTokens;
+
+        private final FrameEncoder encoder;
+
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        private final AtomicInteger chunks = new AtomicInteger();
+
+        private final AtomicReference<Flight> flightRef = new AtomicReference<>();
+
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private volatile ConcurrencyLimiter.Permit permit;
+
+        private volatile Status status = Status.PENDING;
+
+        private boolean firstSent;
+
+        Item(Batch batch, BatchItemVO itemVO) {
+            this.batch = batch;
+            this.prompt = itemVO.getPrompt();
+            this.maxTokens = itemVO.getMaxTokens();
+            this.encoder = new FrameEncoder(StringUtils.isNotBlank(itemVO.getId()) ? itemVO.getId() : UUID.randomUUID().toString());
+        }
+
+        void start(ConcurrencyLimiter.Permit permit) {
+            this.permit = permit;
+            if (isInterrupted()) {
+                // 启动前批量已被取消
+                permit.release();
+                return;
+            }
+            streamService.generate(encoder.getDataId(), batch.cacheControl,
+                Collections.singletonList(ChatMessage.user(prompt)), maxTokens, Priority.BATCH,
+                this, flightRef, permit::ignoreLatency, endpoint -> permit.onLaunched());
+        }
+
+        @Override
+        public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            if (done.get()) {
+                return;
+            }
+            if (!isDone) {
+                if (StringUtils.isNotBlank(message) && !isInterrupted()) {
+                    recordFirstToken();
+                    chunks.incrementAndGet();
+                    write(() -> sink().writeData(encoder, message, false, sequence.getAndIncrement()));
+                }
+                return;
+            }
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            if (!isSuccess && !isInterrupted()) {
+                permit.onDropped();
+            }
+            permit.release();
+            if (isInterrupted()) {
+                status = Status.CANCELLED;
+            } else if (isSuccess) {
+                status = Status.SUCCESS;
+                if (StringUtils.isNotBlank(message)) {
+                    recordFirstToken();
+                    chunks.incrementAndGet();
+                    write(() -> sink().writeData(encoder, message, false, sequence.getAndIncrement()));
+                }
+                write(() -> sink().writeEnd(encoder, sequence.getAndIncrement()));
+            } else {
+                // 上游失败或超时（包括已输出部分内容后失败），以该项的ERROR帧下发
+                status = Status.FAILED;
+                String errorMessage = StringUtils.isNotBlank(message) ? message : "应答失败";
+                write(() -> sink().writeError(encoder, errorMessage, sequence.getAndIncrement()));
+                write(() -> sink().writeEnd(encoder, sequence.getAndIncrement()));
+            }
+            batch.itemFinished(this);
+        }
+
+        /**
+         * 只有成功的内容计入首token延迟，失败的提示文本以ERROR帧下发，不经过这里
+         */
+        private void recordFirstToken() {
+            if (!firstSent) {
+                firstSent = true;
+                permit.onFirstToken();
+                if (batch.markFirstSent()) {
+                    streamMetrics.recordClientTtft(batch.startNanos);
+                }
+            }
+        }
+
+        private void write(FrameWrite frameWrite) {
+            if (sink().isFailed()) {
+                // 下游已断开，由失败回调取消整个批量
+                return;
+            }
+            try {
+                frameWrite.write();
+            } catch (Exception e) {
+                if (sink().isFailed()) {
+                    log.info("下游连接已断开：{}", e.getMessage());
+                } else {
+                    log.error("发送批量响应失败", e);
+                }
+            }
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return batch.interrupted.get();
+        }
+
+        /**
+         * 退出所在的生成，Flight会以结束回调通知本项
+         */
+        void cancel() {
+            ConcurrencyLimiter.Permit current = permit;
+            if (current != null) {
+                current.release();
+            }
+            Flight flight = flightRef.get();
+            if (flight != null) {
+                flight.leave(this);
+            }
+        }
+
+        private FrameSink sink() {
+            return batch.sink;
+        }
+    }
+}
@@ -1,23 +1,65 @@
 package com.demo.llmstreaming.service;
 
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
-import com.demo.llmstreaming.vo.StreamResponseVO;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.demo.llmstreaming.config.UpstreamProperties;
+import com.demo.llmstreaming.service.cache.CachedResponse;
+import com.demo.llmstreaming.service.cache.ResponseCache;
+import com.demo.llmstreaming.service.cache.ResponseCacheKey;
+import com.demo.llmstreaming.service.flight.Flight;
+import com.demo.llmstreaming.service.flight.SingleFlightRegistry;
+import com.demo.llmstreaming.service.hedge.HedgedRequest;
+import com.demo.llmstreaming.service.hedge.HedgingPolicy;
+import com.demo.llmstreaming.service.limit.AdmissionRejectedException;
+import com.demo.llmstreaming.service.limit.ConcurrencyLimiter;
+import com.demo.llmstreaming.service.metrics.EndpointMeters;
+import com.demo.llmstreaming.service.metrics.StreamMetrics;
+import com.demo.llmstreaming.service.pacing.CharPacer;
+import com.demo.llmstreaming.service.pacing.PacedStream;
+import com.demo.llmstreaming.service.pacing.Segmentation;
+import com.demo.llmstreaming.service.quota.Priority;
+import com.demo.llmstreaming.service.quota.QuotaScheduler;
+import com.demo.llmstreaming.service.quota.QuotaTicket;
+import com.demo.llmstreaming.service.resume.ResumableStream;
+import com.demo.llmstreaming.service.resume.ResumeRegistry;
+import com.demo.llmstreaming.service.session.ChatMessage;
+import com.demo.llmstreaming.service.session.ChatSession;
+import com.demo.llmstreaming.service.session.SessionStore;
+import com.demo.llmstreaming.service.session.TokenEstimator;
+import com.demo.llmstreaming.service.sse.LlmStreamEvent;
+import com.demo.llmstreaming.service.sse.SseEventParser;
+import com.demo.llmstreaming.service.structured.IncrementalJsonParser;
+import com.demo.llmstreaming.service.transcript.TranscriptLog;
+import com.demo.llmstreaming.service.transcript.TranscriptRecord;
+import com.demo.llmstreaming.service.upstream.CancellationStats;
+import com.demo.llmstreaming.service.upstream.EndpointStats;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import com.demo.llmstreaming.service.upstream.UpstreamRouter;
+import com.demo.llmstreaming.service.writer.ContentCoding;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.demo.llmstreaming.service.writer.FrameWriterFactory;
+import com.demo.llmstreaming.service.writer.WireFormat;
+import com.demo.llmstreaming.vo.StreamRequestVO;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * 流式服务
@@ -27,208 +69,711 @@ import java.util.concurrent.TimeUnit;
 public class StreamService {
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private CharPacer charPacer;
 
-    @Value("${llm.api.url:https://qianfan.baidubce.com/v2/chat/completions}")
-    private String chatUrl;
+    @Autowired
+    private UpstreamProperties upstreamProperties;
 
-    @Value("${llm.api.key:YOUR_API_KEY}")
-    private String apiKey;
+    @Autowired
+    private FrameWriterFactory frameWriterFactory;
 
-    @Value("${llm.api.model:ernie-speed-pro-128k}")
-    private String model;
+    @Autowired
+    private ResponseCache responseCache;
 
-    @Value("${llm.api.timeout:60000}")
-    private long timeout;
-    
-    private final OkHttpClient okHttpClient;
+    @Autowired
+    private SingleFlightRegistry singleFlightRegistry;
 
-    public StreamService() {
-        this.okHttpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
-    }
+    @Autowired
+    private UpstreamRouter upstreamRouter;
+
+    @Autowired
+    private HedgingPolicy hedgingPolicy;
+
+    @Autowired
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private QuotaScheduler quotaScheduler;
+
+    @Autowired
+    private CancellationStats cancellationStats;
+
+    @Autowired
+    private StreamMetrics streamMetrics;
+
+    @Autowired
+    private ResumeRegistry resumeRegistry;
+
+    @Autowired
+    private TranscriptLog transcriptLog;
+
+    @Autowired
+    private SessionStore sessionStore;
+
+    @Value("${llm.api.temperature:0.95}")
+    private double temperature;
+
+    @Value("${llm.api.top-p:0.7}")
+    private double topP;
+
+    @Value("${llm.api.penalty-score:1.0}")
+    private double penaltyScore;
+
+    @Value("${llm.api.max-output-tokens:8192}")
+    private int maxOutputTokens;
 
     /**
      * 大模型流式响应
      */
-    public void streamLLMResponse(String prompt, int maxTokens, HttpServletResponse response) throws IOException {
-        streamLLMResponse(prompt, maxTokens, response, false);
+    public ResponseBodyEmitter streamLLMResponse(String prompt, int maxTokens, HttpServletResponse response) {
+        return streamLLMResponse(prompt, maxTokens, response, false);
+    }
+
+    /**
+     * 大模型流式响应（支持字符级控制）
+     */
+    public ResponseBodyEmitter streamLLMResponse(String prompt, int maxTokens, HttpServletResponse response, boolean charLevel) {
+        return streamLLMResponse(new StreamRequestVO(prompt, maxTokens, charLevel), response);
     }
 
      /**
-      * 大模型流式响应（支持字符级控制）
+      * 大模型流式响应
+      * 返回后Servlet线程即被释放，上游数据由OkHttp回调线程写入emitter
       */
-     public void streamLLMResponse(String prompt, int maxTokens, HttpServletResponse response, boolean charLevel) throws IOException {
-         log.info("开始大模型流式响应，提示词：{}，字符级输出：{}", prompt, charLevel);
+     public ResponseBodyEmitter streamLLMResponse(StreamRequestVO request, HttpServletResponse response) {
+         String prompt = request.getPrompt();
+         int maxTokens = request.getMaxTokens();
+         Segmentation segmentation = resolveSegmentation(request);
+         log.info("开始大模型流式响应，提示词：{}，切分策略：{}", prompt, segmentation);
+         long startNanos = System.nanoTime();
          
-        // 构建请求体
-        String requestBody = buildRequestBody(prompt, maxTokens);
+         // 协商帧格式和压缩，设置响应头
+         WireFormat format = WireFormat.negotiate(request.getFormat(), request.getAccept());
+         ContentCoding coding = frameWriterFactory.negotiateCoding(request.getAcceptEncoding());
+         setStreamHeaders(response, format, coding);
          
-         // 构建请求头
-         Map<String, String> headers = buildHeaders();
+         ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+         String dataId = UUID.randomUUID().toString();
+         AtomicBoolean interrupted = new AtomicBoolean(false);
+         FrameEncoder encoder = FrameEncoder.create(dataId, format);
+         FrameSink sink = frameWriterFactory.createSink(emitter, coding);
          
-         // 设置响应头
-         response.setContentType("application/json");
-         response.setCharacterEncoding("UTF-8");
-         response.setHeader("Cache-Control", "no-cache");
-         response.setHeader("Connection", "keep-alive");
+         String invalid = validateMaxTokens(maxTokens);
+         if (invalid != null) {
+             log.warn("请求参数错误：{}", invalid);
+             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+             try {
+                 sink.writeHeader(encoder);
+                 sink.writeError(encoder, invalid, null);
+                 sink.complete(emitter);
+             } catch (Exception writeError) {
+                 emitter.completeWithError(writeError);
+             }
+             return emitter;
+         }
          
-         PrintWriter writer = response.getWriter();
-         String dataId = UUID.randomUUID().toString();
+         // 准入控制：超出自适应并发上限时短暂排队，仍无法准入则快速拒绝
+         ConcurrencyLimiter.Permit permit;
+         try {
+             permit = concurrencyLimiter.acquire(request.getClientId());
+         } catch (AdmissionRejectedException e) {
+             log.warn("请求被拒绝：{}，客户端：{}", e.getMessage(), request.getClientId());
+             streamMetrics.rejected();
+             response.setStatus(e.getStatus());
+             response.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+             try {
+                 sink.writeHeader(encoder);
+                 sink.writeError(encoder, e.getMessage(), null);
+                 sink.complete(emitter);
+             } catch (Exception writeError) {
+                 emitter.completeWithError(writeError);
+             }
+             return emitter;
+         }
+         // 结束时释放准入许可并更新活跃流数，只执行一次
+         // 下游断开后生成仍会继续到续传宽限期结束，因此不随emitter的onCompletion释放，由sendEnd或interrupt调用
+         streamMetrics.streamOpened();
+         AtomicBoolean closed = new AtomicBoolean(false);
+         Runnable closeStream = () -> {
+             if (closed.compareAndSet(false, true)) {
+                 permit.release();
+                 streamMetrics.streamClosed();
+             }
+         };
+         
+         // 帧按sequence编号并存入重放缓冲，客户端断开后可凭dataId续传
+         ResumableStream stream = resumeRegistry.open(encoder, sink, emitter);
+         response.setHeader("X-Data-Id", dataId);
+         try {
+             sink.writeHeader(encoder);
+         } catch (IOException e) {
+             log.debug("写出流头失败: {}", e.getMessage());
+         }
+         
+         // 多轮会话：在token预算内组装历史，本轮成功后追加提问和回答
+         ChatMessage question = ChatMessage.user(prompt);
+         ChatSession session = null;
+         List<ChatMessage> messages = Collections.singletonList(question);
+         if (StringUtils.isNotBlank(request.getSessionId())) {
+             if (sessionStore.isEnabled() && request.getSessionId().length() <= SessionStore.MAX_ID_LENGTH) {
+                 session = sessionStore.getOrCreate(request.getClientId(), request.getSessionId());
+                 messages = session.assemble(question);
+                 response.setHeader("X-Session-Id", session.getId());
+             } else {
+                 log.warn("会话未启用或会话ID过长，按单轮处理：{}", request.getSessionId());
+             }
+         }
+         ChatSession chatSession = session;
+         
+         // 结构化输出：随下发的文本增量解析JSON，字段帧紧跟在结束该字段的数据帧之后
+         IncrementalJsonParser fieldParser = request.isStructured()
+             ? new IncrementalJsonParser(stream::writeField) : null;
+         // 失败时的提示文本照常下发但不是模型输出，不进入解析器；节奏下发时记录模型输出的字符数，只解析到该处
+         AtomicLong parsableChars = new AtomicLong(Long.MAX_VALUE);
+         AtomicLong pacedChars = new AtomicLong();
+         
+         // 字符级输出交给节奏调度器按切分策略匀速下发，上游读取线程只负责入缓冲
+         PacedStream pacedStream = segmentation != Segmentation.NONE ? charPacer.register(
+             segmentation, segment -> {
+                 stream.writeData(segment, false);
+                 if (fieldParser != null) {
+                     long offset = pacedChars.getAndAdd(segment.length());
+                     long parsable = parsableChars.get() - offset;
+                     if (parsable > 0) {
+                         fieldParser.feed(parsable >= segment.length() ? segment : segment.substring(0, (int) parsable));
+                     }
+                 }
+             }) : null;
+         
+         // 发送结束标记
+         Runnable sendEnd = () -> {
+             closeStream.run();
+             if (interrupted.get()) {
+                 // 宽限期内未续传或异步超时，生成已放弃
+                 stream.abandon();
+                 log.info("客户端已断开，结束流式响应");
+                 return;
+             }
+             stream.complete();
+             log.info("大模型流式响应完成");
+         };
          
          // 创建消息回调
          MsgCallback msgCallback = new MsgCallback() {
-             private volatile boolean interrupted = false;
+             
+             private boolean firstSent;
+             
+             /** 已进入节奏缓冲的字符数 */
+             private long offeredChars;
              
              @Override
              public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
                  try {
                      if (StringUtils.isNotBlank(message)) {
-                         if (charLevel) {
-                             // 字符级处理：将消息拆分成单个字符
-                             for (int i = 0; i < message.length(); i++) {
-                                 char ch = message.charAt(i);
-                                 String charStr = String.valueOf(ch);
-                                 
-                                 StreamResponseVO data = StreamResponseVO.createData(
-                                     dataId, "LLM_RESPONSE", charStr, null);
-                                 data.setFinished(false);
-                                 
-                                 String jsonData = objectMapper.writeValueAsString(data);
-                                 writer.write(jsonData + "\n");
-                                 writer.flush();
-                                 
-                                 // 添加小延迟，让字符级输出更明显
-                                 try {
-                                     Thread.sleep(50); // 50ms延迟
-                                 } catch (InterruptedException e) {
-                                     Thread.currentThread().interrupt();
-                                     interrupted = true;
-                                     break;
-                                 }
+                         // 失败结束时的提示文本（请求超时等）照常下发，但不是首token，不计入延迟
+                         if (!firstSent && (!isDone || isSuccess)) {
+                             firstSent = true;
+                             permit.onFirstToken();
+                             streamMetrics.recordClientTtft(startNanos);
+                         }
+                         if (pacedStream != null) {
+                             if (!isSuccess) {
+                                 parsableChars.set(offeredChars);
                              }
+                             // 字符级处理：进入节奏缓冲，由调度器拆分成单个字符下发
+                             pacedStream.offer(message);
+                             offeredChars += message.length();
                          } else {
                              // 正常处理：发送整条消息
-                             StreamResponseVO data = StreamResponseVO.createData(
-                                 dataId, "LLM_RESPONSE", message, null);
-                             data.setFinished(isDone);
-                             
-                             String jsonData = objectMapper.writeValueAsString(data);
-                             writer.write(jsonData + "\n");
-                             writer.flush();
+                             stream.writeData(message, isDone);
+                             if (fieldParser != null && isSuccess) {
+                                 fieldParser.feed(message);
+                             }
                          }
                      }
-                     
-                     if (isDone) {
-                         // 发送结束标记
-                         StreamResponseVO endData = StreamResponseVO.createEnd(dataId);
-                         String jsonData = objectMapper.writeValueAsString(endData);
-                         writer.write(jsonData + "\n");
-                         writer.flush();
-                         
-                         log.info("大模型流式响应完成");
-                     }
                  } catch (Exception e) {
                      log.error("发送大模型响应失败", e);
-                     interrupted = true;
+                     interrupted.set(true);
+                 }
+                 
+                 if (isDone) {
+                     if (!isSuccess && !isInterrupted()) {
+                         // 上游失败或超时，释放时回退并发上限
+                         permit.onDropped();
+                     }
+                     if (isSuccess && chatSession != null) {
+                         chatSession.commit(question, lines.toString());
+                         sessionStore.updated(chatSession);
+                     }
+                     // 上游生成已结束，字符级缓冲的下发不再占用并发额度
+                     permit.release();
+                     if (pacedStream != null) {
+                         // 缓冲内容全部下发后再发送结束标记
+                         pacedStream.finish(sendEnd);
+                     } else {
+                         sendEnd.run();
+                     }
                  }
              }
              
              @Override
              public boolean isInterrupted() {
-                 return interrupted;
+                 return interrupted.get() || (pacedStream != null && pacedStream.isCancelled());
+             }
+         };
+         
+         // 续传宽限期内未重连，标记中断并退出共享的上游生成
+         AtomicReference<Flight> flightRef = new AtomicReference<>();
+         Runnable interrupt = () -> {
+             interrupted.set(true);
+             closeStream.run();
+             if (pacedStream != null) {
+                 pacedStream.cancel();
+             }
+             Flight flight = flightRef.get();
+             if (flight != null) {
+                 flight.leave(msgCallback);
+             }
+             stream.abandon();
+         };
+         stream.setAbandonListener(interrupt);
+         // 客户端断开、异步超时或写出失败，解除当前连接，宽限期后仍未续传再中断
+         AtomicBoolean aborted = new AtomicBoolean(false);
+         Runnable disconnected = () -> {
+             if (aborted.compareAndSet(false, true)) {
+                 streamMetrics.clientDisconnect();
              }
+             stream.detach(sink);
          };
+         emitter.onTimeout(() -> {
+             if (aborted.compareAndSet(false, true)) {
+                 streamMetrics.asyncTimeout();
+             }
+             stream.detach(sink);
+         });
+         emitter.onError(e -> disconnected.run());
+         sink.setFailureListener(disconnected);
          
-         // 执行流式请求，传入字符级控制参数
-         executeStreamRequest(requestBody, headers, msgCallback, charLevel);
+         generate(dataId, request.getCacheControl(), messages, maxTokens,
+             Priority.INTERACTIVE, msgCallback, flightRef, permit::ignoreLatency, endpoint -> {
+                 permit.onLaunched();
+                 // 帧计数按主请求的端点打标签，对冲胜出时也不改
+                 sink.setEndpoint(endpoint.getName());
+             });
+         return emitter;
      }
 
     /**
-     * 执行流式请求
+     * 续传：补发sequence大于lastSequence的帧，流仍在生成时接上实时输出
+     * dataId不存在返回404，所需的帧已被淘汰或流已放弃返回410
      */
-    private void executeStreamRequest(String requestBody, Map<String, String> headers, MsgCallback msgCallback, boolean charLevel) {
-        Response response = streamPost(chatUrl, requestBody, headers);
-        if (response != null) {
-            BufferedReader reader = new BufferedReader(response.body().charStream());
+    public ResponseBodyEmitter resume(String dataId, int lastSequence, String accept, String acceptEncoding,
+                                      HttpServletResponse response) {
+        log.info("续传流式响应，dataId：{}，最后收到的sequence：{}", dataId, lastSequence);
+        // 重放的帧已按原流的格式编码，只有压缩按本次连接协商
+        ResumableStream stream = resumeRegistry.get(dataId);
+        WireFormat format = stream != null ? stream.getFormat() : WireFormat.negotiate(null, accept);
+        ContentCoding coding = frameWriterFactory.negotiateCoding(acceptEncoding);
+        setStreamHeaders(response, format, coding);
+        response.setHeader("X-Data-Id", dataId);
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        FrameSink sink = frameWriterFactory.createSink(emitter, coding);
+        ResumableStream.AttachResult result = stream != null
+            ? stream.attach(sink, emitter, lastSequence + 1) : null;
+        if (result != ResumableStream.AttachResult.ATTACHED) {
+            String message;
+            if (result == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                message = "流不存在或已过期";
+            } else {
+                resumeRegistry.recordExpired();
+                response.setStatus(HttpServletResponse.SC_GONE);
+                message = result == ResumableStream.AttachResult.EXPIRED ? "所需的帧已被淘汰，无法续传" : "流已中止，无法续传";
+            }
+            log.warn("续传失败：{}，dataId：{}", message, dataId);
             try {
-                boolean isSuccess = true;
-                boolean isDone = false;
-                String line = null;
-                StringBuffer lines = new StringBuffer();
-                
-                    while((line = reader.readLine()) != null) {
-                        if (line.isEmpty()) {
-                            // 跳过空串
-                            continue;
-                        }
-
-                        if (msgCallback.isInterrupted()) {
-                            isDone = true;
-                            msgCallback.msgCallback("", lines, false, true);
-                            break;
-                        }
-    
-                    // 数据处理
-                    JSONObject jsonObject = streamJsonMsgValidate(line, charLevel);
-                    isSuccess = isSuccess && jsonObject.getBoolean("result");
-                    int code = jsonObject.getInteger("code");
-                    String message = "";
-                    
-                    if (code == 0 || code == 1) {
-                        // code == 0 正常数据
-                        // code == 1 不以data:打头的数据，是一串json
-                        message = jsonObject.getString("message");
+                FrameEncoder encoder = FrameEncoder.create(dataId, format);
+                sink.writeHeader(encoder);
+                sink.writeError(encoder, message, null);
+                sink.complete(emitter);
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+            return emitter;
+        }
+        resumeRegistry.recordResumed();
+        Runnable detach = () -> stream.detach(sink);
+        emitter.onTimeout(detach);
+        emitter.onError(e -> detach.run());
+        sink.setFailureListener(detach);
+        return emitter;
+    }
+
+    /**
+     * 流式响应头：帧格式对应的Content-Type，协商出压缩时加Content-Encoding
+     */
+    private void setStreamHeaders(HttpServletResponse response, WireFormat format, ContentCoding coding) {
+        response.setContentType(format.getMediaType().toString());
+        if (format != WireFormat.CBOR) {
+            response.setCharacterEncoding("UTF-8");
+        }
+        if (coding != ContentCoding.IDENTITY) {
+            response.setHeader("Content-Encoding", coding.getToken());
+        }
+        response.setHeader("Vary", "Accept, Accept-Encoding");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Connection", "keep-alive");
+    }
+
+    /**
+     * 请求的切分策略：显式指定时优先，否则字符级输出使用配置的默认策略，非字符级原样下发
+     */
+    Segmentation resolveSegmentation(StreamRequestVO request) {
+        if (StringUtils.isNotBlank(request.getSegmentation())) {
+            Segmentation segmentation = Segmentation.parse(request.getSegmentation());
+            if (segmentation != null) {
+                return segmentation;
+            }
+            log.warn("不支持的切分策略，按字符级参数处理：{}", request.getSegmentation());
+        }
+        return request.isCharLevel() ? charPacer.getDefaultSegmentation() : Segmentation.NONE;
+    }
+
+    /**
+     * 校验客户端传入的最大token数，它决定配额预扣量，必须在(0, max-output-tokens]内
+     * @return 错误信息，合法时返回null
+     */
+    public String validateMaxTokens(int maxTokens) {
+        if (maxTokens <= 0 || maxTokens > maxOutputTokens) {
+            return "maxTokens须在1到" + maxOutputTokens + "之间";
+        }
+        return null;
+    }
+
+    /**
+     * 应答缓存与请求合并共用的键
+     * @param model 实际服务该请求的端点的模型，不同模型的应答不能互相替代
+     */
+    ResponseCacheKey cacheKey(String model, String prompt, int maxTokens) {
+        return new ResponseCacheKey(model, prompt, maxTokens, temperature, topP, penaltyScore);
+    }
+
+    /**
+     * 多轮上下文的键：单条提问时与单轮请求相同，否则按完整messages区分
+     */
+    ResponseCacheKey cacheKey(String model, List<ChatMessage> messages, int maxTokens) {
+        if (messages.size() == 1) {
+            return cacheKey(model, messages.get(0).getContent(), maxTokens);
+        }
+        return cacheKey(model, toMessagesJson(messages).toJSONString(), maxTokens);
+    }
+
+    /**
+     * 发起一次生成：先按路由选择端点，按其模型查缓存和进行中的相同生成，都没有时取得配额后请求上游
+     * @param dataId 发起方的流标识，记入转录日志
+     * @param priority 配额不足时的排队优先级
+     * @param flightRef 回填本次订阅的Flight，调用方中断时据此退出
+     * @param onShared 没有直接请求上游（命中缓存或合并）时回调，在回放之前执行
+     * @param onLaunched 取得配额、发出上游调用时以所选端点回调，并发限制的延迟样本从这里计时
+     */
+    void generate(String dataId, String cacheControl, List<ChatMessage> messages, int maxTokens,
+                  Priority priority, MsgCallback msgCallback, AtomicReference<Flight> flightRef,
+                  Runnable onShared, Consumer<UpstreamEndpoint> onLaunched) {
+        // 按实时延迟和错误率选择上游端点；缓存和合并的键包含该端点的模型
+        UpstreamEndpoint chosen = upstreamRouter.choose();
+        ResponseCacheKey cacheKey = cacheKey(chosen.getModel(), messages, maxTokens);
+        
+        // 命中缓存直接回放，不请求上游
+        CachedResponse cached = responseCache.lookup(cacheKey, cacheControl);
+        if (cached != null) {
+            log.info("命中应答缓存，回放{}个分片", cached.getChunks().size());
+            onShared.run();
+            responseCache.replay(cached, msgCallback);
+            return;
+        }
+
+        // 相同请求正在生成时直接订阅，不再重复请求上游
+        Flight flight = singleFlightRegistry.join(cacheKey, msgCallback);
+        flightRef.set(flight);
+        if (msgCallback.isInterrupted()) {
+            // 订阅前已断开，不能再以它的名义发起上游调用，否则生成没有订阅者也不会被取消
+            flight.leave(msgCallback);
+            return;
+        }
+        if (!flight.tryStart()) {
+            onShared.run();
+            if (priority == Priority.INTERACTIVE) {
+                // 进行中的生成可能由批量请求发起，仍在等待配额
+                flight.promote();
+            }
+            log.info("合并到进行中的相同生成，当前订阅数：{}", flight.getSubscriberCount());
+            return;
+        }
+
+        // 按提示词估算加输出上限预扣配额，结束后按实际用量更正
+        int promptTokens = estimatePromptTokens(messages);
+        int estimatedTokens = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, (long) promptTokens + maxTokens));
+
+        // 所选端点的API Key配额不足时换用服务同一模型的其他端点
+        if (!quotaScheduler.hasCapacity(chosen, priority, estimatedTokens)) {
+            UpstreamEndpoint alternative = upstreamRouter.choose(chosen, chosen.getModel());
+            if (alternative != chosen && quotaScheduler.hasCapacity(alternative, priority, estimatedTokens)) {
+                chosen = alternative;
+            }
+        }
+        UpstreamEndpoint endpoint = chosen;
+
+        // 成功的完整应答写入缓存
+        MsgCallback upstreamCallback = responseCache.recording(cacheKey, cacheControl, flight);
+
+        // 配额不足时排队；排队期间所有订阅者离开则撤销申请，交互请求合并进来则提升优先级
+        QuotaTicket ticket = quotaScheduler.newTicket(endpoint, priority, estimatedTokens);
+        flight.setCanceller(ticket::cancel);
+        flight.setPromoter(ticket::promote);
+        ticket.submit(() -> {
+                onLaunched.accept(endpoint);
+                launch(flight, endpoint, ticket, dataId, messages, promptTokens, maxTokens, upstreamCallback);
+            },
+            reason -> {
+                log.warn("{}，端点：{}，优先级：{}", reason, endpoint.getName(), ticket.getPriority());
+                upstreamCallback.msgCallback(reason, new StringBuffer("[LLM quota exceeded] " + reason), false, true);
+            });
+    }
+
+    /**
+     * 取得配额后请求上游，并把取消动作替换为取消上游调用
+     */
+    private void launch(Flight flight, UpstreamEndpoint endpoint, QuotaTicket ticket, String dataId,
+                        List<ChatMessage> messages, int promptTokens, int maxTokens, MsgCallback upstreamCallback) {
+        if (hedgingPolicy.isEnabled()) {
+            // 首个内容分片超时未到达时向另一端点发出对冲请求，先出内容者胜出
+            // 对冲请求不能等配额，直接扣减对应API Key的配额
+            AtomicBoolean primary = new AtomicBoolean(true);
+            HedgedRequest hedgedRequest = hedgingPolicy.newRequest(upstreamCallback,
+                (target, callback) -> executeStreamRequest(target,
+                    primary.getAndSet(false) ? ticket : quotaScheduler.charge(target, ticket.getPriority(), ticket.getEstimatedTokens()),
+                    dataId, messages, promptTokens, maxTokens, callback));
+            flight.setCanceller(() -> {
+                cancellationStats.recordCancelled(endpoint, flight.getChunkCount(), maxTokens);
+                hedgedRequest.cancel();
+            });
+            hedgedRequest.start(endpoint);
+        } else {
+            // 异步执行流式请求
+            Call call = executeStreamRequest(endpoint, ticket, dataId, messages, promptTokens, maxTokens, upstreamCallback);
+            // 所有订阅者离开后立即取消，阻塞中的读取随之抛出，连接不再回到连接池
+            flight.setCanceller(() -> {
+                cancellationStats.recordCancelled(endpoint, flight.getChunkCount(), maxTokens);
+                call.cancel();
+            });
+        }
+    }
+
+    /**
+     * 提示词的token估算，与多轮上下文预算口径一致
+     */
+    private int estimatePromptTokens(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += TokenEstimator.estimateMessage(message.getContent());
+        }
+        return tokens;
+    }
+
+    /**
+     * 执行流式请求（异步）
+     */
+    private Call executeStreamRequest(UpstreamEndpoint endpoint, QuotaTicket ticket, String dataId, List<ChatMessage> messages,
+                                      int promptTokens, int maxTokens, MsgCallback msgCallback) {
+        // 构建请求体
+        String requestBody = buildRequestBody(endpoint.getModel(), messages, maxTokens);
+        
+        // 构建请求头
+        Map<String, String> headers = buildHeaders(endpoint.getApiKey());
+        
+        EndpointStats.CallTracker tracker = endpoint.getStats().start();
+        EndpointMeters meters = streamMetrics.endpoint(endpoint);
+        return streamPost(endpoint, requestBody, headers, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // 没有收到响应，不知道上游是否已计数，按提示词结算
+                ticket.complete(promptTokens);
+                if (call.isCanceled()) {
+                    log.info("上游调用已取消: {}", endpoint.getName());
+                    tracker.finish(EndpointStats.Outcome.CANCELLED);
+                    msgCallback.msgCallback("", new StringBuffer(), false, true);
+                    return;
+                }
+                log.error("Http stream post error: {} {}", endpoint.getName(), e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                tracker.finish(EndpointStats.Outcome.FAILURE);
+                meters.requestFailed();
+                msgCallback.msgCallback("请求超时", new StringBuffer("[LLM request failed] " + e.getMessage()), false, true);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                TranscriptRecord transcript = transcriptLog.isEnabled() ? newTranscript(endpoint, tracker, dataId, messages, maxTokens) : null;
+                readStreamResponse(response, msgCallback, tracker, meters, transcript, ticket, promptTokens);
+            }
+        });
+    }
+
+    /**
+     * 读取上游流式响应，同时把首token延迟、token间隔和调用结果记入端点统计和指标
+     * @param transcript 不为null时在结束后补全内容和耗时，交给转录日志异步写入
+     * @param ticket 结束后按上游报告的用量（没有时按估算）更正配额
+     */
+    private void readStreamResponse(Response response, MsgCallback msgCallback, EndpointStats.CallTracker tracker,
+                                    EndpointMeters meters, TranscriptRecord transcript, QuotaTicket ticket, int promptTokens) {
+        if (response.code() == 429) {
+            // 本地记账与上游不一致（其他客户端共用Key等），暂停该Key的调用
+            ticket.throttled(retryAfterMillis(response));
+        }
+        SseEventParser parser = new SseEventParser(response.body().source(), upstreamProperties.getMaxLineBytes());
+        EndpointStats.Outcome outcome = EndpointStats.Outcome.FAILURE;
+        StringBuffer lines = new StringBuffer();
+        try {
+            boolean isSuccess = true;
+            boolean isDone = false;
+            LlmStreamEvent event;
+            
+            while ((event = parser.next()) != null) {
+                if (msgCallback.isInterrupted()) {
+                    isDone = true;
+                    outcome = EndpointStats.Outcome.CANCELLED;
+                    msgCallback.msgCallback("", lines, false, true);
+                    break;
+                }
+
+                // 数据处理
+                String message = "";
+                switch (event.getType()) {
+                    case CONTENT:
+                    case RAW:
+                        // RAW为不以data:打头的数据，是一串json
+                        message = event.getContent();
                         lines.append(message);
-                    }
+                        meters.recordToken(tracker, tracker.onToken(message.length()));
+                        break;
+                    case ERROR:
+                        log.error("API返回错误: code={}, message={}", event.getErrorCode(), event.getErrorMessage());
+                        meters.apiError();
+                        isSuccess = false;
+                        break;
+                    case INVALID:
+                        log.error("解析流式JSON失败: {}", event.getErrorMessage());
+                        meters.invalidResponse();
+                        isSuccess = false;
+                        lines.append("解析失败: ").append(event.getErrorMessage());
+                        break;
+                    default:
+                        // [DONE]
+                        break;
+                }
 
-                    if (isSuccess) {
-                        // 此处只发送成功数据，失败数据等到循环结束发送
-                        if (StringUtils.isNotBlank(message)) {
-                            // 过滤空串
-                            if(StringUtils.isNotBlank(message)){
-                                msgCallback.msgCallback(message, lines, isSuccess, false);
-                            }
-                        }
+                if (isSuccess) {
+                    // 此处只发送成功数据，失败数据等到循环结束发送
+                    if (StringUtils.isNotBlank(message)) {
+                        // 过滤空串
+                        msgCallback.msgCallback(message, lines, isSuccess, false);
                     }
                 }
-                
-                if (!isDone) {
-                    // 被打断，或者失败数据
-                    // 循环中止，仍没有Done
-                    if (isJSONString(lines.toString())) {
-                        // 最后一条数据为json，直接发送
-                        msgCallback.msgCallback("应答失败", new StringBuffer("[LLM response failed] " + lines.toString()), false, true);
-                    } else {
-                        msgCallback.msgCallback("", lines, isSuccess, true);
+            }
+            
+            if (!isDone) {
+                // 被打断，或者失败数据
+                // 循环中止，仍没有Done
+                if (isJSONString(lines.toString())) {
+                    // 最后一条数据为json，直接发送；已收到error事件的不重复计数
+                    if (isSuccess) {
+                        meters.apiError();
                     }
-                }
-            } catch (Exception e) {
-                log.error("[LLM read error] {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
-                msgCallback.msgCallback("链路超时", new StringBuffer("[LLM read error] " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage())), false, true);
-            } finally {
-                try {
-                    reader.close();
-                    response.close();
-                } catch (IOException e) {
-                    log.error("关闭资源失败", e);
+                    msgCallback.msgCallback("应答失败", new StringBuffer("[LLM response failed] " + lines.toString()), false, true);
+                } else {
+                    // 非2xx响应不算成功，避免错误页被当作应答缓存
+                    boolean success = isSuccess && response.isSuccessful();
+                    outcome = success ? EndpointStats.Outcome.SUCCESS : EndpointStats.Outcome.FAILURE;
+                    if (success) {
+                        cancellationStats.recordCompleted(tracker.getTokens());
+                    }
+                    msgCallback.msgCallback("", lines, success, true);
                 }
             }
-        } else {
-            msgCallback.msgCallback("请求超时", new StringBuffer("[LLM request failed] response is null"), false, true);
+        } catch (Exception e) {
+            if (msgCallback.isInterrupted()) {
+                // 客户端断开或对冲落败后主动取消，读取随之中断
+                outcome = EndpointStats.Outcome.CANCELLED;
+                log.info("上游调用已取消: {}", e.getMessage());
+                msgCallback.msgCallback("", new StringBuffer(), false, true);
+                return;
+            }
+            if (e instanceof SseEventParser.LimitExceededException) {
+                // 上游不换行或单个事件过大，不再继续缓冲
+                log.error("上游应答非法: {}", e.getMessage());
+                meters.invalidResponse();
+                msgCallback.msgCallback("应答失败", new StringBuffer("[LLM response failed] " + e.getMessage()), false, true);
+                return;
+            }
+            log.error("[LLM read error] {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            meters.readTimeout();
+            msgCallback.msgCallback("链路超时", new StringBuffer("[LLM read error] " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage())), false, true);
+        } finally {
+            response.close();
+            int usage = parser.getUsageTokens();
+            ticket.complete(usage >= 0 ? usage : promptTokens + TokenEstimator.estimate(lines.toString()));
+            tracker.finish(outcome);
+            meters.recordStreamEnd(tracker, parser.getBytesRead());
+            if (transcript != null) {
+                transcript.setCompletion(lines.toString());
+                transcript.setTtftMs(tracker.getTtftNanos() < 0 ? -1 : (int) (tracker.getTtftNanos() / 1_000_000));
+                transcript.setDurationMs((int) (tracker.getElapsedNanos() / 1_000_000));
+                // 上游报告的输出用量优先，没有报告时按内容估算
+                int completionTokens = parser.getCompletionTokens();
+                transcript.setCompletionTokens(completionTokens >= 0 ? completionTokens : TokenEstimator.estimate(lines.toString()));
+                transcript.setOutcome(TranscriptRecord.Outcome.valueOf(outcome.name()));
+                transcriptLog.append(transcript);
+            }
+        }
+    }
+
+    /**
+     * Retry-After响应头（秒数）换算为毫秒，没有或无法解析时返回-1
+     */
+    private static long retryAfterMillis(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // HTTP日期格式，按默认退避处理
+            }
         }
+        return -1;
+    }
+
+    /**
+     * 转录记录的请求部分，在收到响应时创建；多轮会话只记录本轮提问
+     */
+    private TranscriptRecord newTranscript(UpstreamEndpoint endpoint, EndpointStats.CallTracker tracker, String dataId,
+                                           List<ChatMessage> messages, int maxTokens) {
+        String prompt = messages.get(messages.size() - 1).getContent();
+        TranscriptRecord record = new TranscriptRecord();
+        record.setDataId(dataId);
+        record.setModel(endpoint.getModel());
+        record.setEndpoint(endpoint.getName());
+        record.setPrompt(prompt);
+        record.setMaxTokens(maxTokens);
+        record.setStartTime(System.currentTimeMillis() - tracker.getElapsedNanos() / 1_000_000);
+        return record;
     }
 
     /**
-     * HTTP流式POST请求
+     * HTTP流式POST请求（异步，结果通过callback回调）
      */
-    public Response streamPost(String url, String requestBody, Map<String, String> headers) {
-        Response response = null;
+    public Call streamPost(UpstreamEndpoint endpoint, String requestBody, Map<String, String> headers, Callback callback) {
         Request.Builder builder = new Request.Builder()
-                .url(url)
+                .url(endpoint.getUrl())
                 .post(RequestBody.create(requestBody, MediaType.get("application/json")));
         
         for (Map.Entry<String, String> entry : headers.entrySet()) {
@@ -236,43 +781,50 @@ public class StreamService {
         }
         
         Request request = builder.build();
-        Call call = okHttpClient.newCall(request);
-        try {
-            response = call.execute();
-        } catch (IOException e) {
-            if (response != null) {
-                response.close();
-            }
-            log.error("Http stream post error: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
-        }
-        return response;
+        Call call = endpoint.getClient().newCall(request);
+        call.enqueue(callback);
+        return call;
+    }
+
+    /**
+     * 构建单轮请求体（包可见，供基准测试直接调用）
+     */
+    String buildRequestBody(String endpointModel, String prompt, int maxTokens) {
+        return buildRequestBody(endpointModel, Collections.singletonList(ChatMessage.user(prompt)), maxTokens);
     }
 
     /**
      * 构建请求体
      */
-    private String buildRequestBody(String prompt, int maxTokens) {
+    private String buildRequestBody(String endpointModel, List<ChatMessage> messages, int maxTokens) {
         JSONObject requestBody = new JSONObject();
-        requestBody.put("model", model);
+        requestBody.put("model", endpointModel);
         requestBody.put("stream", true);
         requestBody.put("max_output_tokens", maxTokens);
-        requestBody.put("temperature", 0.95);
-        requestBody.put("top_p", 0.7);
-        requestBody.put("penalty_score", 1.0);
-        
-        JSONObject message = new JSONObject();
-        message.put("role", "user");
-        message.put("content", prompt);
+        requestBody.put("temperature", temperature);
+        requestBody.put("top_p", topP);
+        requestBody.put("penalty_score", penaltyScore);
         
-        requestBody.put("messages", new Object[]{message});
+        requestBody.put("messages", toMessagesJson(messages));
         
         return requestBody.toJSONString();
     }
 
+    private JSONArray toMessagesJson(List<ChatMessage> messages) {
+        JSONArray array = new JSONArray(messages.size());
+        for (ChatMessage chatMessage : messages) {
+            JSONObject message = new JSONObject();
+            message.put("role", chatMessage.getRole());
+            message.put("content", chatMessage.getContent());
+            array.add(message);
+        }
+        return array;
+    }
+
     /**
      * 构建请求头
      */
-    private Map<String, String> buildHeaders() {
+    private Map<String, String> buildHeaders(String apiKey) {
         Map<String, String> headers = new HashMap<>();
         headers.put("Content-Type", "application/json");
         headers.put("Authorization", "Bearer " + apiKey);
@@ -280,82 +832,6 @@ public class StreamService {
         return headers;
     }
 
-    /**
-     * 流式JSON消息验证（增强字符级处理）
-     */
-    private JSONObject streamJsonMsgValidate(String line, boolean charLevel) {
-        JSONObject result = new JSONObject();
-        result.put("result", true);
-        result.put("code", 0);
-        result.put("message", "");
-        
-        try {
-            if (line.startsWith("data: ")) {
-                String jsonStr = line.substring(6);
-                if ("[DONE]".equals(jsonStr)) {
-                    result.put("code", -1);
-                    return result;
-                }
-                
-                JSONObject jsonObject = JSONObject.parseObject(jsonStr);
-                
-                // 检查是否有错误
-                if (jsonObject.containsKey("error")) {
-                    JSONObject error = jsonObject.getJSONObject("error");
-                    String errorCode = error.getString("code");
-                    String errorMessage = error.getString("message");
-                    log.error("API返回错误: code={}, message={}", errorCode, errorMessage);
-                    result.put("result", false);
-                    result.put("code", -2);
-                    result.put("message", "API错误: " + errorMessage);
-                    return result;
-                }
-                
-                // 百度千帆API响应格式解析
-                String content = "";
-                if (jsonObject.containsKey("result")) {
-                    content = jsonObject.getString("result");
-                } else if (jsonObject.containsKey("choices") && jsonObject.getJSONArray("choices").size() > 0) {
-                    // 兼容OpenAI格式
-                    JSONObject choice = jsonObject.getJSONArray("choices").getJSONObject(0);
-                    if (choice.containsKey("delta") && choice.getJSONObject("delta").containsKey("content")) {
-                        content = choice.getJSONObject("delta").getString("content");
-                    }
-                }
-                
-                if (StringUtils.isNotBlank(content)) {
-                    result.put("message", content);
-                }
-            } else {
-                // 不以data:打头的数据，是一串json
-                result.put("code", 1);
-                result.put("message", line);
-                
-                // 检查是否是错误响应
-                try {
-                    JSONObject jsonObject = JSONObject.parseObject(line);
-                    if (jsonObject.containsKey("error")) {
-                        JSONObject error = jsonObject.getJSONObject("error");
-                        String errorCode = error.getString("code");
-                        String errorMessage = error.getString("message");
-                        log.error("API返回错误: code={}, message={}", errorCode, errorMessage);
-                        result.put("result", false);
-                        result.put("code", -2);
-                        result.put("message", "API错误: " + errorMessage);
-                    }
-                } catch (Exception e) {
-                    // 不是JSON格式，忽略
-                }
-            }
-        } catch (Exception e) {
-            log.error("解析流式JSON失败: {}", e.getMessage());
-            result.put("result", false);
-            result.put("message", "解析失败: " + e.getMessage());
-        }
-        
-        return result;
-    }
-
     /**
      * 判断是否为JSON字符串
      */
@@ -0,0 +1,453 @@
+package com.demo.llmstreaming.service;
+
+import com.demo.llmstreaming.service.flight.Flight;
+import com.demo.llmstreaming.service.limit.ConcurrencyLimiter;
+import com.demo.llmstreaming.service.metrics.StreamMetrics;
+import com.demo.llmstreaming.service.pacing.CharPacer;
+import com.demo.llmstreaming.service.pacing.PacedStream;
+import com.demo.llmstreaming.service.pacing.Segmentation;
+import com.demo.llmstreaming.service.quota.Priority;
+import com.demo.llmstreaming.service.session.ChatMessage;
+import com.demo.llmstreaming.service.session.ChatSession;
+import com.demo.llmstreaming.service.session.SessionStore;
+import com.demo.llmstreaming.service.structured.IncrementalJsonParser;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameMeters;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.demo.llmstreaming.service.writer.FrameWriterFactory;
+import com.demo.llmstreaming.service.ws.WebSocketOutput;
+import com.demo.llmstreaming.vo.StreamRequestVO;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket多路流式服务
+ * 一个连接上可同时进行多个生成，帧与/api/stream/llm的NDJSON帧相同，以客户端指定的id作为dataId区分；
+ * 同一连接的所有生成共用一个FrameSink，flush窗口内各生成的帧合并为一条WebSocket消息。
+ * 取消某个生成时立即退出所在的Flight，没有其他订阅者时上游请求随之取消；连接断开时取消其上的所有生成
+ */
+@Slf4j
+@Service
+public class WebSocketStreamService {
+
+    private static final String CANCELLED = "CANCELLED";
+
+    @Autowired
+    private StreamService streamService;
+
+    @Autowired
+    private FrameWriterFactory frameWriterFactory;
+
+    @Autowired
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private StreamMetrics streamMetrics;
+
+    @Autowired
+    private CharPacer charPacer;
+
+    @Autowired
+    private SessionStore sessionStore;
+
+    @Autowired
+    @Qualifier("streamDataTaskExecutor")
+    private AsyncTaskExecutor streamDataTaskExecutor;
+
+    @Value("${llm.ws.max-generations-per-connection:16}")
+    private int maxGenerations;
+
+    @Value("${llm.ws.max-buffered-bytes:1048576}")
+    private int maxBufferedBytes;
+
+    @Value("${llm.ws.send-timeout-ms:30000}")
+    private long sendTimeoutMs;
+
+    private final Map<String, Connection> connections = new ConcurrentHashMap<>();
+
+    private final WebSocketOutput.Stats outputStats = new WebSocketOutput.Stats();
+
+    private final LongAdder generations = new LongAdder();
+
+    private final LongAdder cancelled = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * 连接建立
+     * @param clientId 客户端标识（握手时API Key的指纹或地址），用于并发额度的公平份额和会话归属
+     */
+    public void open(WebSocketSession session, String clientId) {
+        Connection connection = new Connection(session, clientId);
+        connections.put(session.getId(), connection);
+        log.info("WebSocket连接建立：{}，客户端：{}", session.getId(), clientId);
+    }
+
+    /**
+     * 开始一个生成，id在连接内唯一
+     */
+    public void start(WebSocketSession session, String id, StreamRequestVO request) {
+        Connection connection = connections.get(session.getId());
+        if (connection == null) {
+            return;
+        }
+        if (StringUtils.isBlank(id)) {
+            connection.writeError(null, "id不能为空");
+            return;
+        }
+        if (StringUtils.isBlank(request.getPrompt())) {
+            connection.writeError(id, "提示词不能为空");
+            return;
+        }
+        String invalidMaxTokens = streamService.validateMaxTokens(request.getMaxTokens());
+        if (invalidMaxTokens != null) {
+            connection.writeError(id, invalidMaxTokens);
+            return;
+        }
+        ConcurrencyLimiter.Permit permit;
+        Generation generation;
+        synchronized (connection) {
+            if (connection.generations.containsKey(id)) {
+                connection.writeError(id, "id已存在");
+                return;
+            }
+            if (connection.generations.size() >= maxGenerations) {
+                connection.writeError(id, "连接上进行中的生成超过上限" + maxGenerations);
+                return;
+            }
+            // 不排队等待，避免阻塞WebSocket读取线程上同一连接的其他指令
+            permit = concurrencyLimiter.tryAcquire(connection.clientId);
+            if (permit == null) {
+                rejected.increment();
+                streamMetrics.rejected();
+                connection.writeError(id, "服务繁忙，请稍后重试");
+                return;
+            }
+            generation = new Generation(connection, id, request, permit);
+            connection.generations.put(id, generation);
+        }
+        generations.increment();
+        generation.start();
+    }
+
+    /**
+     * 取消一个生成，id不存在或已结束时忽略
+     */
+    public void cancel(WebSocketSession session, String id) {
+        Connection connection = connections.get(session.getId());
+        Generation generation = connection != null && id != null ? connection.generations.get(id) : null;
+        if (generation != null) {
+            generation.cancel(true);
+        }
+    }
+
+    /**
+     * 发送一个与生成无关的错误帧，如无法解析的指令
+     */
+    public void rejectCommand(WebSocketSession session, String id, String message) {
+        Connection connection = connections.get(session.getId());
+        if (connection != null) {
+            connection.writeError(id, message);
+        }
+    }
+
+    /**
+     * 连接断开或出错，取消其上的所有生成
+     */
+    public void close(WebSocketSession session, CloseStatus status) {
+        Connection connection = connections.remove(session.getId());
+        if (connection != null) {
+            log.info("WebSocket连接关闭：{}，状态：{}", session.getId(), status);
+            connection.close();
+        }
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        int active = 0;
+        for (Connection connection : connections.values()) {
+            active += connection.generations.size();
+        }
+        snapshot.put("connections", connections.size());
+        snapshot.put("activeGenerations", active);
+        snapshot.put("generations", generations.sum());
+        snapshot.put("cancelled", cancelled.sum());
+        snapshot.put("rejected", rejected.sum());
+        snapshot.put("messages", outputStats.getMessages());
+        snapshot.put("coalescedWrites", outputStats.getCoalesced());
+        snapshot.put("bufferOverflows", outputStats.getOverflows());
+        return snapshot;
+    }
+
+    /**
+     * 一个WebSocket连接
+     */
+    private class Connection {
+
+        private final String clientId;
+
+        private final FrameSink sink;
+
+        private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        Connection(WebSocketSession session, String clientId) {
+            this.clientId = clientId;
+            this.sink = frameWriterFactory.createSink(new WebSocketOutput(session, maxBufferedBytes, sendTimeoutMs, outputStats));
+            // 连接上的各个生成可能来自不同端点，帧计数不区分端点
+            sink.setEndpoint(FrameMeters.MULTIPLEXED);
+            // 发送缓冲超限或发送失败：客户端读取过慢，关闭连接并取消所有生成
+            sink.setFailureListener(() -> {
+                if (closed.get()) {
+                    return;
+                }
+                streamMetrics.clientDisconnect();
+                WebSocketStreamService.this.close(session, CloseStatus.SERVICE_OVERLOAD);
+                // 关闭帧要等进行中的发送完成，可能阻塞到发送超时，不占用调度线程
+                streamDataTaskExecutor.execute(() -> {
+                    try {
+                        session.close(CloseStatus.SERVICE_OVERLOAD.withReason("send buffer full"));
+                    } catch (IOException e) {
+                        log.debug("关闭WebSocket连接失败: {}", e.getMessage());
+                    }
+                });
+            });
+        }
+
+        void writeError(String id, String message) {
+            log.warn("WebSocket指令错误：{}，id：{}", message, id);
+            write(() -> sink.writeError(new FrameEncoder(id != null ? id : ""), message, null));
+        }
+
+        void write(FrameWrite frameWrite) {
+            if (closed.get() || sink.isFailed()) {
+                return;
+            }
+            try {
+                frameWrite.write();
+            } catch (Exception e) {
+                if (sink.isFailed()) {
+                    log.info("WebSocket连接已断开：{}", e.getMessage());
+                } else {
+                    log.error("发送WebSocket消息失败", e);
+                }
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            List<Generation> active = new ArrayList<>(generations.values());
+            if (!active.isEmpty()) {
+                log.info("WebSocket连接已断开，取消进行中的{}个生成", active.size());
+            }
+            for (Generation generation : active) {
+                generation.cancel(false);
+            }
+            try {
+                sink.close();
+            } catch (IOException e) {
+                log.debug("关闭WebSocket写出器失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private interface FrameWrite {
+        void write() throws Exception;
+    }
+
+    /**
+     * 连接上的一个生成，sequence在该生成内从0递增
+     */
+    private class Generation implements MsgCallback {
+
+        private final Connection connection;
+
+        private final String prompt;
+
+        private final int maxTokens;
+
+        private final String cacheControl;
+
+        private final String sessionId;
+
+        private final FrameEncoder encoder;
+
+        private final FrameEncoder cancelledEncoder;
+
+        private final ConcurrencyLimiter.Permit permit;
+
+        private final PacedStream pacedStream;
+
+        /** 结构化输出时不为null */
+        private final IncrementalJsonParser fieldParser;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        private final AtomicReference<Flight> flightRef = new AtomicReference<>();
+
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private final AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        private ChatSession chatSession;
+
+        private ChatMessage question;
+
+        private boolean firstSent;
+
+        Generation(Connection connection, String id, StreamRequestVO request, ConcurrencyLimiter.Permit permit) {
+            this.connection = connection;
+            this.prompt = request.getPrompt();
+            this.maxTokens = request.getMaxTokens();
+            this.cacheControl = request.getCacheControl();
+            this.sessionId = request.getSessionId();
+            this.encoder = new FrameEncoder(id);
+            this.cancelledEncoder = new FrameEncoder(id, CANCELLED);
+            this.permit = permit;
+            this.fieldParser = request.isStructured() ? new IncrementalJsonParser((path, value) ->
+                connection.write(() -> connection.sink.writeField(encoder, path, value, sequence.getAndIncrement()))) : null;
+            Segmentation segmentation = streamService.resolveSegmentation(request);
+            this.pacedStream = segmentation != Segmentation.NONE ? charPacer.register(segmentation, this::writeData) : null;
+        }
+
+        void start() {
+            log.info("WebSocket开始生成：{}，提示词：{}", encoder.getDataId(), prompt);
+            streamMetrics.streamOpened();
+            question = ChatMessage.user(prompt);
+            List<ChatMessage> messages = Collections.singletonList(question);
+            if (StringUtils.isNotBlank(sessionId)) {
+                if (sessionStore.isEnabled() && sessionId.length() <= SessionStore.MAX_ID_LENGTH) {
+                    chatSession = sessionStore.getOrCreate(connection.clientId, sessionId);
+                    messages = chatSession.assemble(question);
+                } else {
+                    log.warn("会话未启用或会话ID过长，按单轮处理：{}", sessionId);
+                }
+            }
+            streamService.generate(encoder.getDataId(), cacheControl, messages, maxTokens, Priority.INTERACTIVE,
+                this, flightRef, permit::ignoreLatency, endpoint -> permit.onLaunched());
+        }
+
+        @Override
+        public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            if (done.get()) {
+                return;
+            }
+            if (StringUtils.isNotBlank(message) && !isInterrupted() && (!isDone || isSuccess)) {
+                if (!firstSent) {
+                    firstSent = true;
+                    permit.onFirstToken();
+                    streamMetrics.recordClientTtft(startNanos);
+                }
+                if (pacedStream != null) {
+                    pacedStream.offer(message);
+                } else {
+                    writeData(message);
+                }
+            }
+            if (!isDone || !done.compareAndSet(false, true)) {
+                return;
+            }
+            if (!isSuccess && !isInterrupted()) {
+                permit.onDropped();
+            }
+            permit.release();
+            if (isInterrupted()) {
+                // 已由cancel结束
+                return;
+            }
+            if (isSuccess && chatSession != null) {
+                chatSession.commit(question, lines.toString());
+                sessionStore.updated(chatSession);
+            }
+            Runnable sendEnd = () -> {
+                if (isInterrupted()) {
+                    // 节奏下发期间被取消，已回复CANCELLED帧
+                    return;
+                }
+                if (!isSuccess) {
+                    // 上游失败或超时（包括已输出部分内容后失败）
+                    String errorMessage = StringUtils.isNotBlank(message) ? message : "应答失败";
+                    connection.write(() -> connection.sink.writeError(encoder, errorMessage, sequence.getAndIncrement()));
+                }
+                connection.write(() -> connection.sink.writeEnd(encoder, sequence.getAndIncrement()));
+                finish();
+                log.info("WebSocket生成完成：{}", encoder.getDataId());
+            };
+            if (pacedStream != null) {
+                // 缓冲内容全部下发后再发送结束标记
+                pacedStream.finish(sendEnd);
+            } else {
+                sendEnd.run();
+            }
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return interrupted.get();
+        }
+
+        /**
+         * 下发一段内容，结构化输出时随后下发其中结束的字段
+         */
+        private void writeData(String content) {
+            connection.write(() -> connection.sink.writeData(encoder, content, false, sequence.getAndIncrement()));
+            if (fieldParser != null) {
+                fieldParser.feed(content);
+            }
+        }
+
+        /**
+         * 退出所在的生成并释放额度，Flight没有其他订阅者时立即取消上游请求
+         * @param notify 客户端主动取消时回复CANCELLED帧，连接断开时不再发送
+         */
+        void cancel(boolean notify) {
+            if (!interrupted.compareAndSet(false, true)) {
+                return;
+            }
+            cancelled.increment();
+            permit.release();
+            if (pacedStream != null) {
+                pacedStream.cancel();
+            }
+            Flight flight = flightRef.get();
+            if (flight != null) {
+                flight.leave(this);
+            }
+            finish();
+            if (notify) {
+                log.info("WebSocket生成已取消：{}", encoder.getDataId());
+                connection.write(() -> connection.sink.writeData(cancelledEncoder, "已取消", true, sequence.getAndIncrement()));
+            }
+        }
+
+        private void finish() {
+            if (connection.generations.remove(encoder.getDataId(), this)) {
+                streamMetrics.streamClosed();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.demo.llmstreaming.service.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 缓存的完整应答，按上游原始分片保存，回放时保持相同的分片节奏
+ */
+public class CachedResponse {
+
+    private final List<String> chunks;
+
+    private final int weight;
+
+    CachedResponse(List<String> chunks) {
+        this.chunks = Collections.unmodifiableList(chunks);
+        int chars = 0;
+        for (String chunk : chunks) {
+            chars += chunk.length();
+        }
+        // 每个分片按String对象头+数组头约40字节估算
+        this.weight = 32 + chunks.size() * 40 + chars * 2;
+    }
+
+    public List<String> getChunks() {
+        return chunks;
+    }
+
+    int weight() {
+        return weight;
+    }
+}
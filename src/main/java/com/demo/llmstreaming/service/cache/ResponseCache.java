@@ -0,0 +1,139 @@
+package com.demo.llmstreaming.service.cache;
+
+import com.demo.llmstreaming.service.MsgCallback;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 应答缓存
+ * 相同(端点模型, prompt, max_output_tokens, temperature, top_p, penalty_score)的完整应答按总字节数限额缓存，
+ * W-TinyLFU淘汰并带TTL；命中时通过同一个MsgCallback回放，不再请求上游
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+    /** 不读缓存，但生成结果仍写入 */
+    public static final String NO_CACHE = "no-cache";
+
+    /** 不读也不写缓存 */
+    public static final String NO_STORE = "no-store";
+
+    @Value("${llm.cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${llm.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    @Value("${llm.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private Cache<ResponseCacheKey, CachedResponse> cache;
+
+    private final LongAdder bypasses = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<ResponseCacheKey, CachedResponse>weigher((key, value) -> key.weight() + value.weight())
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询缓存
+     * @return 未启用、被cacheControl跳过或未命中时返回null
+     */
+    public CachedResponse lookup(ResponseCacheKey key, String cacheControl) {
+        if (!enabled) {
+            return null;
+        }
+        if (isBypass(cacheControl)) {
+            bypasses.increment();
+            return null;
+        }
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 包装上游回调：记录成功的分片，生成成功结束后写入缓存
+     */
+    public MsgCallback recording(ResponseCacheKey key, String cacheControl, MsgCallback delegate) {
+        if (!enabled || NO_STORE.equalsIgnoreCase(StringUtils.trim(cacheControl))) {
+            return delegate;
+        }
+        return new MsgCallback() {
+            private final List<String> chunks = new ArrayList<>();
+
+            @Override
+            public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+                if (isSuccess && !isDone && StringUtils.isNotBlank(message)) {
+                    chunks.add(message);
+                }
+                if (isDone && isSuccess && !chunks.isEmpty() && !delegate.isInterrupted()) {
+                    cache.put(key, new CachedResponse(chunks));
+                }
+                delegate.msgCallback(message, lines, isSuccess, isDone);
+            }
+
+            @Override
+            public boolean isInterrupted() {
+                return delegate.isInterrupted();
+            }
+        };
+    }
+
+    /**
+     * 通过回调回放缓存的应答
+     */
+    public void replay(CachedResponse response, MsgCallback msgCallback) {
+        StringBuffer lines = new StringBuffer();
+        for (String chunk : response.getChunks()) {
+            if (msgCallback.isInterrupted()) {
+                msgCallback.msgCallback("", lines, false, true);
+                return;
+            }
+            lines.append(chunk);
+            msgCallback.msgCallback(chunk, lines, true, false);
+        }
+        msgCallback.msgCallback("", lines, true, true);
+    }
+
+    public Map<String, Object> snapshot() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("hits", stats.hitCount());
+        snapshot.put("misses", stats.missCount());
+        snapshot.put("evictions", stats.evictionCount());
+        snapshot.put("bypasses", bypasses.sum());
+        snapshot.put("entries", cache.estimatedSize());
+        snapshot.put("weightedBytes", cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        snapshot.put("maxBytes", maxBytes);
+        return snapshot;
+    }
+
+    private boolean isBypass(String cacheControl) {
+        String value = StringUtils.trim(cacheControl);
+        return NO_CACHE.equalsIgnoreCase(value) || NO_STORE.equalsIgnoreCase(value);
+    }
+}
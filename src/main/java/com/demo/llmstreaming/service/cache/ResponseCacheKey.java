@@ -0,0 +1,29 @@
+package com.demo.llmstreaming.service.cache;
+
+import lombok.Value;
+
+/**
+ * 响应缓存键：决定一次生成结果的全部请求参数
+ */
+@Value
+public class ResponseCacheKey {
+
+    String model;
+
+    String prompt;
+
+    int maxOutputTokens;
+
+    double temperature;
+
+    double topP;
+
+    double penaltyScore;
+
+    /**
+     * 估算占用字节数
+     */
+    int weight() {
+        return 64 + (model.length() + prompt.length()) * 2;
+    }
+}
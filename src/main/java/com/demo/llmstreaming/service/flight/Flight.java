@@ -0,0 +1,304 @@
+package com.demo.llmstreaming.service.flight;
+
+import com.demo.llmstreaming.service.MsgCallback;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 一次共享的上游生成
+ * 作为上游回调接收分片并扇出给所有订阅者；后加入的订阅者先回放已产生的分片再跟随实时分片。
+ * 最后一个订阅者离开时取消上游调用。
+ * 锁内只追加分片、把事件放入各订阅者的队列，回调（下游写出）在锁外执行，慢订阅者不阻塞加入、离开和其他订阅者；
+ * 每个订阅者的队列同一时刻只由一个线程下发，回放与实时分片按入队顺序到达，不会交错
+ */
+@Slf4j
+public class Flight implements MsgCallback {
+
+    private final Object key;
+
+    private final SingleFlightRegistry registry;
+
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    /** 已产生的分片，供后加入者回放 */
+    private final List<String> chunks = new ArrayList<>();
+
+    private final StringBuffer lines = new StringBuffer();
+
+    private boolean started;
+
+    private boolean closed;
+
+    private volatile boolean cancelled;
+
+    private Runnable canceller;
+
+    private Runnable promoter;
+
+    private boolean promoted;
+
+    Flight(Object key, SingleFlightRegistry registry) {
+        this.key = key;
+        this.registry = registry;
+    }
+
+    /**
+     * 加入订阅
+     * @return false表示该生成已结束或已取消，需要重新发起
+     */
+    boolean subscribe(MsgCallback callback) {
+        Subscriber subscriber = new Subscriber(callback);
+        synchronized (this) {
+            if (closed || cancelled) {
+                return false;
+            }
+            if (!chunks.isEmpty()) {
+                // 回放时的累积内容取加入时已产生的全部分片
+                StringBuffer replayLines = new StringBuffer(lines);
+                for (String chunk : chunks) {
+                    subscriber.enqueue(chunk, replayLines, true, false);
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        subscriber.drain();
+        return true;
+    }
+
+    /**
+     * 抢占发起上游调用的权利，只有第一个调用者返回true
+     */
+    public synchronized boolean tryStart() {
+        if (started) {
+            return false;
+        }
+        started = true;
+        return true;
+    }
+
+    /**
+     * 关联上游调用的取消动作，用于最后一个订阅者离开时取消
+     */
+    public void setCanceller(Runnable canceller) {
+        boolean cancelNow;
+        synchronized (this) {
+            this.canceller = canceller;
+            cancelNow = cancelled;
+        }
+        if (cancelNow) {
+            canceller.run();
+        }
+    }
+
+    /**
+     * 关联提升上游调用优先级的动作（批量请求排队等待配额时）
+     */
+    public void setPromoter(Runnable promoter) {
+        boolean promoteNow;
+        synchronized (this) {
+            this.promoter = promoter;
+            promoteNow = promoted;
+        }
+        if (promoteNow) {
+            promoter.run();
+        }
+    }
+
+    /**
+     * 交互请求合并到该生成时提升优先级，避免跟着批量请求排队
+     */
+    public void promote() {
+        Runnable toPromote;
+        synchronized (this) {
+            if (promoted) {
+                return;
+            }
+            promoted = true;
+            toPromote = promoter;
+        }
+        if (toPromote != null) {
+            toPromote.run();
+        }
+    }
+
+    /**
+     * 订阅者离开（客户端断开等）
+     */
+    public void leave(MsgCallback callback) {
+        Runnable toCancel = null;
+        List<Subscriber> left = new ArrayList<>(1);
+        synchronized (this) {
+            Iterator<Subscriber> iterator = subscribers.iterator();
+            while (iterator.hasNext()) {
+                Subscriber subscriber = iterator.next();
+                if (subscriber.callback == callback) {
+                    iterator.remove();
+                    // 结束回调排在已入队的分片之后，离开后不再入队
+                    subscriber.enqueue("", lines, false, true);
+                    left.add(subscriber);
+                }
+            }
+            if (subscribers.isEmpty() && !closed && !cancelled) {
+                // 尚未发起的生成同样作废并移出注册表，之后的相同请求重新发起
+                cancelled = true;
+                toCancel = started ? canceller : null;
+            }
+        }
+        for (Subscriber subscriber : left) {
+            subscriber.drain();
+        }
+        if (cancelled) {
+            registry.remove(key, this);
+        }
+        if (toCancel != null) {
+            log.info("所有订阅者已离开，取消上游调用");
+            toCancel.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 已产生的内容分片数
+     */
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    @Override
+    public void msgCallback(String message, StringBuffer upstreamLines, boolean isSuccess, boolean isDone) {
+        Subscriber[] targets;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (!isDone && isSuccess && StringUtils.isNotBlank(message)) {
+                chunks.add(message);
+                lines.append(message);
+            }
+            targets = subscribers.toArray(new Subscriber[0]);
+            for (Subscriber subscriber : targets) {
+                subscriber.enqueue(message, upstreamLines, isSuccess, isDone);
+            }
+            if (isDone) {
+                closed = true;
+                subscribers.clear();
+            }
+        }
+        if (isDone) {
+            registry.remove(key, this);
+        }
+        for (Subscriber subscriber : targets) {
+            subscriber.drain();
+        }
+    }
+
+    @Override
+    public boolean isInterrupted() {
+        if (cancelled) {
+            return true;
+        }
+        Subscriber[] current;
+        synchronized (this) {
+            current = subscribers.toArray(new Subscriber[0]);
+        }
+        List<Subscriber> gone = null;
+        for (Subscriber subscriber : current) {
+            if (subscriber.callback.isInterrupted()) {
+                if (gone == null) {
+                    gone = new ArrayList<>();
+                }
+                gone.add(subscriber);
+            }
+        }
+        if (gone != null) {
+            for (Subscriber subscriber : gone) {
+                leave(subscriber.callback);
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * 订阅者，事件按入队顺序下发，结束回调只入队一次
+     */
+    private static class Subscriber {
+        private final MsgCallback callback;
+
+        private final ArrayDeque<Event> pending = new ArrayDeque<>();
+
+        /** 有线程正在下发本订阅者的队列 */
+        private boolean draining;
+
+        Subscriber(MsgCallback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * 在Flight的锁内调用，入队顺序即下发顺序
+         */
+        synchronized void enqueue(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            pending.add(new Event(message, lines, isSuccess, isDone));
+        }
+
+        /**
+         * 在Flight的锁外调用；已有线程在下发时直接返回，由该线程接着下发新入队的事件
+         */
+        void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = pending.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    callback.msgCallback(event.message, event.lines, event.isSuccess, event.isDone);
+                } catch (RuntimeException e) {
+                    log.error("订阅者回调失败", e);
+                } catch (Error e) {
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static final class Event {
+        final String message;
+
+        final StringBuffer lines;
+
+        final boolean isSuccess;
+
+        final boolean isDone;
+
+        Event(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            this.message = message;
+            this.lines = lines;
+            this.isSuccess = isSuccess;
+            this.isDone = isDone;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.demo.llmstreaming.service.flight;
+
+import com.demo.llmstreaming.service.MsgCallback;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进行中生成的注册表
+ * 相同缓存键的并发请求合并为一次上游调用，各自保留自己的dataId、字符级设置和断开处理
+ */
+@Component
+public class SingleFlightRegistry {
+
+    @Value("${llm.single-flight.enabled:true}")
+    private boolean enabled;
+
+    private final Map<Object, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder started = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 加入或新建一次生成，调用方需通过Flight.tryStart()判断是否由自己发起上游调用
+     * @param key 缓存键，null或未启用时总是新建且不注册
+     */
+    public Flight join(Object key, MsgCallback callback) {
+        if (!enabled || key == null) {
+            Flight flight = new Flight(new Object(), this);
+            flight.subscribe(callback);
+            started.increment();
+            return flight;
+        }
+        while (true) {
+            boolean[] created = new boolean[1];
+            Flight flight = flights.computeIfAbsent(key, k -> {
+                created[0] = true;
+                return new Flight(k, this);
+            });
+            if (flight.subscribe(callback)) {
+                if (created[0]) {
+                    started.increment();
+                } else {
+                    coalesced.increment();
+                }
+                return flight;
+            }
+            // 已结束或已取消，移除后重新发起
+            flights.remove(key, flight);
+        }
+    }
+
+    void remove(Object key, Flight flight) {
+        flights.remove(key, flight);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("inFlight", flights.size());
+        snapshot.put("upstreamStarted", started.sum());
+        snapshot.put("coalesced", coalesced.sum());
+        return snapshot;
+    }
+}
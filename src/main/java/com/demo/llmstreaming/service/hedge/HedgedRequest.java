@@ -0,0 +1,242 @@
+package com.demo.llmstreaming.service.hedge;
+
+import com.demo.llmstreaming.service.MsgCallback;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import com.demo.llmstreaming.service.upstream.UpstreamRouter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一次可对冲的上游请求
+ * 主请求发出后计时，超过对冲延迟仍没有内容分片时，在预算内向另一端点发出相同请求；
+ * 先产生内容的一路胜出并转发给下游回调，另一路立即取消。
+ * 某一路在出内容前失败时，只要另一路仍在进行就不向下游报错
+ */
+@Slf4j
+public class HedgedRequest {
+
+    /**
+     * 向指定端点发起流式调用
+     */
+    public interface Launcher {
+        Call launch(UpstreamEndpoint endpoint, MsgCallback callback);
+    }
+
+    private final HedgingPolicy policy;
+
+    private final UpstreamRouter router;
+
+    private final ThreadPoolTaskScheduler scheduler;
+
+    private final MsgCallback delegate;
+
+    private final Launcher launcher;
+
+    /** 主请求发出的时间，首token延迟样本从这里计时 */
+    private volatile long startNanos;
+
+    /** 以下字段由本对象的锁保护 */
+    private final List<Attempt> attempts = new ArrayList<>(2);
+
+    private Attempt winner;
+
+    private boolean cancelled;
+
+    private ScheduledFuture<?> hedgeTimer;
+
+    HedgedRequest(HedgingPolicy policy, UpstreamRouter router, ThreadPoolTaskScheduler scheduler,
+                  MsgCallback delegate, Launcher launcher) {
+        this.policy = policy;
+        this.router = router;
+        this.scheduler = scheduler;
+        this.delegate = delegate;
+        this.launcher = launcher;
+    }
+
+    /**
+     * 向主端点发起请求，并安排对冲计时
+     */
+    public void start(UpstreamEndpoint endpoint) {
+        policy.recordPrimary();
+        startNanos = System.nanoTime();
+        launch(endpoint, false);
+        long delayMs = policy.currentDelayMs();
+        ScheduledFuture<?> timer = scheduler.schedule(this::fireHedge, Instant.now().plusMillis(delayMs));
+        synchronized (this) {
+            hedgeTimer = timer;
+            if (winner != null || cancelled) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 取消所有进行中的调用
+     */
+    public void cancel() {
+        List<Attempt> toCancel;
+        synchronized (this) {
+            cancelled = true;
+            toCancel = new ArrayList<>(attempts);
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+        }
+        for (Attempt attempt : toCancel) {
+            attempt.cancel();
+        }
+    }
+
+    private void launch(UpstreamEndpoint endpoint, boolean hedge) {
+        Attempt attempt = new Attempt(endpoint, hedge);
+        synchronized (this) {
+            if (hedge && (winner != null || cancelled)) {
+                // 计时触发的同时主请求已出内容
+                return;
+            }
+            attempts.add(attempt);
+        }
+        attempt.setCall(launcher.launch(endpoint, attempt));
+    }
+
+    private void fireHedge() {
+        UpstreamEndpoint primaryEndpoint;
+        synchronized (this) {
+            if (winner != null || cancelled || attempts.size() != 1 || attempts.get(0).done) {
+                return;
+            }
+            primaryEndpoint = attempts.get(0).endpoint;
+        }
+        if (delegate.isInterrupted()) {
+            return;
+        }
+        // 对冲的应答按主请求的模型缓存和合并，只能发往同一模型的端点；
+        // 没有其他端点时路由只能返回主端点，此时不对冲，避免向已经变慢的端点加倍发送
+        UpstreamEndpoint endpoint = router.choose(primaryEndpoint, primaryEndpoint.getModel());
+        if (endpoint == primaryEndpoint) {
+            log.debug("没有主端点之外的可用端点，不发出对冲请求: {}", primaryEndpoint.getName());
+            return;
+        }
+        if (!policy.tryAcquireHedge()) {
+            return;
+        }
+        log.info("首个内容分片超时未到达，发出对冲请求: {} -> {}", primaryEndpoint.getName(), endpoint.getName());
+        launch(endpoint, true);
+    }
+
+    /**
+     * 其中一路调用的回调
+     */
+    private class Attempt implements MsgCallback {
+
+        private final UpstreamEndpoint endpoint;
+
+        private final boolean hedge;
+
+        private Call call;
+
+        private boolean lost;
+
+        private boolean done;
+
+        Attempt(UpstreamEndpoint endpoint, boolean hedge) {
+            this.endpoint = endpoint;
+            this.hedge = hedge;
+        }
+
+        void setCall(Call call) {
+            boolean cancelNow;
+            synchronized (HedgedRequest.this) {
+                this.call = call;
+                cancelNow = lost || cancelled;
+            }
+            if (cancelNow) {
+                call.cancel();
+            }
+        }
+
+        void cancel() {
+            Call toCancel;
+            synchronized (HedgedRequest.this) {
+                lost = true;
+                toCancel = call;
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+        }
+
+        @Override
+        public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            boolean content = !isDone && StringUtils.isNotBlank(message);
+            List<Attempt> losers = null;
+            boolean forward;
+            synchronized (HedgedRequest.this) {
+                if (done) {
+                    return;
+                }
+                if (isDone) {
+                    done = true;
+                }
+                if (winner == null) {
+                    if (!content && !(isDone && (isSuccess || !otherPending()))) {
+                        // 出内容前失败，另一路仍在进行，交给另一路
+                        return;
+                    }
+                    winner = this;
+                    losers = new ArrayList<>(attempts);
+                    losers.remove(this);
+                    if (hedgeTimer != null) {
+                        hedgeTimer.cancel(false);
+                    }
+                    if (content) {
+                        // 按整个请求从主请求发出计时：对冲胜出时若只算对冲自己的耗时，
+                        // 落后的主请求又不留样本，p95会偏低，延迟被压到下限并耗尽预算
+                        policy.recordTtft((System.nanoTime() - startNanos) / 1_000_000);
+                    }
+                    if (hedge) {
+                        policy.recordWon();
+                    }
+                }
+                forward = winner == this;
+                if (!forward && content) {
+                    policy.recordWasted(1);
+                }
+            }
+            if (losers != null) {
+                for (Attempt loser : losers) {
+                    loser.cancel();
+                }
+            }
+            if (forward) {
+                delegate.msgCallback(message, lines, isSuccess, isDone);
+            }
+        }
+
+        private boolean otherPending() {
+            for (Attempt attempt : attempts) {
+                if (attempt != this && !attempt.done) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            synchronized (HedgedRequest.this) {
+                if (lost || cancelled) {
+                    return true;
+                }
+            }
+            return delegate.isInterrupted();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.demo.llmstreaming.service.hedge;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import com.demo.llmstreaming.service.MsgCallback;
+import com.demo.llmstreaming.service.upstream.UpstreamRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对冲策略
+ * 维护首token延迟样本（决定对冲延迟）、对冲预算（按主请求数累积）以及对冲统计
+ */
+@Component
+public class HedgingPolicy {
+
+    /** 预算以千分之一次对冲为单位累积 */
+    private static final long TOKEN_UNIT = 1000;
+
+    @Autowired
+    private UpstreamProperties properties;
+
+    @Autowired
+    private UpstreamRouter upstreamRouter;
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    private UpstreamProperties.Hedging hedging;
+
+    private long[] samples;
+
+    private int sampleCount;
+
+    private int sampleIndex;
+
+    private long cachedDelayMs;
+
+    private long cachedAtMillis;
+
+    private long budgetTokens;
+
+    private final LongAdder primaries = new LongAdder();
+
+    private final LongAdder fired = new LongAdder();
+
+    private final LongAdder won = new LongAdder();
+
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    private final LongAdder wastedTokens = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        hedging = properties.getHedging();
+        samples = new long[Math.max(1, hedging.getSampleWindow())];
+        cachedDelayMs = hedging.getDelayMs();
+    }
+
+    public boolean isEnabled() {
+        return hedging.isEnabled();
+    }
+
+    /**
+     * 创建一次可对冲的上游请求
+     */
+    public HedgedRequest newRequest(MsgCallback delegate, HedgedRequest.Launcher launcher) {
+        return new HedgedRequest(this, upstreamRouter, streamScheduler, delegate, launcher);
+    }
+
+    /**
+     * 当前对冲延迟：自适应模式取最近首token延迟的p95（限制在上下限内），每秒最多重算一次
+     */
+    public synchronized long currentDelayMs() {
+        if (!hedging.isAdaptive() || sampleCount < hedging.getMinSamples()) {
+            return hedging.getDelayMs();
+        }
+        long now = System.currentTimeMillis();
+        if (now - cachedAtMillis >= 1000) {
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            long p95 = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.95) - 1)];
+            cachedDelayMs = Math.max(hedging.getMinDelayMs(), Math.min(hedging.getMaxDelayMs(), p95));
+            cachedAtMillis = now;
+        }
+        return cachedDelayMs;
+    }
+
+    /**
+     * 每个主请求按预算百分比累积对冲额度
+     */
+    synchronized void recordPrimary() {
+        primaries.increment();
+        long max = hedging.getMaxBurst() * TOKEN_UNIT;
+        budgetTokens = Math.min(max, budgetTokens + hedging.getBudgetPercent() * TOKEN_UNIT / 100);
+    }
+
+    /**
+     * 尝试占用一次对冲额度
+     */
+    synchronized boolean tryAcquireHedge() {
+        if (budgetTokens < TOKEN_UNIT) {
+            budgetExhausted.increment();
+            return false;
+        }
+        budgetTokens -= TOKEN_UNIT;
+        fired.increment();
+        return true;
+    }
+
+    synchronized void recordTtft(long millis) {
+        samples[sampleIndex] = millis;
+        sampleIndex = (sampleIndex + 1) % samples.length;
+        if (sampleCount < samples.length) {
+            sampleCount++;
+        }
+    }
+
+    void recordWon() {
+        won.increment();
+    }
+
+    void recordWasted(long tokens) {
+        wastedTokens.add(tokens);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", hedging.isEnabled());
+        snapshot.put("delayMs", currentDelayMs());
+        snapshot.put("primaries", primaries.sum());
+        snapshot.put("fired", fired.sum());
+        snapshot.put("won", won.sum());
+        snapshot.put("budgetExhausted", budgetExhausted.sum());
+        snapshot.put("wastedTokens", wastedTokens.sum());
+        return snapshot;
+    }
+}
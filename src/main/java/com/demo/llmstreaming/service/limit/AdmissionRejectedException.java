@@ -0,0 +1,26 @@
+package com.demo.llmstreaming.service.limit;
+
+/**
+ * 准入被拒绝：超出客户端公平份额（429）或全局并发及排队已满（503）
+ * 作为控制流使用，不填充堆栈
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final int status;
+
+    private final long retryAfterSeconds;
+
+    AdmissionRejectedException(int status, long retryAfterSeconds, String message) {
+        super(message, null, false, false);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
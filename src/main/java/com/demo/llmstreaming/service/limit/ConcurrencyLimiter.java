@@ -0,0 +1,296 @@
+package com.demo.llmstreaming.service.limit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制
+ * 按Gradient思路用首token延迟调整并发上限：短期延迟明显高于长期基线时收缩，否则按sqrt(limit)缓慢增长；
+ * 上游失败时乘性回退。延迟从实际发出上游调用开始计时，等待配额的时间不算作上游延迟。超出上限的请求在有界队列中短暂等待，仍无法准入则快速拒绝。
+ * 上限接近占满时每个客户端最多占用 上限/活跃客户端数 的份额
+ */
+@Slf4j
+@Component
+public class ConcurrencyLimiter {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    @Value("${llm.limit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.limit.initial-limit:64}")
+    private int initialLimit;
+
+    @Value("${llm.limit.min-limit:8}")
+    private int minLimit;
+
+    @Value("${llm.limit.max-limit:1024}")
+    private int maxLimit;
+
+    @Value("${llm.limit.smoothing:0.2}")
+    private double smoothing;
+
+    @Value("${llm.limit.rtt-tolerance:1.5}")
+    private double rttTolerance;
+
+    @Value("${llm.limit.long-window:600}")
+    private int longWindow;
+
+    @Value("${llm.limit.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${llm.limit.queue-size:32}")
+    private int queueSize;
+
+    @Value("${llm.limit.max-wait-ms:100}")
+    private long maxWaitMs;
+
+    @Value("${llm.limit.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    /** 以下字段由本对象的锁保护 */
+    private double limit;
+
+    private double longRttMs = -1;
+
+    private int inFlight;
+
+    private int waiting;
+
+    private final Map<String, Integer> clientInFlight = new HashMap<>();
+
+    private final LongAdder admitted = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder shedOverShare = new LongAdder();
+
+    private final LongAdder shedQueueFull = new LongAdder();
+
+    private final LongAdder shedTimeout = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 申请准入，必要时最多等待max-wait-ms
+     * @param clientId 客户端标识（API Key的指纹或地址），用于公平份额
+     * @throws AdmissionRejectedException 超出份额或排队失败
+     */
+    public Permit acquire(String clientId) {
+        if (!enabled) {
+            return new Permit(null);
+        }
+        String client = clientId != null ? clientId : "";
+        synchronized (this) {
+            if (!canAdmit(client)) {
+                if (inFlight < currentLimit()) {
+                    // 全局仍有余量，是该客户端超出了公平份额
+                    shedOverShare.increment();
+                    throw new AdmissionRejectedException(TOO_MANY_REQUESTS, retryAfterSeconds, "超出客户端并发份额");
+                }
+                if (waiting >= queueSize) {
+                    shedQueueFull.increment();
+                    throw new AdmissionRejectedException(SERVICE_UNAVAILABLE, retryAfterSeconds, "服务繁忙，排队已满");
+                }
+                queued.increment();
+                waiting++;
+                try {
+                    long deadline = System.nanoTime() + maxWaitMs * 1_000_000;
+                    while (!canAdmit(client)) {
+                        long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+                        if (remainingMs <= 0) {
+                            shedTimeout.increment();
+                            throw new AdmissionRejectedException(SERVICE_UNAVAILABLE, retryAfterSeconds, "服务繁忙，排队超时");
+                        }
+                        wait(remainingMs);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    shedTimeout.increment();
+                    throw new AdmissionRejectedException(SERVICE_UNAVAILABLE, retryAfterSeconds, "服务繁忙，排队被中断");
+                } finally {
+                    waiting--;
+                }
+            }
+            inFlight++;
+            clientInFlight.merge(client, 1, Integer::sum);
+        }
+        admitted.increment();
+        return new Permit(client);
+    }
+
+    /**
+     * 不等待的准入申请，用于批量请求逐项申请额度
+     * @return 无法立即准入时返回null，不计入拒绝统计
+     */
+    public Permit tryAcquire(String clientId) {
+        if (!enabled) {
+            return new Permit(null);
+        }
+        String client = clientId != null ? clientId : "";
+        synchronized (this) {
+            if (!canAdmit(client)) {
+                return null;
+            }
+            inFlight++;
+            clientInFlight.merge(client, 1, Integer::sum);
+        }
+        admitted.increment();
+        return new Permit(client);
+    }
+
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 未超过上限，且在公平份额内或上限只占用了一半以内
+     */
+    private boolean canAdmit(String client) {
+        int max = currentLimit();
+        if (inFlight >= max) {
+            return false;
+        }
+        if (inFlight < max / 2) {
+            return true;
+        }
+        Integer current = clientInFlight.get(client);
+        int activeClients = clientInFlight.size() + (current == null ? 1 : 0);
+        int fairShare = Math.max(1, (max + activeClients - 1) / activeClients);
+        return current == null || current < fairShare;
+    }
+
+    private synchronized void release(String client, double rttMs, boolean drop) {
+        inFlight--;
+        clientInFlight.computeIfPresent(client, (key, count) -> count > 1 ? count - 1 : null);
+        if (drop) {
+            dropped.increment();
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (rttMs >= 0) {
+            update(rttMs);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Gradient：gradient = tolerance * 长期延迟 / 本次延迟，限制在[0.5, 1]；
+     * 新上限 = limit * gradient + sqrt(limit)，再按smoothing平滑
+     */
+    private void update(double rttMs) {
+        rttMs = Math.max(rttMs, 1);
+        if (longRttMs < 0) {
+            longRttMs = rttMs;
+        } else {
+            longRttMs += (rttMs - longRttMs) * 2 / (longWindow + 1);
+        }
+        if (longRttMs / rttMs > 2) {
+            // 延迟已明显恢复，让长期基线更快跟上，避免长时间按旧基线放量
+            longRttMs *= 0.95;
+        }
+        if (inFlight + 1 < limit / 2) {
+            // 负载不足时的样本不能说明上游能承受更多并发
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRttMs / rttMs));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("limit", currentLimit());
+        snapshot.put("inFlight", inFlight);
+        snapshot.put("queueDepth", waiting);
+        snapshot.put("activeClients", clientInFlight.size());
+        snapshot.put("longRttMs", longRttMs);
+        snapshot.put("admitted", admitted.sum());
+        snapshot.put("queued", queued.sum());
+        snapshot.put("shedOverShare", shedOverShare.sum());
+        snapshot.put("shedQueueFull", shedQueueFull.sum());
+        snapshot.put("shedTimeout", shedTimeout.sum());
+        snapshot.put("dropped", dropped.sum());
+        return snapshot;
+    }
+
+    /**
+     * 一次准入许可，流结束时释放
+     */
+    public class Permit {
+
+        private final String client;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /** 发出上游调用的时间，0表示尚未发出 */
+        private volatile long launchedNanos;
+
+        private volatile double rttMs = -1;
+
+        private volatile boolean sampling = true;
+
+        private volatile boolean drop;
+
+        Permit(String client) {
+            this.client = client;
+        }
+
+        /**
+         * 已取得配额并发出上游调用，延迟样本从这里计时；
+         * 准入后排队等配额的时间是配额的背压，不能当作上游延迟让上限收缩
+         */
+        public void onLaunched() {
+            if (launchedNanos == 0) {
+                launchedNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * 首个内容分片到达，记录延迟样本；没有发出上游调用时不记录
+         */
+        public void onFirstToken() {
+            long launched = launchedNanos;
+            if (sampling && rttMs < 0 && launched != 0) {
+                rttMs = (System.nanoTime() - launched) / 1_000_000.0;
+            }
+        }
+
+        /**
+         * 本次请求没有直接调用上游（命中缓存、合并到进行中的生成），不作为延迟样本，失败也不回退上限
+         */
+        public void ignoreLatency() {
+            sampling = false;
+        }
+
+        /**
+         * 上游失败或超时，释放时回退上限；没有发出上游调用（配额排队超时等）时不回退
+         */
+        public void onDropped() {
+            if (sampling && launchedNanos != 0) {
+                drop = true;
+            }
+        }
+
+        public void release() {
+            if (client == null || !released.compareAndSet(false, true)) {
+                return;
+            }
+            ConcurrencyLimiter.this.release(client, sampling ? rttMs : -1, drop);
+        }
+    }
+}
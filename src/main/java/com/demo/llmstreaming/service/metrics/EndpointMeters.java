@@ -0,0 +1,127 @@
+package com.demo.llmstreaming.service.metrics;
+
+import com.demo.llmstreaming.service.upstream.EndpointStats;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个上游端点的预注册指标，标签为model和endpoint
+ * 逐token路径只调用Timer.record(long, TimeUnit)，不构建标签也不分配对象
+ */
+public class EndpointMeters {
+
+    private final Timer ttft;
+
+    private final Timer interToken;
+
+    private final DistributionSummary tokensPerSecond;
+
+    private final DistributionSummary charsPerSecond;
+
+    private final Counter bytesRead;
+
+    private final Counter readTimeouts;
+
+    private final Counter requestFailures;
+
+    private final Counter apiErrors;
+
+    private final Counter invalidResponses;
+
+    EndpointMeters(MeterRegistry registry, UpstreamEndpoint endpoint) {
+        Tags tags = Tags.of("model", endpoint.getModel(), "endpoint", endpoint.getName());
+        ttft = Timer.builder("llm.upstream.ttft")
+                .description("上游调用发出到首个内容分片的时间")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(10))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+        interToken = Timer.builder("llm.upstream.inter.token")
+                .description("上游相邻内容分片的间隔")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+        tokensPerSecond = DistributionSummary.builder("llm.stream.tokens.per.second")
+                .description("单条流从首个分片到结束的分片速率")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(1000.0)
+                .register(registry);
+        charsPerSecond = DistributionSummary.builder("llm.stream.chars.per.second")
+                .description("单条流从首个分片到结束的字符速率")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(10000.0)
+                .register(registry);
+        bytesRead = Counter.builder("llm.upstream.bytes.read")
+                .description("从上游读取的SSE字节数")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+        readTimeouts = error(registry, tags, "read_timeout", "链路超时：读取上游流失败");
+        requestFailures = error(registry, tags, "request_failed", "请求超时：上游请求未能建立");
+        apiErrors = error(registry, tags, "api_error", "上游返回error或非流式错误应答");
+        invalidResponses = error(registry, tags, "invalid_response", "上游数据无法解析");
+    }
+
+    private static Counter error(MeterRegistry registry, Tags tags, String cause, String description) {
+        return Counter.builder("llm.upstream.errors")
+                .description(description)
+                .tags(tags)
+                .tag("cause", cause)
+                .register(registry);
+    }
+
+    /**
+     * 记录一个内容分片
+     * @param intervalNanos CallTracker.onToken的返回值
+     */
+    public void recordToken(EndpointStats.CallTracker tracker, long intervalNanos) {
+        if (tracker.isFirstToken()) {
+            ttft.record(intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            interToken.record(intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 记录一次上游读取结束
+     */
+    public void recordStreamEnd(EndpointStats.CallTracker tracker, long bytes) {
+        bytesRead.increment(bytes);
+        long streamingNanos = tracker.getStreamingNanos();
+        if (tracker.getTokens() > 1 && streamingNanos > 0) {
+            double seconds = streamingNanos / 1_000_000_000.0;
+            tokensPerSecond.record((tracker.getTokens() - 1) / seconds);
+            charsPerSecond.record(tracker.getChars() / seconds);
+        }
+    }
+
+    public void readTimeout() {
+        readTimeouts.increment();
+    }
+
+    public void requestFailed() {
+        requestFailures.increment();
+    }
+
+    public void apiError() {
+        apiErrors.increment();
+    }
+
+    public void invalidResponse() {
+        invalidResponses.increment();
+    }
+}
@@ -0,0 +1,144 @@
+package com.demo.llmstreaming.service.metrics;
+
+import com.demo.llmstreaming.service.upstream.UpstreamClientManager;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import com.demo.llmstreaming.service.writer.FrameMeters;
+import com.demo.llmstreaming.service.writer.FrameWriterStats;
+import com.demo.llmstreaming.service.writer.WireFormat;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式指标，通过Actuator的/actuator/prometheus暴露
+ * 所有Meter在启动时按端点预注册，请求路径上只做查表和计数
+ */
+@Component
+public class StreamMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private UpstreamClientManager upstreamClientManager;
+
+    @Autowired
+    private FrameWriterStats frameWriterStats;
+
+    @Value("${llm.api.model:ernie-speed-pro-128k}")
+    private String model;
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    private final Map<String, EndpointMeters> endpointMeters = new HashMap<>();
+
+    private Timer clientTtft;
+
+    private Counter asyncTimeouts;
+
+    private Counter clientDisconnects;
+
+    private Counter rejections;
+
+    @PostConstruct
+    public void init() {
+        Tags tags = Tags.of("model", model);
+        Gauge.builder("llm.streams.active", activeStreams, AtomicInteger::get)
+                .description("进行中的下游流")
+                .tags(tags)
+                .register(meterRegistry);
+        clientTtft = Timer.builder("llm.client.ttft")
+                .description("请求到达到首个内容分片交给下游的时间（含缓存命中和合并请求）")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(meterRegistry);
+        asyncTimeouts = abort(tags, "async_timeout");
+        clientDisconnects = abort(tags, "client_disconnect");
+        rejections = abort(tags, "rejected");
+        for (UpstreamEndpoint endpoint : upstreamClientManager.getEndpoints()) {
+            endpointMeters.put(endpoint.getName(), new EndpointMeters(meterRegistry, endpoint));
+            frames(endpoint.getModel(), endpoint.getName());
+        }
+        frames(model, FrameMeters.NO_ENDPOINT);
+        frames(model, FrameMeters.MULTIPLEXED);
+    }
+
+    /**
+     * 帧写出计数按帧格式和端点预注册，与EndpointMeters一样带model、endpoint标签
+     */
+    private void frames(String endpointModel, String endpointName) {
+        for (WireFormat format : WireFormat.values()) {
+            FrameMeters meters = frameWriterStats.meters(format, endpointName);
+            Tags tags = Tags.of("model", endpointModel, "endpoint", endpointName,
+                    "format", format.name().toLowerCase());
+            FunctionCounter.builder("llm.frames.written", meters, FrameMeters::getFrames)
+                    .description("写出的帧数")
+                    .tags(tags)
+                    .register(meterRegistry);
+            FunctionCounter.builder("llm.frames.flushes", meters, FrameMeters::getFlushes)
+                    .description("下游flush次数")
+                    .tags(tags)
+                    .register(meterRegistry);
+            FunctionCounter.builder("llm.frames.bytes", meters, FrameMeters::getBytes)
+                    .description("写出到下游的字节数")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry);
+        }
+    }
+
+    private Counter abort(Tags tags, String cause) {
+        return Counter.builder("llm.stream.aborts")
+                .description("未正常结束的下游流")
+                .tags(tags)
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+
+    public EndpointMeters endpoint(UpstreamEndpoint endpoint) {
+        return endpointMeters.get(endpoint.getName());
+    }
+
+    public void streamOpened() {
+        activeStreams.incrementAndGet();
+    }
+
+    public void streamClosed() {
+        activeStreams.decrementAndGet();
+    }
+
+    /**
+     * 记录下游首个内容分片
+     * @param startNanos 请求到达时的System.nanoTime()
+     */
+    public void recordClientTtft(long startNanos) {
+        clientTtft.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void asyncTimeout() {
+        asyncTimeouts.increment();
+    }
+
+    public void clientDisconnect() {
+        clientDisconnects.increment();
+    }
+
+    public void rejected() {
+        rejections.increment();
+    }
+}
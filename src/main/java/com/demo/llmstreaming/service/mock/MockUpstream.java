@@ -0,0 +1,365 @@
+package com.demo.llmstreaming.service.mock;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.demo.llmstreaming.service.session.TokenEstimator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地模拟大模型上游，仅在mock profile下启用，用于离线压测
+ * 按配置的token速率输出OpenAI（choices[0].delta.content）或千帆（result）格式的SSE，
+ * 首token延迟服从对数正态分布，并可按概率注入HTTP错误、流中error事件和中途停顿；
+ * 配置每分钟请求数/token数配额时按滑动一分钟窗口计数，超出返回429，用于验证配额调度。
+ * 所有流由少量调度线程驱动，不占用Servlet线程
+ */
+@Slf4j
+@Component
+@Profile("mock")
+public class MockUpstream {
+
+    private static final String[] TOKENS = {
+            "大模型", "的", "流式", "输出", "可以", "显著", "降低", "用户", "感知", "到的",
+            "首字", "延迟", "，", "生成", "过程中", "内容", "会", "逐步", "到达", "。",
+            "Streaming", " keeps", " the", " connection", " open", " while", " tokens", " arrive", ".", "\\n"
+    };
+
+    @Value("${llm.mock.format:openai}")
+    private String format;
+
+    @Value("${llm.mock.tokens-per-second:50}")
+    private double tokensPerSecond;
+
+    @Value("${llm.mock.ttft-median-ms:300}")
+    private double ttftMedianMs;
+
+    @Value("${llm.mock.ttft-sigma:0.5}")
+    private double ttftSigma;
+
+    @Value("${llm.mock.max-tokens:200}")
+    private int maxTokens;
+
+    @Value("${llm.mock.http-error-rate:0}")
+    private double httpErrorRate;
+
+    @Value("${llm.mock.error-rate:0}")
+    private double errorRate;
+
+    @Value("${llm.mock.stall-rate:0}")
+    private double stallRate;
+
+    @Value("${llm.mock.stall-ms:5000}")
+    private long stallMs;
+
+    @Value("${llm.mock.scheduler-pool-size:2}")
+    private int schedulerPoolSize;
+
+    @Value("${llm.mock.requests-per-minute:0}")
+    private int requestsPerMinute;
+
+    @Value("${llm.mock.tokens-per-minute:0}")
+    private int tokensPerMinute;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final LongAdder streams = new LongAdder();
+
+    private final LongAdder tokens = new LongAdder();
+
+    private final LongAdder httpErrors = new LongAdder();
+
+    private final LongAdder streamErrors = new LongAdder();
+
+    private final LongAdder stalls = new LongAdder();
+
+    private final LongAdder aborted = new LongAdder();
+
+    private final LongAdder throttled = new LongAdder();
+
+    /** 最近一分钟的请求时间和token用量，{时间毫秒, token数}，由本对象的锁保护 */
+    private final ArrayDeque<long[]> requestWindow = new ArrayDeque<>();
+
+    private final ArrayDeque<long[]> tokenWindow = new ArrayDeque<>();
+
+    private long windowTokens;
+
+    @PostConstruct
+    public void init() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(schedulerPoolSize);
+        scheduler.setThreadNamePrefix("MockUpstream-");
+        scheduler.initialize();
+        log.info("模拟上游已启用：格式{}，{} token/s，首token中位数{}ms，最多{}个token",
+                format, tokensPerSecond, ttftMedianMs, maxTokens);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 是否对本次请求注入HTTP错误
+     */
+    public boolean injectHttpError() {
+        if (ThreadLocalRandom.current().nextDouble() < httpErrorRate) {
+            httpErrors.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 按滑动一分钟窗口检查配额，未超出时记入本次请求和提示词token
+     * @return 超出配额时返回需要等待的秒数，否则返回0
+     */
+    public synchronized int checkQuota(JSONObject body) {
+        if (requestsPerMinute <= 0 && tokensPerMinute <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        evict(now);
+        if (requestsPerMinute > 0 && requestWindow.size() >= requestsPerMinute) {
+            throttled.increment();
+            return retryAfterSeconds(requestWindow.peekFirst(), now);
+        }
+        if (tokensPerMinute > 0 && windowTokens >= tokensPerMinute) {
+            throttled.increment();
+            return retryAfterSeconds(tokenWindow.peekFirst(), now);
+        }
+        requestWindow.addLast(new long[]{now, 1});
+        recordTokens(now, promptTokens(body));
+        return 0;
+    }
+
+    /**
+     * 限流时的响应体
+     */
+    public String quotaErrorBody() {
+        return "{\"error\":{\"code\":\"rate_limit_exceeded\",\"message\":\"模拟上游配额已用尽\"}}";
+    }
+
+    /**
+     * HTTP错误时的响应体，与真实API的错误格式一致
+     */
+    public String httpErrorBody() {
+        return "{\"error\":{\"code\":\"mock_unavailable\",\"message\":\"模拟上游暂不可用\"}}";
+    }
+
+    /**
+     * 开始一次模拟生成
+     * @param body 上游请求体，读取max_output_tokens或max_tokens决定输出长度
+     */
+    public ResponseBodyEmitter stream(JSONObject body) {
+        Integer requested = body.getInteger("max_output_tokens");
+        if (requested == null) {
+            requested = body.getInteger("max_tokens");
+        }
+        int count = requested == null ? maxTokens : Math.max(1, Math.min(requested, maxTokens));
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int errorAt = random.nextDouble() < errorRate ? random.nextInt(count + 1) : -1;
+        int stallAt = random.nextDouble() < stallRate ? 1 + random.nextInt(Math.max(1, count - 1)) : -1;
+        long ttftMicros = (long) (ttftMedianMs * 1000 * Math.exp(ttftSigma * random.nextGaussian()));
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        MockStream stream = new MockStream(emitter, count, errorAt, stallAt, random.nextInt(TOKENS.length),
+                promptTokens(body));
+        emitter.onCompletion(stream::close);
+        emitter.onError(e -> stream.close());
+        emitter.onTimeout(stream::close);
+        streams.increment();
+        active.incrementAndGet();
+        stream.schedule(ttftMicros);
+        return emitter;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("format", format);
+        snapshot.put("tokensPerSecond", tokensPerSecond);
+        snapshot.put("active", active.get());
+        snapshot.put("streams", streams.sum());
+        snapshot.put("tokens", tokens.sum());
+        snapshot.put("httpErrors", httpErrors.sum());
+        snapshot.put("streamErrors", streamErrors.sum());
+        snapshot.put("stalls", stalls.sum());
+        snapshot.put("aborted", aborted.sum());
+        snapshot.put("throttled", throttled.sum());
+        synchronized (this) {
+            evict(System.currentTimeMillis());
+            snapshot.put("windowRequests", requestWindow.size());
+            snapshot.put("windowTokens", windowTokens);
+        }
+        return snapshot;
+    }
+
+    private synchronized void recordTokens(long now, int count) {
+        if (tokensPerMinute > 0 && count > 0) {
+            tokenWindow.addLast(new long[]{now, count});
+            windowTokens += count;
+        }
+    }
+
+    private void evict(long now) {
+        while (!requestWindow.isEmpty() && requestWindow.peekFirst()[0] <= now - 60_000) {
+            requestWindow.pollFirst();
+        }
+        while (!tokenWindow.isEmpty() && tokenWindow.peekFirst()[0] <= now - 60_000) {
+            windowTokens -= tokenWindow.pollFirst()[1];
+        }
+    }
+
+    private static int retryAfterSeconds(long[] oldest, long now) {
+        return (int) Math.max(1, (oldest[0] + 60_000 - now + 999) / 1000);
+    }
+
+    /**
+     * 提示词token数，与服务端估算口径一致
+     */
+    private static int promptTokens(JSONObject body) {
+        JSONArray messages = body.getJSONArray("messages");
+        int count = 0;
+        if (messages != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                JSONObject message = messages.getJSONObject(i);
+                count += TokenEstimator.estimateMessage(message != null ? message.getString("content") : null);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 一条模拟流，每次调度输出一个token后再安排下一次
+     */
+    private class MockStream implements Runnable {
+
+        private final ResponseBodyEmitter emitter;
+
+        private final int count;
+
+        private final int errorAt;
+
+        private final int stallAt;
+
+        private final int offset;
+
+        private final int promptTokens;
+
+        private final String id = "mock-" + UUID.randomUUID();
+
+        private final long created = System.currentTimeMillis() / 1000;
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private int index;
+
+        MockStream(ResponseBodyEmitter emitter, int count, int errorAt, int stallAt, int offset, int promptTokens) {
+            this.emitter = emitter;
+            this.count = count;
+            this.errorAt = errorAt;
+            this.stallAt = stallAt;
+            this.offset = offset;
+            this.promptTokens = promptTokens;
+        }
+
+        void schedule(long delayMicros) {
+            if (!closed.get()) {
+                scheduler.getScheduledExecutor().schedule(this, delayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                active.decrementAndGet();
+                // 已输出的token在结束时计入配额窗口
+                recordTokens(System.currentTimeMillis(), index);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                if (index == errorAt) {
+                    streamErrors.increment();
+                    send("data: {\"error\":{\"code\":\"mock_error\",\"message\":\"模拟上游生成失败\"}}\n\n");
+                    finish();
+                    return;
+                }
+                if (index == count) {
+                    send(lastChunk() + "data: [DONE]\n\n");
+                    finish();
+                    return;
+                }
+                send(chunk(TOKENS[(offset + index) % TOKENS.length]));
+                tokens.increment();
+                index++;
+            } catch (Exception e) {
+                // 下游（被压测的服务）已取消调用
+                aborted.increment();
+                close();
+                return;
+            }
+            long delayMicros = (long) (1_000_000 / tokensPerSecond);
+            if (index == stallAt) {
+                stalls.increment();
+                delayMicros += stallMs * 1000;
+            }
+            schedule(delayMicros);
+        }
+
+        private void send(String data) throws Exception {
+            emitter.send(data.getBytes(StandardCharsets.UTF_8), MediaType.TEXT_EVENT_STREAM);
+        }
+
+        private void finish() {
+            close();
+            emitter.complete();
+        }
+
+        private String chunk(String content) {
+            if ("qianfan".equals(format)) {
+                return "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" + created
+                        + ",\"sentence_id\":" + index + ",\"is_end\":false,\"result\":\"" + content + "\"}\n\n";
+            }
+            return "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + created
+                    + ",\"model\":\"mock\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content
+                    + "\"},\"finish_reason\":null}]}\n\n";
+        }
+
+        private String lastChunk() {
+            String usage = "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + count
+                    + ",\"total_tokens\":" + (promptTokens + count) + "}";
+            if ("qianfan".equals(format)) {
+                return "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" + created
+                        + ",\"sentence_id\":" + index + ",\"is_end\":true,\"result\":\"\"," + usage + "}\n\n";
+            }
+            return "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + created
+                    + ",\"model\":\"mock\",\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],"
+                    + usage + "}\n\n";
+        }
+    }
+}
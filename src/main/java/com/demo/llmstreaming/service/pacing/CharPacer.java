@@ -0,0 +1,267 @@
+package com.demo.llmstreaming.service.pacing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 字符级节奏调度器
+ * 上游内容先进入每条流的缓冲，由一个周期任务按配置的字符速率统一为所有流取出本周期的内容；
+ * 缓冲积压时按积压量自动加速，上游读取线程不再被sleep阻塞。
+ * 额度按码点计，每条流按自己的切分策略取出完整单元下发，不会拆开代理对和emoji序列。
+ * 周期任务不做写出：取出的内容交给写出执行器，每条流同一时刻最多一个写出任务，
+ * 上一次写出还没完成（客户端读取慢或卡住）的流本周期跳过，积压留到之后的周期，其他流不受影响
+ */
+@Slf4j
+@Component
+public class CharPacer {
+
+    /** 额度上限（码点），超长单元在额度到达上限时强制下发 */
+    static final int MAX_CREDIT = 256;
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    @Autowired
+    @Qualifier("streamWriteExecutor")
+    private Executor streamWriteExecutor;
+
+    @Value("${llm.pacing.chars-per-second:20}")
+    private double charsPerSecond;
+
+    @Value("${llm.pacing.tick-ms:20}")
+    private long tickMs;
+
+    @Value("${llm.pacing.backlog-threshold:100}")
+    private int backlogThreshold;
+
+    @Value("${llm.pacing.max-speedup:8}")
+    private double maxSpeedup;
+
+    @Value("${llm.pacing.segmentation:grapheme}")
+    private String defaultSegmentation;
+
+    private final Set<PacedStream> streams = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder[] frames = newCounters();
+
+    private final LongAdder[] codepoints = newCounters();
+
+    private final LongAdder[] registered = newCounters();
+
+    /** 因上一次写出未完成而跳过的流周期数 */
+    private final LongAdder skippedBusy = new LongAdder();
+
+    private ScheduledFuture<?> tickFuture;
+
+    @PostConstruct
+    public void start() {
+        tickFuture = streamScheduler.scheduleAtFixedRate(this::tick, Duration.ofMillis(tickMs));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+        }
+    }
+
+    /**
+     * 注册一条需要节奏下发的流
+     */
+    public PacedStream register(Segmentation segmentation, PacedStream.Sink sink) {
+        PacedStream stream = new PacedStream(segmentation, sink);
+        registered[segmentation.ordinal()].increment();
+        streams.add(stream);
+        return stream;
+    }
+
+    /**
+     * 未指定切分策略的字符级请求使用的策略，配置不支持时按字位簇
+     */
+    public Segmentation getDefaultSegmentation() {
+        Segmentation segmentation = Segmentation.parse(defaultSegmentation);
+        return segmentation != null && segmentation != Segmentation.NONE ? segmentation : Segmentation.GRAPHEME;
+    }
+
+    /**
+     * 当前节奏下发中的流数
+     */
+    public int getActiveStreams() {
+        return streams.size();
+    }
+
+    /**
+     * 按切分策略统计的帧数和码点数
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("activeStreams", streams.size());
+        snapshot.put("defaultSegmentation", getDefaultSegmentation().name().toLowerCase());
+        snapshot.put("skippedBusy", skippedBusy.sum());
+        for (Segmentation segmentation : Segmentation.values()) {
+            long streamCount = registered[segmentation.ordinal()].sum();
+            if (streamCount == 0) {
+                continue;
+            }
+            long frameCount = frames[segmentation.ordinal()].sum();
+            long codepointCount = codepoints[segmentation.ordinal()].sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("streams", streamCount);
+            item.put("frames", frameCount);
+            item.put("codepoints", codepointCount);
+            item.put("codepointsPerFrame", frameCount > 0 ? Math.round(codepointCount * 100.0 / frameCount) / 100.0 : 0);
+            snapshot.put(segmentation.name().toLowerCase(), item);
+        }
+        return snapshot;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (PacedStream stream : streams) {
+            if (stream.isWriting()) {
+                // 上一次写出仍阻塞在该连接上，本周期不取内容；之后的周期按拉长的间隔补足额度
+                skippedBusy.increment();
+                continue;
+            }
+            List<String> segments = stream.undelivered;
+            if (segments == null) {
+                try {
+                    segments = drain(stream, now);
+                } catch (RuntimeException e) {
+                    log.error("字符级下发失败", e);
+                    stream.cancel();
+                    segments = Collections.emptyList();
+                }
+            }
+            boolean complete = stream.isCancelled() || (stream.isFinished() && stream.backlog() == 0);
+            if (segments.isEmpty() && !complete) {
+                continue;
+            }
+            if (complete) {
+                // 先移除再提交，结束回调执行时流已不在活跃集合中
+                streams.remove(stream);
+            }
+            if (dispatch(stream, segments, complete)) {
+                stream.undelivered = null;
+            } else {
+                // 写出线程已用满，已取出的内容留到下一周期
+                stream.undelivered = segments;
+                if (complete) {
+                    streams.add(stream);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把本周期取出的内容交给写出执行器，结束的流写完后执行结束回调
+     * @return false表示写出线程已用满，未提交
+     */
+    private boolean dispatch(PacedStream stream, List<String> segments, boolean complete) {
+        stream.setWriting(true);
+        try {
+            streamWriteExecutor.execute(() -> write(stream, segments, complete));
+            return true;
+        } catch (RejectedExecutionException e) {
+            stream.setWriting(false);
+            return false;
+        }
+    }
+
+    /**
+     * 在写出线程上执行，可能阻塞在该流的下游连接上
+     */
+    private void write(PacedStream stream, List<String> segments, boolean complete) {
+        try {
+            for (String text : segments) {
+                if (stream.isCancelled()) {
+                    break;
+                }
+                emit(stream, text);
+            }
+        } catch (Exception e) {
+            log.error("字符级下发失败", e);
+            // 下一周期发现已取消，移除并执行结束回调
+            stream.cancel();
+        } finally {
+            stream.setWriting(false);
+        }
+        if (complete) {
+            stream.runComplete();
+        }
+    }
+
+    /**
+     * 按额度取出本周期要下发的单元，只访问缓冲，不做写出
+     */
+    private List<String> drain(PacedStream stream, long now) {
+        long elapsedNanos = now - stream.lastTickNanos;
+        stream.lastTickNanos = now;
+        int backlog = stream.backlog();
+        if (backlog == 0) {
+            // 空闲时不累积额度，避免新内容到达后突发
+            stream.credit = Math.min(stream.credit, 1);
+            return Collections.emptyList();
+        }
+        double speedup = Math.min(maxSpeedup, 1 + (double) backlog / backlogThreshold);
+        // 等待单元补全期间额度不超过积压量，补全后不会连同后续内容突发
+        stream.credit = Math.min(Math.min(MAX_CREDIT, backlog),
+                stream.credit + charsPerSecond * speedup * elapsedNanos / 1_000_000_000.0);
+        // 自适应：积压超过阈值，或周期被拉长（写出阻塞、调度线程繁忙）时，本周期的内容合并为一帧
+        boolean coalesce = stream.getSegmentation() == Segmentation.ADAPTIVE
+                && (backlog > backlogThreshold || elapsedNanos > tickMs * 2_000_000L);
+        StringBuilder merged = coalesce ? new StringBuilder() : null;
+        List<String> segments = new ArrayList<>();
+        while (stream.credit >= 1 && !stream.isCancelled()) {
+            String text = stream.pollSegment((int) stream.credit, stream.credit >= MAX_CREDIT);
+            if (text == null) {
+                break;
+            }
+            stream.credit = Math.max(0, stream.credit - text.codePointCount(0, text.length()));
+            if (merged != null) {
+                merged.append(text);
+            } else {
+                segments.add(text);
+            }
+        }
+        if (merged != null && merged.length() > 0) {
+            segments.add(merged.toString());
+        }
+        return segments;
+    }
+
+    private void emit(PacedStream stream, String text) throws Exception {
+        int index = stream.getSegmentation().ordinal();
+        frames[index].increment();
+        codepoints[index].add(text.codePointCount(0, text.length()));
+        stream.emit(text);
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[Segmentation.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+}
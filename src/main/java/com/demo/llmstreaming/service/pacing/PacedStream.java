@@ -0,0 +1,152 @@
+package com.demo.llmstreaming.service.pacing;
+
+import java.util.List;
+
+/**
+ * 单条流的节奏缓冲
+ * 上游线程只负责offer，由CharPacer的调度线程统一取出，写出线程下发
+ */
+public class PacedStream {
+
+    /**
+     * 字符下发目标
+     */
+    public interface Sink {
+        void emit(String text) throws Exception;
+    }
+
+    private final Sink sink;
+
+    private final Segmentation segmentation;
+
+    private final Segmenter segmenter;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /** 已下发到的位置 */
+    private int readIndex;
+
+    private Runnable onComplete;
+
+    private volatile boolean finished;
+
+    private volatile boolean cancelled;
+
+    /** 有写出任务在执行，期间调度线程不再为本流取内容 */
+    private volatile boolean writing;
+
+    /** 以下字段只在调度线程访问 */
+    double credit;
+
+    long lastTickNanos;
+
+    /** 已取出但写出线程用满未能提交的内容 */
+    List<String> undelivered;
+
+    PacedStream(Segmentation segmentation, Sink sink) {
+        this.sink = sink;
+        this.segmentation = segmentation;
+        this.segmenter = segmentation.segmenter();
+        this.lastTickNanos = System.nanoTime();
+    }
+
+    /**
+     * 追加上游内容
+     */
+    public synchronized void offer(String text) {
+        if (!cancelled) {
+            buffer.append(text);
+        }
+    }
+
+    /**
+     * 上游结束，缓冲下发完后执行onComplete
+     * 已取消的流直接执行
+     */
+    public void finish(Runnable onComplete) {
+        synchronized (this) {
+            this.onComplete = onComplete;
+            this.finished = true;
+        }
+        if (cancelled) {
+            runComplete();
+        }
+    }
+
+    /**
+     * 取消下发，丢弃未下发内容
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            buffer.setLength(0);
+            readIndex = 0;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 未下发的字符数
+     */
+    public synchronized int backlog() {
+        return buffer.length() - readIndex;
+    }
+
+    /**
+     * 按切分策略取出下一个单元
+     * @param maxCodepoints 可用的码点额度，单元超出额度时不取出
+     * @param force 额度已到上限时忽略额度，避免超长单元永远取不出
+     * @return 单元内容；缓冲为空、单元需要等待更多内容或超出额度时返回null
+     */
+    synchronized String pollSegment(int maxCodepoints, boolean force) {
+        int length = buffer.length();
+        if (readIndex >= length) {
+            return null;
+        }
+        int end = segmenter.next(buffer, readIndex, length, finished);
+        if (end < 0 || (!force && Character.codePointCount(buffer, readIndex, end) > maxCodepoints)) {
+            return null;
+        }
+        String text = buffer.substring(readIndex, end);
+        readIndex = end;
+        if (readIndex == length) {
+            buffer.setLength(0);
+            readIndex = 0;
+        }
+        return text;
+    }
+
+    Segmentation getSegmentation() {
+        return segmentation;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    boolean isWriting() {
+        return writing;
+    }
+
+    void setWriting(boolean writing) {
+        this.writing = writing;
+    }
+
+    void emit(String text) throws Exception {
+        sink.emit(text);
+    }
+
+    void runComplete() {
+        Runnable action;
+        synchronized (this) {
+            action = onComplete;
+            onComplete = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+}
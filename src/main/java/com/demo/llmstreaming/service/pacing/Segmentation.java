@@ -0,0 +1,46 @@
+package com.demo.llmstreaming.service.pacing;
+
+/**
+ * 节奏下发的切分策略
+ */
+public enum Segmentation {
+
+    /** 不经节奏调度，上游内容原样下发 */
+    NONE(null),
+    /** 每个Unicode码点一帧 */
+    CODEPOINT(Segmenters.CODEPOINT),
+    /** 每个字位簇一帧，emoji序列、国旗、组合符号不会被拆开 */
+    GRAPHEME(Segmenters.GRAPHEME),
+    /** 每个英文单词或最多4字的中日韩短语一帧 */
+    WORD(Segmenters.WORD),
+    /** 每句一帧 */
+    SENTENCE(Segmenters.SENTENCE),
+    /** 跟得上时按字位簇下发，积压或下发滞后时把一个周期内的内容合并为一帧 */
+    ADAPTIVE(Segmenters.GRAPHEME);
+
+    private final Segmenter segmenter;
+
+    Segmentation(Segmenter segmenter) {
+        this.segmenter = segmenter;
+    }
+
+    public Segmenter segmenter() {
+        return segmenter;
+    }
+
+    /**
+     * 按名称解析，忽略大小写；为空或不支持时返回null
+     */
+    public static Segmentation parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim().toUpperCase();
+        for (Segmentation segmentation : values()) {
+            if (segmentation.name().equals(key)) {
+                return segmentation;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package com.demo.llmstreaming.service.pacing;
+
+/**
+ * 把上游内容切分为下发单元
+ * 实现无状态，可被多条流共用
+ */
+public interface Segmenter {
+
+    /**
+     * 下一个单元的结束位置
+     * @param text 已缓冲的内容
+     * @param start 单元起始位置，小于end
+     * @param end 已缓冲内容的结束位置
+     * @param finished 上游是否已结束，结束时剩余内容必须能切出
+     * @return 单元结束位置（不含）；需要等待更多内容时返回-1
+     */
+    int next(CharSequence text, int start, int end, boolean finished);
+}
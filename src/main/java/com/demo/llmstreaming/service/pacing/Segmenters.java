@@ -0,0 +1,255 @@
+package com.demo.llmstreaming.service.pacing;
+
+import java.util.function.IntPredicate;
+
+/**
+ * 切分实现
+ * 所有实现都不会拆开代理对；字位簇按简化的扩展字位簇规则（组合符号、变体选择符、肤色修饰、ZWJ连接、国旗区域指示符对）
+ */
+public final class Segmenters {
+
+    /** 单个词或短语的最大字符数，超过时强制切分 */
+    static final int MAX_WORD_CHARS = 32;
+
+    /** 连续中日韩文字按该字数成组 */
+    static final int PHRASE_CODEPOINTS = 4;
+
+    /** 单句最大字符数，超过时在最后一个逗号或空白处切分 */
+    static final int MAX_SENTENCE_CHARS = 200;
+
+    private static final int ZWJ = 0x200D;
+
+    private Segmenters() {
+    }
+
+    /**
+     * 按Unicode码点切分
+     */
+    public static final Segmenter CODEPOINT = (text, start, end, finished) -> {
+        int next = codePointEnd(text, start, end);
+        return next < 0 ? (finished ? end : -1) : next;
+    };
+
+    /**
+     * 按字位簇（用户感知的单个字符）切分
+     * 缓冲末尾的簇以emoji、符号或扩展符结尾时等待后续内容，以免上游分片恰好切在肤色修饰、变体选择符或ZWJ之前
+     */
+    public static final Segmenter GRAPHEME = (text, start, end, finished) -> {
+        int next = graphemeEnd(text, start, end);
+        return next < 0 ? (finished ? end : -1) : next;
+    };
+
+    /**
+     * 按词切分：拉丁文字按单词（带后随标点和空白），中日韩文字按最多4字的短语
+     * 词或其后随的标点在缓冲末尾可能未完整时等待更多内容
+     */
+    public static final Segmenter WORD = (text, start, end, finished) -> {
+        int first = Character.codePointAt(text, start);
+        int i;
+        if (isWide(first)) {
+            i = run(text, start, end, PHRASE_CODEPOINTS, Segmenters::isWide);
+        } else if (isWordChar(first)) {
+            i = run(text, start, end, MAX_WORD_CHARS, Segmenters::isWordChar);
+        } else {
+            i = start;
+        }
+        if (i < 0) {
+            return finished ? end : -1;
+        }
+        // 后随的标点和空白并入同一单元
+        int limit = start + MAX_WORD_CHARS;
+        while (i < limit) {
+            if (i >= end) {
+                return finished ? end : -1;
+            }
+            int cp = Character.codePointAt(text, i);
+            if (isWide(cp) || isWordChar(cp)) {
+                return i;
+            }
+            int next = graphemeEnd(text, i, end);
+            if (next < 0) {
+                return finished ? end : -1;
+            }
+            i = next;
+        }
+        return i > start ? i : CODEPOINT.next(text, start, end, finished);
+    };
+
+    /**
+     * 按句切分：句末标点（。！？；及后随空白的英文句点等）连同后随的引号和空白为一个单元
+     */
+    public static final Segmenter SENTENCE = (text, start, end, finished) -> {
+        int lastSoftBreak = -1;
+        int i = start;
+        while (i < end) {
+            int cp = Character.codePointAt(text, i);
+            int next = graphemeEnd(text, i, end);
+            if (next < 0) {
+                return finished ? end : -1;
+            }
+            if (isSentenceEnd(cp) || (isAmbiguousEnd(cp) && next < end && Character.isWhitespace(text.charAt(next)))) {
+                int closed = absorbClosing(text, next, end);
+                return closed < end || finished ? closed : -1;
+            }
+            if (isAmbiguousEnd(cp) && next == end && !finished) {
+                return -1;
+            }
+            if (cp == '，' || cp == ',' || cp == '、' || Character.isWhitespace(cp)) {
+                lastSoftBreak = next;
+            }
+            i = next;
+            if (i - start >= MAX_SENTENCE_CHARS) {
+                return lastSoftBreak > start ? lastSoftBreak : i;
+            }
+        }
+        return finished ? end : -1;
+    };
+
+    /**
+     * 一个码点的结束位置；缓冲末尾是不完整的代理对时返回-1
+     */
+    static int codePointEnd(CharSequence text, int start, int end) {
+        char c = text.charAt(start);
+        if (Character.isHighSurrogate(c)) {
+            if (start + 1 >= end) {
+                return -1;
+            }
+            return Character.isLowSurrogate(text.charAt(start + 1)) ? start + 2 : start + 1;
+        }
+        return start + 1;
+    }
+
+    /**
+     * 一个字位簇的结束位置；确定不完整时返回-1
+     */
+    static int graphemeEnd(CharSequence text, int start, int end) {
+        int i = codePointEnd(text, start, end);
+        if (i < 0) {
+            return -1;
+        }
+        int first = Character.codePointAt(text, start);
+        if (first == '\r') {
+            return i < end && text.charAt(i) == '\n' ? i + 1 : i;
+        }
+        if (isRegionalIndicator(first)) {
+            if (i >= end) {
+                return -1;
+            }
+            int second = Character.codePointAt(text, i);
+            if (isRegionalIndicator(second)) {
+                int pair = codePointEnd(text, i, end);
+                if (pair < 0) {
+                    return -1;
+                }
+                i = pair;
+            }
+        }
+        int last = first;
+        while (i < end) {
+            int next = codePointEnd(text, i, end);
+            if (next < 0) {
+                return -1;
+            }
+            int cp = Character.codePointAt(text, i);
+            last = cp;
+            if (cp == ZWJ) {
+                // ZWJ连接下一个码点（如家庭、职业emoji序列）
+                if (next >= end) {
+                    return -1;
+                }
+                int joined = codePointEnd(text, next, end);
+                if (joined < 0) {
+                    return -1;
+                }
+                last = Character.codePointAt(text, next);
+                i = joined;
+            } else if (isExtend(cp)) {
+                i = next;
+            } else {
+                return i;
+            }
+        }
+        return mayExtend(last) ? -1 : i;
+    }
+
+    /**
+     * 连续满足条件的字位簇，达到maxCodepoints个时结束；到缓冲末尾仍可能继续时返回-1
+     */
+    private static int run(CharSequence text, int start, int end, int maxCodepoints, IntPredicate accept) {
+        int i = start;
+        int count = 0;
+        while (i < end && count < maxCodepoints) {
+            int cp = Character.codePointAt(text, i);
+            if (!accept.test(cp)) {
+                return i;
+            }
+            int next = graphemeEnd(text, i, end);
+            if (next < 0) {
+                return -1;
+            }
+            i = next;
+            count++;
+        }
+        return count < maxCodepoints ? -1 : i;
+    }
+
+    /**
+     * 句末之后连续的句末标点、右引号、右括号和空白并入本句
+     */
+    private static int absorbClosing(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (isSentenceEnd(c) || isAmbiguousEnd(c) || Character.isWhitespace(c)
+                    || c == '”' || c == '’' || c == '」' || c == '』' || c == '）' || c == ')' || c == '"' || c == '\'') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean isSentenceEnd(int cp) {
+        return cp == '。' || cp == '！' || cp == '？' || cp == '；' || cp == '\n' || cp == '…';
+    }
+
+    /** 英文句点等可能用于小数或缩写，后面跟空白才算句末 */
+    private static boolean isAmbiguousEnd(int cp) {
+        return cp == '.' || cp == '!' || cp == '?' || cp == ';';
+    }
+
+    private static boolean isExtend(int cp) {
+        int type = Character.getType(cp);
+        return type == Character.NON_SPACING_MARK
+                || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK
+                || (cp >= 0xFE00 && cp <= 0xFE0F)
+                || (cp >= 0xE0100 && cp <= 0xE01EF)
+                || (cp >= 0x1F3FB && cp <= 0x1F3FF)
+                || (cp >= 0xE0020 && cp <= 0xE007F);
+    }
+
+    /** 后面可能跟肤色修饰、变体选择符或ZWJ的码点 */
+    private static boolean mayExtend(int cp) {
+        return Character.isSupplementaryCodePoint(cp)
+                || Character.getType(cp) == Character.OTHER_SYMBOL
+                || isExtend(cp);
+    }
+
+    private static boolean isRegionalIndicator(int cp) {
+        return cp >= 0x1F1E6 && cp <= 0x1F1FF;
+    }
+
+    static boolean isWide(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static boolean isWordChar(int cp) {
+        return Character.isLetterOrDigit(cp) && !isWide(cp) || cp == '\'' || cp == '_';
+    }
+}
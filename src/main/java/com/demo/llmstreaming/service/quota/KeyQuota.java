@@ -0,0 +1,420 @@
+package com.demo.llmstreaming.service.quota;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 一个API Key的配额：每分钟请求数和token数各一个令牌桶，两个优先级各一个FIFO队列
+ * 交互请求只要余量够就放行；批量请求要在余量之上再留出预留部分，且有交互请求排队时不放行。
+ * 同一优先级内严格按到达顺序，队首放不下时后面的也不放行，避免大请求被小请求饿死。
+ * 回调（放行、拒绝）都在锁外执行
+ */
+@Slf4j
+class KeyQuota {
+
+    private final String label;
+
+    private final UpstreamProperties.Quota config;
+
+    private final TaskScheduler scheduler;
+
+    /** 不限制时为null */
+    private final TokenBucket requests;
+
+    private final TokenBucket tokens;
+
+    private final double requestReserve;
+
+    private final double tokenReserve;
+
+    /** 以下字段由本对象的锁保护 */
+    private final ArrayDeque<QuotaTicket> interactive = new ArrayDeque<>();
+
+    private final ArrayDeque<QuotaTicket> batch = new ArrayDeque<>();
+
+    private long pausedUntilNanos;
+
+    private ScheduledFuture<?> drainFuture;
+
+    private final LongAdder grantedInteractive = new LongAdder();
+
+    private final LongAdder grantedBatch = new LongAdder();
+
+    private final LongAdder delayed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder promoted = new LongAdder();
+
+    private final LongAdder throttled = new LongAdder();
+
+    private final LongAdder estimatedTokens = new LongAdder();
+
+    private final LongAdder actualTokens = new LongAdder();
+
+    private final LongAdder waitMillis = new LongAdder();
+
+    KeyQuota(String label, int requestsPerMinute, int tokensPerMinute, UpstreamProperties.Quota config,
+             TaskScheduler scheduler) {
+        this.label = label;
+        this.config = config;
+        this.scheduler = scheduler;
+        long now = System.nanoTime();
+        pausedUntilNanos = now;
+        // 桶容量为burstSeconds秒的速率：一分钟内最多放出 容量 + 速率×60，safetyRatio留出的余量要能盖住容量
+        double burstRatio = config.getBurstSeconds() / 60d;
+        if (requestsPerMinute > 0) {
+            double rate = requestsPerMinute * config.getSafetyRatio();
+            requests = new TokenBucket(rate, Math.max(1, rate * burstRatio), now);
+        } else {
+            requests = null;
+        }
+        if (tokensPerMinute > 0) {
+            double rate = tokensPerMinute * config.getSafetyRatio();
+            tokens = new TokenBucket(rate, Math.max(1, rate * burstRatio), now);
+        } else {
+            tokens = null;
+        }
+        requestReserve = requests != null ? requests.getCapacity() * config.getBatchReserveRatio() : 0;
+        tokenReserve = tokens != null ? tokens.getCapacity() * config.getBatchReserveRatio() : 0;
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    void submit(QuotaTicket ticket, Runnable onGranted, Consumer<String> onRejected) {
+        String rejectReason = null;
+        boolean grantedNow = false;
+        synchronized (this) {
+            if (ticket.state != QuotaTicket.State.NEW) {
+                // 提交前已取消
+                return;
+            }
+            ticket.onGranted = onGranted;
+            ticket.onRejected = onRejected;
+            long now = System.nanoTime();
+            refill(now);
+            ArrayDeque<QuotaTicket> queue = queueOf(ticket.priority);
+            boolean ahead = !queue.isEmpty() || (ticket.priority == Priority.BATCH && !interactive.isEmpty());
+            if (!ahead && fits(ticket, now)) {
+                grant(ticket);
+                grantedNow = true;
+            } else if (interactive.size() + batch.size() >= config.getMaxQueued()) {
+                ticket.state = QuotaTicket.State.REJECTED;
+                rejected.increment();
+                rejectReason = "上游配额排队已满";
+            } else {
+                ticket.state = QuotaTicket.State.QUEUED;
+                ticket.queuedAtNanos = now;
+                queue.addLast(ticket);
+                delayed.increment();
+                scheduleTimeout(ticket);
+                scheduleDrain(waitNanos(queueHead(), now));
+            }
+        }
+        if (rejectReason != null) {
+            onRejected.accept(rejectReason);
+        } else if (grantedNow) {
+            onGranted.run();
+        }
+    }
+
+    /**
+     * 不排队直接扣减，余量可以扣成负数（对冲请求等必须立即发出的调用）
+     */
+    synchronized void charge(QuotaTicket ticket) {
+        refill(System.nanoTime());
+        grant(ticket);
+    }
+
+    /**
+     * 当前是否能直接放行该优先级的一次调用
+     */
+    synchronized boolean hasCapacity(Priority priority, int estimated) {
+        long now = System.nanoTime();
+        refill(now);
+        if (!queueOf(priority).isEmpty() || (priority == Priority.BATCH && !interactive.isEmpty())) {
+            return false;
+        }
+        return fits(priority, estimated, now);
+    }
+
+    void cancel(QuotaTicket ticket) {
+        synchronized (this) {
+            if (ticket.state == QuotaTicket.State.NEW) {
+                ticket.state = QuotaTicket.State.CANCELLED;
+                return;
+            }
+            if (ticket.state != QuotaTicket.State.QUEUED) {
+                return;
+            }
+            dequeue(ticket);
+            ticket.state = QuotaTicket.State.CANCELLED;
+        }
+        // 队首被移除后后面的可能放得下
+        drain();
+    }
+
+    void promote(QuotaTicket ticket) {
+        synchronized (this) {
+            if (ticket.priority == Priority.INTERACTIVE) {
+                return;
+            }
+            if (ticket.state != QuotaTicket.State.QUEUED) {
+                ticket.priority = Priority.INTERACTIVE;
+                return;
+            }
+            batch.remove(ticket);
+            ticket.priority = Priority.INTERACTIVE;
+            interactive.addLast(ticket);
+            promoted.increment();
+            // 等待上限按交互请求重新计算
+            if (ticket.timeout != null) {
+                ticket.timeout.cancel(false);
+            }
+            scheduleTimeout(ticket);
+        }
+        drain();
+    }
+
+    void complete(QuotaTicket ticket, int actual) {
+        synchronized (this) {
+            if (ticket.state != QuotaTicket.State.GRANTED) {
+                return;
+            }
+            ticket.state = QuotaTicket.State.COMPLETED;
+            if (actual < 0 || tokens == null) {
+                actualTokens.add(actual < 0 ? ticket.estimatedTokens : actual);
+                return;
+            }
+            actualTokens.add(actual);
+            refill(System.nanoTime());
+            int diff = actual - ticket.estimatedTokens;
+            if (diff > 0) {
+                tokens.take(diff);
+                return;
+            }
+            tokens.give(-diff);
+        }
+        // 退还了多扣的部分
+        drain();
+    }
+
+    void throttled(long retryAfterMs) {
+        long pauseMs = retryAfterMs > 0 ? retryAfterMs : config.getThrottleBackoffMs();
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            if (requests != null) {
+                requests.empty();
+            }
+            if (tokens != null) {
+                tokens.empty();
+            }
+            long until = now + TimeUnit.MILLISECONDS.toNanos(pauseMs);
+            if (until - pausedUntilNanos > 0) {
+                pausedUntilNanos = until;
+            }
+            throttled.increment();
+            QuotaTicket head = queueHead();
+            if (head != null) {
+                scheduleDrain(waitNanos(head, now));
+            }
+        }
+        log.warn("上游返回限流，暂停发送{}ms：{}", pauseMs, label);
+    }
+
+    /**
+     * 按队列顺序放行所有放得下的申请，仍有排队时安排下一次
+     */
+    void drain() {
+        List<QuotaTicket> granted = null;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (drainFuture != null && drainFuture.getDelay(TimeUnit.NANOSECONDS) <= 0) {
+                // 已到期的安排就是本次（或马上执行），之后需要重新安排
+                drainFuture = null;
+            }
+            refill(now);
+            QuotaTicket head;
+            while ((head = queueHead()) != null && fits(head, now)) {
+                dequeue(head);
+                waitMillis.add(TimeUnit.NANOSECONDS.toMillis(now - head.queuedAtNanos));
+                grant(head);
+                if (granted == null) {
+                    granted = new ArrayList<>();
+                }
+                granted.add(head);
+            }
+            if (head != null) {
+                scheduleDrain(waitNanos(head, now));
+            }
+        }
+        if (granted != null) {
+            for (QuotaTicket ticket : granted) {
+                try {
+                    ticket.onGranted.run();
+                } catch (RuntimeException e) {
+                    log.error("获得配额后发起调用失败", e);
+                }
+            }
+        }
+    }
+
+    private void expire(QuotaTicket ticket) {
+        synchronized (this) {
+            if (ticket.state != QuotaTicket.State.QUEUED) {
+                return;
+            }
+            dequeue(ticket);
+            ticket.state = QuotaTicket.State.REJECTED;
+            rejected.increment();
+        }
+        log.warn("等待上游配额超时：{}，优先级：{}", label, ticket.priority);
+        ticket.onRejected.accept("等待上游配额超时");
+        drain();
+    }
+
+    synchronized Map<String, Object> snapshot() {
+        refill(System.nanoTime());
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("requestsAvailable", requests != null ? Math.floor(requests.getLevel()) : -1);
+        snapshot.put("tokensAvailable", tokens != null ? Math.floor(tokens.getLevel()) : -1);
+        snapshot.put("interactiveQueued", interactive.size());
+        snapshot.put("batchQueued", batch.size());
+        snapshot.put("grantedInteractive", grantedInteractive.sum());
+        snapshot.put("grantedBatch", grantedBatch.sum());
+        snapshot.put("delayed", delayed.sum());
+        snapshot.put("waitMsTotal", waitMillis.sum());
+        snapshot.put("promoted", promoted.sum());
+        snapshot.put("rejected", rejected.sum());
+        snapshot.put("throttled", throttled.sum());
+        snapshot.put("estimatedTokens", estimatedTokens.sum());
+        snapshot.put("actualTokens", actualTokens.sum());
+        return snapshot;
+    }
+
+    private void grant(QuotaTicket ticket) {
+        ticket.state = QuotaTicket.State.GRANTED;
+        if (ticket.timeout != null) {
+            ticket.timeout.cancel(false);
+            ticket.timeout = null;
+        }
+        if (requests != null) {
+            requests.take(1);
+        }
+        if (tokens != null) {
+            tokens.take(ticket.estimatedTokens);
+        }
+        estimatedTokens.add(ticket.estimatedTokens);
+        if (ticket.priority == Priority.INTERACTIVE) {
+            grantedInteractive.increment();
+        } else {
+            grantedBatch.increment();
+        }
+    }
+
+    private boolean fits(QuotaTicket ticket, long now) {
+        return fits(ticket.priority, ticket.estimatedTokens, now);
+    }
+
+    private boolean fits(Priority priority, int estimated, long now) {
+        if (pausedUntilNanos - now > 0) {
+            return false;
+        }
+        boolean isBatch = priority == Priority.BATCH;
+        if (requests != null && requests.getLevel() < requestNeed(isBatch)) {
+            return false;
+        }
+        return tokens == null || tokens.getLevel() >= tokenNeed(isBatch, estimated);
+    }
+
+    /**
+     * 队首申请放得下还要等多久
+     */
+    private long waitNanos(QuotaTicket ticket, long now) {
+        boolean isBatch = ticket.priority == Priority.BATCH;
+        long wait = Math.max(0, pausedUntilNanos - now);
+        if (requests != null) {
+            wait = Math.max(wait, requests.nanosUntil(requestNeed(isBatch)));
+        }
+        if (tokens != null) {
+            wait = Math.max(wait, tokens.nanosUntil(tokenNeed(isBatch, ticket.estimatedTokens)));
+        }
+        return wait;
+    }
+
+    private double requestNeed(boolean isBatch) {
+        return Math.min(1 + (isBatch ? requestReserve : 0), requests.getCapacity());
+    }
+
+    /**
+     * 预估超过桶容量的申请等到桶满即放行，余量扣成负数，之后的申请等它补回
+     */
+    private double tokenNeed(boolean isBatch, int estimated) {
+        return Math.min(estimated + (isBatch ? tokenReserve : 0), tokens.getCapacity());
+    }
+
+    private void refill(long now) {
+        if (requests != null) {
+            requests.refill(now);
+        }
+        if (tokens != null) {
+            tokens.refill(now);
+        }
+    }
+
+    /**
+     * 有交互请求排队时只看交互队列
+     */
+    private QuotaTicket queueHead() {
+        QuotaTicket head = interactive.peekFirst();
+        return head != null ? head : batch.peekFirst();
+    }
+
+    private ArrayDeque<QuotaTicket> queueOf(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactive : batch;
+    }
+
+    private void dequeue(QuotaTicket ticket) {
+        queueOf(ticket.priority).remove(ticket);
+        if (ticket.timeout != null) {
+            ticket.timeout.cancel(false);
+            ticket.timeout = null;
+        }
+    }
+
+    private void scheduleTimeout(QuotaTicket ticket) {
+        long maxWaitMs = ticket.priority == Priority.INTERACTIVE
+                ? config.getInteractiveMaxWaitMs() : config.getBatchMaxWaitMs();
+        ticket.timeout = scheduler.schedule(() -> expire(ticket), Instant.now().plusMillis(maxWaitMs));
+    }
+
+    /**
+     * 已安排的下一次不晚于所需时间时沿用，否则改期
+     */
+    private void scheduleDrain(long delayNanos) {
+        // 调度精度为毫秒，至少等1毫秒，避免浮点误差下反复立即执行
+        long delay = Math.max(delayNanos, TimeUnit.MILLISECONDS.toNanos(1));
+        if (drainFuture != null && !drainFuture.isDone() && drainFuture.getDelay(TimeUnit.NANOSECONDS) <= delay) {
+            return;
+        }
+        if (drainFuture != null) {
+            drainFuture.cancel(false);
+        }
+        drainFuture = scheduler.schedule(this::drain, Instant.now().plusNanos(delay));
+    }
+}
@@ -0,0 +1,13 @@
+package com.demo.llmstreaming.service.quota;
+
+/**
+ * 上游调用的优先级
+ */
+public enum Priority {
+
+    /** 交互请求：用户在等待首字，配额优先分配 */
+    INTERACTIVE,
+
+    /** 批量请求：只使用预留之外的空闲配额，交互请求排队时让出 */
+    BATCH
+}
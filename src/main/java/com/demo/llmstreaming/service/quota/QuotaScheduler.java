@@ -0,0 +1,122 @@
+package com.demo.llmstreaming.service.quota;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import com.demo.llmstreaming.service.upstream.UpstreamClientManager;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 上游配额调度
+ * 供应商按API Key限制每分钟请求数和token数，超出后返回429。在本地按同样的口径记账：
+ * 发起调用前按提示词估算加max_output_tokens预扣，结束后用上游报告的usage更正；
+ * 余量不足时按优先级排队，交互请求优先，批量请求只使用预留之外的空闲配额。
+ * 多个端点使用同一个API Key时共用一份配额
+ */
+@Slf4j
+@Component
+public class QuotaScheduler {
+
+    @Autowired
+    private UpstreamProperties properties;
+
+    @Autowired
+    private UpstreamClientManager upstreamClientManager;
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    private UpstreamProperties.Quota config;
+
+    /** 按API Key，启动后不再变化；不限配额的Key不在其中 */
+    private final Map<String, KeyQuota> quotas = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        config = properties.getQuota();
+        if (!config.isEnabled()) {
+            return;
+        }
+        // 同一API Key的端点合并为一份配额，取各端点配置中较小的限制
+        Map<String, String> labels = new LinkedHashMap<>();
+        Map<String, int[]> limits = new HashMap<>();
+        for (UpstreamEndpoint endpoint : upstreamClientManager.getEndpoints()) {
+            String key = endpoint.getApiKey();
+            labels.merge(key, endpoint.getName(), (a, b) -> a + "," + b);
+            int[] limit = limits.get(key);
+            if (limit == null) {
+                limits.put(key, new int[]{endpoint.getRequestsPerMinute(), endpoint.getTokensPerMinute()});
+            } else {
+                limit[0] = minLimit(limit[0], endpoint.getRequestsPerMinute());
+                limit[1] = minLimit(limit[1], endpoint.getTokensPerMinute());
+            }
+        }
+        for (Map.Entry<String, String> entry : labels.entrySet()) {
+            int[] limit = limits.get(entry.getKey());
+            if (limit[0] <= 0 && limit[1] <= 0) {
+                continue;
+            }
+            quotas.put(entry.getKey(), new KeyQuota(entry.getValue(), limit[0], limit[1], config, streamScheduler));
+            log.info("上游配额：{}，每分钟请求数：{}，每分钟token数：{}", entry.getValue(), limit[0], limit[1]);
+        }
+    }
+
+    /**
+     * 创建配额申请，调用方先关联取消动作再submit
+     * @param estimatedTokens 预估token数（提示词估算 + max_output_tokens）
+     */
+    public QuotaTicket newTicket(UpstreamEndpoint endpoint, Priority priority, int estimatedTokens) {
+        return new QuotaTicket(quotas.get(endpoint.getApiKey()), priority, estimatedTokens);
+    }
+
+    /**
+     * 不排队直接扣减配额（对冲请求），余量不足时扣成负数，之后的申请等它补回
+     */
+    public QuotaTicket charge(UpstreamEndpoint endpoint, Priority priority, int estimatedTokens) {
+        KeyQuota quota = quotas.get(endpoint.getApiKey());
+        QuotaTicket ticket = new QuotaTicket(quota, priority, estimatedTokens);
+        if (quota != null) {
+            quota.charge(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * 端点的配额当前能否直接放行，用于在多个端点间避开已用尽的API Key
+     */
+    public boolean hasCapacity(UpstreamEndpoint endpoint, Priority priority, int estimatedTokens) {
+        KeyQuota quota = quotas.get(endpoint.getApiKey());
+        return quota == null || quota.hasCapacity(priority, estimatedTokens);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", config.isEnabled());
+        Map<String, Object> keys = new LinkedHashMap<>();
+        // 不输出API Key本身，按使用它的端点名区分
+        for (KeyQuota quota : quotas.values()) {
+            keys.put(quota.getLabel(), quota.snapshot());
+        }
+        snapshot.put("keys", keys);
+        return snapshot;
+    }
+
+    /**
+     * 0表示不限制，两者取更严格的
+     */
+    private static int minLimit(int a, int b) {
+        if (a <= 0) {
+            return b;
+        }
+        return b <= 0 ? a : Math.min(a, b);
+    }
+}
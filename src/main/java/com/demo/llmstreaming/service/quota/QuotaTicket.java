@@ -0,0 +1,101 @@
+package com.demo.llmstreaming.service.quota;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+/**
+ * 一次上游调用的配额申请
+ * 按预估token数预扣，调用结束后用上游报告的实际用量更正；
+ * 所属的KeyQuota为null时该端点不限配额，提交即放行，其余操作为空操作
+ */
+public class QuotaTicket {
+
+    enum State {
+        NEW, QUEUED, GRANTED, COMPLETED, CANCELLED, REJECTED
+    }
+
+    /** 以下字段由所属KeyQuota的锁保护 */
+    final KeyQuota quota;
+
+    final int estimatedTokens;
+
+    volatile Priority priority;
+
+    State state = State.NEW;
+
+    Runnable onGranted;
+
+    Consumer<String> onRejected;
+
+    ScheduledFuture<?> timeout;
+
+    long queuedAtNanos;
+
+    QuotaTicket(KeyQuota quota, Priority priority, int estimatedTokens) {
+        this.quota = quota;
+        this.priority = priority;
+        // 负数预扣会使令牌桶超过容量，绕过配额
+        this.estimatedTokens = Math.max(0, estimatedTokens);
+    }
+
+    /**
+     * 提交申请：配额足够时在当前线程放行，否则排队，在调度线程上放行或超时拒绝
+     * 提交前已取消的申请不会回调
+     * @param onGranted 获得配额后发起上游调用
+     * @param onRejected 排队超时或队列已满，参数为原因
+     */
+    public void submit(Runnable onGranted, Consumer<String> onRejected) {
+        if (quota == null) {
+            state = State.GRANTED;
+            onGranted.run();
+            return;
+        }
+        quota.submit(this, onGranted, onRejected);
+    }
+
+    /**
+     * 取消仍在排队的申请；已放行的申请不受影响，由complete结算
+     */
+    public void cancel() {
+        if (quota != null) {
+            quota.cancel(this);
+        }
+    }
+
+    /**
+     * 批量申请被交互请求共享（合并到同一生成）后提升为交互优先级
+     */
+    public void promote() {
+        if (quota != null) {
+            quota.promote(this);
+        }
+    }
+
+    /**
+     * 调用结束，按实际用量更正预扣，只生效一次
+     * @param actualTokens 实际token数（提示词+输出），小于0表示未知，保留预扣
+     */
+    public void complete(int actualTokens) {
+        if (quota != null) {
+            quota.complete(this, actualTokens);
+        }
+    }
+
+    /**
+     * 上游返回限流，清空余量并暂停发送
+     * @param retryAfterMs 上游要求的等待时间，小于等于0时使用配置的退避时间
+     */
+    public void throttled(long retryAfterMs) {
+        if (quota != null) {
+            quota.throttled(retryAfterMs);
+        }
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public int getEstimatedTokens() {
+        return estimatedTokens;
+    }
+}
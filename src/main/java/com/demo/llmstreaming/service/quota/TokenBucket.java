@@ -0,0 +1,64 @@
+package com.demo.llmstreaming.service.quota;
+
+/**
+ * 令牌桶：按固定速率连续补充，容量限制突发
+ * 余量允许为负（预扣不足的部分在实际用量更正时补扣），为负时要先补回才能再分配
+ * 非线程安全，由所属的KeyQuota加锁访问
+ */
+final class TokenBucket {
+
+    private final double capacity;
+
+    private final double perNano;
+
+    private double level;
+
+    private long lastNanos;
+
+    TokenBucket(double perMinute, double capacity, long nowNanos) {
+        this.capacity = capacity;
+        this.perNano = perMinute / 60_000_000_000d;
+        this.level = capacity;
+        this.lastNanos = nowNanos;
+    }
+
+    void refill(long nowNanos) {
+        if (nowNanos - lastNanos > 0) {
+            level = Math.min(capacity, level + (nowNanos - lastNanos) * perNano);
+            lastNanos = nowNanos;
+        }
+    }
+
+    double getCapacity() {
+        return capacity;
+    }
+
+    double getLevel() {
+        return level;
+    }
+
+    void take(double amount) {
+        level -= amount;
+    }
+
+    void give(double amount) {
+        level = Math.min(capacity, level + amount);
+    }
+
+    /**
+     * 清空余量（上游返回限流时，说明实际余量比记账的少）
+     */
+    void empty() {
+        level = Math.min(level, 0);
+    }
+
+    /**
+     * 余量补充到amount还需要的时间
+     */
+    long nanosUntil(double amount) {
+        if (level >= amount) {
+            return 0;
+        }
+        return (long) Math.ceil((amount - level) / perNano);
+    }
+}
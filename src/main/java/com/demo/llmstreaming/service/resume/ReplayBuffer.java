@@ -0,0 +1,125 @@
+package com.demo.llmstreaming.service.resume;
+
+import com.demo.llmstreaming.service.writer.FrameBuffer;
+
+import java.util.Arrays;
+
+/**
+ * 单条流已发送帧的紧凑存储
+ * 编码好的NDJSON帧依次拼接在一个字节数组中，另记每帧的起始偏移；超过容量上限时从最旧的帧开始淘汰，最新一帧总是保留。
+ * 非线程安全，由ResumableStream加锁保护
+ */
+class ReplayBuffer {
+
+    private final int maxBytes;
+
+    private byte[] bytes;
+
+    /** offsets[i] 为序号 baseSequence + i 的帧的起始位置 */
+    private int[] offsets = new int[32];
+
+    private int baseSequence;
+
+    /** 第一条保留帧的下标，之前的帧已淘汰 */
+    private int head;
+
+    /** 已写入的帧数 */
+    private int count;
+
+    /** 已使用的字节数 */
+    private int end;
+
+    ReplayBuffer(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.bytes = new byte[Math.max(64, Math.min(maxBytes, 1024))];
+    }
+
+    /**
+     * 追加一帧
+     * @return 该帧的序号
+     */
+    int append(FrameBuffer frame) {
+        int length = frame.size();
+        while (head < count && end - offsets[head] + length > maxBytes) {
+            head++;
+        }
+        ensureCapacity(length);
+        frame.copyTo(bytes, end);
+        offsets[count] = end;
+        end += length;
+        return baseSequence + count++;
+    }
+
+    /**
+     * 仍可重放的最早序号
+     */
+    int firstSequence() {
+        return baseSequence + head;
+    }
+
+    /**
+     * 下一帧的序号
+     */
+    int nextSequence() {
+        return baseSequence + count;
+    }
+
+    byte[] array() {
+        return bytes;
+    }
+
+    int offset(int sequence) {
+        return offsets[sequence - baseSequence];
+    }
+
+    int length(int sequence) {
+        int index = sequence - baseSequence;
+        return (index + 1 < count ? offsets[index + 1] : end) - offsets[index];
+    }
+
+    /**
+     * 实际占用的内存（字节）
+     */
+    int footprint() {
+        return bytes.length + offsets.length * 4;
+    }
+
+    /**
+     * 流结束后不再追加，收缩到实际大小
+     */
+    void trim() {
+        compact();
+        bytes = Arrays.copyOf(bytes, end);
+        offsets = Arrays.copyOf(offsets, count);
+    }
+
+    private void ensureCapacity(int length) {
+        if (count == offsets.length || end + length > bytes.length) {
+            compact();
+        }
+        if (end + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, end + length));
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(32, offsets.length * 2));
+        }
+    }
+
+    /**
+     * 丢弃已淘汰的帧，把保留的帧移到数组开头
+     */
+    private void compact() {
+        if (head == 0) {
+            return;
+        }
+        int start = head < count ? offsets[head] : end;
+        System.arraycopy(bytes, start, bytes, 0, end - start);
+        for (int i = head; i < count; i++) {
+            offsets[i - head] = offsets[i] - start;
+        }
+        end -= start;
+        count -= head;
+        baseSequence += head;
+        head = 0;
+    }
+}
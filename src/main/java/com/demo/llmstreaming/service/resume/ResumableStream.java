@@ -0,0 +1,319 @@
+package com.demo.llmstreaming.service.resume;
+
+import com.demo.llmstreaming.service.writer.FrameBuffer;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.demo.llmstreaming.service.writer.WireFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 可续传的流
+ * 生成过程与下游连接解耦：每帧分配递增的sequence，编码后先存入重放缓冲，再转发给当前连接；
+ * 连接断开后流继续生成一段宽限期，期间客户端可凭dataId和最后收到的sequence重新连接，
+ * 先补发缺失的帧再接上实时输出。宽限期内没有重连则放弃生成
+ */
+@Slf4j
+public class ResumableStream {
+
+    /**
+     * 续传结果
+     */
+    public enum AttachResult {
+        /** 已补发并接上实时输出（流已结束时补发后即结束） */
+        ATTACHED,
+        /** 所需的帧已被淘汰 */
+        EXPIRED,
+        /** 流已放弃 */
+        ABANDONED
+    }
+
+    private final FrameEncoder encoder;
+
+    /** 为null时不保留帧，只分配sequence；被登记表淘汰后置为null */
+    private ReplayBuffer replay;
+
+    private final FrameBuffer scratch = new FrameBuffer(256);
+
+    private final TaskScheduler scheduler;
+
+    private final long detachGraceMs;
+
+    private final ResumeRegistry registry;
+
+    private Runnable abandonListener;
+
+    private FrameSink sink;
+
+    private ResponseBodyEmitter emitter;
+
+    private int nextSequence;
+
+    private boolean completed;
+
+    private boolean abandoned;
+
+    private ScheduledFuture<?> abandonTimer;
+
+    private volatile int footprint;
+
+    ResumableStream(FrameEncoder encoder, ReplayBuffer replay, TaskScheduler scheduler, long detachGraceMs,
+                    ResumeRegistry registry, FrameSink sink, ResponseBodyEmitter emitter) {
+        this.encoder = encoder;
+        this.replay = replay;
+        this.scheduler = scheduler;
+        this.detachGraceMs = detachGraceMs;
+        this.registry = registry;
+        this.sink = sink;
+        this.emitter = emitter;
+        this.footprint = replay != null ? replay.footprint() : 0;
+    }
+
+    public String getDataId() {
+        return encoder.getDataId();
+    }
+
+    /**
+     * 重放缓冲中的帧按该格式编码，续传连接必须使用相同格式
+     */
+    public WireFormat getFormat() {
+        return encoder.getFormat();
+    }
+
+    /**
+     * 宽限期内没有重连时回调，用于取消上游生成
+     */
+    public synchronized void setAbandonListener(Runnable abandonListener) {
+        this.abandonListener = abandonListener;
+    }
+
+    public synchronized void writeData(String content, boolean finished) {
+        if (completed) {
+            return;
+        }
+        if (replay == null) {
+            int sequence = nextSequence++;
+            forward(current -> current.writeData(encoder, content, finished, sequence), finished);
+            return;
+        }
+        scratch.clear();
+        encoder.encodeData(scratch, content, finished, replay.nextSequence());
+        append(finished);
+    }
+
+    /**
+     * 写入结构化字段帧，与数据帧共用sequence
+     */
+    public synchronized void writeField(String path, String value) {
+        if (completed) {
+            return;
+        }
+        if (replay == null) {
+            int sequence = nextSequence++;
+            forward(current -> current.writeField(encoder, path, value, sequence), false);
+            return;
+        }
+        scratch.clear();
+        encoder.encodeField(scratch, path, value, replay.nextSequence());
+        append(false);
+    }
+
+    /**
+     * 写入结束帧并结束当前连接，之后的重连只补发
+     */
+    public void complete() {
+        synchronized (this) {
+            if (completed) {
+                return;
+            }
+            if (replay == null) {
+                int sequence = nextSequence++;
+                forward(current -> current.writeEnd(encoder, sequence), true);
+            } else {
+                scratch.clear();
+                encoder.encodeEnd(scratch, replay.nextSequence());
+                append(true);
+                replay.trim();
+                footprint = replay.footprint();
+            }
+            completed = true;
+            cancelAbandonTimer();
+            completeConnection();
+        }
+        registry.completed(this);
+    }
+
+    /**
+     * 生成已放弃（客户端断开超过宽限期或异步超时），不能再续传
+     */
+    public void abandon() {
+        synchronized (this) {
+            if (abandoned) {
+                return;
+            }
+            abandoned = true;
+            completed = true;
+            cancelAbandonTimer();
+            completeConnection();
+        }
+        registry.remove(this);
+    }
+
+    /**
+     * 当前连接断开，宽限期后仍未重连则放弃
+     * @param failedSink 断开的连接，已被新连接替换时忽略
+     */
+    public void detach(FrameSink failedSink) {
+        synchronized (this) {
+            if (sink != failedSink || sink == null) {
+                return;
+            }
+            detachLocked();
+        }
+    }
+
+    /**
+     * 重新连接：补发fromSequence及之后的帧，再接上实时输出；已有的连接被替换
+     */
+    public synchronized AttachResult attach(FrameSink newSink, ResponseBodyEmitter newEmitter, int fromSequence) {
+        if (abandoned) {
+            return AttachResult.ABANDONED;
+        }
+        if (replay == null || fromSequence < replay.firstSequence()) {
+            return AttachResult.EXPIRED;
+        }
+        // 旧连接可能已经失效但还未察觉，由新连接接替
+        completeConnection();
+        cancelAbandonTimer();
+        sink = newSink;
+        emitter = newEmitter;
+        try {
+            newSink.writeHeader(encoder);
+            int next = replay.nextSequence();
+            for (int sequence = Math.max(fromSequence, replay.firstSequence()); sequence < next; sequence++) {
+                newSink.writeEncoded(replay.array(), replay.offset(sequence), replay.length(sequence), false);
+            }
+            newSink.flush();
+        } catch (IOException e) {
+            log.info("续传连接已断开: {}", e.getMessage());
+            detachLocked();
+            return AttachResult.ATTACHED;
+        }
+        if (completed) {
+            completeConnection();
+        }
+        return AttachResult.ATTACHED;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 被登记表按容量或时间淘汰：释放重放缓冲，之后的帧只转发不保留；
+     * 下游已断开时无法再续传，立即放弃生成
+     */
+    void evicted() {
+        synchronized (this) {
+            if (replay == null) {
+                return;
+            }
+            nextSequence = replay.nextSequence();
+            replay = null;
+            footprint = 0;
+            if (completed || sink != null) {
+                return;
+            }
+            cancelAbandonTimer();
+        }
+        log.info("续传缓冲已被淘汰，放弃生成: {}", getDataId());
+        fireAbandon();
+    }
+
+    /**
+     * 重放缓冲占用的内存（字节）
+     */
+    int footprint() {
+        return footprint;
+    }
+
+    private void append(boolean urgent) {
+        int sequence = replay.append(scratch);
+        int grown = replay.footprint();
+        if (grown != footprint) {
+            // 缓冲按倍数扩容，只在扩容时重新计重
+            footprint = grown;
+            registry.resized(this);
+        }
+        forward(current -> current.writeEncoded(replay.array(), replay.offset(sequence), replay.length(sequence), urgent), urgent);
+    }
+
+    private void forward(SinkWrite write, boolean urgent) {
+        if (sink == null) {
+            return;
+        }
+        try {
+            write.write(sink);
+        } catch (IOException e) {
+            // 连接失败由FrameSink的失败回调通知，这里只解除关联
+            log.debug("写出失败，等待续传: {}", e.getMessage());
+            detachLocked();
+        }
+    }
+
+    private void detachLocked() {
+        // 异步超时时需要结束响应，连接已失效时结束是无害的
+        completeConnection();
+        if (completed || abandonTimer != null) {
+            return;
+        }
+        if (detachGraceMs <= 0 || replay == null) {
+            scheduler.schedule(this::fireAbandon, Instant.now());
+            return;
+        }
+        log.info("下游连接已断开，{}ms内可续传: {}", detachGraceMs, getDataId());
+        abandonTimer = scheduler.schedule(this::fireAbandon, Instant.now().plusMillis(detachGraceMs));
+    }
+
+    /**
+     * 结束并解除当前连接
+     */
+    private void completeConnection() {
+        if (emitter != null) {
+            sink.complete(emitter);
+        }
+        sink = null;
+        emitter = null;
+    }
+
+    private void fireAbandon() {
+        Runnable listener;
+        synchronized (this) {
+            abandonTimer = null;
+            if (completed || sink != null) {
+                return;
+            }
+            listener = abandonListener;
+        }
+        log.info("宽限期内未续传，放弃生成: {}", getDataId());
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void cancelAbandonTimer() {
+        if (abandonTimer != null) {
+            abandonTimer.cancel(false);
+            abandonTimer = null;
+        }
+    }
+
+    private interface SinkWrite {
+        void write(FrameSink sink) throws IOException;
+    }
+}
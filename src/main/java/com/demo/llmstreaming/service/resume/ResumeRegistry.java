@@ -0,0 +1,166 @@
+package com.demo.llmstreaming.service.resume;
+
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可续传流的登记表
+ * 按dataId保存进行中和刚结束的流，总内存按各流重放缓冲的实际占用限额，结束后收缩为实际大小并保留TTL；
+ * 被淘汰的流释放重放缓冲，不再保留后续的帧
+ */
+@Component
+public class ResumeRegistry {
+
+    @Value("${llm.resume.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.resume.max-stream-bytes:262144}")
+    private int maxStreamBytes;
+
+    @Value("${llm.resume.max-total-bytes:67108864}")
+    private long maxTotalBytes;
+
+    @Value("${llm.resume.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${llm.resume.detach-grace-ms:0}")
+    private long detachGraceMs;
+
+    @Value("${llm.stream.async-timeout:300000}")
+    private long asyncTimeout;
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    private Cache<String, ResumableStream> streams;
+
+    private final LongAdder resumed = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder expired = new LongAdder();
+
+    private final LongAdder evicted = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        long liveNanos = TimeUnit.MILLISECONDS.toNanos(asyncTimeout + detachGraceMs);
+        long ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        streams = Caffeine.newBuilder()
+                .maximumWeight(maxTotalBytes)
+                .<String, ResumableStream>weigher((dataId, stream) -> stream.footprint())
+                .expireAfter(new Expiry<String, ResumableStream>() {
+                    @Override
+                    public long expireAfterCreate(String dataId, ResumableStream stream, long currentTime) {
+                        return liveNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String dataId, ResumableStream stream, long currentTime, long currentDuration) {
+                        return stream.isCompleted() ? ttlNanos : currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String dataId, ResumableStream stream, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .removalListener((String dataId, ResumableStream stream, RemovalCause cause) -> {
+                    if (stream != null && cause.wasEvicted()) {
+                        evicted.increment();
+                        stream.evicted();
+                    }
+                })
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 创建一条流并登记；未启用续传时只分配sequence，不保留帧也不登记
+     */
+    public ResumableStream open(FrameEncoder encoder, FrameSink sink, ResponseBodyEmitter emitter) {
+        ReplayBuffer replay = enabled ? new ReplayBuffer(maxStreamBytes) : null;
+        ResumableStream stream = new ResumableStream(encoder, replay, streamScheduler, detachGraceMs, this, sink, emitter);
+        if (enabled) {
+            streams.put(encoder.getDataId(), stream);
+        }
+        return stream;
+    }
+
+    /**
+     * 按dataId查找，不存在或已淘汰时返回null
+     */
+    public ResumableStream get(String dataId) {
+        ResumableStream stream = streams.getIfPresent(dataId);
+        if (stream == null) {
+            misses.increment();
+        }
+        return stream;
+    }
+
+    public void recordResumed() {
+        resumed.increment();
+    }
+
+    public void recordExpired() {
+        expired.increment();
+    }
+
+    /**
+     * 进行中的流重放缓冲扩容，按新的大小重新计重
+     */
+    void resized(ResumableStream stream) {
+        if (enabled) {
+            streams.asMap().replace(stream.getDataId(), stream, stream);
+        }
+    }
+
+    /**
+     * 流结束，按收缩后的大小重新计重并开始TTL
+     */
+    void completed(ResumableStream stream) {
+        if (enabled) {
+            streams.asMap().replace(stream.getDataId(), stream, stream);
+        }
+    }
+
+    void remove(ResumableStream stream) {
+        streams.asMap().remove(stream.getDataId(), stream);
+    }
+
+    /**
+     * 续传统计
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("streams", streams.estimatedSize());
+        snapshot.put("weightedBytes", streams.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        snapshot.put("maxBytes", maxTotalBytes);
+        snapshot.put("resumed", resumed.sum());
+        snapshot.put("misses", misses.sum());
+        snapshot.put("expired", expired.sum());
+        snapshot.put("evicted", evicted.sum());
+        return snapshot;
+    }
+}
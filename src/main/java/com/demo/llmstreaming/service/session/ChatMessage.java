@@ -0,0 +1,44 @@
+package com.demo.llmstreaming.service.session;
+
+/**
+ * 一条对话消息，创建时估算并缓存token数
+ */
+public class ChatMessage {
+
+    public static final String SYSTEM = "system";
+
+    public static final String USER = "user";
+
+    public static final String ASSISTANT = "assistant";
+
+    private final String role;
+
+    private final String content;
+
+    private final int tokens;
+
+    public ChatMessage(String role, String content) {
+        this.role = role;
+        this.content = content;
+        this.tokens = TokenEstimator.estimateMessage(content);
+    }
+
+    public static ChatMessage user(String content) {
+        return new ChatMessage(USER, content);
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * 估算的token数（含消息格式开销）
+     */
+    public int getTokens() {
+        return tokens;
+    }
+}
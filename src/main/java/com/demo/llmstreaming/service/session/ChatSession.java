@@ -0,0 +1,176 @@
+package com.demo.llmstreaming.service.session;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务端会话
+ * 只保存仍在上下文窗口内的消息（成对的提问和回答），被压缩掉的消息按策略丢弃或折叠进摘要槽。
+ * 同一会话的并发请求各自基于已完成的历史组装，按完成顺序追加
+ */
+public class ChatSession {
+
+    private static final String SUMMARY_HEADER = "以下是更早对话的摘要：";
+
+    /** 每条消息的固定内存开销估计（字节） */
+    private static final int MESSAGE_BYTES = 64;
+
+    /** 存储中的键，含所属客户端 */
+    private final String key;
+
+    private final String id;
+
+    private final ContextPolicy policy;
+
+    private final List<ChatMessage> history = new ArrayList<>();
+
+    private int historyTokens;
+
+    private final Deque<String> summaryLines = new ArrayDeque<>();
+
+    private int summaryLineTokens;
+
+    private ChatMessage summary;
+
+    private int turns;
+
+    private int compactions;
+
+    private volatile int weight;
+
+    ChatSession(String key, String id, ContextPolicy policy) {
+        this.key = key;
+        this.id = id;
+        this.policy = policy;
+        this.weight = MESSAGE_BYTES;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * 组装本轮发给上游的messages：固定system消息、摘要槽、窗口内历史、本轮提问
+     * 超出预算时先压缩历史；单条提问本身超出预算时原样发送
+     */
+    public synchronized List<ChatMessage> assemble(ChatMessage question) {
+        if (fixedTokens() + historyTokens + question.getTokens() > policy.contextTokens) {
+            compact(question.getTokens());
+        }
+        List<ChatMessage> messages = new ArrayList<>(history.size() + 3);
+        if (policy.systemMessage != null) {
+            messages.add(policy.systemMessage);
+        }
+        if (summary != null) {
+            messages.add(summary);
+        }
+        messages.addAll(history);
+        messages.add(question);
+        return messages;
+    }
+
+    /**
+     * 本轮成功完成，追加提问和回答
+     */
+    public synchronized void commit(ChatMessage question, String answer) {
+        ChatMessage reply = new ChatMessage(ChatMessage.ASSISTANT, answer);
+        history.add(question);
+        history.add(reply);
+        historyTokens += question.getTokens() + reply.getTokens();
+        turns++;
+        updateWeight();
+    }
+
+    /**
+     * 估算的内存占用（字节），用于会话存储的容量限制
+     */
+    int weight() {
+        return weight;
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("sessionId", id);
+        snapshot.put("turns", turns);
+        snapshot.put("windowMessages", history.size());
+        snapshot.put("historyTokens", historyTokens);
+        snapshot.put("summaryTokens", summary != null ? summary.getTokens() : 0);
+        snapshot.put("compactions", compactions);
+        snapshot.put("policy", policy.mode.name().toLowerCase());
+        return snapshot;
+    }
+
+    private int fixedTokens() {
+        int tokens = summary != null ? summary.getTokens() : 0;
+        return policy.systemMessage != null ? tokens + policy.systemMessage.getTokens() : tokens;
+    }
+
+    /**
+     * 从最早的整轮开始丢弃，直到历史、摘要和本轮提问合计不超过预算的compactRatio
+     */
+    private void compact(int questionTokens) {
+        int target = (int) (policy.contextTokens * policy.compactRatio);
+        int dropped = 0;
+        while (dropped + 1 < history.size() && fixedTokens() + historyTokens + questionTokens > target) {
+            ChatMessage question = history.get(dropped);
+            ChatMessage answer = history.get(dropped + 1);
+            historyTokens -= question.getTokens() + answer.getTokens();
+            if (policy.mode == ContextPolicy.Mode.SUMMARY) {
+                addSummaryLine("用户：", question.getContent());
+                addSummaryLine("助手：", answer.getContent());
+                rebuildSummary();
+            }
+            dropped += 2;
+        }
+        if (dropped > 0) {
+            history.subList(0, dropped).clear();
+            compactions++;
+            updateWeight();
+        }
+    }
+
+    private void addSummaryLine(String prefix, String content) {
+        String text = content == null ? "" : content.replaceAll("\\s+", " ").trim();
+        if (text.length() > policy.summaryCharsPerMessage) {
+            int end = policy.summaryCharsPerMessage;
+            if (Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            text = text.substring(0, end) + "…";
+        }
+        String line = prefix + text;
+        summaryLines.addLast(line);
+        summaryLineTokens += TokenEstimator.estimate(line) + 1;
+        while (summaryLineTokens > policy.summaryTokens && summaryLines.size() > 1) {
+            summaryLineTokens -= TokenEstimator.estimate(summaryLines.removeFirst()) + 1;
+        }
+    }
+
+    private void rebuildSummary() {
+        StringBuilder content = new StringBuilder(SUMMARY_HEADER);
+        for (String line : summaryLines) {
+            content.append('\n').append(line);
+        }
+        summary = new ChatMessage(ChatMessage.SYSTEM, content.toString());
+    }
+
+    private void updateWeight() {
+        int bytes = MESSAGE_BYTES;
+        for (ChatMessage message : history) {
+            bytes += MESSAGE_BYTES + message.getContent().length() * 2;
+        }
+        if (summary != null) {
+            // 摘要行和拼接后的摘要各占一份
+            bytes += MESSAGE_BYTES * (summaryLines.size() + 1) + summary.getContent().length() * 4;
+        }
+        weight = bytes;
+    }
+}
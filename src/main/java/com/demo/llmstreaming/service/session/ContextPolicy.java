@@ -0,0 +1,47 @@
+package com.demo.llmstreaming.service.session;
+
+/**
+ * 上下文组装策略
+ * 历史超出预算时一次性从最早的整轮对话开始丢弃，直到降到预算的compactRatio以下；
+ * 之后的若干轮只在末尾追加，已发送的前缀保持不变，上游的前缀缓存可以命中
+ */
+class ContextPolicy {
+
+    /**
+     * 丢弃历史的处理方式
+     */
+    enum Mode {
+        /** 直接丢弃 */
+        TRUNCATE,
+        /** 每轮截取开头若干字符放入摘要槽，作为system消息置于历史之前 */
+        SUMMARY
+    }
+
+    final Mode mode;
+
+    /** 每次请求messages的token预算（含本轮提问） */
+    final int contextTokens;
+
+    /** 压缩后历史降到预算的比例 */
+    final double compactRatio;
+
+    /** 摘要槽的token上限，超出时丢弃最早的摘要行；不超过预算的1/4，避免挤占窗口内历史 */
+    final int summaryTokens;
+
+    /** 每条被丢弃的消息保留到摘要中的字符数 */
+    final int summaryCharsPerMessage;
+
+    /** 固定的system消息，为空时不发送 */
+    final ChatMessage systemMessage;
+
+    ContextPolicy(Mode mode, int contextTokens, double compactRatio, int summaryTokens,
+                  int summaryCharsPerMessage, String systemPrompt) {
+        this.mode = mode;
+        this.contextTokens = contextTokens;
+        this.compactRatio = compactRatio;
+        this.summaryTokens = Math.min(summaryTokens, contextTokens / 4);
+        this.summaryCharsPerMessage = summaryCharsPerMessage;
+        this.systemMessage = systemPrompt == null || systemPrompt.isEmpty()
+                ? null : new ChatMessage(ChatMessage.SYSTEM, systemPrompt);
+    }
+}
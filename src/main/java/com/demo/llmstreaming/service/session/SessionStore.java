@@ -0,0 +1,132 @@
+package com.demo.llmstreaming.service.session;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话存储
+ * 按（客户端标识，会话ID）保存多轮对话：会话ID由客户端指定，只在同一客户端内有效，
+ * 其他客户端使用相同的ID得到的是各自独立的会话，读不到也改不了别人的历史。
+ * 按估算的内存总量限额淘汰，空闲超时后过期
+ */
+@Slf4j
+@Component
+public class SessionStore {
+
+    /** 会话ID最大长度 */
+    public static final int MAX_ID_LENGTH = 128;
+
+    @Value("${llm.session.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.session.context-tokens:4096}")
+    private int contextTokens;
+
+    @Value("${llm.session.compact-ratio:0.6}")
+    private double compactRatio;
+
+    @Value("${llm.session.policy:summary}")
+    private String policy;
+
+    @Value("${llm.session.summary-tokens:512}")
+    private int summaryTokens;
+
+    @Value("${llm.session.summary-chars-per-message:80}")
+    private int summaryCharsPerMessage;
+
+    @Value("${llm.session.system-prompt:}")
+    private String systemPrompt;
+
+    @Value("${llm.session.idle-seconds:1800}")
+    private long idleSeconds;
+
+    @Value("${llm.session.max-bytes:67108864}")
+    private long maxBytes;
+
+    private ContextPolicy contextPolicy;
+
+    private Cache<String, ChatSession> sessions;
+
+    private final LongAdder created = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        contextPolicy = new ContextPolicy(ContextPolicy.Mode.valueOf(policy.trim().toUpperCase()), contextTokens,
+                compactRatio, summaryTokens, summaryCharsPerMessage, systemPrompt);
+        sessions = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .<String, ChatSession>weigher((key, session) -> key.length() * 2 + session.weight())
+                .expireAfterAccess(Duration.ofSeconds(idleSeconds))
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 取得该客户端的会话，不存在时创建
+     *
+     * @param clientId 客户端标识（API Key指纹或客户端地址）
+     */
+    public ChatSession getOrCreate(String clientId, String sessionId) {
+        return sessions.get(key(clientId, sessionId), key -> {
+            created.increment();
+            log.info("创建会话：{}，客户端：{}", sessionId, clientId);
+            return new ChatSession(key, sessionId, contextPolicy);
+        });
+    }
+
+    /**
+     * @return 该客户端没有此会话时为null
+     */
+    public ChatSession get(String clientId, String sessionId) {
+        return sessions.getIfPresent(key(clientId, sessionId));
+    }
+
+    /**
+     * 只删除该客户端自己的会话
+     */
+    public void remove(String clientId, String sessionId) {
+        sessions.invalidate(key(clientId, sessionId));
+    }
+
+    /**
+     * 会话内容变化后重新计重
+     */
+    public void updated(ChatSession session) {
+        sessions.asMap().replace(session.getKey(), session, session);
+    }
+
+    /**
+     * 客户端标识是API Key指纹或IP地址，不含'/'，拼接后不会与其他客户端的键冲突
+     */
+    private static String key(String clientId, String sessionId) {
+        return (clientId != null ? clientId : "") + '/' + sessionId;
+    }
+
+    /**
+     * 会话统计
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("sessions", sessions.estimatedSize());
+        snapshot.put("created", created.sum());
+        snapshot.put("evictions", sessions.stats().evictionCount());
+        snapshot.put("weightedBytes", sessions.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        snapshot.put("maxBytes", maxBytes);
+        snapshot.put("contextTokens", contextTokens);
+        return snapshot;
+    }
+}
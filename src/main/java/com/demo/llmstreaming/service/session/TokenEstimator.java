@@ -0,0 +1,46 @@
+package com.demo.llmstreaming.service.session;
+
+/**
+ * token数估算
+ * 不依赖具体模型的分词器：中日韩字符按每字1个token，其余字符按每4个1个token，每条消息另加格式开销。
+ * 只用于上下文预算，宁可略微高估
+ */
+public final class TokenEstimator {
+
+    /** 每条消息的角色、分隔符等格式开销 */
+    static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int wide = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isWide(codePoint)) {
+                wide++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return wide + (other + 3) / 4;
+    }
+
+    public static int estimateMessage(String content) {
+        return MESSAGE_OVERHEAD + estimate(content);
+    }
+
+    private static boolean isWide(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL
+                || Character.getType(codePoint) == Character.OTHER_SYMBOL;
+    }
+}
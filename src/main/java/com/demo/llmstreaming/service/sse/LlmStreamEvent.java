@@ -0,0 +1,68 @@
+package com.demo.llmstreaming.service.sse;
+
+/**
+ * 上游流式事件
+ * 由SseEventParser复用，调用方需在下一次next()之前取走所需字段
+ */
+public class LlmStreamEvent {
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        /** 正常内容（result 或 choices[0].delta.content） */
+        CONTENT,
+        /** 不以data:打头的原始数据行 */
+        RAW,
+        /** 上游返回的error */
+        ERROR,
+        /** 无法解析的数据 */
+        INVALID,
+        /** [DONE] 结束标记 */
+        DONE
+    }
+
+    private Type type;
+
+    private String content;
+
+    private String errorCode;
+
+    private String errorMessage;
+
+    void reset(Type type) {
+        this.type = type;
+        this.content = null;
+        this.errorCode = null;
+        this.errorMessage = null;
+    }
+
+    void setContent(String content) {
+        this.content = content;
+    }
+
+    void setError(String errorCode, String errorMessage) {
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+    }
+
+    void setType(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,702 @@
+package com.demo.llmstreaming.service.sse;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 上游SSE流解析器
+ * 直接在OkHttp的BufferedSource上按字节切分行，用流式扫描只提取 error / result / choices[0].delta.content / usage，
+ * 其余字段原地跳过，不构建String行和JSONObject树；每次返回同一个LlmStreamEvent实例。
+ * 一个JSON拆在连续多个data:行时按SSE规则以换行拼接后再解析；单行（含拼接后的事件）超过上限时抛出LimitExceededException，
+ * 避免不换行的上游让缓冲无限增长
+ * 非线程安全，一个上游响应对应一个实例
+ */
+public class SseEventParser {
+
+    /** 默认的单行/单事件字节上限 */
+    public static final int DEFAULT_MAX_LINE_BYTES = 1024 * 1024;
+
+    private static final byte[] DATA = ascii("data:");
+    private static final ByteString DATA_PREFIX = ByteString.of(DATA);
+    private static final byte[] DONE = ascii("[DONE]");
+    private static final byte[] FIELD_EVENT = ascii("event:");
+    private static final byte[] FIELD_ID = ascii("id:");
+    private static final byte[] FIELD_RETRY = ascii("retry:");
+    private static final byte[] KEY_ERROR = ascii("error");
+    private static final byte[] KEY_RESULT = ascii("result");
+    private static final byte[] KEY_CHOICES = ascii("choices");
+    private static final byte[] KEY_DELTA = ascii("delta");
+    private static final byte[] KEY_CONTENT = ascii("content");
+    private static final byte[] KEY_CODE = ascii("code");
+    private static final byte[] KEY_MESSAGE = ascii("message");
+    private static final byte[] KEY_USAGE = ascii("usage");
+    private static final byte[] KEY_TOTAL_TOKENS = ascii("total_tokens");
+    private static final byte[] KEY_PROMPT_TOKENS = ascii("prompt_tokens");
+    private static final byte[] KEY_COMPLETION_TOKENS = ascii("completion_tokens");
+
+    private final BufferedSource source;
+
+    private final int maxLineBytes;
+
+    private final LlmStreamEvent event = new LlmStreamEvent();
+
+    /** 当前行字节，按需扩容后复用 */
+    private byte[] line = new byte[1024];
+
+    private int lineLength;
+
+    /** 扫描游标 */
+    private int pos;
+
+    /** 已读取的字节数（含换行） */
+    private long bytesRead;
+
+    /** 上游报告的本次调用token用量，未报告时为-1 */
+    private int usageTokens = -1;
+
+    /** 上游报告的输出token数，未报告时为-1 */
+    private int completionTokens = -1;
+
+    /** 含转义字符串的解码缓冲 */
+    private final StringBuilder decodeBuffer = new StringBuilder(64);
+
+    public SseEventParser(BufferedSource source) {
+        this(source, DEFAULT_MAX_LINE_BYTES);
+    }
+
+    /**
+     * @param maxLineBytes 单行（多行data拼接后为整个事件）的字节上限
+     */
+    public SseEventParser(BufferedSource source, int maxLineBytes) {
+        this.source = source;
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * 读取下一个事件
+     * @return 事件，流结束返回null
+     */
+    public LlmStreamEvent next() throws IOException {
+        while (readLine()) {
+            if (lineLength > 0 && parseLine()) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * 上游在usage中报告的token总数（提示词+输出），未报告时返回-1
+     */
+    public int getUsageTokens() {
+        return usageTokens;
+    }
+
+    /**
+     * 上游在usage中报告的输出token数，只有total_tokens和prompt_tokens时取两者之差，未报告时返回-1
+     */
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    private boolean readLine() throws IOException {
+        return readLine(0);
+    }
+
+    /**
+     * 读取一行到line数组的offset处，去掉行尾的\r\n
+     * 只在上限内查找换行，超过上限仍没有换行时不再继续缓冲
+     */
+    private boolean readLine(int offset) throws IOException {
+        long limit = (long) maxLineBytes - offset;
+        // 行尾可能还有一个\r，多找一个字节
+        long newline = source.indexOf((byte) '\n', 0, limit + 2);
+        Buffer buffer = source.getBuffer();
+        long size = newline == -1 ? buffer.size() : newline;
+        if (newline == -1 && size == 0) {
+            return false;
+        }
+        if (size > limit && !(size == limit + 1 && buffer.getByte(limit) == '\r')) {
+            throw new LimitExceededException("SSE行超过" + maxLineBytes + "字节");
+        }
+        int length = (int) size;
+        if (line.length < offset + length) {
+            line = Arrays.copyOf(line, Math.max(offset + length, line.length * 2));
+        }
+        int read = 0;
+        while (read < length) {
+            read += buffer.read(line, offset + read, length - read);
+        }
+        if (newline != -1) {
+            buffer.skip(1);
+            bytesRead++;
+        }
+        bytesRead += length;
+        if (length > 0 && line[offset + length - 1] == '\r') {
+            length--;
+        }
+        lineLength = offset + length;
+        return true;
+    }
+
+    /**
+     * 紧接着的下一行也是data:时，以换行拼接到当前行后面
+     * @return false表示下一行不是data:或流已结束
+     */
+    private boolean appendDataLine() throws IOException {
+        if (!source.request(DATA.length) || !source.getBuffer().rangeEquals(0, DATA_PREFIX)) {
+            return false;
+        }
+        source.skip(DATA.length);
+        bytesRead += DATA.length;
+        if (source.request(1) && source.getBuffer().getByte(0) == ' ') {
+            source.skip(1);
+            bytesRead++;
+        }
+        int offset = lineLength + 1;
+        if (offset > maxLineBytes) {
+            throw new LimitExceededException("SSE事件超过" + maxLineBytes + "字节");
+        }
+        if (line.length < offset) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength] = '\n';
+        if (!readLine(offset)) {
+            lineLength = offset;
+        }
+        return true;
+    }
+
+    /**
+     * 解析一行
+     * @return false表示该行无需上报（注释、event/id字段、无内容的data等）
+     */
+    private boolean parseLine() throws IOException {
+        if (startsWith(DATA, 0)) {
+            int payload = DATA.length;
+            if (payload < lineLength && line[payload] == ' ') {
+                payload++;
+            }
+            if (lineLength - payload == DONE.length && startsWith(DONE, payload)) {
+                event.reset(LlmStreamEvent.Type.DONE);
+                return true;
+            }
+            while (true) {
+                pos = payload;
+                event.reset(LlmStreamEvent.Type.CONTENT);
+                try {
+                    skipWhitespace();
+                    parseObject();
+                    break;
+                } catch (MalformedJsonException e) {
+                    // 扫描到行尾仍不完整，可能拆在了多个data:行
+                    if (pos >= lineLength && appendDataLine()) {
+                        continue;
+                    }
+                    event.reset(LlmStreamEvent.Type.INVALID);
+                    event.setError(null, e.getMessage());
+                    return true;
+                }
+            }
+            if (event.getType() == LlmStreamEvent.Type.CONTENT && event.getContent() == null) {
+                // 没有内容的data帧（如携带finish_reason的最后一帧）
+                return false;
+            }
+            return true;
+        }
+
+        if (line[0] == ':' || isSseField()) {
+            // SSE注释及event/id/retry字段
+            return false;
+        }
+
+        // 不以data:打头的数据，可能是一串json，检查是否为错误响应
+        event.reset(LlmStreamEvent.Type.RAW);
+        pos = 0;
+        skipWhitespace();
+        if (pos < lineLength && line[pos] == '{') {
+            try {
+                parseObject();
+            } catch (MalformedJsonException e) {
+                // 不是完整的JSON，按原始数据处理
+            }
+        }
+        if (event.getType() != LlmStreamEvent.Type.ERROR) {
+            event.reset(LlmStreamEvent.Type.RAW);
+            event.setContent(new String(line, 0, lineLength, StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    private boolean isSseField() {
+        return startsWith(FIELD_EVENT, 0) || startsWith(FIELD_ID, 0) || startsWith(FIELD_RETRY, 0);
+    }
+
+    /**
+     * 扫描顶层对象，只关心 error / result / choices / usage
+     */
+    private void parseObject() throws MalformedJsonException {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(KEY_ERROR, keyStart, keyEnd)) {
+                parseError();
+            } else if (keyEquals(KEY_RESULT, keyStart, keyEnd) && peek() == '"') {
+                event.setContent(readString());
+            } else if (keyEquals(KEY_CHOICES, keyStart, keyEnd) && peek() == '[') {
+                parseChoices();
+            } else if (keyEquals(KEY_USAGE, keyStart, keyEnd) && peek() == '{') {
+                parseUsage();
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                return;
+            }
+        }
+    }
+
+    private void parseError() throws MalformedJsonException {
+        event.setType(LlmStreamEvent.Type.ERROR);
+        byte b = peek();
+        if (b == '"') {
+            event.setError(null, readString());
+            return;
+        }
+        if (b != '{') {
+            skipValue();
+            return;
+        }
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        String code = null;
+        String message = null;
+        while (true) {
+            int keyStart = pos + 1;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(KEY_CODE, keyStart, keyEnd)) {
+                code = readScalar();
+            } else if (keyEquals(KEY_MESSAGE, keyStart, keyEnd)) {
+                message = readScalar();
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                break;
+            }
+        }
+        event.setError(code, message);
+    }
+
+    /**
+     * 用量通常只在最后一帧出现，优先取total_tokens，没有时取提示词与输出之和
+     */
+    private void parseUsage() throws MalformedJsonException {
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        long total = -1;
+        long prompt = -1;
+        long completion = -1;
+        while (true) {
+            int keyStart = pos + 1;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(KEY_TOTAL_TOKENS, keyStart, keyEnd)) {
+                total = readLong();
+            } else if (keyEquals(KEY_PROMPT_TOKENS, keyStart, keyEnd)) {
+                prompt = readLong();
+            } else if (keyEquals(KEY_COMPLETION_TOKENS, keyStart, keyEnd)) {
+                completion = readLong();
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                break;
+            }
+        }
+        long tokens = total > 0 ? total : Math.max(prompt, 0) + Math.max(completion, 0);
+        if (tokens > 0) {
+            usageTokens = (int) Math.min(tokens, Integer.MAX_VALUE);
+        }
+        if (completion < 0 && total > 0 && prompt >= 0) {
+            completion = Math.max(0, total - prompt);
+        }
+        if (completion >= 0) {
+            completionTokens = (int) Math.min(completion, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * 读取非负整数，不是整数时返回0
+     */
+    private long readLong() throws MalformedJsonException {
+        int start = pos;
+        skipValue();
+        long value = 0;
+        for (int i = start; i < pos; i++) {
+            byte b = line[i];
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+                return 0;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * 只解析choices[0].delta.content，其余元素跳过
+     */
+    private void parseChoices() throws MalformedJsonException {
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        if (peek() == '{') {
+            parseChoice();
+        } else {
+            skipValue();
+        }
+        while (nextMember(']')) {
+            skipValue();
+        }
+    }
+
+    private void parseChoice() throws MalformedJsonException {
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(KEY_DELTA, keyStart, keyEnd) && peek() == '{') {
+                parseDelta();
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                return;
+            }
+        }
+    }
+
+    private void parseDelta() throws MalformedJsonException {
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            int keyEnd = skipString();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(KEY_CONTENT, keyStart, keyEnd) && peek() == '"') {
+                event.setContent(readString());
+            } else {
+                skipValue();
+            }
+            if (!nextMember('}')) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 成员之间的分隔
+     * @return true表示后面还有成员，false表示容器已结束
+     */
+    private boolean nextMember(char close) throws MalformedJsonException {
+        skipWhitespace();
+        byte b = peek();
+        pos++;
+        if (b == ',') {
+            skipWhitespace();
+            return true;
+        }
+        if (b == close) {
+            return false;
+        }
+        throw new MalformedJsonException("期望 ',' 或 '" + close + "'，位置 " + (pos - 1));
+    }
+
+    private void skipValue() throws MalformedJsonException {
+        byte b = peek();
+        if (b == '"') {
+            skipString();
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < lineLength) {
+                b = line[pos];
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw new MalformedJsonException("JSON不完整");
+        }
+        int start = pos;
+        while (pos < lineLength && !isDelimiter(line[pos])) {
+            pos++;
+        }
+        if (pos == start) {
+            throw new MalformedJsonException("非法的值，位置 " + start);
+        }
+    }
+
+    /**
+     * 跳过字符串
+     * @return 字符串内容结束位置（不含引号）
+     */
+    private int skipString() throws MalformedJsonException {
+        expect('"');
+        while (pos < lineLength) {
+            byte b = line[pos++];
+            if (b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                return pos - 1;
+            }
+        }
+        throw new MalformedJsonException("字符串未结束");
+    }
+
+    /**
+     * 读取字符串或标量值（数字、布尔、null）的文本
+     */
+    private String readScalar() throws MalformedJsonException {
+        if (peek() == '"') {
+            return readString();
+        }
+        int start = pos;
+        skipValue();
+        String text = new String(line, start, pos - start, StandardCharsets.UTF_8);
+        return "null".equals(text) ? null : text;
+    }
+
+    private String readString() throws MalformedJsonException {
+        int start = pos + 1;
+        int end = skipString();
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            if (line[i] == '\\') {
+                escaped = true;
+                break;
+            }
+        }
+        if (!escaped) {
+            return new String(line, start, end - start, StandardCharsets.UTF_8);
+        }
+        return decodeEscaped(start, end);
+    }
+
+    private String decodeEscaped(int start, int end) throws MalformedJsonException {
+        StringBuilder sb = decodeBuffer;
+        sb.setLength(0);
+        int i = start;
+        while (i < end) {
+            int b = line[i] & 0xff;
+            if (b == '\\') {
+                if (i + 1 >= end) {
+                    throw new MalformedJsonException("非法转义");
+                }
+                byte e = line[i + 1];
+                i += 2;
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (i + 4 > end) {
+                            throw new MalformedJsonException("非法的\\u转义");
+                        }
+                        sb.append((char) ((hex(line[i]) << 12) | (hex(line[i + 1]) << 8) | (hex(line[i + 2]) << 4) | hex(line[i + 3])));
+                        i += 4;
+                        break;
+                    default: sb.append((char) e); break;
+                }
+            } else if (b < 0x80) {
+                sb.append((char) b);
+                i++;
+            } else {
+                i = decodeUtf8(b, i, end, sb);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解码一个多字节UTF-8字符，非法序列替换为U+FFFD
+     * @return 下一个字节位置
+     */
+    private int decodeUtf8(int b, int i, int end, StringBuilder sb) {
+        int count;
+        int codePoint;
+        if ((b & 0xE0) == 0xC0) {
+            count = 1;
+            codePoint = b & 0x1F;
+        } else if ((b & 0xF0) == 0xE0) {
+            count = 2;
+            codePoint = b & 0x0F;
+        } else if ((b & 0xF8) == 0xF0) {
+            count = 3;
+            codePoint = b & 0x07;
+        } else {
+            sb.append('\uFFFD');
+            return i + 1;
+        }
+        if (i + count >= end) {
+            sb.append('\uFFFD');
+            return end;
+        }
+        for (int k = 1; k <= count; k++) {
+            int c = line[i + k] & 0xff;
+            if ((c & 0xC0) != 0x80) {
+                sb.append('\uFFFD');
+                return i + k;
+            }
+            codePoint = (codePoint << 6) | (c & 0x3F);
+        }
+        sb.appendCodePoint(codePoint);
+        return i + count + 1;
+    }
+
+    private static int hex(byte b) throws MalformedJsonException {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw new MalformedJsonException("非法的十六进制字符");
+    }
+
+    private void expect(char c) throws MalformedJsonException {
+        if (pos >= lineLength || line[pos] != c) {
+            throw new MalformedJsonException("期望 '" + c + "'，位置 " + pos);
+        }
+        pos++;
+    }
+
+    private byte peek() throws MalformedJsonException {
+        if (pos >= lineLength) {
+            throw new MalformedJsonException("JSON不完整");
+        }
+        return line[pos];
+    }
+
+    private void skipWhitespace() {
+        while (pos < lineLength) {
+            byte b = line[pos];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private boolean keyEquals(byte[] key, int start, int end) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (line[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(byte[] prefix, int offset) {
+        if (lineLength - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 单行或单个事件超过字节上限，调用方应按上游应答非法结束该流
+     */
+    public static class LimitExceededException extends IOException {
+        LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * JSON格式错误，只在异常路径上创建
+     */
+    private static class MalformedJsonException extends Exception {
+        MalformedJsonException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.demo.llmstreaming.service.structured;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 增量JSON解析器
+ * 生成的文本分段输入，逐字符推进状态机，分段可以在任意位置切开（包括字符串和转义中间），已输入的内容不会重扫；
+ * 每个字段或数组元素的值结束时回调其JSON Pointer路径（RFC 6901）和紧凑的JSON文本（去掉字符串之外的空白）。
+ * <ul>
+ * <li>第一个'{'或'['之前的内容（说明文字、```json围栏等）跳过，根值结束后的内容忽略，根值本身不回调</li>
+ * <li>还没有回调过任何字段时遇到非法内容，从出错位置重新寻找起点；回调过之后出错则停止解析</li>
+ * <li>只保留尚未结束的顶层成员的文本，内存不随整个文档增长</li>
+ * </ul>
+ * 非线程安全，一条流对应一个实例
+ */
+public class IncrementalJsonParser {
+
+    /**
+     * 字段回调
+     */
+    public interface FieldListener {
+
+        /**
+         * @param pointer 值的JSON Pointer路径，如 /items/0/title
+         * @param value 值的紧凑JSON文本
+         */
+        void onField(String pointer, String value);
+    }
+
+    private enum State {
+        /** 寻找根值的起点 */
+        SEEK,
+        /** 数组的第一个元素或']' */
+        FIRST_VALUE,
+        VALUE,
+        /** 对象的第一个键或'}' */
+        FIRST_KEY,
+        KEY_START,
+        KEY,
+        COLON,
+        STRING,
+        LITERAL,
+        AFTER_VALUE,
+        DONE,
+        FAILED
+    }
+
+    /**
+     * 尚未结束的对象或数组
+     */
+    private static final class Container {
+
+        final boolean array;
+
+        final String pointer;
+
+        /** 值在raw中的起始位置，根为-1 */
+        final int start;
+
+        /** 数组的下一个元素下标 */
+        int index;
+
+        /** 对象当前成员的键 */
+        String key;
+
+        Container(boolean array, String pointer, int start) {
+            this.array = array;
+            this.pointer = pointer;
+            this.start = start;
+        }
+    }
+
+    private final FieldListener listener;
+
+    private final List<Container> stack = new ArrayList<>();
+
+    /** 进行中的顶层成员的紧凑文本 */
+    private final StringBuilder raw = new StringBuilder(256);
+
+    /** 解码后的键 */
+    private final StringBuilder key = new StringBuilder(32);
+
+    private State state = State.SEEK;
+
+    /** 进行中的字符串或字面量值 */
+    private String valuePointer;
+
+    private int valueStart;
+
+    private boolean escaped;
+
+    /** \\u转义还剩几位十六进制 */
+    private int unicodeRemaining;
+
+    private int unicodeValue;
+
+    private int fieldCount;
+
+    public IncrementalJsonParser(FieldListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 输入一段生成的文本
+     */
+    public void feed(CharSequence chunk) {
+        for (int i = 0, length = chunk.length(); i < length && state != State.DONE && state != State.FAILED; i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    /**
+     * 已回调的字段数
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 根值已完整结束
+     */
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    /**
+     * 已回调过字段后遇到非法内容，停止解析
+     */
+    public boolean isFailed() {
+        return state == State.FAILED;
+    }
+
+    private void accept(char c) {
+        switch (state) {
+            case SEEK:
+                if (c == '{' || c == '[') {
+                    beginRoot(c);
+                }
+                return;
+            case STRING:
+                stringChar(c, false);
+                return;
+            case KEY:
+                stringChar(c, true);
+                return;
+            case LITERAL:
+                if (isLiteralChar(c)) {
+                    raw.append(c);
+                    return;
+                }
+                if (!endLiteral()) {
+                    return;
+                }
+                // 字面量由分隔符结束，分隔符按AFTER_VALUE处理
+                break;
+            default:
+                break;
+        }
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            return;
+        }
+        switch (state) {
+            case FIRST_VALUE:
+                if (c == ']') {
+                    closeContainer(c);
+                    return;
+                }
+                startValue(c);
+                return;
+            case VALUE:
+                startValue(c);
+                return;
+            case FIRST_KEY:
+                if (c == '}') {
+                    closeContainer(c);
+                    return;
+                }
+                startKey(c);
+                return;
+            case KEY_START:
+                startKey(c);
+                return;
+            case COLON:
+                if (c != ':') {
+                    fail(c);
+                    return;
+                }
+                if (capturing()) {
+                    raw.append(c);
+                }
+                state = State.VALUE;
+                return;
+            case AFTER_VALUE:
+                afterValue(c);
+                return;
+            default:
+                break;
+        }
+    }
+
+    private void beginRoot(char c) {
+        stack.clear();
+        raw.setLength(0);
+        stack.add(new Container(c == '[', "", -1));
+        state = c == '[' ? State.FIRST_VALUE : State.FIRST_KEY;
+    }
+
+    private void startValue(char c) {
+        Container parent = top();
+        String pointer = parent.array
+                ? parent.pointer + '/' + parent.index++
+                : parent.pointer + '/' + escapePointer(parent.key);
+        int start = raw.length();
+        if (c == '{' || c == '[') {
+            raw.append(c);
+            stack.add(new Container(c == '[', pointer, start));
+            state = c == '[' ? State.FIRST_VALUE : State.FIRST_KEY;
+        } else if (c == '"') {
+            raw.append(c);
+            valuePointer = pointer;
+            valueStart = start;
+            escaped = false;
+            unicodeRemaining = 0;
+            state = State.STRING;
+        } else if (c == '-' || (c >= '0' && c <= '9') || c == 't' || c == 'f' || c == 'n') {
+            raw.append(c);
+            valuePointer = pointer;
+            valueStart = start;
+            state = State.LITERAL;
+        } else {
+            fail(c);
+        }
+    }
+
+    private void startKey(char c) {
+        if (c != '"') {
+            fail(c);
+            return;
+        }
+        if (capturing()) {
+            raw.append(c);
+        }
+        key.setLength(0);
+        escaped = false;
+        unicodeRemaining = 0;
+        state = State.KEY;
+    }
+
+    /**
+     * 字符串内的字符；值只需找到结束引号，键需要解码
+     */
+    private void stringChar(char c, boolean isKey) {
+        if (c < 0x20) {
+            // 未转义的控制字符不是合法JSON
+            fail(c);
+            return;
+        }
+        if (!isKey || capturing()) {
+            raw.append(c);
+        }
+        if (unicodeRemaining > 0) {
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                fail(c);
+                return;
+            }
+            unicodeValue = (unicodeValue << 4) | digit;
+            if (--unicodeRemaining == 0 && isKey) {
+                key.append((char) unicodeValue);
+            }
+            return;
+        }
+        if (escaped) {
+            escaped = false;
+            char decoded;
+            switch (c) {
+                case '"': case '\\': case '/': decoded = c; break;
+                case 'b': decoded = '\b'; break;
+                case 'f': decoded = '\f'; break;
+                case 'n': decoded = '\n'; break;
+                case 'r': decoded = '\r'; break;
+                case 't': decoded = '\t'; break;
+                case 'u':
+                    unicodeRemaining = 4;
+                    unicodeValue = 0;
+                    return;
+                default:
+                    fail(c);
+                    return;
+            }
+            if (isKey) {
+                key.append(decoded);
+            }
+            return;
+        }
+        if (c == '\\') {
+            escaped = true;
+        } else if (c != '"') {
+            if (isKey) {
+                key.append(c);
+            }
+        } else if (isKey) {
+            top().key = key.toString();
+            state = State.COLON;
+        } else {
+            emit(valuePointer, raw.substring(valueStart));
+            valueCompleted();
+        }
+    }
+
+    /**
+     * @return false表示字面量非法，已按出错处理
+     */
+    private boolean endLiteral() {
+        String literal = raw.substring(valueStart);
+        if (!"true".equals(literal) && !"false".equals(literal) && !"null".equals(literal) && !isNumber(literal)) {
+            // 出错的字符在字面量中间，无法重新寻找根值的起点
+            fail(' ');
+            return false;
+        }
+        emit(valuePointer, literal);
+        valueCompleted();
+        return true;
+    }
+
+    private void afterValue(char c) {
+        Container container = top();
+        if (c == ',') {
+            if (capturing()) {
+                raw.append(c);
+            }
+            state = container.array ? State.VALUE : State.KEY_START;
+        } else if (c == (container.array ? ']' : '}')) {
+            closeContainer(c);
+        } else {
+            fail(c);
+        }
+    }
+
+    private void closeContainer(char c) {
+        Container container = stack.remove(stack.size() - 1);
+        if (stack.isEmpty()) {
+            state = State.DONE;
+            return;
+        }
+        raw.append(c);
+        emit(container.pointer, raw.substring(container.start));
+        valueCompleted();
+    }
+
+    private void valueCompleted() {
+        state = State.AFTER_VALUE;
+        if (stack.size() == 1) {
+            // 顶层成员已结束，之前的文本不再需要
+            raw.setLength(0);
+        }
+    }
+
+    private void emit(String pointer, String value) {
+        fieldCount++;
+        listener.onField(pointer, value);
+    }
+
+    /**
+     * 还没有回调过字段时视为根值起点找错了，从当前字符重新寻找
+     */
+    private void fail(char c) {
+        if (fieldCount > 0) {
+            state = State.FAILED;
+            return;
+        }
+        stack.clear();
+        raw.setLength(0);
+        state = State.SEEK;
+        if (c == '{' || c == '[') {
+            beginRoot(c);
+        }
+    }
+
+    /**
+     * 根之内的成员文本需要保留
+     */
+    private boolean capturing() {
+        return stack.size() > 1;
+    }
+
+    private Container top() {
+        return stack.get(stack.size() - 1);
+    }
+
+    private static boolean isLiteralChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '.' || c == '-' || c == '+' || c == 'E';
+    }
+
+    /**
+     * -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?
+     */
+    static boolean isNumber(String s) {
+        int i = 0;
+        int n = s.length();
+        if (i < n && s.charAt(i) == '-') {
+            i++;
+        }
+        if (i < n && s.charAt(i) == '0') {
+            i++;
+        } else {
+            int digits = skipDigits(s, i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            int digits = skipDigits(s, i + 1);
+            if (digits == i + 1) {
+                return false;
+            }
+            i = digits;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int digits = skipDigits(s, i);
+            if (digits == i) {
+                return false;
+            }
+            i = digits;
+        }
+        return i == n;
+    }
+
+    private static int skipDigits(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * RFC 6901：'~'写作"~0"，'/'写作"~1"
+     */
+    static String escapePointer(String key) {
+        if (key.indexOf('~') < 0 && key.indexOf('/') < 0) {
+            return key;
+        }
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+}
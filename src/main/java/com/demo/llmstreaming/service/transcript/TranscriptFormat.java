@@ -0,0 +1,156 @@
+package com.demo.llmstreaming.service.transcript;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 转录段文件的二进制格式
+ * 段文件头：魔数 "LLMT"(4) + 版本(2) + 保留(2)
+ * 记录：正文长度(int) + 正文CRC32(int) + 正文；长度为0表示段内没有更多记录（预分配的空间为0）
+ * 正文：开始时间(long) + 结果(byte) + 变长整数 ttftMs+1、durationMs、maxTokens、completionTokens
+ *      + 字符串 dataId、model、endpoint、prompt、completion（变长整数字节数 + UTF-8）
+ */
+final class TranscriptFormat {
+
+    static final int MAGIC = 0x4C4C4D54;
+
+    static final short VERSION = 1;
+
+    static final int HEADER_BYTES = 8;
+
+    /** 记录头：长度 + CRC32 */
+    static final int RECORD_HEADER_BYTES = 8;
+
+    private static final TranscriptRecord.Outcome[] OUTCOMES = TranscriptRecord.Outcome.values();
+
+    private TranscriptFormat() {
+    }
+
+    /**
+     * 编码记录正文，复用调用方的缓冲
+     */
+    static final class Encoder {
+
+        private byte[] bytes = new byte[4096];
+
+        private int size;
+
+        private final CRC32 crc = new CRC32();
+
+        void encode(TranscriptRecord record) {
+            size = 0;
+            writeLong(record.getStartTime());
+            ensure(1);
+            bytes[size++] = (byte) record.getOutcome().ordinal();
+            writeVarint(record.getTtftMs() + 1);
+            writeVarint(record.getDurationMs());
+            writeVarint(record.getMaxTokens());
+            writeVarint(record.getCompletionTokens());
+            writeString(record.getDataId());
+            writeString(record.getModel());
+            writeString(record.getEndpoint());
+            writeString(record.getPrompt());
+            writeString(record.getCompletion());
+        }
+
+        int size() {
+            return size;
+        }
+
+        int checksum() {
+            crc.reset();
+            crc.update(bytes, 0, size);
+            return (int) crc.getValue();
+        }
+
+        /**
+         * 写入记录（正文、CRC、最后写长度），读取方以长度非0判断记录已完整
+         */
+        void writeTo(ByteBuffer out) {
+            int position = out.position();
+            out.position(position + RECORD_HEADER_BYTES);
+            out.put(bytes, 0, size);
+            int end = out.position();
+            out.putInt(position + 4, checksum());
+            out.putInt(position, size);
+            out.position(end);
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarint(int value) {
+            ensure(5);
+            int v = Math.max(value, 0);
+            while ((v & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        private void writeString(String value) {
+            byte[] utf8 = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void ensure(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+
+    /**
+     * 解码记录正文
+     */
+    static TranscriptRecord decode(ByteBuffer body) {
+        TranscriptRecord record = new TranscriptRecord();
+        record.setStartTime(body.getLong());
+        record.setOutcome(OUTCOMES[body.get()]);
+        record.setTtftMs(readVarint(body) - 1);
+        record.setDurationMs(readVarint(body));
+        record.setMaxTokens(readVarint(body));
+        record.setCompletionTokens(readVarint(body));
+        record.setDataId(readString(body));
+        record.setModel(readString(body));
+        record.setEndpoint(readString(body));
+        record.setPrompt(readString(body));
+        record.setCompletion(readString(body));
+        return record;
+    }
+
+    static int checksum(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("变长整数格式错误");
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
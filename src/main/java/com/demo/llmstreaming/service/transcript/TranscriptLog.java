@@ -0,0 +1,249 @@
+package com.demo.llmstreaming.service.transcript;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 生成转录日志
+ * 请求线程只把记录放入无锁队列，由单个后台线程编码后追加到内存映射的段文件，段写满后按大小滚动；
+ * 队列满时丢弃并计数，不阻塞请求路径。段文件用TranscriptReader读取
+ */
+@Slf4j
+@Component
+public class TranscriptLog {
+
+    @Value("${llm.transcript.enabled:false}")
+    private boolean enabled;
+
+    @Value("${llm.transcript.dir:logs/transcripts}")
+    private String dir;
+
+    @Value("${llm.transcript.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${llm.transcript.queue-capacity:65536}")
+    private int queueCapacity;
+
+    @Value("${llm.transcript.force-interval-ms:1000}")
+    private long forceIntervalMs;
+
+    private final ConcurrentLinkedQueue<TranscriptRecord> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder writtenBytes = new LongAdder();
+
+    private final TranscriptFormat.Encoder encoder = new TranscriptFormat.Encoder();
+
+    private volatile boolean running;
+
+    private volatile boolean idle;
+
+    private Thread writer;
+
+    private Path directory;
+
+    private volatile int segmentIndex;
+
+    private volatile int segments;
+
+    private MappedByteBuffer segment;
+
+    private boolean dirty;
+
+    private long lastForceNanos;
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        // 不续写已有段，异常退出时未收尾的段仍可读到最后一条完整记录
+        List<Path> existing = TranscriptReader.segments(directory);
+        if (!existing.isEmpty()) {
+            segmentIndex = parseIndex(existing.get(existing.size() - 1));
+        }
+        running = true;
+        writer = new Thread(this::runWriter, "TranscriptWriter");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("转录日志已启用，目录：{}，段大小：{}字节", directory.toAbsolutePath(), segmentBytes);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交一条记录，队列满时丢弃
+     * @return 是否已入队
+     */
+    public boolean append(TranscriptRecord record) {
+        if (!running) {
+            return false;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return false;
+        }
+        queue.offer(record);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * 转录统计
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("written", written.sum());
+        snapshot.put("dropped", dropped.sum());
+        snapshot.put("writtenBytes", writtenBytes.sum());
+        snapshot.put("queued", queued.get());
+        snapshot.put("segmentsOpened", segments);
+        snapshot.put("segment", enabled ? String.format(segmentName(), segmentIndex) : null);
+        return snapshot;
+    }
+
+    private void runWriter() {
+        try {
+            while (true) {
+                TranscriptRecord record = queue.poll();
+                if (record == null) {
+                    if (!running) {
+                        break;
+                    }
+                    forceIfDue();
+                    idle = true;
+                    // 置idle后再检查一次，避免与入队方错过唤醒
+                    if (queue.isEmpty() && running) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(forceIntervalMs, 10)));
+                    }
+                    idle = false;
+                    continue;
+                }
+                queued.decrementAndGet();
+                try {
+                    write(record);
+                } catch (IOException | RuntimeException e) {
+                    dropped.increment();
+                    log.error("写入转录日志失败: {}", e.getMessage());
+                    closeSegment();
+                }
+            }
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void write(TranscriptRecord record) throws IOException {
+        encoder.encode(record);
+        int length = TranscriptFormat.RECORD_HEADER_BYTES + encoder.size();
+        if (segment == null || segment.remaining() < length) {
+            closeSegment();
+            openSegment(length);
+        }
+        encoder.writeTo(segment);
+        dirty = true;
+        written.increment();
+        writtenBytes.add(length);
+    }
+
+    private void openSegment(int recordLength) throws IOException {
+        segmentIndex++;
+        Path path = directory.resolve(String.format(segmentName(), segmentIndex));
+        // 超过段大小的单条记录独占一个段
+        int size = Math.max(segmentBytes, TranscriptFormat.HEADER_BYTES + recordLength);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            // 映射在文件关闭后仍然有效
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segment.putInt(TranscriptFormat.MAGIC);
+        segment.putShort(TranscriptFormat.VERSION);
+        segment.putShort((short) 0);
+        segments++;
+        lastForceNanos = System.nanoTime();
+        log.info("新建转录段：{}", path);
+    }
+
+    /**
+     * 刷盘并截掉预分配未用的空间
+     */
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        int end = segment.position();
+        Path path = directory.resolve(String.format(segmentName(), segmentIndex));
+        segment.force();
+        segment = null;
+        dirty = false;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.getChannel().truncate(end);
+        } catch (IOException e) {
+            log.warn("截断转录段失败：{} {}", path, e.getMessage());
+        }
+    }
+
+    private void forceIfDue() {
+        if (dirty && System.nanoTime() - lastForceNanos >= TimeUnit.MILLISECONDS.toNanos(forceIntervalMs)) {
+            segment.force();
+            dirty = false;
+            lastForceNanos = System.nanoTime();
+        }
+    }
+
+    private static String segmentName() {
+        return TranscriptReader.SEGMENT_PREFIX + "%08d" + TranscriptReader.SEGMENT_SUFFIX;
+    }
+
+    private static int parseIndex(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring(TranscriptReader.SEGMENT_PREFIX.length(),
+                name.length() - TranscriptReader.SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
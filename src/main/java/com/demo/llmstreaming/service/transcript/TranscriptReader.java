@@ -0,0 +1,135 @@
+package com.demo.llmstreaming.service.transcript;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 转录段文件读取器
+ * 只读映射一个段文件，按写入顺序迭代记录；遇到长度为0（预分配未写的空间）、越界或CRC不符的记录即停止，
+ * 因此也可以读取正在写入或异常退出时未收尾的段
+ */
+@Slf4j
+public class TranscriptReader implements Iterator<TranscriptRecord>, Closeable {
+
+    static final String SEGMENT_PREFIX = "transcript-";
+
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private TranscriptRecord next;
+
+    public TranscriptReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.remaining() < TranscriptFormat.HEADER_BYTES || buffer.getInt() != TranscriptFormat.MAGIC) {
+            channel.close();
+            throw new IOException("不是转录段文件: " + path);
+        }
+        short version = buffer.getShort();
+        buffer.getShort();
+        if (version != TranscriptFormat.VERSION) {
+            channel.close();
+            throw new IOException("不支持的转录段版本" + version + ": " + path);
+        }
+    }
+
+    /**
+     * 目录下的所有段文件，按序号排列
+     */
+    public static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * 读取段文件或目录下所有段文件中的全部记录
+     */
+    public static List<TranscriptRecord> readAll(Path path) throws IOException {
+        List<Path> segments = Files.isDirectory(path) ? segments(path) : Collections.singletonList(path);
+        List<TranscriptRecord> records = new ArrayList<>();
+        for (Path segment : segments) {
+            try (TranscriptReader reader = new TranscriptReader(segment)) {
+                reader.forEachRemaining(records::add);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public TranscriptRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        TranscriptRecord record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private TranscriptRecord readNext() {
+        if (buffer.remaining() < TranscriptFormat.RECORD_HEADER_BYTES) {
+            return null;
+        }
+        int position = buffer.position();
+        int length = buffer.getInt(position);
+        int checksum = buffer.getInt(position + 4);
+        if (length <= 0 || length > buffer.remaining() - TranscriptFormat.RECORD_HEADER_BYTES) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(position + TranscriptFormat.RECORD_HEADER_BYTES);
+        body.limit(position + TranscriptFormat.RECORD_HEADER_BYTES + length);
+        if (TranscriptFormat.checksum(body) != checksum) {
+            log.warn("转录记录校验失败，停止读取: {} @{}", path, position);
+            return null;
+        }
+        buffer.position(body.limit());
+        try {
+            return TranscriptFormat.decode(body);
+        } catch (RuntimeException e) {
+            log.warn("转录记录解析失败，停止读取: {} @{}", path, position);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.demo.llmstreaming.service.transcript;
+
+import lombok.Data;
+
+/**
+ * 一次上游生成的记录
+ */
+@Data
+public class TranscriptRecord {
+
+    /**
+     * 生成结果
+     */
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        /** 客户端断开、对冲落败等主动取消，completion为取消前已生成的部分 */
+        CANCELLED
+    }
+
+    /** 发起生成的流的dataId（合并请求时为首个请求的） */
+    private String dataId;
+
+    private String model;
+
+    /** 上游端点名称 */
+    private String endpoint;
+
+    private String prompt;
+
+    private String completion;
+
+    private int maxTokens;
+
+    /** 调用开始时间（毫秒时间戳） */
+    private long startTime;
+
+    /** 首token延迟（毫秒），没有内容时为-1 */
+    private int ttftMs;
+
+    /** 调用总耗时（毫秒） */
+    private int durationMs;
+
+    /** 输出token数：上游usage报告的值，未报告时按内容估算 */
+    private int completionTokens;
+
+    private Outcome outcome;
+}
@@ -0,0 +1,66 @@
+package com.demo.llmstreaming.service.upstream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端断开导致的上游取消统计
+ * 节省的token按 min(max_output_tokens, 近期完整应答的平均分片数) - 已生成分片数 估算，
+ * 节省的时间再乘以端点的token间隔EWMA；一个SSE内容分片近似一个token
+ */
+@Slf4j
+@Component
+public class CancellationStats {
+
+    private static final double ALPHA = 0.1;
+
+    private final LongAdder cancelled = new LongAdder();
+
+    private final LongAdder tokensSaved = new LongAdder();
+
+    private final LongAdder millisSaved = new LongAdder();
+
+    /** 近期完整应答的平均分片数，小于0表示还没有样本 */
+    private double completionTokens = -1;
+
+    /**
+     * 记录一次完整结束的生成
+     */
+    public synchronized void recordCompleted(long tokens) {
+        completionTokens = completionTokens < 0 ? tokens : completionTokens + ALPHA * (tokens - completionTokens);
+    }
+
+    /**
+     * 记录一次因客户端全部离开而取消的上游调用
+     * @param generatedTokens 取消时已生成的分片数
+     */
+    public void recordCancelled(UpstreamEndpoint endpoint, long generatedTokens, int maxTokens) {
+        double expected;
+        synchronized (this) {
+            expected = completionTokens < 0 ? maxTokens : Math.min(maxTokens, completionTokens);
+        }
+        long saved = Math.max(0, Math.round(expected) - generatedTokens);
+        double interTokenMs = endpoint.getStats().getInterTokenMs();
+        long savedMillis = interTokenMs > 0 ? Math.round(saved * interTokenMs) : 0;
+        cancelled.increment();
+        tokensSaved.add(saved);
+        millisSaved.add(savedMillis);
+        log.info("客户端已断开，取消上游调用: {}，已生成{}个分片，预计节省{}个token、{}ms", endpoint.getName(),
+                generatedTokens, saved, savedMillis);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("cancelled", cancelled.sum());
+        snapshot.put("estimatedTokensSaved", tokensSaved.sum());
+        snapshot.put("estimatedSecondsSaved", millisSaved.sum() / 1000.0);
+        synchronized (this) {
+            snapshot.put("avgCompletionTokens", completionTokens);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,262 @@
+package com.demo.llmstreaming.service.upstream;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 端点实时统计：首token延迟、token间隔和错误率的EWMA，进行中请求数，以及摘除/探活状态
+ */
+@Slf4j
+public class EndpointStats {
+
+    /**
+     * 一次调用的结果
+     */
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        /** 客户端断开等主动取消，不计入错误率 */
+        CANCELLED
+    }
+
+    private final String name;
+
+    private final UpstreamProperties.Routing routing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    /** 以下字段由本对象的锁保护，小于0表示还没有样本 */
+    private double ttftEwma = -1;
+
+    private double itlEwma = -1;
+
+    private double errorRate;
+
+    private int consecutiveFailures;
+
+    private int ejections;
+
+    private long ejectedUntil;
+
+    private boolean probing;
+
+    EndpointStats(String name, UpstreamProperties.Routing routing) {
+        this.name = name;
+        this.routing = routing;
+    }
+
+    /**
+     * 开始一次调用，摘除到期的端点由这次调用占用探活名额
+     */
+    public CallTracker start() {
+        claimProbe(System.currentTimeMillis());
+        inFlight.incrementAndGet();
+        requests.increment();
+        return new CallTracker();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * token间隔EWMA（毫秒），没有样本时返回-1
+     */
+    public synchronized double getInterTokenMs() {
+        return itlEwma;
+    }
+
+    /**
+     * 是否未被摘除
+     */
+    synchronized boolean isHealthy() {
+        return ejectedUntil == 0;
+    }
+
+    synchronized long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    /**
+     * 摘除到期且没有进行中的探活，可以放行一个探活请求；只查询，不占用名额
+     */
+    synchronized boolean isProbeDue(long nowMillis) {
+        return ejectedUntil != 0 && nowMillis >= ejectedUntil && !probing;
+    }
+
+    /**
+     * 请求实际发出时占用探活名额，结束时由recordOutcome释放；
+     * 选中端点后没有发出请求（配额不足、生成已取消等）不会占住名额
+     */
+    private synchronized void claimProbe(long nowMillis) {
+        if (isProbeDue(nowMillis)) {
+            probing = true;
+            log.info("上游端点探活: {}", name);
+        }
+    }
+
+    /**
+     * 路由评分，越小越好：预期首token延迟加上十个token的间隔，按进行中请求数和错误率放大
+     */
+    synchronized double score() {
+        double ttft = ttftEwma < 0 ? routing.getInitialTtftMs() : ttftEwma;
+        double itl = itlEwma < 0 ? 0 : itlEwma;
+        return (ttft + 10 * itl) * (inFlight.get() + 1) * (1 + 4 * errorRate);
+    }
+
+    private synchronized void recordTtft(double millis) {
+        ttftEwma = ttftEwma < 0 ? millis : ewma(ttftEwma, millis);
+    }
+
+    private synchronized void recordItl(double millis) {
+        itlEwma = itlEwma < 0 ? millis : ewma(itlEwma, millis);
+    }
+
+    private synchronized void recordOutcome(Outcome outcome) {
+        if (outcome == Outcome.CANCELLED) {
+            probing = false;
+            return;
+        }
+        if (outcome == Outcome.SUCCESS) {
+            errorRate = ewma(errorRate, 0);
+            consecutiveFailures = 0;
+            if (ejectedUntil != 0) {
+                log.info("上游端点恢复: {}", name);
+                errorRate = 0;
+            }
+            ejectedUntil = 0;
+            ejections = 0;
+            probing = false;
+            return;
+        }
+        failures.increment();
+        errorRate = ewma(errorRate, 1);
+        consecutiveFailures++;
+        if (ejectedUntil > System.currentTimeMillis()) {
+            // 摘除前已发出的请求陆续失败，不重复摘除
+            return;
+        }
+        if (probing || consecutiveFailures >= routing.getFailureThreshold() || errorRate > routing.getErrorRateThreshold()) {
+            long duration = Math.min(routing.getMaxEjectMs(), routing.getEjectMs() << Math.min(ejections, 16));
+            ejectedUntil = System.currentTimeMillis() + duration;
+            ejections++;
+            probing = false;
+            log.warn("上游端点摘除: {}，{}ms后探活，连续失败：{}，错误率：{}", name, duration, consecutiveFailures,
+                    String.format("%.2f", errorRate));
+        }
+    }
+
+    private double ewma(double current, double sample) {
+        double alpha = routing.getEwmaAlpha();
+        return current + alpha * (sample - current);
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("inFlight", inFlight.get());
+        snapshot.put("requests", requests.sum());
+        snapshot.put("failures", failures.sum());
+        snapshot.put("ttftEwmaMs", ttftEwma);
+        snapshot.put("interTokenEwmaMs", itlEwma);
+        snapshot.put("errorRate", errorRate);
+        snapshot.put("ejected", ejectedUntil != 0);
+        snapshot.put("score", score());
+        return snapshot;
+    }
+
+    /**
+     * 跟踪一次调用的token时间点和结果
+     * 由读取上游响应的单个线程使用
+     */
+    public class CallTracker {
+
+        private final long startNanos = System.nanoTime();
+
+        private long lastTokenNanos;
+
+        private long firstTokenNanos;
+
+        private long tokens;
+
+        private long chars;
+
+        private boolean finished;
+
+        /**
+         * 收到一个内容分片
+         * @return 距上一个分片（首个分片为距调用开始）的纳秒数
+         */
+        public long onToken(int chars) {
+            long now = System.nanoTime();
+            long interval;
+            if (lastTokenNanos == 0) {
+                interval = now - startNanos;
+                firstTokenNanos = now;
+                recordTtft(interval / 1_000_000.0);
+            } else {
+                interval = now - lastTokenNanos;
+                recordItl(interval / 1_000_000.0);
+            }
+            lastTokenNanos = now;
+            tokens++;
+            this.chars += chars;
+            return interval;
+        }
+
+        public boolean isFirstToken() {
+            return tokens == 1;
+        }
+
+        public long getTokens() {
+            return tokens;
+        }
+
+        public long getChars() {
+            return chars;
+        }
+
+        /**
+         * 首token延迟（纳秒），没有分片时返回-1
+         */
+        public long getTtftNanos() {
+            return firstTokenNanos == 0 ? -1 : firstTokenNanos - startNanos;
+        }
+
+        /**
+         * 从调用开始到现在的纳秒数
+         */
+        public long getElapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        /**
+         * 从首个分片到现在的纳秒数，没有分片时返回0
+         */
+        public long getStreamingNanos() {
+            return firstTokenNanos == 0 ? 0 : System.nanoTime() - firstTokenNanos;
+        }
+
+        /**
+         * 调用结束，只有第一次调用生效
+         */
+        public void finish(Outcome outcome) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            inFlight.decrementAndGet();
+            recordOutcome(outcome);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.demo.llmstreaming.service.upstream;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游连接管理
+ * 按llm.upstream配置为端点创建独立的连接池、调度器和超时设置，启动后预热连接
+ * 未配置llm.upstream.endpoints时使用llm.api的单个端点
+ */
+@Slf4j
+@Component
+public class UpstreamClientManager {
+
+    @Autowired
+    private UpstreamProperties properties;
+
+    @Value("${llm.api.url:https://qianfan.baidubce.com/v2/chat/completions}")
+    private String chatUrl;
+
+    @Value("${llm.api.key:YOUR_API_KEY}")
+    private String apiKey;
+
+    @Value("${llm.api.model:ernie-speed-pro-128k}")
+    private String model;
+
+    @Value("${llm.api.timeout:60000}")
+    private long timeout;
+
+    private List<UpstreamEndpoint> endpoints;
+
+    @PostConstruct
+    public void init() {
+        List<UpstreamEndpoint> created = new ArrayList<>();
+        for (UpstreamProperties.Endpoint config : properties.getEndpoints()) {
+            String name = config.getName() != null ? config.getName() : "endpoint-" + created.size();
+            created.add(createEndpoint(name,
+                    config.getUrl() != null ? config.getUrl() : chatUrl,
+                    config.getKey() != null ? config.getKey() : apiKey,
+                    config.getModel() != null ? config.getModel() : model,
+                    config));
+        }
+        if (created.isEmpty()) {
+            created.add(createEndpoint("default", chatUrl, apiKey, model, new UpstreamProperties.Endpoint()));
+        }
+        endpoints = Collections.unmodifiableList(created);
+    }
+
+    /**
+     * 应用就绪后预热连接，避免首批请求承担TLS握手延迟
+     * 各端点的预热请求同时经各自的调度器异步发出，启动线程不等待结果，每个请求受预热超时限制
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        for (UpstreamEndpoint endpoint : endpoints) {
+            endpoint.prewarm(properties.getPrewarmConnections(), properties.getPrewarmTimeoutMs());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (UpstreamEndpoint endpoint : endpoints) {
+            endpoint.shutdown();
+        }
+    }
+
+    /**
+     * 所有端点，按配置顺序
+     */
+    public List<UpstreamEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (UpstreamEndpoint endpoint : endpoints) {
+            snapshot.put(endpoint.getName(), endpoint.snapshot());
+        }
+        return snapshot;
+    }
+
+    private UpstreamEndpoint createEndpoint(String name, String url, String key, String endpointModel,
+                                            UpstreamProperties.Endpoint overrides) {
+        int maxIdleConnections = overrides.getMaxIdleConnections() != null
+                ? overrides.getMaxIdleConnections() : properties.getMaxIdleConnections();
+        int maxRequestsPerHost = overrides.getMaxRequestsPerHost() != null
+                ? overrides.getMaxRequestsPerHost() : properties.getMaxRequestsPerHost();
+        String protocol = overrides.getProtocol() != null ? overrides.getProtocol() : properties.getProtocol();
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(properties.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        long readTimeout = properties.getReadTimeoutMs() != null ? properties.getReadTimeoutMs() : timeout;
+        OkHttpClient client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, properties.getKeepAliveMs(), TimeUnit.MILLISECONDS))
+                .protocols(protocols(protocol))
+                .connectTimeout(properties.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(properties.getWriteTimeoutMs(), TimeUnit.MILLISECONDS)
+                .callTimeout(properties.getCallTimeoutMs(), TimeUnit.MILLISECONDS)
+                .build();
+        log.info("创建上游端点: {} {}，协议：{}，最大空闲连接：{}，最大并发：{}/{}", name, url, protocol,
+                maxIdleConnections, properties.getMaxRequests(), maxRequestsPerHost);
+        int requestsPerMinute = overrides.getRequestsPerMinute() != null
+                ? overrides.getRequestsPerMinute() : properties.getQuota().getRequestsPerMinute();
+        int tokensPerMinute = overrides.getTokensPerMinute() != null
+                ? overrides.getTokensPerMinute() : properties.getQuota().getTokensPerMinute();
+        return new UpstreamEndpoint(name, url, key, endpointModel, client, new EndpointStats(name, properties.getRouting()),
+                requestsPerMinute, tokensPerMinute);
+    }
+
+    private static List<Protocol> protocols(String protocol) {
+        if ("http1.1".equalsIgnoreCase(protocol)) {
+            return Collections.singletonList(Protocol.HTTP_1_1);
+        }
+        if ("h2c".equalsIgnoreCase(protocol)) {
+            return Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE);
+        }
+        return Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+    }
+}
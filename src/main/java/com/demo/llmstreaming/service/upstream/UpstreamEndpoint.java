@@ -0,0 +1,153 @@
+package com.demo.llmstreaming.service.upstream;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个上游端点：地址、密钥、模型，以及独立的连接池和调度器
+ */
+@Slf4j
+public class UpstreamEndpoint {
+
+    private final String name;
+
+    private final String url;
+
+    private final String apiKey;
+
+    private final String model;
+
+    private final OkHttpClient client;
+
+    private final EndpointStats stats;
+
+    private final int requestsPerMinute;
+
+    private final int tokensPerMinute;
+
+    UpstreamEndpoint(String name, String url, String apiKey, String model, OkHttpClient client, EndpointStats stats,
+                     int requestsPerMinute, int tokensPerMinute) {
+        this.name = name;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.client = client;
+        this.stats = stats;
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    public EndpointStats getStats() {
+        return stats;
+    }
+
+    /**
+     * 密钥的每分钟请求数配额，0表示不限制
+     */
+    public int getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    /**
+     * 密钥的每分钟token数配额，0表示不限制
+     */
+    public int getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+
+    /**
+     * 预热连接：通过本端点的调度器异步发送HEAD请求，建立TCP/TLS连接并放入连接池，不阻塞调用线程；
+     * 全部请求结束（成功、失败或超时）后记录结果
+     */
+    public void prewarm(int connections, long timeoutMs) {
+        if (connections <= 0) {
+            return;
+        }
+        OkHttpClient prewarmClient = client.newBuilder()
+                .callTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+        AtomicInteger remaining = new AtomicInteger(connections);
+        AtomicInteger succeeded = new AtomicInteger();
+        for (int i = 0; i < connections; i++) {
+            Request request = new Request.Builder().url(url).head().build();
+            prewarmClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    log.warn("上游连接预热失败: {} {}", name, e.getMessage());
+                    finished();
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    // 任意状态码都说明连接已建立
+                    response.close();
+                    succeeded.incrementAndGet();
+                    finished();
+                }
+
+                private void finished() {
+                    if (remaining.decrementAndGet() == 0) {
+                        log.info("上游连接预热完成: {} 成功{}/{}，连接池连接数：{}", name, succeeded.get(), connections,
+                                client.connectionPool().connectionCount());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 连接池及调度器使用情况
+     */
+    public Map<String, Object> snapshot() {
+        ConnectionPool pool = client.connectionPool();
+        Dispatcher dispatcher = client.dispatcher();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("url", url);
+        snapshot.put("model", model);
+        snapshot.put("connections", pool.connectionCount());
+        snapshot.put("idleConnections", pool.idleConnectionCount());
+        snapshot.put("runningCalls", dispatcher.runningCallsCount());
+        snapshot.put("queuedCalls", dispatcher.queuedCallsCount());
+        snapshot.put("maxRequests", dispatcher.getMaxRequests());
+        snapshot.put("maxRequestsPerHost", dispatcher.getMaxRequestsPerHost());
+        snapshot.put("routing", stats.snapshot());
+        return snapshot;
+    }
+
+    void shutdown() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+}
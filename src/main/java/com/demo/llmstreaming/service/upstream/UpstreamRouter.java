@@ -0,0 +1,96 @@
+package com.demo.llmstreaming.service.upstream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 上游路由
+ * 在健康端点中随机取两个，选评分（首token延迟、token间隔、进行中请求数、错误率）更低的一个；
+ * 被摘除的端点到期后放行一个探活请求，成功则恢复，全部被摘除时选最早到期的端点。
+ * 选择本身没有副作用，探活名额在请求实际发出时（EndpointStats.start）才占用
+ */
+@Component
+public class UpstreamRouter {
+
+    @Autowired
+    private UpstreamClientManager upstreamClientManager;
+
+    public UpstreamEndpoint choose() {
+        return choose(null, null);
+    }
+
+    /**
+     * 选择端点
+     * @param exclude 需要排除的端点（如对冲请求排除主请求的端点），没有其他可选端点时忽略
+     * @param model 不为null时只在服务该模型的端点中选择，用于替换已按模型合并或缓存的请求的端点；
+     *              没有服务该模型的其他端点时返回exclude
+     */
+    public UpstreamEndpoint choose(UpstreamEndpoint exclude, String model) {
+        List<UpstreamEndpoint> endpoints = upstreamClientManager.getEndpoints();
+        if (model != null) {
+            endpoints = serving(endpoints, model);
+            if (endpoints.isEmpty()) {
+                return exclude;
+            }
+        }
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = System.currentTimeMillis();
+        List<UpstreamEndpoint> candidates = new ArrayList<>(endpoints.size());
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (endpoint == exclude) {
+                continue;
+            }
+            if (endpoint.getStats().isProbeDue(now)) {
+                // 摘除到期的端点优先放行一个探活请求，否则它的评分永远赢不了健康端点
+                return endpoint;
+            }
+            if (endpoint.getStats().isHealthy()) {
+                candidates.add(endpoint);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return earliestRecovering(endpoints, exclude);
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        UpstreamEndpoint a = candidates.get(first);
+        UpstreamEndpoint b = candidates.get(second);
+        return a.getStats().score() <= b.getStats().score() ? a : b;
+    }
+
+    private static List<UpstreamEndpoint> serving(List<UpstreamEndpoint> endpoints, String model) {
+        List<UpstreamEndpoint> serving = new ArrayList<>(endpoints.size());
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (model.equals(endpoint.getModel())) {
+                serving.add(endpoint);
+            }
+        }
+        return serving;
+    }
+
+    private UpstreamEndpoint earliestRecovering(List<UpstreamEndpoint> endpoints, UpstreamEndpoint exclude) {
+        UpstreamEndpoint selected = null;
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (endpoint == exclude) {
+                continue;
+            }
+            if (selected == null || endpoint.getStats().getEjectedUntil() < selected.getStats().getEjectedUntil()) {
+                selected = endpoint;
+            }
+        }
+        return selected != null ? selected : endpoints.get(0);
+    }
+}
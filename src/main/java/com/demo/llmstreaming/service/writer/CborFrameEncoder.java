@@ -0,0 +1,141 @@
+package com.demo.llmstreaming.service.writer;
+
+/**
+ * CBOR帧编码器
+ * 字段与{@link DeltaFrameEncoder}相同，每帧一个CBOR map，帧之间直接相接（CBOR序列，RFC 8742）：
+ * 流头{"dataId","dataType","format":"cbor","timestamp"}，数据帧{"s":0,"c":"你"}，
+ * 结束帧{"s":1,"t":"END"}，错误帧{"s":2,"t":"ERROR","e":"..."}，
+ * 结构化字段帧{"s":3,"t":"JSON_FIELD","p":"/items/0","v":"{\"title\":...}"}（值为JSON文本，不转换为CBOR）
+ */
+public class CborFrameEncoder extends FrameEncoder {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int MAJOR_MAP = 5 << 5;
+    private static final byte TRUE = (byte) 0xF5;
+
+    private static final byte[] KEY_SEQUENCE = text("s");
+    private static final byte[] KEY_CONTENT = text("c");
+    private static final byte[] KEY_FINISHED = text("f");
+    private static final byte[] KEY_TYPE = text("t");
+    private static final byte[] KEY_ERROR = text("e");
+    private static final byte[] KEY_PATH = text("p");
+    private static final byte[] KEY_VALUE = text("v");
+    private static final byte[] TYPE_END = text("END");
+    private static final byte[] TYPE_ERROR = text("ERROR");
+    private static final byte[] TYPE_FIELD = text(JSON_FIELD);
+    private static final byte[] KEY_TIMESTAMP = text("timestamp");
+
+    private final byte[] headerPrefix;
+
+    CborFrameEncoder(String dataId, String dataType) {
+        super(dataId, dataType);
+        FrameBuffer buffer = new FrameBuffer(64);
+        writeHead(buffer, MAJOR_MAP, 4);
+        buffer.write(text("dataId"));
+        writeText(buffer, dataId);
+        buffer.write(text("dataType"));
+        writeText(buffer, dataType);
+        buffer.write(text("format"));
+        buffer.write(text("cbor"));
+        buffer.write(KEY_TIMESTAMP);
+        this.headerPrefix = buffer.toByteArray();
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.CBOR;
+    }
+
+    @Override
+    public void encodeHeader(FrameBuffer out) {
+        out.write(headerPrefix);
+        byte[] timestamp = timestamp();
+        writeHead(out, MAJOR_TEXT, timestamp.length);
+        out.write(timestamp);
+    }
+
+    @Override
+    public void encodeData(FrameBuffer out, String content, boolean finished, Integer sequence) {
+        writeHead(out, MAJOR_MAP, (sequence != null ? 2 : 1) + (finished ? 1 : 0));
+        writeSequence(out, sequence);
+        out.write(KEY_CONTENT);
+        writeText(out, content);
+        if (finished) {
+            out.write(KEY_FINISHED);
+            out.write(TRUE);
+        }
+    }
+
+    @Override
+    public void encodeEnd(FrameBuffer out, Integer sequence) {
+        writeHead(out, MAJOR_MAP, sequence != null ? 2 : 1);
+        writeSequence(out, sequence);
+        out.write(KEY_TYPE);
+        out.write(TYPE_END);
+    }
+
+    @Override
+    public void encodeError(FrameBuffer out, String errorMessage, Integer sequence) {
+        writeHead(out, MAJOR_MAP, (sequence != null ? 2 : 1) + (errorMessage != null ? 1 : 0));
+        writeSequence(out, sequence);
+        out.write(KEY_TYPE);
+        out.write(TYPE_ERROR);
+        if (errorMessage != null) {
+            out.write(KEY_ERROR);
+            writeText(out, errorMessage);
+        }
+    }
+
+    @Override
+    public void encodeField(FrameBuffer out, String path, String value, Integer sequence) {
+        writeHead(out, MAJOR_MAP, sequence != null ? 4 : 3);
+        writeSequence(out, sequence);
+        out.write(KEY_TYPE);
+        out.write(TYPE_FIELD);
+        out.write(KEY_PATH);
+        writeText(out, path);
+        out.write(KEY_VALUE);
+        writeText(out, value);
+    }
+
+    private static void writeSequence(FrameBuffer out, Integer sequence) {
+        if (sequence != null) {
+            out.write(KEY_SEQUENCE);
+            writeHead(out, MAJOR_UNSIGNED, sequence);
+        }
+    }
+
+    private static void writeText(FrameBuffer out, String value) {
+        writeHead(out, MAJOR_TEXT, FrameBuffer.utf8Length(value));
+        out.writeUtf8(value);
+    }
+
+    /**
+     * 写入类型和长度（或无符号整数值），按值大小选择最短编码
+     */
+    private static void writeHead(FrameBuffer out, int major, int value) {
+        if (value < 24) {
+            out.write((byte) (major | value));
+        } else if (value < 0x100) {
+            out.write((byte) (major | 24));
+            out.write((byte) value);
+        } else if (value < 0x10000) {
+            out.write((byte) (major | 25));
+            out.write((byte) (value >> 8));
+            out.write((byte) value);
+        } else {
+            out.write((byte) (major | 26));
+            out.write((byte) (value >> 24));
+            out.write((byte) (value >> 16));
+            out.write((byte) (value >> 8));
+            out.write((byte) value);
+        }
+    }
+
+    private static byte[] text(String value) {
+        FrameBuffer buffer = new FrameBuffer(value.length() + 1);
+        writeText(buffer, value);
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,57 @@
+package com.demo.llmstreaming.service.writer;
+
+/**
+ * 响应的内容编码（压缩）
+ */
+public enum ContentCoding {
+
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private final String token;
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Content-Encoding响应头的值，不压缩时为null
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * 按Accept-Encoding请求头协商，质量值相同时优先gzip；都不接受时不压缩
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        ContentCoding best = IDENTITY;
+        double bestQuality = 0;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String name = params[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            ContentCoding coding = "gzip".equals(name) || "x-gzip".equals(name) ? GZIP
+                    : "deflate".equals(name) ? DEFLATE : null;
+            if (coding != null && (quality > bestQuality || (quality == bestQuality && coding == GZIP && quality > 0))) {
+                best = coding;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+}
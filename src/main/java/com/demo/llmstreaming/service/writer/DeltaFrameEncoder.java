@@ -0,0 +1,105 @@
+package com.demo.llmstreaming.service.writer;
+
+/**
+ * 紧凑增量帧编码器
+ * 每个连接开始时发送一次流头，之后每帧只有sequence和content，省去重复的dataId、dataType、时间戳和空字段：
+ * <pre>
+ * {"dataId":"...","dataType":"LLM_RESPONSE","format":"delta","timestamp":"..."}
+ * {"s":0,"c":"你"}
+ * {"s":1,"t":"END"}
+ * {"s":2,"t":"ERROR","e":"..."}
+ * {"s":3,"t":"JSON_FIELD","p":"/items/0","v":{"title":"..."}}
+ * </pre>
+ * 数据帧带finished时追加"f":true，sequence为null时省略"s"
+ */
+public class DeltaFrameEncoder extends FrameEncoder {
+
+    private static final byte[] HEADER_FORMAT = bytes(",\"format\":\"delta\",\"timestamp\":\"");
+    private static final byte[] HEADER_END = bytes("\"}\n");
+    private static final byte[] SEQUENCE_FIELD = bytes("{\"s\":");
+    private static final byte[] CONTENT_FIELD = bytes("\"c\":");
+    private static final byte[] FINISHED = bytes(",\"f\":true");
+    private static final byte[] END_TYPE = bytes("\"t\":\"END\"");
+    private static final byte[] ERROR_TYPE = bytes("\"t\":\"ERROR\"");
+    private static final byte[] ERROR_FIELD = bytes(",\"e\":");
+    private static final byte[] FIELD_TYPE = bytes("\"t\":\"JSON_FIELD\",\"p\":");
+    private static final byte[] VALUE_FIELD = bytes(",\"v\":");
+    private static final byte[] FRAME_END = bytes("}\n");
+
+    private final byte[] headerPrefix;
+
+    DeltaFrameEncoder(String dataId, String dataType) {
+        super(dataId, dataType);
+        FrameBuffer buffer = new FrameBuffer(64);
+        buffer.write(bytes("{\"dataId\":"));
+        buffer.writeJsonString(dataId);
+        buffer.write(bytes(",\"dataType\":"));
+        buffer.writeJsonString(dataType);
+        buffer.write(HEADER_FORMAT);
+        this.headerPrefix = buffer.toByteArray();
+    }
+
+    @Override
+    public WireFormat getFormat() {
+        return WireFormat.DELTA;
+    }
+
+    @Override
+    public void encodeHeader(FrameBuffer out) {
+        out.write(headerPrefix);
+        out.write(timestamp());
+        out.write(HEADER_END);
+    }
+
+    @Override
+    public void encodeData(FrameBuffer out, String content, boolean finished, Integer sequence) {
+        writeSequence(out, sequence);
+        out.write(CONTENT_FIELD);
+        out.writeJsonString(content);
+        if (finished) {
+            out.write(FINISHED);
+        }
+        out.write(FRAME_END);
+    }
+
+    @Override
+    public void encodeEnd(FrameBuffer out, Integer sequence) {
+        writeSequence(out, sequence);
+        out.write(END_TYPE);
+        out.write(FRAME_END);
+    }
+
+    @Override
+    public void encodeError(FrameBuffer out, String errorMessage, Integer sequence) {
+        writeSequence(out, sequence);
+        out.write(ERROR_TYPE);
+        if (errorMessage != null) {
+            out.write(ERROR_FIELD);
+            out.writeJsonString(errorMessage);
+        }
+        out.write(FRAME_END);
+    }
+
+    /**
+     * 值是解析器输出的紧凑JSON，不含换行，直接内嵌
+     */
+    @Override
+    public void encodeField(FrameBuffer out, String path, String value, Integer sequence) {
+        writeSequence(out, sequence);
+        out.write(FIELD_TYPE);
+        out.writeJsonString(path);
+        out.write(VALUE_FIELD);
+        out.writeUtf8(value);
+        out.write(FRAME_END);
+    }
+
+    private static void writeSequence(FrameBuffer out, Integer sequence) {
+        if (sequence == null) {
+            out.write((byte) '{');
+            return;
+        }
+        out.write(SEQUENCE_FIELD);
+        out.writeInt(sequence);
+        out.write((byte) ',');
+    }
+}
@@ -0,0 +1,197 @@
+package com.demo.llmstreaming.service.writer;
+
+import java.util.Arrays;
+
+/**
+ * 可扩容的字节缓冲，帧直接编码为UTF-8字节写入
+ * 非线程安全，由FrameSink加锁保护
+ */
+public class FrameBuffer {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private byte[] bytes;
+
+    private int size;
+
+    public FrameBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 复制出当前内容
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    public void write(byte[] src) {
+        ensureCapacity(src.length);
+        System.arraycopy(src, 0, bytes, size, src.length);
+        size += src.length;
+    }
+
+    public void write(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * 把当前内容复制到dest的destPos处
+     */
+    public void copyTo(byte[] dest, int destPos) {
+        System.arraycopy(bytes, 0, dest, destPos, size);
+    }
+
+    public void write(byte b) {
+        ensureCapacity(1);
+        bytes[size++] = b;
+    }
+
+    /**
+     * 写入JSON字符串（含引号），转义规则与Jackson保持一致：
+     * 引号、反斜杠、控制字符转义，非ASCII字符按UTF-8原样输出，孤立的代理字符输出为'?'
+     */
+    public void writeJsonString(String s) {
+        int length = s.length();
+        // 最坏情况每个char占6字节(\\u00XX)
+        ensureCapacity(length * 6 + 2);
+        byte[] out = bytes;
+        int p = size;
+        out[p++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    out[p++] = (byte) c;
+                    continue;
+                }
+                out[p++] = '\\';
+                switch (c) {
+                    case '"': out[p++] = '"'; break;
+                    case '\\': out[p++] = '\\'; break;
+                    case '\b': out[p++] = 'b'; break;
+                    case '\f': out[p++] = 'f'; break;
+                    case '\n': out[p++] = 'n'; break;
+                    case '\r': out[p++] = 'r'; break;
+                    case '\t': out[p++] = 't'; break;
+                    default:
+                        out[p++] = 'u';
+                        out[p++] = '0';
+                        out[p++] = '0';
+                        out[p++] = HEX[c >> 4];
+                        out[p++] = HEX[c & 0xF];
+                        break;
+                }
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[p++] = (byte) (0xF0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[p++] = '?';
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out[p++] = '"';
+        size = p;
+    }
+
+    /**
+     * 写入字符串的UTF-8字节（不加引号、不转义），孤立的代理字符输出为'?'
+     */
+    public void writeUtf8(String s) {
+        int length = s.length();
+        ensureCapacity(length * 3);
+        byte[] out = bytes;
+        int p = size;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[p++] = (byte) (0xF0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[p++] = '?';
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        size = p;
+    }
+
+    /**
+     * writeUtf8写入的字节数
+     */
+    public static int utf8Length(String s) {
+        int length = s.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 写入非负整数的十进制表示
+     */
+    public void writeInt(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0");
+        }
+        ensureCapacity(11);
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int p = size + digits;
+        size = p;
+        do {
+            bytes[--p] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
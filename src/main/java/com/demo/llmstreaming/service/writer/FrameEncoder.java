@@ -0,0 +1,192 @@
+package com.demo.llmstreaming.service.writer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 单条流的NDJSON帧编码器
+ * 输出与ObjectMapper序列化StreamResponseVO完全一致；dataId、dataType在创建时预先编码为字节前缀，
+ * 每帧只需编码content、finished、timestamp和sequence。其他帧格式见{@link #create}
+ */
+public class FrameEncoder {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    private static final byte[] CONTENT_NULL = bytes(",\"content\":null");
+    private static final byte[] CONTENT_FIELD = bytes(",\"content\":");
+    private static final byte[] FINISHED_TRUE = bytes(",\"finished\":true,\"timestamp\":\"");
+    private static final byte[] FINISHED_FALSE = bytes(",\"finished\":false,\"timestamp\":\"");
+    private static final byte[] ERROR_NULL = bytes("\",\"errorMessage\":null");
+    private static final byte[] ERROR_FIELD = bytes("\",\"errorMessage\":");
+    private static final byte[] SEQUENCE_NULL = bytes(",\"sequence\":null}\n");
+    private static final byte[] SEQUENCE_FIELD = bytes(",\"sequence\":");
+    private static final byte[] FRAME_END = bytes("}\n");
+    private static final byte[] FIELD_PATH = bytes("{\"path\":");
+    private static final byte[] FIELD_VALUE = bytes(",\"value\":");
+
+    /** 结构化输出中一个字段或数组元素结束时的帧类型 */
+    public static final String JSON_FIELD = "JSON_FIELD";
+
+    /** 按毫秒缓存的时间戳字节，所有流共享 */
+    private static volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(0, new byte[0]);
+
+    private final String dataId;
+
+    private final String dataType;
+
+    private final byte[] dataPrefix;
+
+    private final byte[] endPrefix;
+
+    private final byte[] errorPrefix;
+
+    private final byte[] fieldPrefix;
+
+    public FrameEncoder(String dataId) {
+        this(dataId, "LLM_RESPONSE");
+    }
+
+    public FrameEncoder(String dataId, String dataType) {
+        this.dataId = dataId;
+        this.dataType = dataType;
+        this.dataPrefix = prefix(dataId, dataType);
+        this.endPrefix = prefix(dataId, "END");
+        this.errorPrefix = prefix(dataId, "ERROR");
+        this.fieldPrefix = prefix(dataId, JSON_FIELD);
+    }
+
+    /**
+     * 按帧格式创建编码器
+     */
+    public static FrameEncoder create(String dataId, WireFormat format) {
+        switch (format) {
+            case DELTA:
+                return new DeltaFrameEncoder(dataId, "LLM_RESPONSE");
+            case CBOR:
+                return new CborFrameEncoder(dataId, "LLM_RESPONSE");
+            default:
+                return new FrameEncoder(dataId);
+        }
+    }
+
+    public String getDataId() {
+        return dataId;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public WireFormat getFormat() {
+        return WireFormat.NDJSON;
+    }
+
+    /**
+     * 编码流头，每个连接开始时写一次；NDJSON每帧字段完整，没有流头
+     */
+    public void encodeHeader(FrameBuffer out) {
+    }
+
+    /**
+     * 编码数据帧
+     */
+    public void encodeData(FrameBuffer out, String content, boolean finished, Integer sequence) {
+        out.write(dataPrefix);
+        out.write(CONTENT_FIELD);
+        out.writeJsonString(content);
+        writeTail(out, finished, null, sequence);
+    }
+
+    /**
+     * 编码结束帧
+     */
+    public void encodeEnd(FrameBuffer out, Integer sequence) {
+        out.write(endPrefix);
+        out.write(CONTENT_NULL);
+        writeTail(out, true, null, sequence);
+    }
+
+    /**
+     * 编码错误帧
+     */
+    public void encodeError(FrameBuffer out, String errorMessage, Integer sequence) {
+        out.write(errorPrefix);
+        out.write(CONTENT_NULL);
+        writeTail(out, true, errorMessage, sequence);
+    }
+
+    /**
+     * 编码结构化字段帧，content为{"path":"/a/0","value":...}的JSON文本
+     * @param value 值的JSON文本
+     */
+    public void encodeField(FrameBuffer out, String path, String value, Integer sequence) {
+        FrameBuffer content = new FrameBuffer(path.length() + value.length() + 32);
+        content.write(FIELD_PATH);
+        content.writeJsonString(path);
+        content.write(FIELD_VALUE);
+        content.writeUtf8(value);
+        content.write((byte) '}');
+        out.write(fieldPrefix);
+        out.write(CONTENT_FIELD);
+        out.writeJsonString(new String(content.toByteArray(), StandardCharsets.UTF_8));
+        writeTail(out, false, null, sequence);
+    }
+
+    private void writeTail(FrameBuffer out, boolean finished, String errorMessage, Integer sequence) {
+        out.write(finished ? FINISHED_TRUE : FINISHED_FALSE);
+        out.write(timestamp());
+        if (errorMessage == null) {
+            out.write(ERROR_NULL);
+        } else {
+            out.write(ERROR_FIELD);
+            out.writeJsonString(errorMessage);
+        }
+        if (sequence == null) {
+            out.write(SEQUENCE_NULL);
+        } else {
+            out.write(SEQUENCE_FIELD);
+            out.writeInt(sequence);
+            out.write(FRAME_END);
+        }
+    }
+
+    private static byte[] prefix(String dataId, String dataType) {
+        FrameBuffer buffer = new FrameBuffer(64);
+        buffer.write(bytes("{\"dataId\":"));
+        buffer.writeJsonString(dataId);
+        buffer.write(bytes(",\"dataType\":"));
+        buffer.writeJsonString(dataType);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 当前时间戳字节，同一毫秒内复用
+     */
+    static byte[] timestamp() {
+        long now = System.currentTimeMillis();
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.millis != now) {
+            String text = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault()).format(TIMESTAMP_FORMAT);
+            cached = new CachedTimestamp(now, bytes(text));
+            cachedTimestamp = cached;
+        }
+        return cached.bytes;
+    }
+
+    static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class CachedTimestamp {
+        final long millis;
+        final byte[] bytes;
+
+        CachedTimestamp(long millis, byte[] bytes) {
+            this.millis = millis;
+            this.bytes = bytes;
+        }
+    }
+}
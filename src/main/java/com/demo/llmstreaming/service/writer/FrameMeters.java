@@ -0,0 +1,45 @@
+package com.demo.llmstreaming.service.writer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按帧格式和上游端点分别累计的帧写出计数，由StreamMetrics注册为带format、endpoint标签的指标
+ */
+public final class FrameMeters {
+
+    /** 没有发出上游调用的流：命中缓存、合并到其他请求、被拒绝或续传连接 */
+    public static final String NO_ENDPOINT = "none";
+
+    /** 多条生成共用一个连接（WebSocket、批量接口），不区分端点 */
+    public static final String MULTIPLEXED = "mixed";
+
+    private final LongAdder frames = new LongAdder();
+
+    private final LongAdder flushes = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    FrameMeters() {
+    }
+
+    void recordFrame() {
+        frames.increment();
+    }
+
+    void recordFlush(int byteCount) {
+        flushes.increment();
+        bytes.add(byteCount);
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
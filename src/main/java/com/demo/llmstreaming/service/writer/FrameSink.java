@@ -0,0 +1,241 @@
+package com.demo.llmstreaming.service.writer;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 一个下游连接的帧写出器
+ * 帧编码后先进入缓冲，在flush窗口到期或缓冲达到阈值时合并为一次写出；结束帧立即flush
+ * 多个线程（上游回调、节奏下发、定时flush）可同时写入，内部加锁保证帧顺序；
+ * 写出可能阻塞在慢客户端上并一直持有锁，定时flush因此交给写出执行器，不在调度线程上等待
+ */
+@Slf4j
+public class FrameSink {
+
+    /**
+     * 实际的字节输出，一次调用对应一次写出+flush
+     */
+    public interface Output {
+        void write(byte[] bytes) throws IOException;
+
+        /**
+         * 输出结束，写出剩余内容（如压缩流结尾）
+         */
+        default void close() throws IOException {
+        }
+
+        /**
+         * 连接失败，释放资源
+         */
+        default void discard() {
+        }
+    }
+
+    private final Output output;
+
+    private final TaskScheduler scheduler;
+
+    private final Executor writeExecutor;
+
+    private final FrameWriterStats stats;
+
+    private final long flushWindowMs;
+
+    private final int flushBytes;
+
+    private final FrameBuffer buffer;
+
+    /** 帧格式在写入流头时确定，端点在发出上游调用时确定；计数单元随之切换 */
+    private volatile WireFormat format = WireFormat.NDJSON;
+
+    private volatile String endpoint = FrameMeters.NO_ENDPOINT;
+
+    private volatile FrameMeters meters;
+
+    private ScheduledFuture<?> pendingFlush;
+
+    private Runnable failureListener;
+
+    private volatile boolean failed;
+
+    private boolean closed;
+
+    FrameSink(Output output, TaskScheduler scheduler, Executor writeExecutor, FrameWriterStats stats,
+              long flushWindowMs, int flushBytes) {
+        this.output = output;
+        this.scheduler = scheduler;
+        this.writeExecutor = writeExecutor;
+        this.stats = stats;
+        this.flushWindowMs = flushWindowMs;
+        this.flushBytes = flushBytes;
+        this.buffer = new FrameBuffer(Math.min(flushBytes, 1024) + 256);
+        this.meters = stats.meters(format, endpoint);
+    }
+
+    /**
+     * 设置产生内容的上游端点，之后的帧计入该端点；不加本对象的锁，不会等待阻塞中的写出
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+        this.meters = stats.meters(format, endpoint);
+    }
+
+    /**
+     * 写出失败时回调（包括定时flush失败），在调度线程上异步执行，不持有本对象的锁
+     */
+    public synchronized void setFailureListener(Runnable failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * 写入流头，每个连接开始时一次；NDJSON没有流头
+     */
+    public synchronized void writeHeader(FrameEncoder encoder) throws IOException {
+        checkFailed();
+        format = encoder.getFormat();
+        meters = stats.meters(format, endpoint);
+        encoder.encodeHeader(buffer);
+    }
+
+    public synchronized void writeData(FrameEncoder encoder, String content, boolean finished, Integer sequence) throws IOException {
+        checkFailed();
+        encoder.encodeData(buffer, content, finished, sequence);
+        afterFrame(finished);
+    }
+
+    public synchronized void writeEnd(FrameEncoder encoder, Integer sequence) throws IOException {
+        checkFailed();
+        encoder.encodeEnd(buffer, sequence);
+        afterFrame(true);
+    }
+
+    public synchronized void writeField(FrameEncoder encoder, String path, String value, Integer sequence) throws IOException {
+        checkFailed();
+        encoder.encodeField(buffer, path, value, sequence);
+        afterFrame(false);
+    }
+
+    public synchronized void writeError(FrameEncoder encoder, String errorMessage, Integer sequence) throws IOException {
+        checkFailed();
+        encoder.encodeError(buffer, errorMessage, sequence);
+        afterFrame(true);
+    }
+
+    /**
+     * 写入一条已编码的帧（如重放缓冲中保存的帧）
+     * @param urgent 是否立即flush
+     */
+    public synchronized void writeEncoded(byte[] frame, int offset, int length, boolean urgent) throws IOException {
+        checkFailed();
+        buffer.write(frame, offset, length);
+        afterFrame(urgent);
+    }
+
+    /**
+     * 立即写出缓冲中的所有帧
+     */
+    public synchronized void flush() throws IOException {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (buffer.size() == 0 || failed) {
+            return;
+        }
+        byte[] bytes = buffer.toByteArray();
+        buffer.clear();
+        try {
+            output.write(bytes);
+        } catch (IOException | RuntimeException e) {
+            fail();
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+        stats.recordFlush(meters, bytes.length);
+    }
+
+    /**
+     * 写出缓冲中的帧并结束输出，之后不能再写入
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        if (!failed) {
+            output.close();
+        }
+    }
+
+    /**
+     * 结束输出后结束响应，压缩流的结尾在响应结束前写出
+     */
+    public void complete(ResponseBodyEmitter emitter) {
+        try {
+            close();
+        } catch (IOException e) {
+            log.debug("结束输出失败: {}", e.getMessage());
+        }
+        emitter.complete();
+    }
+
+    private void afterFrame(boolean urgent) throws IOException {
+        stats.recordFrame(meters);
+        if (urgent || flushWindowMs <= 0 || buffer.size() >= flushBytes) {
+            flush();
+            return;
+        }
+        if (pendingFlush == null) {
+            pendingFlush = scheduler.schedule(this::scheduledFlush, Instant.now().plusMillis(flushWindowMs));
+        }
+    }
+
+    /**
+     * flush窗口到期，在调度线程上执行：只提交写出，不获取本对象的锁（锁可能被阻塞中的写出持有）
+     */
+    private void scheduledFlush() {
+        try {
+            writeExecutor.execute(this::windowFlush);
+        } catch (RejectedExecutionException e) {
+            // 写出线程已用满，下一个窗口重试；pendingFlush仍不为null，期间不会重复调度
+            scheduler.schedule(this::scheduledFlush, Instant.now().plusMillis(flushWindowMs));
+        }
+    }
+
+    private void windowFlush() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.debug("定时flush失败: {}", e.getMessage());
+        }
+    }
+
+    private void checkFailed() throws IOException {
+        if (failed) {
+            throw new IOException("下游连接已断开");
+        }
+        if (closed) {
+            throw new IOException("输出已结束");
+        }
+    }
+
+    private void fail() {
+        failed = true;
+        buffer.clear();
+        output.discard();
+        if (failureListener != null) {
+            scheduler.schedule(failureListener, Instant.now());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.demo.llmstreaming.service.writer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 帧写出器工厂，统一flush合并和压缩配置
+ */
+@Component
+public class FrameWriterFactory {
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    @Autowired
+    @Qualifier("streamWriteExecutor")
+    private Executor streamWriteExecutor;
+
+    @Autowired
+    private FrameWriterStats stats;
+
+    @Value("${llm.writer.flush-window-ms:10}")
+    private long flushWindowMs;
+
+    @Value("${llm.writer.flush-bytes:4096}")
+    private int flushBytes;
+
+    @Value("${llm.writer.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Value("${llm.writer.compression.level:6}")
+    private int compressionLevel;
+
+    public FrameSink createSink(FrameSink.Output output) {
+        return new FrameSink(output, streamScheduler, streamWriteExecutor, stats, flushWindowMs, flushBytes);
+    }
+
+    /**
+     * 写出到ResponseBodyEmitter，每次写出一段已编码的NDJSON字节
+     */
+    public FrameSink createSink(ResponseBodyEmitter emitter) {
+        return createSink(emitter, ContentCoding.IDENTITY);
+    }
+
+    /**
+     * 写出到ResponseBodyEmitter，按内容编码压缩；字节原样写出，响应的Content-Type由调用方设置
+     */
+    public FrameSink createSink(ResponseBodyEmitter emitter, ContentCoding coding) {
+        FrameSink.Output output = bytes -> emitter.send(bytes, MediaType.APPLICATION_JSON);
+        if (coding != ContentCoding.IDENTITY) {
+            output = new CompressedOutput(output, coding, compressionLevel, stats);
+        }
+        return createSink(output);
+    }
+
+    /**
+     * 按Accept-Encoding协商内容编码，未启用压缩时不压缩
+     */
+    public ContentCoding negotiateCoding(String acceptEncoding) {
+        return compressionEnabled ? ContentCoding.negotiate(acceptEncoding) : ContentCoding.IDENTITY;
+    }
+}
@@ -0,0 +1,117 @@
+package com.demo.llmstreaming.service.writer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 帧写出统计：帧数、flush次数、写出字节数（压缩前），压缩流的压缩前后字节数，以及最近一秒的速率；
+ * 帧数、flush次数和字节数另按帧格式和上游端点分别累计，见{@link FrameMeters}
+ */
+@Component
+public class FrameWriterStats {
+
+    @Autowired
+    @Qualifier("streamScheduler")
+    private ThreadPoolTaskScheduler streamScheduler;
+
+    private final LongAdder frames = new LongAdder();
+
+    private final LongAdder flushes = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder compressedInput = new LongAdder();
+
+    private final LongAdder compressedOutput = new LongAdder();
+
+    /** 键为格式名/端点名 */
+    private final Map<String, FrameMeters> meters = new ConcurrentHashMap<>();
+
+    private long lastFlushes;
+
+    private long lastBytes;
+
+    private long lastSampleNanos = System.nanoTime();
+
+    private volatile double flushesPerSecond;
+
+    private volatile double bytesPerSecond;
+
+    @PostConstruct
+    public void start() {
+        streamScheduler.scheduleAtFixedRate(this::sample, Duration.ofSeconds(1));
+    }
+
+    /**
+     * 帧格式和端点对应的计数，不存在时创建；StreamMetrics启动时为每种组合预先创建并注册
+     */
+    public FrameMeters meters(WireFormat format, String endpoint) {
+        return meters.computeIfAbsent(format.name() + '/' + endpoint, key -> new FrameMeters());
+    }
+
+    void recordFrame(FrameMeters tagged) {
+        frames.increment();
+        tagged.recordFrame();
+    }
+
+    void recordFlush(FrameMeters tagged, int byteCount) {
+        flushes.increment();
+        bytes.add(byteCount);
+        tagged.recordFlush(byteCount);
+    }
+
+    void recordCompressed(int inputBytes, int outputBytes) {
+        compressedInput.add(inputBytes);
+        compressedOutput.add(outputBytes);
+    }
+
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("frames", getFrames());
+        snapshot.put("flushes", getFlushes());
+        snapshot.put("bytes", getBytes());
+        snapshot.put("flushesPerSecond", flushesPerSecond);
+        snapshot.put("bytesPerSecond", bytesPerSecond);
+        long input = compressedInput.sum();
+        long output = compressedOutput.sum();
+        snapshot.put("compressedInputBytes", input);
+        snapshot.put("compressedOutputBytes", output);
+        snapshot.put("compressionRatio", input > 0 ? Math.round(output * 1000.0 / input) / 1000.0 : 0);
+        return snapshot;
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long currentFlushes = flushes.sum();
+        long currentBytes = bytes.sum();
+        double seconds = (now - lastSampleNanos) / 1_000_000_000.0;
+        if (seconds > 0) {
+            flushesPerSecond = (currentFlushes - lastFlushes) / seconds;
+            bytesPerSecond = (currentBytes - lastBytes) / seconds;
+        }
+        lastFlushes = currentFlushes;
+        lastBytes = currentBytes;
+        lastSampleNanos = now;
+    }
+}
@@ -0,0 +1,76 @@
+package com.demo.llmstreaming.service.writer;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.List;
+
+/**
+ * 流式响应的帧格式
+ */
+public enum WireFormat {
+
+    /** 每帧一个完整的StreamResponseVO JSON */
+    NDJSON("application/json"),
+    /** 流头只发一次，之后每帧只有sequence和content */
+    DELTA("application/vnd.llm-stream.delta+json"),
+    /** 与DELTA相同的字段，按CBOR序列（RFC 8742）二进制编码 */
+    CBOR("application/cbor-seq");
+
+    private final MediaType mediaType;
+
+    WireFormat(String mediaType) {
+        this.mediaType = MediaType.parseMediaType(mediaType);
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * 按名称解析，忽略大小写；为空或不支持时返回null
+     */
+    public static WireFormat parse(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim().toUpperCase();
+        for (WireFormat format : values()) {
+            if (format.name().equals(key)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 协商帧格式：format参数优先，其次按Accept请求头的质量值选择，都不匹配时为NDJSON
+     */
+    public static WireFormat negotiate(String format, String accept) {
+        WireFormat parsed = parse(format);
+        if (parsed != null) {
+            return parsed;
+        }
+        if (accept == null || accept.isEmpty()) {
+            return NDJSON;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return NDJSON;
+        }
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            if (mediaType.getQualityValue() <= 0 || mediaType.isWildcardType() || mediaType.isWildcardSubtype()) {
+                continue;
+            }
+            for (WireFormat candidate : values()) {
+                if (candidate.mediaType.isCompatibleWith(mediaType)) {
+                    return candidate;
+                }
+            }
+        }
+        return NDJSON;
+    }
+}
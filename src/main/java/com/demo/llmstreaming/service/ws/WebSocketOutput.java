@@ -0,0 +1,157 @@
+package com.demo.llmstreaming.service.ws;
+
+import com.demo.llmstreaming.service.writer.FrameBuffer;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket连接的异步输出
+ * 同一时刻只有一条消息在发送；发送期间写入的帧合并到待发缓冲，上一条发完后作为一条消息发出。
+ * 下游变慢时消息自动变大、条数变少，写入线程（上游回调、节奏调度）不会阻塞在socket上；
+ * 待发字节超过上限或发送失败后，之后的写入抛出IOException，由FrameSink的失败回调关闭连接
+ */
+@Slf4j
+public class WebSocketOutput implements FrameSink.Output {
+
+    private final WebSocketSession session;
+
+    /** 容器不提供JSR-356会话时为null，退化为同步发送 */
+    private final RemoteEndpoint.Async remote;
+
+    private final int maxBufferedBytes;
+
+    private final Stats stats;
+
+    private final FrameBuffer pending = new FrameBuffer(1024);
+
+    private boolean sending;
+
+    private String failure;
+
+    public WebSocketOutput(WebSocketSession session, int maxBufferedBytes, long sendTimeoutMs, Stats stats) {
+        this.session = session;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.stats = stats;
+        Session nativeSession = session instanceof NativeWebSocketSession
+            ? ((NativeWebSocketSession) session).getNativeSession(Session.class) : null;
+        this.remote = nativeSession != null ? nativeSession.getAsyncRemote() : null;
+        if (remote != null && sendTimeoutMs > 0) {
+            remote.setSendTimeout(sendTimeoutMs);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes) throws IOException {
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        if (remote == null) {
+            stats.messages.increment();
+            session.sendMessage(new TextMessage(bytes));
+            return;
+        }
+        if (sending) {
+            if (pending.size() + bytes.length > maxBufferedBytes) {
+                stats.overflows.increment();
+                failure = "发送缓冲超过" + maxBufferedBytes + "字节";
+                throw new IOException(failure);
+            }
+            pending.write(bytes);
+            stats.coalesced.increment();
+            return;
+        }
+        send(bytes);
+    }
+
+    /**
+     * 待发送的字节数
+     */
+    public synchronized int getBufferedBytes() {
+        return pending.size();
+    }
+
+    private void send(byte[] bytes) throws IOException {
+        sending = true;
+        stats.messages.increment();
+        try {
+            remote.sendText(new String(bytes, StandardCharsets.UTF_8), this::onSent);
+        } catch (RuntimeException e) {
+            // 连接已关闭
+            sending = false;
+            failure = "WebSocket发送失败：" + e.getMessage();
+            throw new IOException(failure, e);
+        }
+    }
+
+    /**
+     * 连接结束后不再发送
+     */
+    @Override
+    public synchronized void close() {
+        if (failure == null) {
+            failure = "WebSocket连接已关闭";
+        }
+        pending.clear();
+    }
+
+    /**
+     * 上一条发送完成（可能在发送线程上同步回调），有待发内容时合并为一条继续发送
+     */
+    private synchronized void onSent(SendResult result) {
+        if (!result.isOK()) {
+            sending = false;
+            pending.clear();
+            failure = "WebSocket发送失败：" + result.getException().getMessage();
+            log.debug(failure);
+            return;
+        }
+        if (pending.size() == 0 || failure != null) {
+            sending = false;
+            return;
+        }
+        byte[] next = pending.toByteArray();
+        pending.clear();
+        try {
+            send(next);
+        } catch (IOException e) {
+            log.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * 所有连接共用的发送统计
+     */
+    public static class Stats {
+
+        /** 发出的消息数 */
+        final LongAdder messages = new LongAdder();
+
+        /** 因上一条未发完而合并的写入次数 */
+        final LongAdder coalesced = new LongAdder();
+
+        /** 待发缓冲超限次数 */
+        final LongAdder overflows = new LongAdder();
+
+        public long getMessages() {
+            return messages.sum();
+        }
+
+        public long getCoalesced() {
+            return coalesced.sum();
+        }
+
+        public long getOverflows() {
+            return overflows.sum();
+        }
+    }
+}
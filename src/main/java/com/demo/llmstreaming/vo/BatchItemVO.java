@@ -0,0 +1,22 @@
+package com.demo.llmstreaming.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 批量请求中的单项
+ */
+@Data
+@ApiModel(description = "批量请求项")
+public class BatchItemVO {
+
+    @ApiModelProperty(value = "调用方自定义ID，作为该项帧的dataId，批内不可重复；不传时自动生成")
+    private String id;
+
+    @ApiModelProperty(value = "提示词", required = true)
+    private String prompt;
+
+    @ApiModelProperty(value = "最大token数，1到llm.api.max-output-tokens")
+    private int maxTokens = 500;
+}
@@ -0,0 +1,27 @@
+package com.demo.llmstreaming.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量流式请求参数
+ */
+@Data
+@ApiModel(description = "批量流式请求参数")
+public class BatchStreamRequestVO {
+
+    @ApiModelProperty(value = "请求项", required = true)
+    private List<BatchItemVO> items;
+
+    @ApiModelProperty(value = "同时请求上游的项数，不超过llm.batch.max-concurrency")
+    private Integer concurrency;
+
+    @ApiModelProperty(value = "缓存控制：no-cache 不读缓存但写入，no-store 不读也不写")
+    private String cacheControl;
+
+    @ApiModelProperty(hidden = true)
+    private String clientId;
+}
@@ -0,0 +1,55 @@
+package com.demo.llmstreaming.vo;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.Data;
+
+/**
+ * 流式请求参数
+ */
+@Data
+@ApiModel(description = "流式请求参数")
+public class StreamRequestVO {
+
+    @ApiModelProperty(value = "提示词", required = true)
+    private String prompt;
+
+    @ApiModelProperty(value = "最大token数，1到llm.api.max-output-tokens")
+    private int maxTokens = 500;
+
+    @ApiModelProperty(value = "是否字符级输出")
+    private boolean charLevel;
+
+    @ApiModelProperty(value = "切分策略：none / codepoint / grapheme / word / sentence / adaptive，指定时覆盖charLevel")
+    private String segmentation;
+
+    @ApiModelProperty(value = "缓存控制：no-cache 不读缓存但写入，no-store 不读也不写")
+    private String cacheControl;
+
+    @ApiModelProperty(value = "会话ID，相同ID的请求共享服务端保存的多轮历史")
+    private String sessionId;
+
+    @ApiModelProperty(value = "帧格式：ndjson / delta / cbor，不传时按Accept请求头协商")
+    private String format;
+
+    @ApiModelProperty(value = "结构化输出：增量解析生成的JSON，每个字段或数组元素结束时追加JSON_FIELD帧")
+    private boolean structured;
+
+    @ApiModelProperty(hidden = true)
+    private String clientId;
+
+    @ApiModelProperty(hidden = true)
+    private String accept;
+
+    @ApiModelProperty(hidden = true)
+    private String acceptEncoding;
+
+    public StreamRequestVO() {
+    }
+
+    public StreamRequestVO(String prompt, int maxTokens, boolean charLevel) {
+        this.prompt = prompt;
+        this.maxTokens = maxTokens;
+        this.charLevel = charLevel;
+    }
+}
@@ -0,0 +1,197 @@
+package com.demo.llmstreaming.service.flight;
+
+import com.demo.llmstreaming.service.MsgCallback;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Flight：加入、回放、离开的顺序，以及回调在锁外执行
+ */
+class FlightTest {
+
+    private SingleFlightRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SingleFlightRegistry();
+        ReflectionTestUtils.setField(registry, "enabled", true);
+    }
+
+    @Test
+    void lateJoinerReplaysThenFollowsLiveChunks() {
+        Recorder first = new Recorder();
+        Flight flight = registry.join("k", first);
+        assertThat(flight.tryStart()).isTrue();
+        flight.msgCallback("a", new StringBuffer("a"), true, false);
+        flight.msgCallback("b", new StringBuffer("ab"), true, false);
+
+        Recorder late = new Recorder();
+        assertThat(registry.join("k", late)).isSameAs(flight);
+        assertThat(flight.tryStart()).isFalse();
+        assertThat(late.events).containsExactly("a", "b");
+
+        flight.msgCallback("c", new StringBuffer("abc"), true, false);
+        flight.msgCallback("", new StringBuffer("abc"), true, true);
+
+        assertThat(first.events).containsExactly("a", "b", "c", "DONE(true):abc");
+        assertThat(late.events).containsExactly("a", "b", "c", "DONE(true):abc");
+        assertThat(flight.getSubscriberCount()).isZero();
+        // 结束后的事件被忽略，相同请求重新发起
+        flight.msgCallback("d", new StringBuffer(), true, false);
+        assertThat(first.events).hasSize(4);
+        assertThat(registry.join("k", new Recorder())).isNotSameAs(flight);
+    }
+
+    @Test
+    void leaveDeliversOneFailedDoneAndLastLeaveCancels() {
+        AtomicInteger cancelled = new AtomicInteger();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Flight flight = registry.join("k", first);
+        flight.tryStart();
+        flight.setCanceller(cancelled::incrementAndGet);
+        registry.join("k", second);
+        flight.msgCallback("a", new StringBuffer("a"), true, false);
+
+        flight.leave(first);
+        flight.leave(first);
+        flight.msgCallback("b", new StringBuffer("ab"), true, false);
+        assertThat(first.events).containsExactly("a", "DONE(false):a");
+        assertThat(second.events).containsExactly("a", "b");
+        assertThat(cancelled).hasValue(0);
+
+        flight.leave(second);
+        assertThat(second.events).containsExactly("a", "b", "DONE(false):ab");
+        assertThat(cancelled).hasValue(1);
+        assertThat(flight.isCancelled()).isTrue();
+        assertThat(registry.join("k", new Recorder())).isNotSameAs(flight);
+    }
+
+    @Test
+    void interruptedSubscribersAreRemovedOnCheck() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Flight flight = registry.join("k", first);
+        flight.tryStart();
+        registry.join("k", second);
+
+        second.interrupted = true;
+        assertThat(flight.isInterrupted()).isFalse();
+        assertThat(flight.getSubscriberCount()).isEqualTo(1);
+        assertThat(second.events).containsExactly("DONE(false):");
+
+        first.interrupted = true;
+        assertThat(flight.isInterrupted()).isTrue();
+    }
+
+    @Test
+    void slowSubscriberDoesNotBlockJoinLeaveOrChecks() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder() {
+            @Override
+            public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+                if ("b".equals(message)) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.msgCallback(message, lines, isSuccess, isDone);
+            }
+        };
+        Flight flight = registry.join("k", slow);
+        flight.tryStart();
+        flight.msgCallback("a", new StringBuffer("a"), true, false);
+        Thread upstream = new Thread(() -> flight.msgCallback("b", new StringBuffer("ab"), true, false));
+        upstream.start();
+        assertThat(entered.await(2, TimeUnit.SECONDS)).isTrue();
+
+        // 上游线程阻塞在慢订阅者的写出上，加入、回放、查询和离开都不用等它
+        Recorder joiner = new Recorder();
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+            assertThat(registry.join("k", joiner)).isSameAs(flight);
+            assertThat(flight.getSubscriberCount()).isEqualTo(2);
+            assertThat(flight.isInterrupted()).isFalse();
+            flight.leave(joiner);
+        });
+        assertThat(joiner.events).containsExactly("a", "b", "DONE(false):ab");
+
+        release.countDown();
+        upstream.join(2000);
+        assertThat(slow.events).containsExactly("a", "b");
+    }
+
+    @Test
+    void concurrentJoinersSeeEveryChunkInOrder() throws Exception {
+        int chunkCount = 20000;
+        Recorder first = new Recorder();
+        Flight flight = registry.join("k", first);
+        flight.tryStart();
+        List<Recorder> joiners = Collections.synchronizedList(new ArrayList<>());
+        Thread upstream = new Thread(() -> {
+            StringBuffer lines = new StringBuffer();
+            for (int i = 0; i < chunkCount; i++) {
+                String chunk = i + ",";
+                lines.append(chunk);
+                flight.msgCallback(chunk, lines, true, false);
+            }
+            flight.msgCallback("", lines, true, true);
+        });
+        upstream.start();
+        // 分布在整个生成过程中加入，回放与实时分片在各自线程上交替到达
+        int joinerCount = 20;
+        for (int i = 0; i < joinerCount && upstream.isAlive(); i++) {
+            while (upstream.isAlive() && flight.getChunkCount() < i * chunkCount / joinerCount) {
+                Thread.yield();
+            }
+            Recorder joiner = new Recorder();
+            if (flight.subscribe(joiner)) {
+                joiners.add(joiner);
+            }
+        }
+        upstream.join();
+
+        assertThat(joiners).isNotEmpty();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            expected.add(i + ",");
+        }
+        for (Recorder joiner : joiners) {
+            assertThat(joiner.events).hasSize(chunkCount + 1);
+            assertThat(joiner.events.subList(0, chunkCount)).isEqualTo(expected);
+            assertThat(joiner.events.get(chunkCount)).startsWith("DONE(true):");
+        }
+    }
+
+    private static class Recorder implements MsgCallback {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        volatile boolean interrupted;
+
+        @Override
+        public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+            events.add(isDone ? "DONE(" + isSuccess + "):" + lines : message);
+        }
+
+        @Override
+        public boolean isInterrupted() {
+            return interrupted;
+        }
+    }
+}
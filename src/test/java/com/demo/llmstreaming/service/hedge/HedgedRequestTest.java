@@ -0,0 +1,165 @@
+package com.demo.llmstreaming.service.hedge;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import com.demo.llmstreaming.service.MsgCallback;
+import com.demo.llmstreaming.service.upstream.UpstreamEndpoint;
+import com.demo.llmstreaming.service.upstream.UpstreamRouter;
+import okhttp3.Call;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * HedgedRequest：首token延迟样本按整个请求从主请求发出计时，与哪一路胜出无关
+ */
+class HedgedRequestTest {
+
+    private static final long DELAY_MS = 60;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private HedgingPolicy policy;
+
+    private UpstreamEndpoint primary;
+
+    private UpstreamEndpoint secondary;
+
+    private final Map<UpstreamEndpoint, MsgCallback> attempts = new ConcurrentHashMap<>();
+
+    private final Map<UpstreamEndpoint, Call> calls = new ConcurrentHashMap<>();
+
+    private final CountDownLatch hedgeLaunched = new CountDownLatch(1);
+
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        primary = endpoint("primary");
+        secondary = endpoint("secondary");
+        UpstreamRouter router = mock(UpstreamRouter.class);
+        when(router.choose(primary, "m")).thenReturn(secondary);
+
+        UpstreamProperties properties = new UpstreamProperties();
+        UpstreamProperties.Hedging hedging = properties.getHedging();
+        hedging.setEnabled(true);
+        hedging.setDelayMs(DELAY_MS);
+        hedging.setMinDelayMs(1);
+        hedging.setMinSamples(1);
+        hedging.setBudgetPercent(100);
+        policy = new HedgingPolicy();
+        ReflectionTestUtils.setField(policy, "properties", properties);
+        ReflectionTestUtils.setField(policy, "upstreamRouter", router);
+        ReflectionTestUtils.setField(policy, "streamScheduler", scheduler);
+        policy.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void winningHedgeIsTimedFromThePrimaryStart() throws InterruptedException {
+        HedgedRequest request = newRequest();
+        request.start(primary);
+        assertThat(hedgeLaunched.await(2, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(40);
+
+        attempts.get(secondary).msgCallback("x", new StringBuffer("x"), true, false);
+
+        assertThat(delivered).containsExactly("x");
+        verify(calls.get(primary)).cancel();
+        // 只按对冲自身计时约为40ms，按整个请求计时不少于对冲延迟加40ms
+        assertThat(samples()).singleElement().satisfies(ms -> assertThat(ms).isGreaterThanOrEqualTo(DELAY_MS + 40));
+        assertThat(policy.currentDelayMs()).isGreaterThanOrEqualTo(DELAY_MS + 40);
+        assertThat(policy.snapshot()).containsEntry("won", 1L);
+    }
+
+    @Test
+    void primaryWinningBeforeTheDelayLaunchesNoHedge() throws InterruptedException {
+        HedgedRequest request = newRequest();
+        request.start(primary);
+        Thread.sleep(20);
+
+        attempts.get(primary).msgCallback("x", new StringBuffer("x"), true, false);
+        attempts.get(primary).msgCallback("", new StringBuffer("x"), true, true);
+        assertThat(hedgeLaunched.await(DELAY_MS * 2, TimeUnit.MILLISECONDS)).isFalse();
+
+        assertThat(delivered).containsExactly("x", "DONE");
+        assertThat(samples()).singleElement().satisfies(ms -> assertThat(ms).isBetween(20L, DELAY_MS));
+        verify(calls.get(primary), never()).cancel();
+    }
+
+    @Test
+    void failureBeforeContentIsNotSampled() throws InterruptedException {
+        HedgedRequest request = newRequest();
+        request.start(primary);
+        assertThat(hedgeLaunched.await(2, TimeUnit.SECONDS)).isTrue();
+
+        // 主请求在出内容前失败，交给仍在进行的对冲
+        attempts.get(primary).msgCallback("", new StringBuffer(), false, true);
+        assertThat(delivered).isEmpty();
+        attempts.get(secondary).msgCallback("", new StringBuffer(), false, true);
+
+        assertThat(delivered).containsExactly("DONE");
+        assertThat(samples()).isEmpty();
+    }
+
+    private HedgedRequest newRequest() {
+        MsgCallback delegate = new MsgCallback() {
+            @Override
+            public void msgCallback(String message, StringBuffer lines, boolean isSuccess, boolean isDone) {
+                delivered.add(isDone ? "DONE" : message);
+            }
+
+            @Override
+            public boolean isInterrupted() {
+                return false;
+            }
+        };
+        return policy.newRequest(delegate, (endpoint, callback) -> {
+            Call call = mock(Call.class);
+            calls.put(endpoint, call);
+            attempts.put(endpoint, callback);
+            if (endpoint == secondary) {
+                hedgeLaunched.countDown();
+            }
+            return call;
+        });
+    }
+
+    private List<Long> samples() {
+        long[] samples = (long[]) ReflectionTestUtils.getField(policy, "samples");
+        int count = (Integer) ReflectionTestUtils.getField(policy, "sampleCount");
+        List<Long> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(samples[i]);
+        }
+        return result;
+    }
+
+    private static UpstreamEndpoint endpoint(String name) {
+        UpstreamEndpoint endpoint = mock(UpstreamEndpoint.class);
+        when(endpoint.getName()).thenReturn(name);
+        when(endpoint.getModel()).thenReturn("m");
+        return endpoint;
+    }
+}
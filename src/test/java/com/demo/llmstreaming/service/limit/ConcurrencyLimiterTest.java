@@ -0,0 +1,205 @@
+package com.demo.llmstreaming.service.limit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * ConcurrencyLimiter：上限的增长与收缩、排队超时、客户端公平份额，以及延迟样本从发出上游调用开始计时
+ */
+class ConcurrencyLimiterTest {
+
+    private ConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = limiter(16, 50, 4);
+    }
+
+    @Test
+    void limitGrowsWhileLatencyStaysAtBaseline() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            round(limit(), 0);
+        }
+        assertThat(limit()).isGreaterThan(16);
+    }
+
+    @Test
+    void limitShrinksWhenLatencyRisesAboveBaseline() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            round(limit(), 0);
+        }
+        int before = limit();
+        round(before, 30);
+        assertThat(limit()).isLessThan(before);
+    }
+
+    @Test
+    void dropBacksOffOnlyAfterTheUpstreamCallWasLaunched() {
+        ConcurrencyLimiter.Permit notLaunched = limiter.acquire("c");
+        notLaunched.onDropped();
+        notLaunched.release();
+        assertThat(limit()).isEqualTo(16);
+
+        ConcurrencyLimiter.Permit launched = limiter.acquire("c");
+        launched.onLaunched();
+        launched.onDropped();
+        launched.release();
+        assertThat(limit()).isEqualTo((int) (16 * 0.9));
+        assertThat(limiter.snapshot()).containsEntry("dropped", 1L);
+    }
+
+    @Test
+    void waitingForQuotaIsNotCountedAsUpstreamLatency() throws InterruptedException {
+        ConcurrencyLimiter.Permit permit = limiter.acquire("c");
+        // 准入后排队等待配额
+        Thread.sleep(40);
+        permit.onLaunched();
+        permit.onFirstToken();
+        permit.release();
+        assertThat((Double) limiter.snapshot().get("longRttMs")).isLessThan(40);
+
+        // 没有发出上游调用（配额排队超时等）时不产生样本
+        ConcurrencyLimiter.Permit rejected = limiter.acquire("c");
+        Thread.sleep(40);
+        rejected.onFirstToken();
+        rejected.release();
+        assertThat((Double) limiter.snapshot().get("longRttMs")).isLessThan(40);
+    }
+
+    @Test
+    void ignoredLatencyIsNotSampled() {
+        ConcurrencyLimiter.Permit permit = limiter.acquire("c");
+        permit.ignoreLatency();
+        permit.onLaunched();
+        permit.onFirstToken();
+        permit.onDropped();
+        permit.release();
+        assertThat(limiter.snapshot()).containsEntry("longRttMs", -1.0).containsEntry("limit", 16);
+    }
+
+    @Test
+    void queuedRequestTimesOutWhenNothingIsReleased() {
+        List<ConcurrencyLimiter.Permit> permits = fill(16);
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> limiter.acquire("late"))
+            .isInstanceOfSatisfying(AdmissionRejectedException.class, e -> {
+                assertThat(e.getStatus()).isEqualTo(503);
+                assertThat(e.getMessage()).contains("排队超时");
+            });
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(45);
+        assertThat(limiter.snapshot()).containsEntry("shedTimeout", 1L).containsEntry("queueDepth", 0);
+        assertThat(limiter.tryAcquire("late")).isNull();
+        permits.forEach(ConcurrencyLimiter.Permit::release);
+    }
+
+    @Test
+    void queuedRequestIsAdmittedWhenAPermitIsReleased() throws Exception {
+        limiter = limiter(16, 2000, 4);
+        List<ConcurrencyLimiter.Permit> permits = fill(16);
+        CompletableFuture<ConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(() -> limiter.acquire("late"));
+        while ((Integer) limiter.snapshot().get("queueDepth") == 0) {
+            Thread.sleep(1);
+        }
+        permits.get(0).release();
+        ConcurrencyLimiter.Permit admitted = waiter.get(2, TimeUnit.SECONDS);
+        assertThat(limiter.snapshot()).containsEntry("inFlight", 16).containsEntry("queued", 1L);
+        admitted.release();
+        // 重复释放无效
+        permits.get(0).release();
+        assertThat(limiter.snapshot()).containsEntry("inFlight", 15);
+    }
+
+    @Test
+    void fullQueueIsRejectedImmediately() throws Exception {
+        limiter = limiter(16, 2000, 1);
+        List<ConcurrencyLimiter.Permit> permits = fill(16);
+        CompletableFuture<ConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(() -> limiter.acquire("w"));
+        while ((Integer) limiter.snapshot().get("queueDepth") == 0) {
+            Thread.sleep(1);
+        }
+        assertThatThrownBy(() -> limiter.acquire("late"))
+            .isInstanceOfSatisfying(AdmissionRejectedException.class, e -> {
+                assertThat(e.getStatus()).isEqualTo(503);
+                assertThat(e.getMessage()).contains("排队已满");
+            });
+        permits.get(0).release();
+        waiter.get(2, TimeUnit.SECONDS).release();
+    }
+
+    @Test
+    void clientOverItsFairShareIsRejectedWhileOthersAreAdmitted() {
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        // 上限一半以内不限份额
+        for (int i = 0; i < 9; i++) {
+            permits.add(limiter.acquire("heavy"));
+        }
+        permits.add(limiter.acquire("light"));
+        // 两个活跃客户端各占 16/2 = 8
+        assertThatThrownBy(() -> limiter.acquire("heavy"))
+            .isInstanceOfSatisfying(AdmissionRejectedException.class, e -> {
+                assertThat(e.getStatus()).isEqualTo(429);
+                assertThat(e.getRetryAfterSeconds()).isEqualTo(1);
+            });
+        assertThat(limiter.tryAcquire("heavy")).isNull();
+        permits.add(limiter.acquire("light"));
+        permits.add(limiter.acquire("third"));
+        assertThat(limiter.snapshot()).containsEntry("shedOverShare", 1L).containsEntry("activeClients", 3);
+        permits.forEach(ConcurrencyLimiter.Permit::release);
+        assertThat(limiter.snapshot()).containsEntry("inFlight", 0).containsEntry("activeClients", 0);
+    }
+
+    /**
+     * 占满当前上限后按给定延迟完成所有请求
+     */
+    private void round(int count, long latencyMs) throws InterruptedException {
+        List<ConcurrencyLimiter.Permit> permits = fill(count);
+        for (ConcurrencyLimiter.Permit permit : permits) {
+            permit.onLaunched();
+        }
+        if (latencyMs > 0) {
+            Thread.sleep(latencyMs);
+        }
+        for (ConcurrencyLimiter.Permit permit : permits) {
+            permit.onFirstToken();
+            permit.release();
+        }
+    }
+
+    private List<ConcurrencyLimiter.Permit> fill(int count) {
+        List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            permits.add(limiter.acquire("c" + i));
+        }
+        return permits;
+    }
+
+    private int limit() {
+        return (Integer) limiter.snapshot().get("limit");
+    }
+
+    private static ConcurrencyLimiter limiter(int initialLimit, long maxWaitMs, int queueSize) {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        ReflectionTestUtils.setField(limiter, "initialLimit", initialLimit);
+        ReflectionTestUtils.setField(limiter, "minLimit", 8);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 1024);
+        ReflectionTestUtils.setField(limiter, "smoothing", 0.2);
+        ReflectionTestUtils.setField(limiter, "rttTolerance", 1.5);
+        ReflectionTestUtils.setField(limiter, "longWindow", 600);
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.9);
+        ReflectionTestUtils.setField(limiter, "queueSize", queueSize);
+        ReflectionTestUtils.setField(limiter, "maxWaitMs", maxWaitMs);
+        ReflectionTestUtils.setField(limiter, "retryAfterSeconds", 1L);
+        limiter.init();
+        return limiter;
+    }
+}
@@ -0,0 +1,127 @@
+package com.demo.llmstreaming.service.pacing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * CharPacer：周期任务只取内容，写出在写出线程上执行，一条卡住的流不拖慢其他流
+ */
+class CharPacerTest {
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private ThreadPoolTaskExecutor writeExecutor;
+
+    private CharPacer pacer;
+
+    @BeforeEach
+    void setUp() {
+        // 单个调度线程：周期任务一旦阻塞在写出上，所有流都会停下
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.initialize();
+        writeExecutor = new ThreadPoolTaskExecutor();
+        writeExecutor.setCorePoolSize(2);
+        writeExecutor.setMaxPoolSize(4);
+        writeExecutor.setQueueCapacity(0);
+        writeExecutor.initialize();
+
+        pacer = new CharPacer();
+        ReflectionTestUtils.setField(pacer, "streamScheduler", scheduler);
+        ReflectionTestUtils.setField(pacer, "streamWriteExecutor", writeExecutor);
+        ReflectionTestUtils.setField(pacer, "charsPerSecond", 2000.0);
+        ReflectionTestUtils.setField(pacer, "tickMs", 5L);
+        ReflectionTestUtils.setField(pacer, "backlogThreshold", 100);
+        ReflectionTestUtils.setField(pacer, "maxSpeedup", 8.0);
+        ReflectionTestUtils.setField(pacer, "defaultSegmentation", "grapheme");
+        pacer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        pacer.stop();
+        scheduler.shutdown();
+        writeExecutor.shutdown();
+    }
+
+    @Test
+    void blockedStreamDoesNotDelayOthers() throws InterruptedException {
+        CountDownLatch blockedEntered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StringBuffer blockedOutput = new StringBuffer();
+        PacedStream blocked = pacer.register(Segmentation.CODEPOINT, text -> {
+            blockedEntered.countDown();
+            // 模拟客户端不读取，写出一直阻塞
+            release.await();
+            blockedOutput.append(text);
+        });
+        StringBuffer fastOutput = new StringBuffer();
+        PacedStream fast = pacer.register(Segmentation.CODEPOINT, fastOutput::append);
+
+        blocked.offer("卡住的流");
+        assertThat(blockedEntered.await(2, TimeUnit.SECONDS)).isTrue();
+
+        CountDownLatch fastDone = new CountDownLatch(1);
+        fast.offer("正常的流👍不受影响");
+        fast.finish(fastDone::countDown);
+        assertThat(fastDone.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(fastOutput.toString()).isEqualTo("正常的流👍不受影响");
+        assertThat((Long) pacer.snapshot().get("skippedBusy")).isPositive();
+
+        // 卡住的流恢复后按原顺序补齐
+        CountDownLatch blockedDone = new CountDownLatch(1);
+        blocked.offer("，恢复");
+        blocked.finish(blockedDone::countDown);
+        release.countDown();
+        assertThat(blockedDone.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(blockedOutput.toString()).isEqualTo("卡住的流，恢复");
+        assertThat(pacer.getActiveStreams()).isZero();
+    }
+
+    @Test
+    void contentIsKeptWhenWriteThreadsAreExhausted() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch allBlocked = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            PacedStream stream = pacer.register(Segmentation.CODEPOINT, text -> {
+                allBlocked.countDown();
+                release.await();
+            });
+            stream.offer("x");
+        }
+        assertThat(allBlocked.await(2, TimeUnit.SECONDS)).isTrue();
+
+        // 写出线程全部被占用，取出的内容等到有空闲线程后再下发
+        StringBuffer output = new StringBuffer();
+        CountDownLatch done = new CountDownLatch(1);
+        PacedStream stream = pacer.register(Segmentation.GRAPHEME, output::append);
+        stream.offer("等待空闲线程");
+        stream.finish(done::countDown);
+        assertThat(done.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+        release.countDown();
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(output.toString()).isEqualTo("等待空闲线程");
+    }
+
+    @Test
+    void writeFailureCancelsTheStreamAndRunsCompletion() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        PacedStream stream = pacer.register(Segmentation.CODEPOINT, text -> {
+            throw new IllegalStateException("下游已断开");
+        });
+        stream.offer("abc");
+        stream.finish(done::countDown);
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(stream.isCancelled()).isTrue();
+    }
+}
@@ -0,0 +1,126 @@
+package com.demo.llmstreaming.service.pacing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Segmenters：代理对、ZWJ字位簇、中日韩短语的切分边界，以及上游分片位置不影响切分结果
+ */
+class SegmentersTest {
+
+    private static final String FAMILY = "👨‍👩‍👧";
+
+    private static final String THUMBS_UP_TONE = "👍🏽";
+
+    private static final String FLAGS = "🇨🇳🇺🇸";
+
+    @Test
+    void codepointNeverSplitsASurrogatePair() {
+        assertThat(split(Segmenters.CODEPOINT, "a👍中")).containsExactly("a", "👍", "中");
+        // 缓冲末尾只有高位代理时等待低位代理
+        assertThat(Segmenters.CODEPOINT.next("a\uD83D", 1, 2, false)).isEqualTo(-1);
+        assertThat(Segmenters.CODEPOINT.next("a\uD83D", 1, 2, true)).isEqualTo(2);
+        // 孤立的低位代理单独成为一个单元
+        assertThat(split(Segmenters.CODEPOINT, "\uDC4Dx")).containsExactly("\uDC4D", "x");
+    }
+
+    @Test
+    void graphemeKeepsEmojiSequencesTogether() {
+        assertThat(split(Segmenters.GRAPHEME, "a" + FAMILY + "b" + THUMBS_UP_TONE + FLAGS + "❤️\r\nx"))
+            .containsExactly("a", FAMILY, "b", THUMBS_UP_TONE, "🇨🇳", "🇺🇸", "❤️", "\r\n", "x");
+        assertThat(split(Segmenters.GRAPHEME, "é̂中")).containsExactly("é̂", "中");
+    }
+
+    @Test
+    void graphemeWaitsWhenTheBufferEndsInsideACluster() {
+        // 末尾是emoji，后面可能还有肤色修饰或ZWJ
+        assertThat(Segmenters.GRAPHEME.next("👍", 0, 2, false)).isEqualTo(-1);
+        // 末尾是ZWJ，后面一定还有被连接的码点
+        String joining = "👨‍";
+        assertThat(Segmenters.GRAPHEME.next(joining, 0, joining.length(), false)).isEqualTo(-1);
+        // 只有一个区域指示符，国旗还不完整
+        assertThat(Segmenters.GRAPHEME.next("🇨", 0, 2, false)).isEqualTo(-1);
+        // 普通文字不等待
+        assertThat(Segmenters.GRAPHEME.next("中", 0, 1, false)).isEqualTo(1);
+    }
+
+    @Test
+    void wordGroupsCjkRunsAndLatinWordsWithTrailingPunctuation() {
+        assertThat(split(Segmenters.WORD, "你好世界再见")).containsExactly("你好世界", "再见");
+        assertThat(split(Segmenters.WORD, "Hello, world! 中文")).containsExactly("Hello, ", "world! ", "中文");
+        assertThat(split(Segmenters.WORD, "GPT4模型很好用。")).containsExactly("GPT4", "模型很好", "用。");
+        assertThat(split(Segmenters.WORD, "ひらがなカタカナ한국어")).containsExactly("ひらがな", "カタカナ", "한국어");
+        // emoji按后随符号并入前一单元，ZWJ序列不被拆开
+        assertThat(split(Segmenters.WORD, "好" + FAMILY + "棒")).containsExactly("好" + FAMILY, "棒");
+
+        StringBuilder longWord = new StringBuilder();
+        for (int i = 0; i < Segmenters.MAX_WORD_CHARS + 8; i++) {
+            longWord.append('x');
+        }
+        assertThat(split(Segmenters.WORD, longWord.toString())).extracting(String::length)
+            .containsExactly(Segmenters.MAX_WORD_CHARS, 8);
+    }
+
+    @Test
+    void wordWaitsForAnIncompleteWordOrPhrase() {
+        assertThat(Segmenters.WORD.next("Hel", 0, 3, false)).isEqualTo(-1);
+        assertThat(Segmenters.WORD.next("你好", 0, 2, false)).isEqualTo(-1);
+        assertThat(Segmenters.WORD.next("你好世界", 0, 4, false)).isEqualTo(-1);
+        assertThat(Segmenters.WORD.next("你好世界再", 0, 5, false)).isEqualTo(4);
+    }
+
+    @Test
+    void sentenceEndsAtTerminalPunctuationAndAbsorbsClosingQuotes() {
+        assertThat(split(Segmenters.SENTENCE, "他说：“好。”然后走了。Pi is 3.14 ok. Done!"))
+            .containsExactly("他说：“好。”", "然后走了。", "Pi is 3.14 ok. ", "Done!");
+        // 英文句点后面还没有内容时无法判断是否句末
+        assertThat(Segmenters.SENTENCE.next("ok.", 0, 3, false)).isEqualTo(-1);
+    }
+
+    @Test
+    void upstreamChunkBoundariesDoNotChangeTheUnits() {
+        String text = "开始" + FAMILY + "Hello, world! 中文短语很长很长。" + THUMBS_UP_TONE + FLAGS
+            + "他说：“好。”Pi is 3.14 ok.\n结尾👍";
+        for (Segmentation segmentation : new Segmentation[]{
+                Segmentation.CODEPOINT, Segmentation.GRAPHEME, Segmentation.WORD, Segmentation.SENTENCE}) {
+            List<String> whole = split(segmentation.segmenter(), text);
+            assertThat(String.join("", whole)).isEqualTo(text);
+            for (int chunk = 1; chunk <= 5; chunk++) {
+                assertThat(splitStreaming(segmentation.segmenter(), text, chunk))
+                    .as("%s，每片%d个char", segmentation, chunk)
+                    .isEqualTo(whole);
+            }
+        }
+    }
+
+    /**
+     * 内容已全部到达时切分
+     */
+    private static List<String> split(Segmenter segmenter, String text) {
+        return splitStreaming(segmenter, text, text.length());
+    }
+
+    /**
+     * 按固定长度的char分片到达，每片之后切出能确定的单元，结束后切出剩余内容
+     */
+    private static List<String> splitStreaming(Segmenter segmenter, String text, int chunk) {
+        List<String> units = new ArrayList<>();
+        StringBuilder buffer = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += chunk) {
+            buffer.append(text, i, Math.min(text.length(), i + chunk));
+            boolean finished = buffer.length() == text.length();
+            int next;
+            while (start < buffer.length() && (next = segmenter.next(buffer, start, buffer.length(), finished)) > 0) {
+                units.add(buffer.substring(start, next));
+                start = next;
+            }
+        }
+        assertThat(start).isEqualTo(text.length());
+        return units;
+    }
+}
@@ -0,0 +1,198 @@
+package com.demo.llmstreaming.service.quota;
+
+import com.demo.llmstreaming.config.UpstreamProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * TokenBucket与KeyQuota：补充与透支、交互优先和批量预留、同优先级按到达顺序、提升优先级、排队超时和限流暂停
+ */
+class KeyQuotaTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private UpstreamProperties.Quota config;
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        // 每分钟600个token，容量为一分钟的量，批量请求预留一半；补充速率每秒10个，测试期间可忽略
+        config = new UpstreamProperties.Quota();
+        config.setSafetyRatio(1.0);
+        config.setBurstSeconds(60);
+        config.setBatchReserveRatio(0.5);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void bucketRefillsAtTheRateUpToCapacityAndMayGoNegative() {
+        TokenBucket bucket = new TokenBucket(60, 10, 0);
+        bucket.take(15);
+        assertThat(bucket.getLevel()).isEqualTo(-5);
+        assertThat(bucket.nanosUntil(1)).isEqualTo(6 * SECOND);
+
+        bucket.refill(2 * SECOND);
+        assertThat(bucket.getLevel()).isCloseTo(-3, within(1e-9));
+        // 时钟回退不补充
+        bucket.refill(SECOND);
+        assertThat(bucket.getLevel()).isCloseTo(-3, within(1e-9));
+        bucket.empty();
+        assertThat(bucket.getLevel()).isCloseTo(-3, within(1e-9));
+
+        bucket.refill(100 * SECOND);
+        assertThat(bucket.getLevel()).isEqualTo(10);
+        assertThat(bucket.nanosUntil(10)).isZero();
+        bucket.give(5);
+        assertThat(bucket.getLevel()).isEqualTo(10);
+        bucket.empty();
+        assertThat(bucket.getLevel()).isZero();
+    }
+
+    @Test
+    void queuedTicketsAreGrantedInArrivalOrderWithInteractiveFirst() {
+        KeyQuota quota = quota(3);
+        QuotaTicket first = submit(quota, "first", Priority.INTERACTIVE, 500);
+        // 余量100：大申请排队，后到的小申请虽然放得下也排在它后面
+        submit(quota, "large", Priority.INTERACTIVE, 300);
+        submit(quota, "small", Priority.INTERACTIVE, 10);
+        // 有交互请求排队时批量请求不放行
+        submit(quota, "batch", Priority.BATCH, 10);
+        assertThat(events).containsExactly("first");
+        assertThat(quota.snapshot()).containsEntry("interactiveQueued", 2).containsEntry("batchQueued", 1);
+
+        // 实际用量少于预估，退还400：交互请求按顺序放行，剩余190不够批量请求的10+预留300
+        first.complete(100);
+        assertThat(events).containsExactly("first", "large", "small");
+        assertThat(quota.snapshot()).containsEntry("batchQueued", 1).containsEntry("actualTokens", 100L);
+        assertThat(tokensAvailable(quota)).isBetween(190.0, 192.0);
+    }
+
+    @Test
+    void promotedBatchTicketNoLongerNeedsTheReserve() {
+        KeyQuota quota = quota(2);
+        submit(quota, "interactive", Priority.INTERACTIVE, 400);
+        QuotaTicket batch = submit(quota, "batch", Priority.BATCH, 100);
+        assertThat(events).containsExactly("interactive");
+        assertThat(quota.hasCapacity(Priority.INTERACTIVE, 100)).isTrue();
+        assertThat(quota.hasCapacity(Priority.BATCH, 100)).isFalse();
+
+        // 被交互请求共享后按交互优先级放行，不再要求预留
+        batch.promote();
+        assertThat(events).containsExactly("interactive", "batch");
+        assertThat(batch.getPriority()).isEqualTo(Priority.INTERACTIVE);
+        assertThat(quota.snapshot()).containsEntry("promoted", 1L).containsEntry("grantedInteractive", 2L)
+            .containsEntry("grantedBatch", 0L);
+        // 已放行后重复提升无效
+        batch.promote();
+        assertThat(quota.snapshot()).containsEntry("promoted", 1L);
+    }
+
+    @Test
+    void chargeAndUnderestimatesOverdrawTheBucket() {
+        KeyQuota quota = quota(2);
+        // 预估超过容量的申请在桶满时放行
+        QuotaTicket huge = submit(quota, "huge", Priority.INTERACTIVE, 900);
+        assertThat(events).containsExactly("huge");
+        assertThat(tokensAvailable(quota)).isBetween(-300.0, -299.0);
+        huge.complete(1000);
+        assertThat(tokensAvailable(quota)).isBetween(-400.0, -399.0);
+        // 只结算一次
+        huge.complete(0);
+        assertThat(tokensAvailable(quota)).isBetween(-400.0, -399.0);
+
+        QuotaTicket charged = new QuotaTicket(quota, Priority.INTERACTIVE, 100);
+        quota.charge(charged);
+        assertThat(tokensAvailable(quota)).isBetween(-500.0, -499.0);
+        assertThat(quota.hasCapacity(Priority.INTERACTIVE, 1)).isFalse();
+    }
+
+    @Test
+    void cancellingTheQueueHeadLetsTheNextTicketThrough() {
+        KeyQuota quota = quota(2);
+        submit(quota, "first", Priority.INTERACTIVE, 550);
+        QuotaTicket large = submit(quota, "large", Priority.INTERACTIVE, 300);
+        submit(quota, "small", Priority.INTERACTIVE, 10);
+        assertThat(events).containsExactly("first");
+
+        large.cancel();
+        assertThat(events).containsExactly("first", "small");
+        // 提交前取消的申请不回调
+        QuotaTicket cancelled = new QuotaTicket(quota, Priority.INTERACTIVE, 1);
+        cancelled.cancel();
+        quota.submit(cancelled, () -> events.add("cancelled"), reason -> events.add("cancelled:" + reason));
+        assertThat(events).containsExactly("first", "small");
+    }
+
+    @Test
+    void fullQueueAndWaitTimeoutAreRejected() throws InterruptedException {
+        config.setInteractiveMaxWaitMs(50);
+        KeyQuota quota = quota(2);
+        quota.charge(new QuotaTicket(quota, Priority.INTERACTIVE, 600));
+        CountDownLatch timedOut = new CountDownLatch(2);
+        for (String name : new String[]{"a", "b", "c"}) {
+            quota.submit(new QuotaTicket(quota, Priority.INTERACTIVE, 100), () -> events.add(name), reason -> {
+                events.add(name + ":" + reason);
+                if (reason.contains("超时")) {
+                    timedOut.countDown();
+                }
+            });
+        }
+        assertThat(events).containsExactly("c:上游配额排队已满");
+        assertThat(timedOut.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(events).containsExactly("c:上游配额排队已满", "a:等待上游配额超时", "b:等待上游配额超时");
+        assertThat(quota.snapshot()).containsEntry("rejected", 3L).containsEntry("interactiveQueued", 0);
+    }
+
+    @Test
+    void throttlingPausesGrantsUntilTheBackoffElapses() throws InterruptedException {
+        KeyQuota quota = quota(2);
+        quota.throttled(100);
+        assertThat(tokensAvailable(quota)).isBetween(0.0, 1.0);
+        QuotaTicket refund = new QuotaTicket(quota, Priority.INTERACTIVE, 600);
+        quota.charge(refund);
+        refund.complete(0);
+
+        CountDownLatch granted = new CountDownLatch(1);
+        long start = System.nanoTime();
+        quota.submit(new QuotaTicket(quota, Priority.INTERACTIVE, 10), granted::countDown, reason -> events.add(reason));
+        assertThat(granted.getCount()).isEqualTo(1);
+        assertThat(granted.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(80);
+        assertThat(quota.snapshot()).containsEntry("throttled", 1L).containsEntry("delayed", 1L);
+    }
+
+    private KeyQuota quota(int maxQueued) {
+        config.setMaxQueued(maxQueued);
+        return new KeyQuota("test", 0, 600, config, scheduler);
+    }
+
+    private QuotaTicket submit(KeyQuota quota, String name, Priority priority, int estimated) {
+        QuotaTicket ticket = new QuotaTicket(quota, priority, estimated);
+        ticket.submit(() -> events.add(name), reason -> events.add(name + ":" + reason));
+        return ticket;
+    }
+
+    private static double tokensAvailable(KeyQuota quota) {
+        return (Double) quota.snapshot().get("tokensAvailable");
+    }
+}
@@ -0,0 +1,188 @@
+package com.demo.llmstreaming.service.resume;
+
+import com.demo.llmstreaming.service.StreamService;
+import com.demo.llmstreaming.service.writer.FrameBuffer;
+import com.demo.llmstreaming.service.writer.FrameEncoder;
+import com.demo.llmstreaming.service.writer.FrameSink;
+import com.demo.llmstreaming.service.writer.FrameWriterFactory;
+import com.demo.llmstreaming.service.writer.FrameWriterStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ReplayBuffer：按容量从最旧的帧淘汰；续传所需的帧已淘汰或流已中止时返回410
+ */
+class ReplayBufferTest {
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private FrameWriterFactory frameWriterFactory;
+
+    private ResumeRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        frameWriterFactory = new FrameWriterFactory();
+        ReflectionTestUtils.setField(frameWriterFactory, "streamScheduler", scheduler);
+        ReflectionTestUtils.setField(frameWriterFactory, "streamWriteExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(frameWriterFactory, "stats", new FrameWriterStats());
+        ReflectionTestUtils.setField(frameWriterFactory, "flushWindowMs", 0L);
+        ReflectionTestUtils.setField(frameWriterFactory, "flushBytes", 4096);
+        ReflectionTestUtils.setField(frameWriterFactory, "compressionEnabled", false);
+
+        registry = new ResumeRegistry();
+        ReflectionTestUtils.setField(registry, "enabled", true);
+        ReflectionTestUtils.setField(registry, "maxStreamBytes", 1024);
+        ReflectionTestUtils.setField(registry, "maxTotalBytes", 1L << 20);
+        ReflectionTestUtils.setField(registry, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(registry, "detachGraceMs", 60000L);
+        ReflectionTestUtils.setField(registry, "asyncTimeout", 60000L);
+        ReflectionTestUtils.setField(registry, "streamScheduler", scheduler);
+        registry.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void oldestFramesAreEvictedPastTheCap() {
+        ReplayBuffer buffer = new ReplayBuffer(100);
+        for (int i = 0; i < 5; i++) {
+            assertThat(buffer.append(frame(i, 30))).isEqualTo(i);
+        }
+        // 3帧共90字节，第4帧放不下时淘汰最旧的
+        assertThat(buffer.firstSequence()).isEqualTo(2);
+        assertThat(buffer.nextSequence()).isEqualTo(5);
+        for (int i = 2; i < 5; i++) {
+            assertThat(read(buffer, i)).isEqualTo(content(i, 30));
+        }
+
+        // 多次整理、扩容后偏移仍然正确，且只淘汰放不下的帧
+        for (int i = 5; i < 100; i++) {
+            buffer.append(frame(i, length(i)));
+            int first = buffer.firstSequence();
+            int total = 0;
+            for (int s = first; s <= i; s++) {
+                assertThat(read(buffer, s)).isEqualTo(content(s, length(s)));
+                total += buffer.length(s);
+            }
+            assertThat(total).isLessThanOrEqualTo(100);
+            assertThat(total + length(first - 1)).isGreaterThan(100);
+        }
+    }
+
+    @Test
+    void newestFrameIsKeptEvenAboveTheCap() {
+        ReplayBuffer buffer = new ReplayBuffer(64);
+        buffer.append(frame(0, 10));
+        buffer.append(frame(1, 200));
+        assertThat(buffer.firstSequence()).isEqualTo(1);
+        assertThat(read(buffer, 1)).isEqualTo(content(1, 200));
+
+        buffer.append(frame(2, 10));
+        assertThat(buffer.firstSequence()).isEqualTo(2);
+        buffer.trim();
+        assertThat(read(buffer, 2)).isEqualTo(content(2, 10));
+        assertThat(buffer.footprint()).isEqualTo(10 + 4);
+    }
+
+    @Test
+    void attachReplaysRetainedFramesAndRejectsEvictedOnes() {
+        ResumableStream stream = registry.open(new FrameEncoder("d1"), sink(new ByteArrayOutputStream()), new ResponseBodyEmitter());
+        for (int i = 0; i < 40; i++) {
+            stream.writeData("第" + i + "段内容", false);
+        }
+        int first = replay(stream).firstSequence();
+        assertThat(first).isPositive();
+
+        ByteArrayOutputStream resumed = new ByteArrayOutputStream();
+        assertThat(stream.attach(sink(resumed), new ResponseBodyEmitter(), first)).isEqualTo(ResumableStream.AttachResult.ATTACHED);
+        String replayed = new String(resumed.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(replayed).startsWith("{\"dataId\":\"d1\"").contains("第39段内容", "\"sequence\":" + first + "}")
+            .doesNotContain("\"sequence\":" + (first - 1) + "}");
+        assertThat(stream.attach(sink(new ByteArrayOutputStream()), new ResponseBodyEmitter(), first - 1))
+            .isEqualTo(ResumableStream.AttachResult.EXPIRED);
+
+        // 登记表按总容量淘汰后不再保留帧，任何位置都无法续传
+        stream.evicted();
+        assertThat(stream.attach(sink(new ByteArrayOutputStream()), new ResponseBodyEmitter(), first))
+            .isEqualTo(ResumableStream.AttachResult.EXPIRED);
+        stream.abandon();
+        assertThat(stream.attach(sink(new ByteArrayOutputStream()), new ResponseBodyEmitter(), first))
+            .isEqualTo(ResumableStream.AttachResult.ABANDONED);
+    }
+
+    @Test
+    void resumeAnswers410ForEvictedFramesAnd404ForUnknownStreams() {
+        StreamService streamService = new StreamService();
+        ReflectionTestUtils.setField(streamService, "resumeRegistry", registry);
+        ReflectionTestUtils.setField(streamService, "frameWriterFactory", frameWriterFactory);
+        ResumableStream stream = registry.open(new FrameEncoder("d1"), sink(new ByteArrayOutputStream()), new ResponseBodyEmitter());
+        for (int i = 0; i < 40; i++) {
+            stream.writeData("第" + i + "段内容", false);
+        }
+        int first = replay(stream).firstSequence();
+
+        MockHttpServletResponse gone = new MockHttpServletResponse();
+        streamService.resume("d1", first - 2, null, null, gone);
+        assertThat(gone.getStatus()).isEqualTo(410);
+        assertThat(gone.getHeader("X-Data-Id")).isEqualTo("d1");
+
+        MockHttpServletResponse missing = new MockHttpServletResponse();
+        streamService.resume("unknown", -1, null, null, missing);
+        assertThat(missing.getStatus()).isEqualTo(404);
+
+        MockHttpServletResponse ok = new MockHttpServletResponse();
+        streamService.resume("d1", first - 1, null, null, ok);
+        assertThat(ok.getStatus()).isEqualTo(200);
+        assertThat(registry.snapshot()).containsEntry("expired", 1L).containsEntry("misses", 1L).containsEntry("resumed", 1L);
+    }
+
+    /**
+     * 前5帧各30字节，之后长度在10~29之间变化
+     */
+    private static int length(int sequence) {
+        return sequence < 5 ? 30 : 10 + sequence % 20;
+    }
+
+    private FrameSink sink(ByteArrayOutputStream out) {
+        return frameWriterFactory.createSink(out::write);
+    }
+
+    private static ReplayBuffer replay(ResumableStream stream) {
+        return (ReplayBuffer) ReflectionTestUtils.getField(stream, "replay");
+    }
+
+    private static FrameBuffer frame(int sequence, int length) {
+        FrameBuffer frame = new FrameBuffer(length);
+        frame.write(content(sequence, length));
+        return frame;
+    }
+
+    private static byte[] content(int sequence, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) ('a' + sequence % 26));
+        return bytes;
+    }
+
+    private static byte[] read(ReplayBuffer buffer, int sequence) {
+        int offset = buffer.offset(sequence);
+        return Arrays.copyOfRange(buffer.array(), offset, offset + buffer.length(sequence));
+    }
+}
@@ -0,0 +1,61 @@
+package com.demo.llmstreaming.service.session;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * SessionStore：会话按（客户端标识，会话ID）隔离
+ */
+class SessionStoreTest {
+
+    private SessionStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new SessionStore();
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "contextTokens", 4096);
+        ReflectionTestUtils.setField(store, "compactRatio", 0.6);
+        ReflectionTestUtils.setField(store, "policy", "summary");
+        ReflectionTestUtils.setField(store, "summaryTokens", 512);
+        ReflectionTestUtils.setField(store, "summaryCharsPerMessage", 80);
+        ReflectionTestUtils.setField(store, "systemPrompt", "");
+        ReflectionTestUtils.setField(store, "idleSeconds", 1800L);
+        ReflectionTestUtils.setField(store, "maxBytes", 1L << 20);
+        store.init();
+    }
+
+    @Test
+    void sameSessionIdFromAnotherClientIsIndependent() {
+        ChatSession owner = store.getOrCreate("key:aaaa", "s1");
+        ChatMessage question = ChatMessage.user("我的密码提示是什么");
+        owner.assemble(question);
+        owner.commit(question, "是你的生日");
+        store.updated(owner);
+
+        ChatSession other = store.getOrCreate("10.0.0.2", "s1");
+        assertThat(other).isNotSameAs(owner);
+        List<ChatMessage> messages = other.assemble(ChatMessage.user("继续"));
+        assertThat(messages).hasSize(1);
+
+        assertThat(store.getOrCreate("key:aaaa", "s1")).isSameAs(owner);
+        assertThat(owner.assemble(ChatMessage.user("继续"))).hasSize(3);
+    }
+
+    @Test
+    void getAndRemoveOnlySeeTheCallersSession() {
+        ChatSession owner = store.getOrCreate("key:aaaa", "s1");
+
+        assertThat(store.get("key:bbbb", "s1")).isNull();
+        store.remove("key:bbbb", "s1");
+        assertThat(store.get("key:aaaa", "s1")).isSameAs(owner);
+
+        store.remove("key:aaaa", "s1");
+        assertThat(store.get("key:aaaa", "s1")).isNull();
+    }
+}
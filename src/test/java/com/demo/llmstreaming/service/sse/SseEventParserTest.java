@@ -0,0 +1,228 @@
+package com.demo.llmstreaming.service.sse;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * SseEventParser：上游数据按任意字节边界到达（含\r\n、转义和多字节UTF-8被拆开）时，解析结果与一次到达相同
+ */
+class SseEventParserTest {
+
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 5, 7, 64, Integer.MAX_VALUE};
+
+    @Test
+    void qianfanAndOpenAiEventsWithCrlf() throws IOException {
+        String stream = ": keep-alive\r\n"
+                + "event: message\r\nid: 1\r\n"
+                + "data: {\"id\":\"as-1\",\"result\":\"你好\",\"is_end\":false}\r\n\r\n"
+                + "data:{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"world\"}}]}\r\n\r\n"
+                + "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}\r\n\r\n"
+                + "data: [DONE]\r\n\r\n";
+        assertAllChunkings(stream, "CONTENT:你好", "CONTENT:world", "DONE");
+    }
+
+    @Test
+    void escapesAndMultiByteCharactersSplitAcrossReads() throws IOException {
+        String stream = "data: {\"result\":\"a\\\"b\\\\c\\n\\u4e2d\\ud83d\\ude00\"}\n\n"
+                + "data: {\"result\":\"中文😀é\"}\n\n";
+        assertAllChunkings(stream, "CONTENT:a\"b\\c\n中😀", "CONTENT:中文😀é");
+    }
+
+    @Test
+    void jsonSplitAcrossDataLinesIsJoined() throws IOException {
+        String stream = "data: {\"choices\":[{\"delta\":\n"
+                + "data: {\"content\":\"ab\"}}]}\n\n"
+                + "data: {\"result\":\"c\"}\n\n";
+        assertAllChunkings(stream, "CONTENT:ab", "CONTENT:c");
+    }
+
+    @Test
+    void nestedValuesAreSkipped() throws IOException {
+        String stream = "data: {\"meta\":{\"a\":[1,[2,{\"b\":\"}]\"}]],\"c\":null},\"choices\":"
+                + "[{\"delta\":{\"tool\":[{}],\"content\":\"x\"}},{\"delta\":{\"content\":\"ignored\"}}]}\n\n";
+        assertAllChunkings(stream, "CONTENT:x");
+    }
+
+    @Test
+    void errorsAndInvalidLines() throws IOException {
+        String stream = "{\"error\":{\"code\":429,\"message\":\"busy\"}}\n"
+                + "data: {\"result\":\"a\",,}\n"
+                + "data: {\"result\":\"b\"}\n"
+                + "<html>bad gateway</html>\n";
+        assertAllChunkings(stream, "ERROR:429/busy", "INVALID", "CONTENT:b", "RAW:<html>bad gateway</html>");
+    }
+
+    @Test
+    void usagePrefersTotalTokens() throws IOException {
+        SseEventParser parser = parser("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":4}}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getUsageTokens()).isEqualTo(7);
+
+        parser = parser("data: {\"usage\":{\"prompt_tokens\":3,\"total_tokens\":12}}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getUsageTokens()).isEqualTo(12);
+
+        parser = parser("data: {\"result\":\"a\"}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getUsageTokens()).isEqualTo(-1);
+    }
+
+    @Test
+    void completionTokensComeFromUsage() throws IOException {
+        SseEventParser parser = parser("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":4,\"total_tokens\":7}}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getCompletionTokens()).isEqualTo(4);
+
+        // 只有总数和提示词时取差
+        parser = parser("data: {\"usage\":{\"prompt_tokens\":3,\"total_tokens\":12}}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getCompletionTokens()).isEqualTo(9);
+
+        parser = parser("data: {\"usage\":{\"total_tokens\":12}}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getCompletionTokens()).isEqualTo(-1);
+        assertThat(parser.getUsageTokens()).isEqualTo(12);
+
+        parser = parser("data: {\"result\":\"a\"}\n\n", 3);
+        drain(parser);
+        assertThat(parser.getCompletionTokens()).isEqualTo(-1);
+    }
+
+    @Test
+    void countsBytesIncludingNewlines() throws IOException {
+        String stream = "data: {\"result\":\"中\"}\r\n\r\ndata: [DONE]";
+        SseEventParser parser = parser(stream, 2);
+        drain(parser);
+        assertThat(parser.getBytesRead()).isEqualTo(stream.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void lineAtLimitIsAccepted() throws IOException {
+        String data = "data: {\"result\":\"" + repeat('x', 40) + "\"}";
+        int limit = data.length();
+        SseEventParser parser = new SseEventParser(chunked(data + "\r\n\r\n", 3), limit);
+        assertThat(drain(parser)).containsExactly("CONTENT:" + repeat('x', 40));
+    }
+
+    @Test
+    void lineOverLimitFails() {
+        String data = "data: {\"result\":\"" + repeat('x', 40) + "\"}\n";
+        SseEventParser parser = new SseEventParser(chunked(data, 3), data.length() - 2);
+        assertThatThrownBy(() -> drain(parser)).isInstanceOf(SseEventParser.LimitExceededException.class);
+    }
+
+    @Test
+    void upstreamThatNeverSendsNewlineFailsWithoutUnboundedBuffering() {
+        Source endless = new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) {
+                for (int i = 0; i < 512; i++) {
+                    sink.writeByte('a');
+                }
+                return 512;
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        BufferedSource source = Okio.buffer(endless);
+        SseEventParser parser = new SseEventParser(source, 4096);
+        assertThatThrownBy(parser::next).isInstanceOf(SseEventParser.LimitExceededException.class);
+        assertThat(source.getBuffer().size()).isLessThan(16 * 1024);
+    }
+
+    @Test
+    void joinedEventOverLimitFails() {
+        StringBuilder stream = new StringBuilder("data: {\"result\":\"\n");
+        for (int i = 0; i < 20; i++) {
+            stream.append("data: ").append(repeat('x', 10)).append('\n');
+        }
+        SseEventParser parser = new SseEventParser(chunked(stream.toString(), 4), 100);
+        assertThatThrownBy(() -> drain(parser)).isInstanceOf(SseEventParser.LimitExceededException.class);
+    }
+
+    private static void assertAllChunkings(String stream, String... expected) throws IOException {
+        for (int chunkSize : CHUNK_SIZES) {
+            assertThat(drain(parser(stream, chunkSize)))
+                    .as("chunk size %d", chunkSize)
+                    .containsExactly(expected);
+        }
+    }
+
+    private static SseEventParser parser(String stream, int chunkSize) {
+        return new SseEventParser(chunked(stream, chunkSize));
+    }
+
+    private static List<String> drain(SseEventParser parser) throws IOException {
+        List<String> events = new ArrayList<>();
+        LlmStreamEvent event;
+        while ((event = parser.next()) != null) {
+            switch (event.getType()) {
+                case CONTENT:
+                case RAW:
+                    events.add(event.getType() + ":" + event.getContent());
+                    break;
+                case ERROR:
+                    events.add("ERROR:" + event.getErrorCode() + "/" + event.getErrorMessage());
+                    break;
+                default:
+                    events.add(event.getType().name());
+                    break;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 每次read最多返回chunkSize个字节的数据源，模拟任意位置的网络分包
+     */
+    private static BufferedSource chunked(String stream, int chunkSize) {
+        Buffer data = new Buffer().writeUtf8(stream);
+        return Okio.buffer(new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                if (data.size() == 0) {
+                    return -1;
+                }
+                long count = Math.min(Math.min(byteCount, chunkSize), data.size());
+                sink.write(data, count);
+                return count;
+            }
+
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package com.demo.llmstreaming.service.structured;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * IncrementalJsonParser：文档按任意位置切段输入（含转义、\\u和代理对被切开）时，回调与一次输入相同
+ */
+class IncrementalJsonParserTest {
+
+    @Test
+    void nestedContainersAreCompactedAndReportedInCompletionOrder() {
+        String doc = "{\n  \"title\": \"T x\",\n  \"items\": [ {\"a\": 1}, [2, [ ]], {} ],\n"
+                + "  \"n\": -1.5e3, \"ok\": true, \"x\": null\n}";
+        assertAllChunkings(doc,
+                "/title=\"T x\"",
+                "/items/0/a=1",
+                "/items/0={\"a\":1}",
+                "/items/1/0=2",
+                "/items/1/1=[]",
+                "/items/1=[2,[]]",
+                "/items/2={}",
+                "/items=[{\"a\":1},[2,[]],{}]",
+                "/n=-1.5e3",
+                "/ok=true",
+                "/x=null");
+    }
+
+    @Test
+    void rootArrayElementsAreIndexed() {
+        assertAllChunkings("[\"a\", 0, {\"b\": false}]",
+                "/0=\"a\"",
+                "/1=0",
+                "/2/b=false",
+                "/2={\"b\":false}");
+    }
+
+    @Test
+    void escapesAndSurrogatePairsSplitAcrossChunks() {
+        String doc = "{\"s\":\"a\\\"b\\\\c\\/\\u00e9\\ud83d\\ude00 😀\",\"\\ud83d\\ude00\":1,\"q\\\"\\n\":2}";
+        assertAllChunkings(doc,
+                "/s=\"a\\\"b\\\\c\\/\\u00e9\\ud83d\\ude00 😀\"",
+                "/😀=1",
+                "/q\"\n=2");
+    }
+
+    @Test
+    void pointerEscapesTildeAndSlash() {
+        assertAllChunkings("{\"a/b\":{\"~c\\u002f\":1}}",
+                "/a~1b/~0c~1=1",
+                "/a~1b={\"~c\\u002f\":1}");
+        assertThat(IncrementalJsonParser.escapePointer("plain")).isEqualTo("plain");
+        assertThat(IncrementalJsonParser.escapePointer("~/~1")).isEqualTo("~0~1~01");
+    }
+
+    @Test
+    void proseAndFenceAroundTheDocumentAreSkipped() {
+        String doc = "好的，结果如下：\n```json\n{\"a\": 1}\n```\n另一个 {\"b\": 2}";
+        for (int chunkSize = 1; chunkSize <= doc.length(); chunkSize++) {
+            Recorder recorder = new Recorder();
+            IncrementalJsonParser parser = new IncrementalJsonParser(recorder);
+            feed(parser, doc, chunkSize);
+            assertThat(recorder.fields).as("chunk size %d", chunkSize).containsExactly("/a=1");
+            assertThat(parser.isDone()).isTrue();
+            assertThat(parser.getFieldCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void invalidContentBeforeAnyFieldRestartsTheSeek() {
+        assertAllChunkings("见 {说明} 和 [x] 以及 {\"a\":tru} {\"a\":01} {\"a\":\"x\ny\"} {\"a\":\"\\u12g4\"} {\"b\":{\"c\":2}}",
+                "/b/c=2",
+                "/b={\"c\":2}");
+    }
+
+    @Test
+    void invalidContentAfterAFieldStopsParsing() {
+        assertFailsAfter("{\"a\":1,\"b\":x,\"c\":2}", "/a=1");
+        assertFailsAfter("{\"a\":1,\"b\":\"x\ty\"}", "/a=1");
+        assertFailsAfter("{\"a\":[1 2]}", "/a/0=1");
+        assertFailsAfter("{\"a\":\"v\",\"b\":1.}", "/a=\"v\"");
+        assertFailsAfter("{\"a\":\"v\" \"b\":1}", "/a=\"v\"");
+    }
+
+    @Test
+    void contentAfterTheRootIsIgnored() {
+        Recorder recorder = new Recorder();
+        IncrementalJsonParser parser = new IncrementalJsonParser(recorder);
+        parser.feed("{\"a\":1}");
+        assertThat(parser.isDone()).isTrue();
+        parser.feed("{\"b\":2}");
+        assertThat(recorder.fields).containsExactly("/a=1");
+    }
+
+    @Test
+    void numberGrammar() {
+        for (String valid : new String[]{"0", "-0", "12", "-1.25", "1e9", "1E+2", "0.5e-3"}) {
+            assertThat(IncrementalJsonParser.isNumber(valid)).as(valid).isTrue();
+        }
+        for (String invalid : new String[]{"", "-", "01", "1.", ".5", "1e", "1e+", "+1", "1-2", "0x1"}) {
+            assertThat(IncrementalJsonParser.isNumber(invalid)).as(invalid).isFalse();
+        }
+    }
+
+    private static void assertAllChunkings(String doc, String... expected) {
+        for (int chunkSize = 1; chunkSize <= doc.length(); chunkSize++) {
+            Recorder recorder = new Recorder();
+            IncrementalJsonParser parser = new IncrementalJsonParser(recorder);
+            feed(parser, doc, chunkSize);
+            assertThat(recorder.fields).as("chunk size %d", chunkSize).containsExactly(expected);
+            assertThat(parser.isFailed()).as("chunk size %d", chunkSize).isFalse();
+            assertThat(parser.isDone()).as("chunk size %d", chunkSize).isTrue();
+        }
+    }
+
+    private static void assertFailsAfter(String doc, String... expected) {
+        for (int chunkSize = 1; chunkSize <= doc.length(); chunkSize++) {
+            Recorder recorder = new Recorder();
+            IncrementalJsonParser parser = new IncrementalJsonParser(recorder);
+            feed(parser, doc, chunkSize);
+            assertThat(recorder.fields).as("%s, chunk size %d", doc, chunkSize).containsExactly(expected);
+            assertThat(parser.isFailed()).as("%s, chunk size %d", doc, chunkSize).isTrue();
+            assertThat(parser.isDone()).isFalse();
+        }
+    }
+
+    private static void feed(IncrementalJsonParser parser, String doc, int chunkSize) {
+        for (int i = 0; i < doc.length(); i += chunkSize) {
+            parser.feed(doc.substring(i, Math.min(doc.length(), i + chunkSize)));
+        }
+    }
+
+    private static final class Recorder implements IncrementalJsonParser.FieldListener {
+
+        final List<String> fields = new ArrayList<>();
+
+        @Override
+        public void onField(String pointer, String value) {
+            fields.add(pointer + "=" + value);
+        }
+    }
+}
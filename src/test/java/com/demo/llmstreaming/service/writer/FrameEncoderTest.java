@@ -0,0 +1,99 @@
+package com.demo.llmstreaming.service.writer;
+
+import com.demo.llmstreaming.vo.StreamResponseVO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * FrameEncoder：NDJSON帧与ObjectMapper序列化同一个StreamResponseVO的结果逐字节一致
+ */
+class FrameEncoderTest {
+
+    private static final Pattern TIMESTAMP = Pattern.compile("\"timestamp\":\"([^\"]+)\"");
+
+    private static final String[] CONTENTS = {
+        "",
+        "plain ascii",
+        "引号\"反斜杠\\斜杠/",
+        "换行\n回车\r制表\t退格\b换页\f",
+        "控制字符\u0000\u0001\u001f\u007f",
+        "中文内容，标点。",
+        "emoji👍👨‍👩‍👧组合",
+        "  ﻿",
+        "孤立代理\uD83D结尾",
+        "\uDC4D开头的低位代理"
+    };
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    void dataFramesMatchObjectMapper() throws Exception {
+        FrameEncoder encoder = new FrameEncoder("id-\"1\"");
+        int sequence = 0;
+        for (String content : CONTENTS) {
+            int seq = sequence++;
+            String frame = encode(out -> encoder.encodeData(out, content, false, seq));
+            StreamResponseVO vo = StreamResponseVO.createData("id-\"1\"", "LLM_RESPONSE", content, seq);
+            assertThat(frame).as(content).isEqualTo(serialize(vo, frame));
+        }
+    }
+
+    @Test
+    void finishedFrameWithoutSequenceMatchesObjectMapper() throws Exception {
+        FrameEncoder encoder = new FrameEncoder("d1", "STRUCTURED");
+        String frame = encode(out -> encoder.encodeData(out, "最后一段", true, null));
+        StreamResponseVO vo = new StreamResponseVO("d1", "STRUCTURED", "最后一段");
+        vo.setFinished(true);
+        assertThat(frame).isEqualTo(serialize(vo, frame));
+    }
+
+    @Test
+    void endAndErrorFramesMatchObjectMapper() throws Exception {
+        FrameEncoder encoder = new FrameEncoder("d1");
+        String end = encode(out -> encoder.encodeEnd(out, 7));
+        StreamResponseVO endVo = StreamResponseVO.createEnd("d1");
+        endVo.setSequence(7);
+        assertThat(end).isEqualTo(serialize(endVo, end));
+
+        String error = encode(out -> encoder.encodeError(out, "上游错误: \"timeout\"\n", null));
+        assertThat(error).isEqualTo(serialize(StreamResponseVO.createError("d1", "上游错误: \"timeout\"\n"), error));
+    }
+
+    @Test
+    void fieldFrameCarriesPathAndValueAsJsonContent() throws Exception {
+        FrameEncoder encoder = new FrameEncoder("d1");
+        String frame = encode(out -> encoder.encodeField(out, "/items/0", "{\"名称\":\"a\\\"b\"}", 3));
+        StreamResponseVO vo = StreamResponseVO.createData("d1", FrameEncoder.JSON_FIELD,
+            "{\"path\":\"/items/0\",\"value\":{\"名称\":\"a\\\"b\"}}", 3);
+        assertThat(frame).isEqualTo(serialize(vo, frame));
+        assertThat(objectMapper.readTree(objectMapper.readTree(frame).get("content").asText()).get("value").get("名称").asText())
+            .isEqualTo("a\"b");
+    }
+
+    private static String encode(Consumer<FrameBuffer> encode) {
+        FrameBuffer out = new FrameBuffer(16);
+        encode.accept(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 用帧中的时间戳序列化VO，得到原先逐帧写出的内容：writeValueAsString后按UTF-8发送，
+     * 辅助平面字符原样输出（writeValueAsBytes会把代理对转义输出，不是原来的线上格式）
+     */
+    private String serialize(StreamResponseVO vo, String frame) throws Exception {
+        Matcher matcher = TIMESTAMP.matcher(frame);
+        assertThat(matcher.find()).isTrue();
+        vo.setTimestamp(LocalDateTime.parse(matcher.group(1)));
+        byte[] sent = (objectMapper.writeValueAsString(vo) + "\n").getBytes(StandardCharsets.UTF_8);
+        return new String(sent, StandardCharsets.UTF_8);
+    }
+}
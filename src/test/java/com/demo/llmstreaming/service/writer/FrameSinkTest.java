@@ -0,0 +1,128 @@
+package com.demo.llmstreaming.service.writer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * FrameSink：flush合并，定时flush阻塞在慢客户端上时不占住共享的调度线程，以及按帧格式和端点计数
+ */
+class FrameSinkTest {
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    private ExecutorService writeExecutor;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.initialize();
+        writeExecutor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+        writeExecutor.shutdownNow();
+    }
+
+    @Test
+    void framesInsideTheWindowAreCoalescedIntoOneWrite() throws Exception {
+        RecordingOutput output = new RecordingOutput();
+        FrameSink sink = sink(output, 50);
+        FrameEncoder encoder = new FrameEncoder("d1");
+
+        sink.writeData(encoder, "a", false, 0);
+        sink.writeData(encoder, "b", false, 1);
+        assertThat(output.writes).isZero();
+        assertThat(output.flushed.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(output.writes).isEqualTo(1);
+
+        // 结束帧立即写出
+        sink.writeEnd(encoder, 2);
+        assertThat(output.writes).isEqualTo(2);
+        assertThat(output.text()).contains("\"content\":\"a\"", "\"content\":\"b\"", "\"dataType\":\"END\"");
+    }
+
+    @Test
+    void blockedScheduledFlushDoesNotDelayOtherSinks() throws Exception {
+        CountDownLatch blockedEntered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FrameSink blocked = sink(bytes -> {
+            blockedEntered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }, 5);
+        RecordingOutput fastOutput = new RecordingOutput();
+        FrameSink fast = sink(fastOutput, 5);
+
+        blocked.writeData(new FrameEncoder("slow"), "x", false, 0);
+        assertThat(blockedEntered.await(2, TimeUnit.SECONDS)).isTrue();
+
+        // 唯一的调度线程不能被卡住的写出占用
+        fast.writeData(new FrameEncoder("fast"), "y", false, 0);
+        assertThat(fastOutput.flushed.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(fastOutput.text()).contains("\"content\":\"y\"");
+        release.countDown();
+    }
+
+    @Test
+    void framesAreCountedByFormatAndEndpoint() throws Exception {
+        FrameWriterStats stats = new FrameWriterStats();
+        RecordingOutput output = new RecordingOutput();
+        FrameSink sink = new FrameSink(output, scheduler, writeExecutor, stats, 0, 4096);
+        FrameEncoder encoder = FrameEncoder.create("d1", WireFormat.DELTA);
+
+        sink.writeHeader(encoder);
+        sink.setEndpoint("primary");
+        sink.writeData(encoder, "a", false, 0);
+        sink.writeEnd(encoder, 1);
+
+        FrameMeters meters = stats.meters(WireFormat.DELTA, "primary");
+        assertThat(meters.getFrames()).isEqualTo(stats.getFrames()).isEqualTo(2);
+        assertThat(meters.getBytes()).isEqualTo(stats.getBytes()).isEqualTo(output.bytes.size());
+        assertThat(meters.getFlushes()).isEqualTo(stats.getFlushes());
+        assertThat(stats.meters(WireFormat.NDJSON, FrameMeters.NO_ENDPOINT).getFrames()).isZero();
+        assertThat(stats.meters(WireFormat.DELTA, FrameMeters.NO_ENDPOINT).getFrames()).isZero();
+    }
+
+    private FrameSink sink(FrameSink.Output output, long flushWindowMs) {
+        return new FrameSink(output, scheduler, writeExecutor, new FrameWriterStats(), flushWindowMs, 4096);
+    }
+
+    private static final class RecordingOutput implements FrameSink.Output {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        final CountDownLatch flushed = new CountDownLatch(1);
+
+        volatile int writes;
+
+        @Override
+        public synchronized void write(byte[] data) throws IOException {
+            bytes.write(data);
+            writes++;
+            flushed.countDown();
+        }
+
+        synchronized String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.demo.llmstreaming.service.writer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * 紧凑帧格式与压缩：增量JSON和CBOR帧能解码回原字段，SYNC_FLUSH后每次写出都能立即解压，结尾的校验可通过
+ */
+class WireFormatTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void deltaFramesDecodeToTheDocumentedFields() throws Exception {
+        FrameEncoder encoder = FrameEncoder.create("d\"1", WireFormat.DELTA);
+        assertThat(encoder.getFormat()).isEqualTo(WireFormat.DELTA);
+        List<JsonNode> frames = new ArrayList<>();
+        for (String line : lines(encodeAll(encoder))) {
+            frames.add(objectMapper.readTree(line));
+        }
+
+        assertThat(frames).hasSize(7);
+        JsonNode header = frames.get(0);
+        assertThat(header.get("dataId").asText()).isEqualTo("d\"1");
+        assertThat(header.get("dataType").asText()).isEqualTo("LLM_RESPONSE");
+        assertThat(header.get("format").asText()).isEqualTo("delta");
+        assertThat(header.get("timestamp").asText()).isNotEmpty();
+        assertThat(frames.get(1).toString()).isEqualTo("{\"s\":0,\"c\":\"你好\\n\\\"引号\\\"👍\"}");
+        assertThat(frames.get(2).toString()).isEqualTo("{\"s\":300,\"c\":\"末段\",\"f\":true}");
+        assertThat(frames.get(3).toString()).isEqualTo("{\"c\":\"无序号\"}");
+        assertThat(frames.get(4).toString()).isEqualTo("{\"s\":70000,\"t\":\"JSON_FIELD\",\"p\":\"/items/0\",\"v\":{\"名称\":[1,true]}}");
+        assertThat(frames.get(5).toString()).isEqualTo("{\"s\":70001,\"t\":\"ERROR\",\"e\":\"上游错误\"}");
+        assertThat(frames.get(6).toString()).isEqualTo("{\"s\":70002,\"t\":\"END\"}");
+    }
+
+    @Test
+    void cborFramesDecodeToTheSameFieldsAsDelta() {
+        FrameEncoder encoder = FrameEncoder.create("d\"1", WireFormat.CBOR);
+        assertThat(encoder.getFormat()).isEqualTo(WireFormat.CBOR);
+        List<Object> frames = new CborReader(encodeAll(encoder)).readAll();
+
+        assertThat(frames).hasSize(7);
+        assertThat(map(frames.get(0))).containsEntry("dataId", "d\"1").containsEntry("dataType", "LLM_RESPONSE")
+            .containsEntry("format", "cbor").containsKey("timestamp");
+        assertThat(map(frames.get(1))).containsExactly(entry("s", 0L), entry("c", "你好\n\"引号\"👍"));
+        assertThat(map(frames.get(2))).containsExactly(entry("s", 300L), entry("c", "末段"), entry("f", true));
+        assertThat(map(frames.get(3))).containsExactly(entry("c", "无序号"));
+        assertThat(map(frames.get(4))).containsExactly(entry("s", 70000L), entry("t", "JSON_FIELD"),
+            entry("p", "/items/0"), entry("v", "{\"名称\":[1,true]}"));
+        assertThat(map(frames.get(5))).containsExactly(entry("s", 70001L), entry("t", "ERROR"), entry("e", "上游错误"));
+        assertThat(map(frames.get(6))).containsExactly(entry("s", 70002L), entry("t", "END"));
+    }
+
+    @Test
+    void gzipOutputIsDecodableAfterEveryWriteAndEndsWithAValidTrailer() throws Exception {
+        roundTrip(ContentCoding.GZIP);
+    }
+
+    @Test
+    void deflateOutputIsDecodableAfterEveryWriteAndEndsWithAValidTrailer() throws Exception {
+        roundTrip(ContentCoding.DEFLATE);
+    }
+
+    @Test
+    void negotiationPrefersExplicitFormatThenAcceptQuality() {
+        assertThat(WireFormat.negotiate("cbor", "application/json")).isEqualTo(WireFormat.CBOR);
+        assertThat(WireFormat.negotiate(null, "application/json;q=0.5, application/vnd.llm-stream.delta+json"))
+            .isEqualTo(WireFormat.DELTA);
+        assertThat(WireFormat.negotiate(null, "*/*")).isEqualTo(WireFormat.NDJSON);
+        assertThat(WireFormat.negotiate("unknown", "not a media type")).isEqualTo(WireFormat.NDJSON);
+
+        assertThat(ContentCoding.negotiate("deflate, gzip")).isEqualTo(ContentCoding.GZIP);
+        assertThat(ContentCoding.negotiate("gzip;q=0.5, deflate")).isEqualTo(ContentCoding.DEFLATE);
+        assertThat(ContentCoding.negotiate("gzip;q=0, br")).isEqualTo(ContentCoding.IDENTITY);
+        assertThat(ContentCoding.negotiate(null)).isEqualTo(ContentCoding.IDENTITY);
+    }
+
+    /**
+     * 逐帧写入压缩输出：每次写出后已收到的压缩字节必须能解压出到目前为止的全部帧，结束后按标准格式整体解压校验
+     */
+    private static void roundTrip(ContentCoding coding) throws IOException, DataFormatException {
+        boolean gzip = coding == ContentCoding.GZIP;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        FrameWriterStats stats = new FrameWriterStats();
+        CompressedOutput output = new CompressedOutput(compressed::write, coding, 6, stats);
+        Inflater inflater = new Inflater(gzip);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+        FrameEncoder encoder = new FrameEncoder("d1");
+        int consumed = gzip ? 10 : 0;
+        for (int i = 0; i < 200; i++) {
+            FrameBuffer frame = new FrameBuffer(128);
+            encoder.encodeData(frame, "第" + i + "段", false, i);
+            byte[] bytes = frame.toByteArray();
+            raw.write(bytes);
+            output.write(bytes);
+
+            byte[] received = compressed.toByteArray();
+            inflater.setInput(received, consumed, received.length - consumed);
+            consumed = received.length;
+            byte[] chunk = new byte[1024];
+            int n;
+            while ((n = inflater.inflate(chunk)) > 0) {
+                inflated.write(chunk, 0, n);
+            }
+            assertThat(inflated.toByteArray()).as("第%d帧写出后", i).isEqualTo(raw.toByteArray());
+        }
+        inflater.end();
+        output.close();
+
+        byte[] all = compressed.toByteArray();
+        InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(all))
+            : new InflaterInputStream(new ByteArrayInputStream(all));
+        assertThat(readAll(in)).isEqualTo(raw.toByteArray());
+        if (gzip) {
+            // 结尾为CRC32和原始长度（小端）
+            int size = (all[all.length - 4] & 0xFF) | (all[all.length - 3] & 0xFF) << 8
+                | (all[all.length - 2] & 0xFF) << 16 | (all[all.length - 1] & 0xFF) << 24;
+            assertThat(size).isEqualTo(raw.size());
+        }
+        // 后续帧引用前文，压缩后明显变小
+        assertThat(all.length).isLessThan(raw.size() / 3);
+    }
+
+    private static byte[] encodeAll(FrameEncoder encoder) {
+        FrameBuffer out = new FrameBuffer(64);
+        encoder.encodeHeader(out);
+        encoder.encodeData(out, "你好\n\"引号\"👍", false, 0);
+        encoder.encodeData(out, "末段", true, 300);
+        encoder.encodeData(out, "无序号", false, null);
+        encoder.encodeField(out, "/items/0", "{\"名称\":[1,true]}", 70000);
+        encoder.encodeError(out, "上游错误", 70001);
+        encoder.encodeEnd(out, 70002);
+        return out.toByteArray();
+    }
+
+    private static String[] lines(byte[] bytes) {
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        assertThat(text).endsWith("\n");
+        return text.split("\n");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object frame) {
+        return (Map<String, Object>) frame;
+    }
+
+    /**
+     * 只支持编码器用到的CBOR类型：无符号整数、文本、map和true
+     */
+    private static final class CborReader {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        CborReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        List<Object> readAll() {
+            List<Object> items = new ArrayList<>();
+            while (position < bytes.length) {
+                items.add(read());
+            }
+            return items;
+        }
+
+        private Object read() {
+            int initial = bytes[position++] & 0xFF;
+            int major = initial >> 5;
+            if (initial == 0xF5) {
+                return true;
+            }
+            long value = length(initial & 0x1F);
+            switch (major) {
+                case 0:
+                    return value;
+                case 3:
+                    String text = new String(bytes, position, (int) value, StandardCharsets.UTF_8);
+                    position += (int) value;
+                    return text;
+                case 5:
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    for (long i = 0; i < value; i++) {
+                        map.put((String) read(), read());
+                    }
+                    return map;
+                default:
+                    throw new IllegalStateException("不支持的CBOR类型: " + initial);
+            }
+        }
+
+        private long length(int info) {
+            if (info < 24) {
+                return info;
+            }
+            int size = info == 24 ? 1 : info == 25 ? 2 : info == 26 ? 4 : 8;
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = value << 8 | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+    }
+}